@@ -0,0 +1,175 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+// Codifica e decodifica dei pacchetti con DataOutputStream/DataInputStream, come fanno Client, Discovery Server e
+// Row Swap Server: ricerca di un file (writeUTF del nome e risposta "IP:porta"), registrazione di un Row Swap Server
+// ("server/resources/nome:porta:lease") e richiesta di scambio [byte REQ_SWAP_FILE][UTF nome][int][int].
+// La richiesta di scambio è misurata anche con un ByteBuffer, per confronto con il costo degli stream, e nel formato
+// binario (Frame.OP_SWAP con indici a 64 bit), codificata in un buffer riutilizzato e decodificata senza copie
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	private final static byte REQ_SWAP_FILE = 2;
+
+	private final static String FILE_NAME = "dati/f1.txt";
+	private final static String ENDPOINT = "192.168.1.20:53421";
+	private final static String REGISTRATION = DSRegistry.RESOURCES_DIR + FILE_NAME + ":53421:30";
+
+
+	private byte[] endpointPacket;
+	private byte[] registrationPacket;
+	private byte[] swapPacket;
+	private byte[] swapFrame;
+
+	private final ByteBuffer swapBuffer = ByteBuffer.allocate(DiscoveryServer.MAX_PAYLOAD);
+	private final ByteBuffer frameBuffer = ByteBuffer.allocate(DiscoveryServer.MAX_PAYLOAD);
+	private final byte[] fileNameBytes = FILE_NAME.getBytes(StandardCharsets.UTF_8);
+
+	private int index = 0;
+
+
+	@Setup
+	public void setup() throws IOException {
+		endpointPacket = NameKey.utf(ENDPOINT);
+		registrationPacket = NameKey.utf(REGISTRATION);
+		swapPacket = encodeSwap();
+
+		ByteBuffer frame = encodeSwapFrame();
+		swapFrame = Arrays.copyOf(frame.array(), frame.limit());
+	}
+
+
+	@Benchmark
+	public byte[] encodeLookup() throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		dout.writeUTF(FILE_NAME);
+		dout.flush();
+
+		return bout.toByteArray();
+	}
+
+	// risposta del Discovery Server decodificata come fa il Client
+	@Benchmark
+	public void decodeEndpoint(Blackhole bh) throws IOException {
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(endpointPacket));
+
+		String[] endpoint = din.readUTF().split(":");
+		bh.consume(endpoint[0]);
+		bh.consume(Integer.parseInt(endpoint[1]));
+	}
+
+	@Benchmark
+	public byte[] encodeRegistration() throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		dout.writeUTF(REGISTRATION);
+		dout.flush();
+
+		return bout.toByteArray();
+	}
+
+	// registrazione decodificata come fa il Discovery Server prima di inserirla nel registro
+	@Benchmark
+	public void decodeRegistration(Blackhole bh) throws IOException {
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(registrationPacket));
+
+		String[] info = din.readUTF().split(":");
+		bh.consume(info[0]);
+		bh.consume(Integer.parseInt(info[1]));
+		bh.consume(Long.parseLong(info[2]));
+	}
+
+	@Benchmark
+	public byte[] encodeSwap() throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		dout.writeByte(REQ_SWAP_FILE);
+		dout.writeUTF(FILE_NAME);
+		dout.writeInt(++index);
+		dout.writeInt(index + 1);
+		dout.flush();
+
+		return bout.toByteArray();
+	}
+
+	@Benchmark
+	public void decodeSwap(Blackhole bh) throws IOException {
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(swapPacket));
+
+		bh.consume(din.readByte());
+		bh.consume(din.readUTF());
+		bh.consume(din.readInt());
+		bh.consume(din.readInt());
+	}
+
+	// stessa richiesta in un buffer riutilizzato (il nome è ASCII, quindi i suoi byte UTF-8 coincidono con writeUTF)
+	@Benchmark
+	public ByteBuffer encodeSwapBuffer() {
+		swapBuffer.clear();
+		swapBuffer.put(REQ_SWAP_FILE).putShort((short) fileNameBytes.length).put(fileNameBytes).putInt(++index).putInt(index + 1);
+		return swapBuffer.flip();
+	}
+
+	@Benchmark
+	public void decodeSwapBuffer(Blackhole bh) {
+		ByteBuffer buf = ByteBuffer.wrap(swapPacket);
+
+		bh.consume(buf.get());
+		int length = buf.getShort() & 0xFFFF;
+		bh.consume(new String(swapPacket, buf.position(), length, StandardCharsets.UTF_8));
+		buf.position(buf.position() + length);
+		bh.consume(buf.getInt());
+		bh.consume(buf.getInt());
+	}
+
+	@Benchmark
+	public ByteBuffer encodeSwapFrame() {
+		frameBuffer.clear();
+		Frame.putName(Frame.putHeader(frameBuffer, Frame.OP_SWAP, ++index, 0, 1), FILE_NAME).putLong(index).putLong(index + 1);
+		return frameBuffer.flip();
+	}
+
+	// come la decodifica del Row Swap Server: header con letture assolute, nome e indici dal corpo
+	@Benchmark
+	public void decodeSwapFrame(Blackhole bh) {
+		ByteBuffer buf = ByteBuffer.wrap(swapFrame);
+
+		bh.consume(Frame.is(buf));
+		bh.consume(Frame.op(buf));
+		bh.consume(Frame.id(buf));
+		bh.consume(Frame.getName(Frame.body(buf)));
+		bh.consume(buf.getLong());
+		bh.consume(buf.getLong());
+	}
+}
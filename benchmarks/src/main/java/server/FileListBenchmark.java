@@ -0,0 +1,72 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Lista file inviata ai Client (DSFileList): costruzione completa con la divisione in frammenti da MAX_PAYLOAD byte,
+// aggiunta incrementale di un file, istantanea già pronta e ricostruzione dopo una modifica del registro
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileListBenchmark {
+
+	@Param({ "16", "256", "4096" })
+	public int files;
+
+	private DSRegistry registry;
+	private ArrayList<DSRegistry.Entry> entries;
+	private DSFileList list;
+
+	private long version = 0;
+
+
+	@Setup
+	public void setup() {
+		registry = new DSRegistry(files + 1);
+		for(int i=0; i<files; i++)
+			registry.register("10.0." + (i >> 8) + "." + (i & 255), 7000, DSRegistry.RESOURCES_DIR + "dati/file" + i + ".txt", 0);
+
+		entries = new ArrayList<>(registry.entries());
+		list = registry.fileList();
+	}
+
+
+	@Benchmark
+	public DSFileList build() {
+		return DSFileList.build(++version, entries);
+	}
+
+	@Benchmark
+	public DSFileList append() {
+		return list.append(++version, DSRegistry.RESOURCES_DIR + "dati/nuovo.txt");
+	}
+
+	@Benchmark
+	public DSFileList cached() {
+		return registry.fileList();
+	}
+
+	// una registrazione e una de-registrazione, poi la lista richiesta dal Client successivo
+	@Benchmark
+	public DSFileList rebuildAfterChange() {
+		registry.register("10.255.255.255", 7000, DSRegistry.RESOURCES_DIR + "nuovo.txt", 0);
+		registry.unregister("10.255.255.255", 7000);
+		return registry.fileList();
+	}
+}
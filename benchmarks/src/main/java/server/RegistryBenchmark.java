@@ -0,0 +1,93 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Registro del Discovery Server (DSRegistry) con `files` file registrati, ognuno da un endpoint diverso:
+// ricerca per nome (Client bloccante), ricerca sui byte del pacchetto (motore NIO), ricerca di un file non registrato
+// e registrazione seguita dalla de-registrazione di un Row Swap Server
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+	// nomi cercati, in ordine casuale e ripetuti ciclicamente
+	private final static int LOOKUPS = 4096;
+
+
+	@Param({ "256", "4096", "65536" })
+	public int files;
+
+	private DSRegistry registry;
+
+	private String[] names;
+	private String[] missing;
+	// writeUTF del nome come arriva dal Client, cercato con una sonda come fa il motore NIO
+	private ByteBuffer[] packets;
+	private final NameKey probe = new NameKey();
+
+	private int next = 0;
+
+
+	@Setup
+	public void setup() {
+		registry = new DSRegistry(files + 1);
+		for(int i=0; i<files; i++)
+			registry.register(address(i), 7000, DSRegistry.RESOURCES_DIR + "file" + i + ".txt", 0);
+
+		Random random = new Random(1);
+		names = new String[LOOKUPS];
+		missing = new String[LOOKUPS];
+		packets = new ByteBuffer[LOOKUPS];
+		for(int i=0; i<LOOKUPS; i++) {
+			names[i] = "file" + random.nextInt(files) + ".txt";
+			missing[i] = "assente" + random.nextInt(files) + ".txt";
+			packets[i] = ByteBuffer.wrap(NameKey.utf(names[i]));
+		}
+	}
+
+	// un endpoint per file: 10.x.y.z
+	private static String address(int i) {
+		return "10." + ((i >> 16) & 255) + "." + ((i >> 8) & 255) + "." + (i & 255);
+	}
+
+
+	@Benchmark
+	public DSRegistry.Entry lookup() {
+		return registry.lookup(names[next++ & (LOOKUPS - 1)]);
+	}
+
+	@Benchmark
+	public DSRegistry.Entry lookupPacket() {
+		ByteBuffer packet = packets[next++ & (LOOKUPS - 1)];
+		return registry.lookup(probe.wrap(DSRegistry.RESOURCES_PREFIX, packet, 2, packet.limit() - 2));
+	}
+
+	@Benchmark
+	public DSRegistry.Entry lookupMissing() {
+		return registry.lookup(missing[next++ & (LOOKUPS - 1)]);
+	}
+
+	@Benchmark
+	public Object registerUnregister() {
+		registry.register("10.255.255.255", 7000, DSRegistry.RESOURCES_DIR + "nuovo.txt", 0);
+		return registry.unregister("10.255.255.255", 7000);
+	}
+}
@@ -0,0 +1,121 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Scambio di due righe con i motori su disco del Row Swap Server (LineIndex, "index" e "mmap") su file da 1 KB a 1 GB
+// con righe di lunghezza variabile, creati in una cartella temporanea e cancellati al termine.
+// "near": righe a distanza al più NEAR_LINES, "far": righe qualsiasi del file (il motore "index" sposta tutta la
+// regione tra le due righe se hanno lunghezza diversa, "mmap" in quel caso ricompone il file)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SwapBenchmark {
+
+	private final static int PAIRS = 1024;
+	private final static int NEAR_LINES = 64;
+
+
+	@Param({ "1KB", "1MB", "64MB", "1GB" })
+	public String size;
+
+	@Param({ "index", "mmap" })
+	public String engine;
+
+	@Param({ "near", "far" })
+	public String distance;
+
+	private Path dir;
+	private LineIndex store;
+
+	private final long[] first = new long[PAIRS];
+	private final long[] second = new long[PAIRS];
+	private int next = 0;
+
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("sns-swap");
+		Path file = dir.resolve("righe.txt");
+		write(file, bytes(size));
+
+		store = new LineIndex(file, engine.equals("mmap"));
+
+		long lines = store.lines();
+		Random random = new Random(1);
+		for(int i=0; i<PAIRS; i++) {
+			long a = 1 + (long) (random.nextDouble() * (lines - 1));
+			long b = distance.equals("near") ? Math.min(lines, a + 1 + random.nextInt(NEAR_LINES)) : 1 + (long) (random.nextDouble() * lines);
+			if(b == a) b = (a < lines) ? a + 1 : a - 1;
+
+			first[i] = Math.min(a, b);
+			second[i] = Math.max(a, b);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try(Stream<Path> files = Files.walk(dir)) {
+			for(Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(path);
+		}
+	}
+
+
+	@Benchmark
+	public void swap() throws IOException {
+		int i = next++ & (PAIRS - 1);
+		store.swap(first[i], second[i]);
+	}
+
+
+	// "1KB", "1MB", "1GB"
+	private static long bytes(String size) {
+		long unit = size.endsWith("GB") ? 1L << 30 : size.endsWith("MB") ? 1L << 20 : size.endsWith("KB") ? 1L << 10 : 1;
+		return Long.parseLong(size.replaceAll("[^0-9]", "")) * unit;
+	}
+
+	// righe "riga-<numero>-xxx..." da 8 a 120 byte circa, fino a size byte
+	private static void write(Path file, long size) throws IOException {
+		Random random = new Random(7);
+		byte[] padding = "x".repeat(128).getBytes(StandardCharsets.US_ASCII);
+
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+			long written = 0;
+			for(long line=1; written<size; line++) {
+				byte[] head = ("riga-" + line + "-").getBytes(StandardCharsets.US_ASCII);
+				int pad = random.nextInt(100);
+
+				out.write(head);
+				out.write(padding, 0, pad);
+				out.write('\n');
+				written += head.length + pad + 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,428 @@
+package client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import server.Frame;
+
+
+// Client da usare all'interno di altri programmi, a differenza di Client che è interattivo e serve una sola richiesta:
+// le operazioni restituiscono un CompletableFuture e non bloccano il chiamante.
+// Gli endpoint risolti restano in una EndpointCache, quindi uno scambio su un file già risolto va direttamente al
+// Row Swap Server senza passare dal Discovery Server. Le risoluzioni richieste mentre il Discovery Server sta già
+// rispondendo vengono raccolte in una sola REQ_BATCH_LOOKUP.
+// Ogni richiesta senza risposta entro RETRY_MILLIS viene ripetuta, al più MAX_RETRIES volte. Gli scambi portano un
+// identificativo (REQ_TAGGED, oppure nell'header Frame), così il Row Swap Server non esegue i duplicati.
+// Il formato dei datagrammi è quello di Client (-Dsns.protocol).
+// Thread: AC_RS riceve le risposte dei Row Swap Server, AC_TIMER ripete le richieste, AC_DS interroga il Discovery Server.
+public final class AsyncClient implements AutoCloseable {
+
+	// richieste al Discovery Server (vedi DiscoveryServer)
+	private final static int REQ_LIST_PAGE = 2;
+	// elementi per pagina della lista file, il massimo accettato dal Discovery Server
+	private final static int PAGE_SIZE = 256;
+
+	// richieste al Row Swap Server (vedi RowSwapServer)
+	private final static int REQ_SWAP_FILE = 2;
+	private final static int REQ_SWAP_LONG = 8;
+	private final static int REQ_TAGGED = 9;
+
+	private final static int RETRY_MILLIS = 500;
+	private final static int MAX_RETRIES = 6;
+	private final static int MAX_REPLY_LENGTH = 2048;
+
+	public final static int DEFAULT_CACHE_ENTRIES = 1024;
+	public final static long DEFAULT_CACHE_TTL_MILLIS = 30000;
+
+	private final static byte RESPONSE_OK = 0;
+	private final static byte RESPONSE_ERR = 1;
+	private final static byte RESPONSE_SERVER_OFFLINE = 5;
+
+
+	// richiesta a un Row Swap Server in attesa di risposta
+	private static final class Exchange {
+		final byte[] packet;
+		final InetSocketAddress endpoint;
+		// flag della risposta
+		final CompletableFuture<Byte> reply = new CompletableFuture<>();
+
+		// invii effettuati, usato dal chiamante per il primo invio e poi solo da AC_TIMER
+		int attempts = 0;
+		volatile ScheduledFuture<?> retry = null;
+
+		Exchange(byte[] packet, InetSocketAddress endpoint) {
+			this.packet = packet;
+			this.endpoint = endpoint;
+		}
+	}
+
+	// richiesta al Discovery Server eseguita su una socket creata per ogni tentativo
+	private interface DiscoveryCall<T> {
+		T call(DatagramSocket socket) throws IOException;
+	}
+
+
+	private final InetAddress dsAddr;
+	private final int dsPort;
+
+	private final EndpointCache cache;
+
+	// una sola socket per tutti i Row Swap Server: le risposte vengono associate alle richieste tramite l'identificativo
+	private final DatagramSocket rsSocket;
+	private final ConcurrentHashMap<Long, Exchange> exchanges = new ConcurrentHashMap<>();
+	private final AtomicLong requestId = new AtomicLong(System.nanoTime());
+
+	// le risposte del Discovery Server non hanno identificativo: le richieste vengono inviate una alla volta da AC_DS
+	private final ExecutorService discovery;
+	private final ScheduledExecutorService timer;
+
+	// risoluzioni in corso (una sola per nome, condivisa dai chiamanti) e nomi non ancora inviati al Discovery Server
+	private final ConcurrentHashMap<String, CompletableFuture<InetSocketAddress>> resolving = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<String> lookups = new ConcurrentLinkedQueue<>();
+
+	private volatile boolean closed = false;
+
+
+	public AsyncClient(InetAddress dsAddr, int dsPort) throws SocketException {
+		this(dsAddr, dsPort, DEFAULT_CACHE_ENTRIES, DEFAULT_CACHE_TTL_MILLIS);
+	}
+
+	// cacheEntries = 0 -> nessuna cache, ogni operazione risolve il file tramite il Discovery Server
+	public AsyncClient(InetAddress dsAddr, int dsPort, int cacheEntries, long cacheTtlMillis) throws SocketException {
+		if(dsPort > 65535 || dsPort < 0 || cacheEntries < 0 || cacheTtlMillis <= 0)
+			throw new IllegalArgumentException("porta del Discovery Server o cache non valide.");
+
+		this.dsAddr = dsAddr;
+		this.dsPort = dsPort;
+		this.cache = new EndpointCache(cacheEntries, cacheTtlMillis);
+
+		rsSocket = new DatagramSocket();
+
+		discovery = Executors.newSingleThreadExecutor(r -> daemon(r, "AC_DS"));
+		timer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "AC_TIMER"));
+
+		daemon(this::receive, "AC_RS").start();
+	}
+
+	private static Thread daemon(Runnable task, String name) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+
+	// endpoint del Row Swap Server che serve il file, dalla cache se possibile.
+	// Completato con FileNotFoundException se il file non è registrato
+	public CompletableFuture<InetSocketAddress> resolve(String fileName) {
+		InetSocketAddress endpoint = cache.get(fileName);
+		if(endpoint != null) return CompletableFuture.completedFuture(endpoint);
+		if(closed) return CompletableFuture.failedFuture(new IOException("client chiuso."));
+
+		CompletableFuture<InetSocketAddress> created = new CompletableFuture<>();
+		CompletableFuture<InetSocketAddress> pending = resolving.putIfAbsent(fileName, created);
+		if(pending != null) return pending;
+
+		lookups.add(fileName);
+		try {
+			discovery.execute(this::lookupPending);
+		} catch(RejectedExecutionException e) {
+			resolving.remove(fileName, created);
+			created.completeExceptionally(new IOException("client chiuso."));
+		}
+
+		return created;
+	}
+
+	// scambio delle righe index1 e index2 del file: true se è stato eseguito, false se il Row Swap Server lo ha rifiutato
+	// (righe non valide o file non più servito). Completato con un'eccezione se il file non è registrato o se nessun
+	// Row Swap Server risponde
+	public CompletableFuture<Boolean> swap(String fileName, long index1, long index2) {
+		byte[] request;
+		try {
+			request = swapRequest(fileName, index1, index2);
+		} catch(IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+
+		return swap(fileName, requestId.incrementAndGet(), request, cache.get(fileName) != null);
+	}
+
+	// nomi dei file registrati, in ordine
+	public CompletableFuture<List<String>> list() {
+		return list("");
+	}
+
+	// nomi dei file registrati che iniziano con prefix, scaricati una pagina alla volta (REQ_LIST_PAGE)
+	public CompletableFuture<List<String>> list(String prefix) {
+		CompletableFuture<List<String>> result = new CompletableFuture<>();
+
+		try {
+			discovery.execute(() -> {
+				try {
+					ArrayList<String> names = new ArrayList<>();
+					String after = "";
+					do {
+						byte[] page = askDiscovery(pageRequest(prefix, after));
+
+						// nel formato binario la pagina segue header e flag
+						int offset = Client.BINARY ? Frame.HEADER_LENGTH + 1 : 0;
+						if(Client.BINARY && Frame.status(ByteBuffer.wrap(page)) != RESPONSE_OK)
+							throw new IOException("pagina della lista file non disponibile.");
+						DataInputStream din = new DataInputStream(new ByteArrayInputStream(page, offset, page.length - offset));
+
+						int count = din.readInt();
+						for(int i=0; i<count; i++) names.add(din.readUTF());
+						after = din.readUTF();
+					} while(!after.isEmpty());
+
+					result.complete(names);
+				} catch(IOException e) {
+					result.completeExceptionally(e);
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			result.completeExceptionally(new IOException("client chiuso."));
+		}
+
+		return result;
+	}
+
+	// le richieste ancora in attesa vengono completate con un'eccezione
+	@Override
+	public void close() {
+		closed = true;
+
+		rsSocket.close();
+		discovery.shutdown();
+		timer.shutdownNow();
+
+		IOException e = new IOException("client chiuso.");
+		for(Exchange exchange : exchanges.values()) exchange.reply.completeExceptionally(e);
+		for(CompletableFuture<InetSocketAddress> pending : resolving.values()) pending.completeExceptionally(e);
+	}
+
+
+	// Un endpoint in cache può non essere più valido: se il Row Swap Server è offline o non risponde il file viene risolto
+	// di nuovo e lo scambio ripetuto una volta con lo stesso identificativo (se il server è lo stesso, non lo esegue due volte)
+	private CompletableFuture<Boolean> swap(String fileName, long id, byte[] request, boolean fromCache) {
+		return resolve(fileName).thenCompose(endpoint -> exchange(endpoint, id, request).handle((flag, e) -> {
+			if(e == null && flag == RESPONSE_OK) return CompletableFuture.completedFuture(true);
+
+			cache.invalidate(fileName, endpoint);
+			if(e == null && flag != RESPONSE_SERVER_OFFLINE) return CompletableFuture.completedFuture(false);
+			if(fromCache && !closed) return swap(fileName, id, request, false);
+
+			return CompletableFuture.<Boolean>failedFuture((e != null) ? e : new IOException("il Row Swap Server " + endpoint + " è offline."));
+		}).thenCompose(result -> result));
+	}
+
+	// [byte REQ_SWAP_FILE][UTF nome del file][int linea1][int linea2] oppure, se un indice non entra in un int,
+	// [byte REQ_SWAP_LONG][UTF nome del file][long linea1][long linea2].
+	// Nel formato binario [header OP_SWAP][UTF nome del file][long linea1][long linea2], l'identificativo viene scritto all'invio
+	private static byte[] swapRequest(String fileName, long index1, long index2) throws IOException {
+		if(Client.BINARY) {
+			try {
+				return Frame.putName(Frame.allocate(Frame.OP_SWAP, 0, 0, 1, Frame.nameLength(fileName) + 16), fileName).putLong(index1).putLong(index2).array();
+			} catch(IllegalArgumentException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		if(index1 == (int) index1 && index2 == (int) index2) {
+			dout.writeByte(REQ_SWAP_FILE);
+			dout.writeUTF(fileName);
+			dout.writeInt((int) index1);
+			dout.writeInt((int) index2);
+		} else {
+			dout.writeByte(REQ_SWAP_LONG);
+			dout.writeUTF(fileName);
+			dout.writeLong(index1);
+			dout.writeLong(index2);
+		}
+		dout.flush();
+
+		return bout.toByteArray();
+	}
+
+	// [byte REQ_LIST_PAGE][short limite][UTF prefisso][UTF cursore], nel formato binario [header OP_LIST_PAGE] + lo stesso corpo
+	private byte[] pageRequest(String prefix, String after) throws IOException {
+		if(Client.BINARY) {
+			ByteBuffer frame = Frame.allocate(Frame.OP_LIST_PAGE, requestId.incrementAndGet(), 0, 1, 2 + Frame.nameLength(prefix) + Frame.nameLength(after));
+			return Frame.putName(Frame.putName(frame.putShort((short) PAGE_SIZE), prefix), after).array();
+		}
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		dout.writeByte(REQ_LIST_PAGE);
+		dout.writeShort(PAGE_SIZE);
+		dout.writeUTF(prefix);
+		dout.writeUTF(after);
+		dout.flush();
+
+		return bout.toByteArray();
+	}
+
+
+	// richiesta [byte REQ_TAGGED][long id] + request (nel formato binario request con l'identificativo nell'header) a un
+	// Row Swap Server: il future si completa con il flag della risposta, oppure con SocketTimeoutException dopo MAX_RETRIES
+	// ripetizioni senza risposta
+	private CompletableFuture<Byte> exchange(InetSocketAddress endpoint, long id, byte[] request) {
+		byte[] packet = Client.BINARY ? Frame.withId(request, id) : ByteBuffer.allocate(9 + request.length).put((byte) REQ_TAGGED).putLong(id).put(request).array();
+
+		Exchange exchange = new Exchange(packet, endpoint);
+		exchanges.put(id, exchange);
+		exchange.reply.whenComplete((flag, e) -> {
+			exchanges.remove(id, exchange);
+
+			ScheduledFuture<?> retry = exchange.retry;
+			if(retry != null) retry.cancel(false);
+		});
+
+		if(closed) exchange.reply.completeExceptionally(new IOException("client chiuso."));
+		else transmit(exchange);
+
+		return exchange.reply;
+	}
+
+	private void transmit(Exchange exchange) {
+		if(exchange.reply.isDone()) return;
+
+		if(exchange.attempts++ > MAX_RETRIES) {
+			exchange.reply.completeExceptionally(new SocketTimeoutException("nessuna risposta dal Row Swap Server " + exchange.endpoint + " dopo " + MAX_RETRIES + " tentativi."));
+			return;
+		}
+
+		try {
+			rsSocket.send(new DatagramPacket(exchange.packet, exchange.packet.length, exchange.endpoint));
+			exchange.retry = timer.schedule(() -> transmit(exchange), RETRY_MILLIS, TimeUnit.MILLISECONDS);
+		} catch(IOException | RejectedExecutionException e) {
+			exchange.reply.completeExceptionally(closed ? new IOException("client chiuso.") : e);
+		}
+	}
+
+	// AC_RS: risposte [long id][byte flag ...] (o [header][byte flag ...]) dei Row Swap Server. Le risposte duplicate (di
+	// richieste ripetute) non trovano più la richiesta e vengono scartate; un server non ancora registrato risponde
+	// RESPONSE_SERVER_OFFLINE senza identificativo, valido per tutte le richieste in attesa verso quel server
+	private void receive() {
+		DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+
+		while(!closed) {
+			try {
+				rsSocket.receive(packetIn);
+			} catch(IOException e) {
+				if(!closed) System.err.println("[CLIENT_RS] : Errore -> Socket non valida: " + e);
+				return;
+			}
+
+			byte[] data = packetIn.getData();
+			if(Client.BINARY) {
+				ByteBuffer frame = ByteBuffer.wrap(data, 0, packetIn.getLength());
+				if(Frame.is(frame)) {
+					Exchange exchange = exchanges.get(Frame.id(frame));
+					if(exchange != null) exchange.reply.complete(Frame.status(frame));
+				} else if(packetIn.getLength() == 1) {
+					// un server che non conosce Frame risponde con il solo flag
+					IOException e = new IOException("il Row Swap Server " + packetIn.getSocketAddress() + " non supporta il formato binario, usare -Dsns.protocol=legacy.");
+					for(Exchange exchange : exchanges.values()) {
+						if(exchange.endpoint.equals(packetIn.getSocketAddress()))
+							exchange.reply.completeExceptionally(e);
+					}
+				}
+				continue;
+			}
+
+			if(packetIn.getLength() == 1 && data[0] == RESPONSE_SERVER_OFFLINE) {
+				for(Exchange exchange : exchanges.values()) {
+					if(exchange.endpoint.equals(packetIn.getSocketAddress()))
+						exchange.reply.complete(RESPONSE_SERVER_OFFLINE);
+				}
+				continue;
+			}
+			if(packetIn.getLength() < 9) continue;
+
+			Exchange exchange = exchanges.get(ByteBuffer.wrap(data, 0, 8).getLong());
+			if(exchange != null) exchange.reply.complete(data[8]);
+		}
+	}
+
+
+	// AC_DS: tutti i nomi in attesa vengono risolti con una sola richiesta (Client.resolveBatch)
+	private void lookupPending() {
+		ArrayList<String> names = new ArrayList<>();
+		for(String name; (name = lookups.poll()) != null; ) names.add(name);
+		if(names.isEmpty()) return;
+
+		InetSocketAddress[] endpoints;
+		try {
+			endpoints = askDiscovery(socket -> Client.resolveBatch(socket, dsAddr, dsPort, names));
+		} catch(IOException e) {
+			for(String name : names) resolving.remove(name).completeExceptionally(e);
+			return;
+		}
+
+		for(int i=0; i<names.size(); i++) {
+			// la cache viene aggiornata prima di rimuovere la risoluzione in corso: un nuovo chiamante trova l'una o l'altra
+			if(endpoints[i] != null) cache.put(names.get(i), endpoints[i]);
+
+			CompletableFuture<InetSocketAddress> pending = resolving.remove(names.get(i));
+			if(endpoints[i] != null) pending.complete(endpoints[i]);
+			else pending.completeExceptionally(new FileNotFoundException("il file " + names.get(i) + " non è registrato nel Discovery Server."));
+		}
+	}
+
+	// richiesta di un solo datagramma al Discovery Server, restituisce la risposta
+	private byte[] askDiscovery(byte[] request) throws IOException {
+		return askDiscovery(socket -> {
+			socket.send(new DatagramPacket(request, request.length, dsAddr, dsPort));
+
+			DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+			socket.receive(packetIn);
+			return Arrays.copyOf(packetIn.getData(), packetIn.getLength());
+		});
+	}
+
+	// ogni tentativo usa una nuova socket: le risposte del Discovery Server non hanno identificativo, così la risposta in
+	// ritardo a un tentativo precedente non può essere presa per quella della richiesta successiva
+	private <T> T askDiscovery(DiscoveryCall<T> call) throws IOException {
+		for(int attempt=0; attempt<=MAX_RETRIES; attempt++) {
+			if(closed) throw new IOException("client chiuso.");
+
+			try(DatagramSocket socket = new DatagramSocket()) {
+				socket.setSoTimeout(RETRY_MILLIS);
+				return call.call(socket);
+			} catch(SocketTimeoutException e) {
+				// nuovo tentativo
+			}
+		}
+
+		throw new SocketTimeoutException("nessuna risposta dal Discovery Server dopo " + MAX_RETRIES + " tentativi.");
+	}
+}
@@ -10,16 +10,53 @@ import java.io.InputStreamReader;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import server.DiscoveryServer;
+import server.Frame;
 
 public class Client {
 	
-	private final static int MAX_FILE_LENGTH = 256;
-	
 	private final static int REQ_VISUALIZATION_FILE = 1;
+	private final static int REQ_LIST_PAGE = 2;
+	private final static int REQ_BATCH_LOOKUP = 3;
+	private final static int REQ_LIST_FRAGMENTS = 4;
+	
+	// richiesta di scambio al Row Swap Server che indica il file (un server può servirne più di uno)
+	private final static int REQ_SWAP_FILE = 2;
+	// come REQ_SWAP_FILE con indici a 64 bit, usata solo se uno dei due supera Integer.MAX_VALUE
+	private final static int REQ_SWAP_LONG = 8;
+	// sequenza di scambi applicata dal Row Swap Server con una sola riscrittura del file, inviata in frammenti
+	private final static int REQ_SWAP_BATCH = 4;
+	// come REQ_SWAP_BATCH con indici a 64 bit, usata solo se uno degli indici supera Integer.MAX_VALUE
+	private final static int REQ_SWAP_BATCH_LONG = 10;
+	// lettura di una riga o di un intervallo di righe e numero di righe del file
+	private final static int REQ_READ_RANGE = 6;
+	private final static int REQ_LINE_COUNT = 7;
+	// ogni richiesta al Row Swap Server porta un identificativo ([byte REQ_TAGGED][long id] + richiesta), così può essere
+	// ripetuta se la risposta non arriva entro RETRY_MILLIS (al più MAX_RETRIES volte) senza essere eseguita due volte
+	private final static int REQ_TAGGED = 9;
+	private final static int RETRY_MILLIS = 500;
+	private final static int MAX_RETRIES = 6;
+	private final static int MAX_REPLY_LENGTH = 2048;
+	
+	private static long requestId = System.nanoTime();
+	
+	// formato dei datagrammi verso entrambi i server (-Dsns.protocol): "binary" (header Frame con indirizzi e indici in
+	// binario) oppure "legacy" per i server che non conoscono Frame. Usato anche da AsyncClient e LoadGenerator
+	final static boolean BINARY = !"legacy".equals(System.getProperty("sns.protocol"));
+	
+	// nomi richiesti per ogni pagina nella visualizzazione paginata
+	private final static int PAGE_SIZE = 20;
 	
 	private final static byte RESPONSE_OK = 0;
 	private final static byte RESPONSE_ERR = 1;
@@ -27,13 +64,20 @@ public class Client {
 	
 
 	public static void main(String[] args) {
-		// args: IP Discovery Server, porta Discovery Server
+		// args: IP Discovery Server, porta Discovery Server, [prefisso del nome del file]
+		// con il prefisso la lista viene richiesta una pagina alla volta e filtrata dal Discovery Server
 		
 		// controllo argomenti
-		if(args.length != 2) {
+		if(args.length < 2 || args.length > 3) {
 			System.err.println("[CLIENT] : Errore -> Numero di argomenti errati.");
 			System.exit(1);
 		}
+		
+		String protocol = System.getProperty("sns.protocol", "binary");
+		if(!protocol.equals("binary") && !protocol.equals("legacy")) {
+			System.err.println("[CLIENT] : Errore -> Formato dei pacchetti non valido: " + protocol);
+			System.exit(1);
+		}
 			
 		
 		InetAddress dsAddr = null;
@@ -58,27 +102,21 @@ public class Client {
 		DatagramSocket socket = null;
 		try {
 			socket = new DatagramSocket();
-			
-			// timeout 30s
-			//socket.setSoTimeout(30000);
 		} catch (SocketException e) {
 			System.err.println("[CLIENT] : Errore -> Creazione della socket non riuscita: " + e);
 			System.exit(2);
 		}
 		
-		// comunicazione con il Discovery Server
+		String prefix = (args.length == 3) ? args[2] : null;
 		
-		// invia la richiesta di visualizzazione del file al Discovery Server
-		try {
-			socket.send(new DatagramPacket(new byte[]{REQ_VISUALIZATION_FILE}, 1, dsAddr, dsPort));
-		} catch (IOException e) {
-			System.err.println("[CLIENT_DS] : Errore -> Non è stato possibile comunicare con il discovery server: " + e);
-			System.exit(3);
-		}
+		// comunicazione con il Discovery Server: ogni richiesta (lista, pagina o ricerca) usa una socket dedicata e viene
+		// ripetuta se la risposta non arriva entro RETRY_MILLIS, vedi receiveList e askDiscovery
 		
 		
 		int rsPort = -1;
 		InetAddress rsAddr = null;
+		// nome del file scelto, indicato anche nella richiesta di scambio
+		String fileName = null;
 		
 		ByteArrayInputStream bin = null;
 		DataInputStream din = null;
@@ -88,98 +126,113 @@ public class Client {
 		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 		
 		
-		// Non conoscendo la lunghezza totale in byte dell'intera lista file e dato che UDP può essere frammentato, limitiamo la dimensione del buffer a 1472 byte
-		// Essendo l'MTU del frame Ethernet 1500 byte, l'header IP 20 byte e l'header UDP 8 byte
-		// 1500 - 20 - 8 = 1472
-		// Questo serve per prevenire la frammentazione e l'eventuale perdita di un frammento (con la conseguente perdita dell'intero pacchetto)
-		byte[] req = new byte[DiscoveryServer.MAX_PAYLOAD];
-		byte[] res = new byte[MAX_FILE_LENGTH];
-		
-		DatagramPacket packetIn = new DatagramPacket(req, req.length);
-		DatagramPacket packetOut = new DatagramPacket(res, res.length, dsAddr, dsPort);
-		
 		try {
-			socket.receive(packetIn);
-			
-			// algoritmo file visual
 			System.out.println("========== LISTA FILE ==========");
 			
-			bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-			din = new DataInputStream(bin);
-			
-			int totalFrag = din.readInt();
-			String[] msgFrag = new String[totalFrag];
-			
-			String fragment = null;
-			int index = -1;
-			int colon = -1;
-			for(int i=0; i<totalFrag; i++) {
-				// nel caso un pacchetto venga perso, il timeout scatta a 10s
-				socket.receive(packetIn);
-								
-				fragment = new String(packetIn.getData(), 0, packetIn.getLength());
-				
-				colon = fragment.indexOf(':');
-				if (colon == -1) {
-					System.err.println("[CLIENT_DS] : Errore -> Frammento malformato");
-					System.exit(5);
+			if(prefix == null) {
+				receiveList(dsAddr, dsPort);
+			} else {
+				// visualizzazione paginata: si scaricano solo le pagine effettivamente consultate
+				String cursor = "";
+				while(true) {
+					long id = ++requestId;
+					byte[] page = askDiscovery(dsAddr, dsPort, pageRequest(id, prefix, cursor), id);
+					
+					// nel formato binario la pagina segue header e flag
+					int offset = BINARY ? Frame.HEADER_LENGTH + 1 : 0;
+					if(BINARY && !isReply(page, RESPONSE_OK)) throw new IOException("pagina della lista file non disponibile.");
+					
+					bin = new ByteArrayInputStream(page, offset, page.length - offset);
+					din = new DataInputStream(bin);
+					
+					int count = din.readInt();
+					for(int i=0; i<count; i++) System.out.println("\t" + din.readUTF());
+					
+					String next = din.readUTF();
+					if(next.isEmpty()) break;
+					
+					System.out.print("\nPremi Invio per la pagina successiva oppure inserisci il nome del file: ");
+					String line = in.readLine();
+					if(line == null || !line.isBlank()) {
+						fileName = line;
+						break;
+					}
+					
+					cursor = next;
 				}
-				
-				index = Integer.parseInt(fragment.substring(0, colon));
-				msgFrag[index] = fragment.substring(colon + 1);
 			}
 			
-			// stampa della lista ordinata
-			for(int i=0; i<totalFrag; i++) System.out.println(msgFrag[i]);
-			
 			
 			// richiesta del file da console
-			System.out.print("\nInserisci il nome del file: ");
-			String fileName = null;
-			try {
-				fileName = in.readLine();
-				if (fileName == null || fileName.isBlank())
-					throw new IOException(" nome inserito vuoto");
-			} catch (IOException e) {
-				System.err.println("[CLIENT_DS] : Errore -> Input non valido: " + e);
-				System.exit(6);
+			if(fileName == null) {
+				System.out.print("\nInserisci il nome del file: ");
+				try {
+					fileName = in.readLine();
+					if (fileName == null || fileName.isBlank())
+						throw new IOException(" nome inserito vuoto");
+				} catch (IOException e) {
+					System.err.println("[CLIENT_DS] : Errore -> Input non valido: " + e);
+					System.exit(6);
+				}
 			}
 			
 			// comunicazione al Discovery Server del nome del file scelto
-			dout.writeUTF(fileName);
-			dout.flush();
-			
-			res = bout.toByteArray();
-			packetOut.setData(res);
-			socket.send(packetOut);
-			
-			bout.reset();
+			long id = ++requestId;
+			byte[] res;
+			if(BINARY) {
+				res = Frame.putName(Frame.allocate(Frame.OP_LOOKUP, id, 0, 1, Frame.nameLength(fileName)), fileName).array();
+			} else {
+				dout.writeUTF(fileName);
+				dout.flush();
+				
+				res = bout.toByteArray();
+				bout.reset();
+			}
 			
 			System.out.println("[CLIENT_DS] : Ricerca Row Swap Server...");
 						
 			// ricezione endpoint del Row Swap Server che effettuerà lo scambio delle righe
-			socket.receive(packetIn);
-			bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-			din = new DataInputStream(bin);
-			
-			String[] rsEndpoint = din.readUTF().split(":");
-			try {
-				if(rsEndpoint[0].equals("0") && rsEndpoint[1].equals("0"))
-					throw new IllegalArgumentException();
-				
-				rsAddr = InetAddress.getByName(rsEndpoint[0]);
-				rsPort = Integer.parseInt(rsEndpoint[1]);
-			} catch(UnknownHostException e) {
-				System.err.println("[CLIENT_DS] : Errore -> Indirizzo Row Swap Server passato sconosciuto: " + e);
-				System.exit(7);
-			} catch(NumberFormatException e) {
-				System.err.println("[CLIENT_DS] : Errore -> Porta Row Swap Server passata non valida: " + e);
-				System.exit(7);
-			} catch(IllegalArgumentException e) {
-				System.err.println("[CLIENT_DS] : Errore -> Il nome del file non è stato trovato: il file passato non è presente nella lista.");
-				System.exit(7);
-			}			
+			byte[] reply = askDiscovery(dsAddr, dsPort, res, id);
 			
+			// formato binario: [header][flag][indirizzo], RESPONSE_ERR se il file non è registrato
+			if(BINARY) {
+				if(!isReply(reply, RESPONSE_OK)) {
+					if(isReply(reply, RESPONSE_ERR)) System.err.println("[CLIENT_DS] : Errore -> Il nome del file non è stato trovato: il file passato non è presente nella lista.");
+					else System.err.println("[CLIENT_DS] : Errore -> Il Discovery Server non supporta il formato binario, usare -Dsns.protocol=legacy.");
+					System.exit(7);
+				}
+				
+				try {
+					InetSocketAddress rs = Frame.getAddress(ByteBuffer.wrap(reply, Frame.HEADER_LENGTH + 1, reply.length - Frame.HEADER_LENGTH - 1));
+					rsAddr = rs.getAddress();
+					rsPort = rs.getPort();
+				} catch(IllegalArgumentException | BufferUnderflowException e) {
+					System.err.println("[CLIENT_DS] : Errore -> Indirizzo Row Swap Server passato non valido: " + e);
+					System.exit(7);
+				}
+			} else {
+				bin = new ByteArrayInputStream(reply);
+				din = new DataInputStream(bin);
+				
+				String[] rsEndpoint = din.readUTF().split(":");
+				try {
+					if(rsEndpoint[0].equals("0") && rsEndpoint[1].equals("0"))
+						throw new IllegalArgumentException();
+				
+					rsAddr = InetAddress.getByName(rsEndpoint[0]);
+					rsPort = Integer.parseInt(rsEndpoint[1]);
+				} catch(UnknownHostException e) {
+					System.err.println("[CLIENT_DS] : Errore -> Indirizzo Row Swap Server passato sconosciuto: " + e);
+					System.exit(7);
+				} catch(NumberFormatException e) {
+					System.err.println("[CLIENT_DS] : Errore -> Porta Row Swap Server passata non valida: " + e);
+					System.exit(7);
+				} catch(IllegalArgumentException e) {
+					System.err.println("[CLIENT_DS] : Errore -> Il nome del file non è stato trovato: il file passato non è presente nella lista.");
+					System.exit(7);
+				}			
+			}
+				
 		} catch (IOException e) {
 			System.err.println("[CLIENT_DS] : Errore -> Socket non valida: " + e);
 			System.exit(4);
@@ -190,47 +243,56 @@ public class Client {
 		
 		// comunicazione con il Row Swap Server
 		
-		req = new byte[1];
-		res = new byte[21];
-		// dato che il formato della richiesta consiste in linea1:linea2, vi sono 18 byte suddivisi tra i due numeri
-		// 2 byte di intestazione UTF, 1 byte per ":" -> 21 - 2 - 1 = 18 byte di contenuto
-		
-		packetIn = new DatagramPacket(req, req.length);
-		packetOut = new DatagramPacket(res, res.length, rsAddr, rsPort);
+		// [byte REQ_SWAP_FILE][UTF nome del file][int linea1][int linea2] oppure
+		// [byte REQ_SWAP_LONG][UTF nome del file][long linea1][long linea2]
 		
 		try {			
 			// richiesta degli indici da console
-			int index1 = -1;
-			int index2 = -1;
+			long index1 = -1;
+			long index2 = -1;
 			
 			try {
-				System.out.print("\nInserisci il primo indice: ");
-				index1 = Integer.parseInt(in.readLine());
+				System.out.print("\nInserisci il primo indice (oppure una sequenza di scambi \"a:b c:d ...\", \"?a\" o \"?a-b\" per leggere righe, \"#\" per il numero di righe): ");
+				String line = in.readLine();
+				if(line != null && line.indexOf(':') >= 0) {
+					swapBatch(socket, rsAddr, rsPort, fileName, line.trim().split("\\s+"));
+					return;
+				}
+				if(line != null && (line.startsWith("?") || line.trim().equals("#"))) {
+					read(socket, rsAddr, rsPort, fileName, line.trim());
+					return;
+				}
+				
+				index1 = Long.parseLong(line);
 				System.out.print("Inserisci il secondo indice: ");
-				index2 = Integer.parseInt(in.readLine());
+				index2 = Long.parseLong(in.readLine());
 			} catch (IOException | NumberFormatException e) {
 				System.err.println("[CLIENT_RS] : Errore -> Input non valido: " + e);
 				System.exit(8);
 			}
 			
 			// comunicazione al Row Swap Server degli indici scelti
-			dout.writeUTF(index1 + ":" + index2);
+			if(BINARY) {
+				// [header OP_SWAP][UTF nome del file][long linea1][long linea2], l'identificativo viene scritto all'invio
+				dout.write(Frame.putName(Frame.allocate(Frame.OP_SWAP, 0, 0, 1, Frame.nameLength(fileName) + 16), fileName).putLong(index1).putLong(index2).array());
+			} else if(index1 == (int) index1 && index2 == (int) index2) {
+				dout.writeByte(REQ_SWAP_FILE);
+				dout.writeUTF(fileName);
+				dout.writeInt((int) index1);
+				dout.writeInt((int) index2);
+			} else {
+				dout.writeByte(REQ_SWAP_LONG);
+				dout.writeUTF(fileName);
+				dout.writeLong(index1);
+				dout.writeLong(index2);
+			}
 			dout.flush();
 			
-			res = bout.toByteArray();
-			packetOut.setData(res);
-			socket.send(packetOut);
-			
-			bout.reset();
-				
 			// ricezione risultato scambio Row Swap Server
-			packetIn = new DatagramPacket(new byte[4], 4);
-			socket.receive(packetIn);
+			byte flag = flag(exchange(socket, rsAddr, rsPort, new byte[][] { bout.toByteArray() }));
 			
-			bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-			din = new DataInputStream(bin);
+			bout.reset();
 			
-			byte flag = din.readByte();
 			if(flag == RESPONSE_OK) System.out.println("[CLIENT_RS] : Operazione eseguita con successo.");
 			else if(flag == RESPONSE_SERVER_OFFLINE) System.out.println("[CLIENT_RS] : L'perazione non è andata a buon fine perché il Row Swap Server è offline.");
 			else if(flag == RESPONSE_ERR) System.out.println("[CLIENT_RS] : L'operazione non è andata a buon fine.");					
@@ -240,4 +302,627 @@ public class Client {
 			System.exit(4);
 		}	
 	}
+	
+	
+	// Sequenza di scambi: le coppie vengono divise in frammenti da al più MAX_PAYLOAD byte
+	// [byte REQ_SWAP_BATCH][UTF nome del file][int id][short frammento][short frammenti][short n][n x (int a, int b)]
+	// (REQ_SWAP_BATCH_LONG con n x (long a, long b) se un indice non entra in un int)
+	// e il Row Swap Server risponde una sola volta, a sequenza completa, con [byte flag][int id][int coppie][bitmap].
+	// Nel formato binario id e numerazione dei frammenti sono nell'header: [header OP_SWAP_BATCH][UTF nome del file][short n]
+	// [n x (long a, long b)], risposta [header][flag][int coppie][bitmap]
+	private static void swapBatch(DatagramSocket socket, InetAddress rsAddr, int rsPort, String fileName, String[] pairs) throws IOException {
+		long[] first = new long[pairs.length];
+		long[] second = new long[pairs.length];
+		boolean wide = BINARY;
+		for(int i=0; i<pairs.length; i++) {
+			String[] indexes = pairs[i].split(":");
+			if(indexes.length != 2) throw new NumberFormatException("coppia non valida: " + pairs[i]);
+			
+			first[i] = Long.parseLong(indexes[0]);
+			second[i] = Long.parseLong(indexes[1]);
+			if(first[i] != (int) first[i] || second[i] != (int) second[i]) wide = true;
+		}
+		
+		int batchId = (int) System.nanoTime();
+		
+		// byte occupati dall'header di ogni frammento
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		dout.writeUTF(fileName);
+		int perFragment = (BINARY ? DiscoveryServer.MAX_PAYLOAD - Frame.HEADER_LENGTH - bout.size() - 2 : DiscoveryServer.MAX_PAYLOAD - 1 - bout.size() - 10) / (wide ? 16 : 8);
+		if(perFragment < 1) throw new IOException("nome del file troppo lungo.");
+		
+		int fragments = (pairs.length + perFragment - 1) / perFragment;
+		byte[][] requests = new byte[fragments][];
+		for(int f=0; f<fragments; f++) {
+			int from = f * perFragment;
+			int to = Math.min(pairs.length, from + perFragment);
+			
+			if(BINARY) {
+				ByteBuffer frame = Frame.putName(Frame.allocate(Frame.OP_SWAP_BATCH, 0, f, fragments, Frame.nameLength(fileName) + 2 + 16 * (to - from)), fileName);
+				frame.putShort((short) (to - from));
+				for(int i=from; i<to; i++)
+					frame.putLong(first[i]).putLong(second[i]);
+				
+				requests[f] = frame.array();
+				continue;
+			}
+			
+			bout.reset();
+			dout.writeByte(wide ? REQ_SWAP_BATCH_LONG : REQ_SWAP_BATCH);
+			dout.writeUTF(fileName);
+			dout.writeInt(batchId);
+			dout.writeShort(f);
+			dout.writeShort(fragments);
+			dout.writeShort(to - from);
+			for(int i=from; i<to; i++) {
+				if(wide) {
+					dout.writeLong(first[i]);
+					dout.writeLong(second[i]);
+				} else {
+					dout.writeInt((int) first[i]);
+					dout.writeInt((int) second[i]);
+				}
+			}
+			dout.flush();
+			
+			requests[f] = bout.toByteArray();
+		}
+		
+		// ricezione risultato della sequenza: se non arriva vengono ripetuti tutti i frammenti, il server scarta quelli
+		// già ricevuti e non esegue di nuovo la sequenza
+		byte[] reply = exchange(socket, rsAddr, rsPort, requests);
+		int body = BINARY ? Frame.HEADER_LENGTH : 0;
+		
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(reply, body, reply.length - body));
+		byte flag = flag(reply);
+		if(reply.length <= body + 1) {
+			if(flag == RESPONSE_SERVER_OFFLINE) System.out.println("[CLIENT_RS] : L'perazione non è andata a buon fine perché il Row Swap Server è offline.");
+			else System.out.println("[CLIENT_RS] : L'operazione non è andata a buon fine.");
+			return;
+		}
+		
+		din.readByte();
+		if(!BINARY && din.readInt() != batchId) throw new IOException("risposta di un'altra sequenza.");
+		int n = din.readInt();
+		byte[] applied = new byte[(n + 7) / 8];
+		din.readFully(applied);
+		
+		for(int i=0; i<n && i<pairs.length; i++) {
+			boolean ok = (applied[i / 8] & (1 << (i % 8))) != 0;
+			System.out.println("\t" + first[i] + ":" + second[i] + (ok ? " -> eseguito" : " -> non eseguito"));
+		}
+		
+		if(flag == RESPONSE_OK) System.out.println("[CLIENT_RS] : Operazione eseguita con successo.");
+		else System.out.println("[CLIENT_RS] : Alcuni scambi non sono andati a buon fine.");
+	}
+	
+	
+	// Lettura dal Row Swap Server: "#" -> [byte REQ_LINE_COUNT][UTF nome del file], risposta [byte flag][long righe];
+	// "?a" o "?a-b" -> [byte REQ_READ_RANGE][UTF nome del file][long da][int righe], risposta [byte flag][int righe lette]
+	// [int frammenti] seguita dai frammenti "i:" + righe, ricomposti come la lista file.
+	// Nel formato binario [header OP_LINE_COUNT][UTF nome del file] e [header OP_READ][UTF nome del file][long da][int righe]
+	private static void read(DatagramSocket socket, InetAddress rsAddr, int rsPort, String fileName, String command) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		
+		if(command.equals("#") && BINARY) {
+			dout.write(Frame.putName(Frame.allocate(Frame.OP_LINE_COUNT, 0, 0, 1, Frame.nameLength(fileName)), fileName).array());
+		} else if(command.equals("#")) {
+			dout.writeByte(REQ_LINE_COUNT);
+			dout.writeUTF(fileName);
+		} else {
+			String[] range = command.substring(1).split("-");
+			long from = Long.parseLong(range[0].trim());
+			long to = (range.length > 1) ? Long.parseLong(range[1].trim()) : from;
+			int count = (int) Math.max(0, Math.min(Integer.MAX_VALUE, to - from + 1));
+			
+			if(BINARY) {
+				dout.write(Frame.putName(Frame.allocate(Frame.OP_READ, 0, 0, 1, Frame.nameLength(fileName) + 12), fileName).putLong(from).putInt(count).array());
+			} else {
+				dout.writeByte(REQ_READ_RANGE);
+				dout.writeUTF(fileName);
+				dout.writeLong(from);
+				dout.writeInt(count);
+			}
+		}
+		dout.flush();
+		
+		long id = ++requestId;
+		byte[][] requests = { bout.toByteArray() };
+		byte[] reply = exchange(socket, rsAddr, rsPort, id, requests);
+		
+		if(BINARY) {
+			readFrames(socket, rsAddr, rsPort, fileName, command, id, requests, reply);
+			return;
+		}
+		
+		// frammenti arrivati prima dell'header (header perso)
+		ArrayList<byte[]> early = new ArrayList<>();
+		int retries = 0;
+		while(isFragment(reply)) {
+			early.add(reply);
+			reply = receive(socket, id);
+			if(reply == null) {
+				if(++retries > MAX_RETRIES) throw new IOException("risposta incompleta dal Row Swap Server.");
+				reply = exchange(socket, rsAddr, rsPort, id, requests);
+			}
+		}
+		
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(reply));
+		byte flag = din.readByte();
+		if(flag != RESPONSE_OK) {
+			if(flag == RESPONSE_SERVER_OFFLINE) System.out.println("[CLIENT_RS] : L'perazione non è andata a buon fine perché il Row Swap Server è offline.");
+			else System.out.println("[CLIENT_RS] : L'operazione non è andata a buon fine.");
+			return;
+		}
+		
+		if(command.equals("#")) {
+			System.out.println("[CLIENT_RS] : Il file " + fileName + " ha " + din.readLong() + " righe.");
+			return;
+		}
+		
+		int lines = din.readInt();
+		int totalFrag = din.readInt();
+		// i frammenti vengono ricomposti in byte prima della decodifica: un carattere può essere diviso tra due frammenti.
+		// Se ne manca qualcuno la lettura viene ripetuta (non ha effetti sul file) e l'header ripetuto viene scartato
+		byte[][] msgFrag = new byte[totalFrag][];
+		int received = 0;
+		while(received < totalFrag) {
+			byte[] data = early.isEmpty() ? receive(socket, id) : early.remove(0);
+			if(data == null) {
+				if(++retries > MAX_RETRIES) throw new IOException("risposta incompleta dal Row Swap Server.");
+				send(socket, rsAddr, rsPort, id, requests);
+				continue;
+			}
+			if(!isFragment(data)) continue;
+			
+			int colon = 0;
+			while(colon < data.length && data[colon] != ':') colon++;
+			if(colon == data.length) throw new IOException("frammento malformato.");
+			
+			int index = Integer.parseInt(new String(data, 0, colon));
+			if(index >= totalFrag) throw new IOException("frammento malformato.");
+			if(msgFrag[index] == null) {
+				msgFrag[index] = Arrays.copyOfRange(data, colon + 1, data.length);
+				received++;
+			}
+		}
+		
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		for(byte[] fragment : msgFrag) text.write(fragment);
+		
+		System.out.println("========== RIGHE (" + lines + ") ==========");
+		System.out.print(text.toString());
+	}
+	
+	// risposta di una lettura nel formato binario: un datagramma per frammento [header][flag][righe], numerati nell'header.
+	// Ogni datagramma ha l'header della risposta, quindi l'ordine di arrivo non conta; se ne manca qualcuno la lettura viene ripetuta
+	private static void readFrames(DatagramSocket socket, InetAddress rsAddr, int rsPort, String fileName, String command, long id, byte[][] requests, byte[] reply) throws IOException {
+		byte flag = flag(reply);
+		if(flag != RESPONSE_OK) {
+			if(flag == RESPONSE_SERVER_OFFLINE) System.out.println("[CLIENT_RS] : L'perazione non è andata a buon fine perché il Row Swap Server è offline.");
+			else System.out.println("[CLIENT_RS] : L'operazione non è andata a buon fine.");
+			return;
+		}
+		
+		if(command.equals("#")) {
+			System.out.println("[CLIENT_RS] : Il file " + fileName + " ha " + ByteBuffer.wrap(reply).getLong(Frame.HEADER_LENGTH + 1) + " righe.");
+			return;
+		}
+		
+		byte[][] msgFrag = new byte[Frame.fragments(ByteBuffer.wrap(reply))][];
+		int received = 0;
+		int retries = 0;
+		for(byte[] data = reply; received < msgFrag.length; data = receive(socket, id)) {
+			if(data == null) {
+				if(++retries > MAX_RETRIES) throw new IOException("risposta incompleta dal Row Swap Server.");
+				send(socket, rsAddr, rsPort, id, requests);
+				continue;
+			}
+			
+			ByteBuffer frame = ByteBuffer.wrap(data);
+			int index = Frame.fragment(frame);
+			if(Frame.fragments(frame) != msgFrag.length || index >= msgFrag.length || Frame.status(frame) != RESPONSE_OK)
+				throw new IOException("frammento malformato.");
+			
+			if(msgFrag[index] == null) {
+				msgFrag[index] = Arrays.copyOfRange(data, Frame.HEADER_LENGTH + 1, data.length);
+				received++;
+			}
+		}
+		
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		for(byte[] fragment : msgFrag) text.write(fragment);
+		
+		int lines = 0;
+		for(byte b : text.toByteArray())
+			if(b == '\n') lines++;
+		
+		System.out.println("========== RIGHE (" + lines + ") ==========");
+		System.out.print(text.toString());
+	}
+	
+	
+	// Richiesta al Row Swap Server (uno o più datagrammi) con un nuovo identificativo, ripetuta finché non arriva la risposta:
+	// il server non esegue i duplicati ma invia di nuovo la risposta registrata, quindi ripetere uno scambio è sicuro.
+	// Restituisce il primo datagramma della risposta senza identificativo
+	private static byte[] exchange(DatagramSocket socket, InetAddress rsAddr, int rsPort, byte[][] requests) throws IOException {
+		return exchange(socket, rsAddr, rsPort, ++requestId, requests);
+	}
+	
+	private static byte[] exchange(DatagramSocket socket, InetAddress rsAddr, int rsPort, long id, byte[][] requests) throws IOException {
+		for(int attempt=0; attempt<=MAX_RETRIES; attempt++) {
+			send(socket, rsAddr, rsPort, id, requests);
+			
+			byte[] reply = receive(socket, id);
+			if(reply != null) return reply;
+		}
+		
+		throw new IOException("nessuna risposta dal Row Swap Server dopo " + MAX_RETRIES + " tentativi.");
+	}
+	
+	private static void send(DatagramSocket socket, InetAddress rsAddr, int rsPort, long id, byte[][] requests) throws IOException {
+		for(byte[] request : requests) {
+			byte[] packet = BINARY ? Frame.withId(request, id) : ByteBuffer.allocate(9 + request.length).put((byte) REQ_TAGGED).putLong(id).put(request).array();
+			socket.send(new DatagramPacket(packet, packet.length, rsAddr, rsPort));
+		}
+	}
+	
+	// frammento "i:" + dati di una lettura, gli header iniziano con il flag
+	private static boolean isFragment(byte[] data) {
+		return data.length > 0 && data[0] >= '0' && data[0] <= '9';
+	}
+	
+	// flag di esito di una risposta del Row Swap Server restituita da receive
+	private static byte flag(byte[] reply) {
+		return BINARY ? Frame.status(ByteBuffer.wrap(reply)) : reply[0];
+	}
+	
+	// datagramma della risposta alla richiesta id senza identificativo, null se non arriva entro RETRY_MILLIS.
+	// Le risposte di richieste precedenti (duplicati) vengono scartate; un server non ancora registrato risponde
+	// RESPONSE_SERVER_OFFLINE senza identificativo. Nel formato binario il datagramma viene restituito con l'header
+	private static byte[] receive(DatagramSocket socket, long id) throws IOException {
+		DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS);
+		
+		while(true) {
+			long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if(wait <= 0) return null;
+			
+			socket.setSoTimeout((int) wait);
+			try {
+				socket.receive(packetIn);
+			} catch(SocketTimeoutException e) {
+				return null;
+			}
+			
+			byte[] data = packetIn.getData();
+			if(BINARY) {
+				if(Frame.is(data, 0, packetIn.getLength()) && ByteBuffer.wrap(data).getLong(4) == id)
+					return Arrays.copyOf(data, packetIn.getLength());
+				// un server che non conosce Frame risponde con il solo flag
+				if(packetIn.getLength() == 1)
+					throw new IOException("il Row Swap Server non supporta il formato binario, usare -Dsns.protocol=legacy.");
+				continue;
+			}
+			
+			if(packetIn.getLength() == 1 && data[0] == RESPONSE_SERVER_OFFLINE) return new byte[] { RESPONSE_SERVER_OFFLINE };
+			if(packetIn.getLength() >= 8 && ByteBuffer.wrap(data, 0, 8).getLong() == id)
+				return Arrays.copyOfRange(data, 8, packetIn.getLength());
+		}
+	}
+	
+	
+	// Richiesta al Discovery Server con una risposta di un solo datagramma (ricerca o pagina della lista), ripetuta se la
+	// risposta non arriva entro RETRY_MILLIS (al più MAX_RETRIES volte): le ricerche non modificano il registro, quindi
+	// ripeterle è sicuro senza cache delle risposte. Nel formato binario vengono scartate le risposte con un altro
+	// identificativo; nel formato legacy le risposte non lo hanno, quindi la socket è dedicata alla richiesta e i duplicati
+	// in ritardo vengono persi con la sua chiusura invece di essere presi per la risposta successiva
+	private static byte[] askDiscovery(InetAddress dsAddr, int dsPort, byte[] request, long id) throws IOException {
+		try(DatagramSocket socket = new DatagramSocket()) {
+			socket.setSoTimeout(RETRY_MILLIS);
+			
+			DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+			for(int attempt=0; attempt<=MAX_RETRIES; attempt++) {
+				socket.send(new DatagramPacket(request, request.length, dsAddr, dsPort));
+				
+				try {
+					do {
+						socket.receive(packetIn);
+					} while(BINARY && Frame.is(packetIn.getData(), 0, packetIn.getLength())
+							&& ByteBuffer.wrap(packetIn.getData()).getLong(4) != id);
+				} catch(SocketTimeoutException e) {
+					continue;
+				}
+				
+				return Arrays.copyOf(packetIn.getData(), packetIn.getLength());
+			}
+		}
+		
+		throw new IOException("nessuna risposta dal Discovery Server dopo " + MAX_RETRIES + " tentativi.");
+	}
+	
+	// richiesta di una pagina della lista file: [byte REQ_LIST_PAGE][short limite][UTF prefisso][UTF cursore]
+	// oppure [header OP_LIST_PAGE][short limite][UTF prefisso][UTF cursore]
+	private static byte[] pageRequest(long id, String prefix, String after) throws IOException {
+		if(BINARY) {
+			ByteBuffer frame = Frame.allocate(Frame.OP_LIST_PAGE, id, 0, 1, 2 + Frame.nameLength(prefix) + Frame.nameLength(after));
+			return Frame.putName(Frame.putName(frame.putShort((short) PAGE_SIZE), prefix), after).array();
+		}
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		
+		dout.writeByte(REQ_LIST_PAGE);
+		dout.writeShort(PAGE_SIZE);
+		dout.writeUTF(prefix);
+		dout.writeUTF(after);
+		dout.flush();
+		
+		return bout.toByteArray();
+	}
+	
+	
+	// risoluzione di più nomi di file con una sola richiesta al Discovery Server: [byte REQ_BATCH_LOOKUP][short n][n x UTF nome]
+	// (nel formato binario [header OP_BATCH_LOOKUP][short n][n x UTF nome], risposta [header][flag] + la stessa del formato legacy)
+	// se i nomi (o le risposte) non entrano in un datagramma vengono inviate più richieste, ognuna per i nomi non ancora risolti
+	// restituisce gli endpoint nello stesso ordine dei nomi, null per i file non registrati
+	public static InetSocketAddress[] resolveBatch(DatagramSocket socket, InetAddress dsAddr, int dsPort, List<String> names) throws IOException {
+		InetSocketAddress[] endpoints = new InetSocketAddress[names.size()];
+		
+		ByteArrayOutputStream bname = new ByteArrayOutputStream();
+		DataOutputStream dname = new DataOutputStream(bname);
+		
+		DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+		int header = BINARY ? Frame.HEADER_LENGTH + 2 : 3;
+		
+		int next = 0;
+		while(next < names.size()) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			
+			// codice (o header) + 2 byte per il numero di nomi
+			int count = 0;
+			for(int i=next; i<names.size(); i++) {
+				bname.reset();
+				dname.writeUTF(names.get(i));
+				dname.flush();
+				
+				if(count > 0 && header + body.size() + bname.size() > DiscoveryServer.MAX_PAYLOAD) break;
+				
+				bname.writeTo(body);
+				count++;
+			}
+			
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			DataOutputStream dout = new DataOutputStream(bout);
+			
+			long id = ++requestId;
+			if(BINARY) dout.write(Frame.allocate(Frame.OP_BATCH_LOOKUP, id, 0, 1, 0).array());
+			else dout.writeByte(REQ_BATCH_LOOKUP);
+			dout.writeShort(count);
+			body.writeTo(dout);
+			dout.flush();
+			
+			byte[] req = bout.toByteArray();
+			socket.send(new DatagramPacket(req, req.length, dsAddr, dsPort));
+			
+			// [short m][m record]: [byte 1][byte lunghezza][indirizzo][short porta] oppure [byte 0]
+			socket.receive(packetIn);
+			int offset = BINARY ? Frame.HEADER_LENGTH + 1 : 0;
+			if(BINARY && (!isReply(packetIn, RESPONSE_OK) || ByteBuffer.wrap(packetIn.getData()).getLong(4) != id))
+				throw new IOException("risposta del Discovery Server non valida.");
+			DataInputStream din = new DataInputStream(new ByteArrayInputStream(packetIn.getData(), offset, packetIn.getLength() - offset));
+			
+			int resolved = din.readUnsignedShort();
+			if(resolved == 0 || resolved > count)
+				throw new IOException("risposta del Discovery Server non valida.");
+			
+			for(int i=0; i<resolved; i++) {
+				if(din.readByte() == 0) continue;
+				
+				byte[] ip = new byte[din.readUnsignedByte()];
+				din.readFully(ip);
+				int port = din.readUnsignedShort();
+				
+				endpoints[next + i] = new InetSocketAddress(InetAddress.getByAddress(ip), port);
+			}
+			
+			next += resolved;
+		}
+		
+		return endpoints;
+	}
+	
+	
+	// datagramma di un frame già scritto (tutto il buffer)
+	private static DatagramPacket framePacket(ByteBuffer frame, InetAddress addr, int port) {
+		return new DatagramPacket(frame.array(), frame.capacity(), addr, port);
+	}
+	
+	// risposta nel formato binario con il flag indicato
+	private static boolean isReply(DatagramPacket packet, byte flag) {
+		return isReply(Arrays.copyOf(packet.getData(), packet.getLength()), flag);
+	}
+	
+	private static boolean isReply(byte[] data, byte flag) {
+		return Frame.is(data, 0, data.length) && Frame.status(ByteBuffer.wrap(data)) == flag;
+	}
+	
+	// Lista file completa con ritrasmissione selettiva: ogni frammento viene registrato per indice (i duplicati vengono
+	// ignorati) e se la lista non è completa entro RETRY_MILLIS al Discovery Server vengono chiesti solo i frammenti mancanti
+	// della stessa versione. Se quella versione non è più disponibile il Discovery Server invia la lista attuale, che
+	// sostituisce i frammenti ricevuti. Senza header (nel formato binario, senza alcun frammento) la richiesta viene ripetuta
+	// per intero; dopo MAX_RETRIES attese consecutive senza nuovi frammenti la lista è considerata non disponibile.
+	// La socket è dedicata alla lista, così i frammenti ritrasmessi in ritardo non vengono presi per risposte successive.
+	// Nel formato legacy solo l'header porta la versione: ogni richiesta completa usa una socket nuova, che riceve quindi
+	// frammenti di una sola istantanea, e se la versione cambia la lista viene richiesta da capo su un'altra socket invece
+	// di ricomporla con frammenti di versioni diverse
+	private static void receiveList(InetAddress dsAddr, int dsPort) throws IOException {
+		byte[][] msgFrag = null;
+		for(int attempt=0; msgFrag == null; attempt++) {
+			if(attempt > MAX_RETRIES) throw new IOException("lista file non ricevuta dopo " + MAX_RETRIES + " tentativi.");
+			
+			msgFrag = receiveSnapshot(dsAddr, dsPort);
+		}
+		
+		// stampa della lista ordinata (un nome può essere diviso tra due frammenti)
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		for(byte[] fragment : msgFrag) text.write(fragment);
+		System.out.print(text.toString());
+	}
+	
+	// frammenti di una sola versione della lista, null se nel formato legacy va richiesta da capo su una nuova socket
+	private static byte[][] receiveSnapshot(InetAddress dsAddr, int dsPort) throws IOException {
+		try(DatagramSocket socket = new DatagramSocket()) {
+			socket.setSoTimeout(RETRY_MILLIS);
+			
+			long id = ++requestId;
+			sendListRequest(socket, dsAddr, dsPort, id);
+			
+			DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+			
+			// versione dell'istantanea in ricezione (-1 se il Discovery Server non la indica) e frammenti ricevuti,
+			// msgFrag null finché non è noto il numero di frammenti
+			long version = -1;
+			byte[][] msgFrag = null;
+			int received = 0;
+			// frammenti legacy arrivati prima dell'header, della stessa risposta perché la socket riceve una sola lista
+			ArrayList<byte[]> early = new ArrayList<>();
+			
+			int retries = 0;
+			while(msgFrag == null || received < msgFrag.length) {
+				try {
+					socket.receive(packetIn);
+				} catch(SocketTimeoutException e) {
+					if(++retries > MAX_RETRIES) throw new IOException("lista file incompleta dopo " + MAX_RETRIES + " tentativi.");
+					
+					// legacy senza header o senza versione (Discovery Server precedente): una seconda lista completa sulla
+					// stessa socket potrebbe essere di un'altra versione
+					if(!BINARY && (msgFrag == null || version < 0)) return null;
+					
+					if(msgFrag == null) sendListRequest(socket, dsAddr, dsPort, id);
+					else sendFragmentsRequest(socket, dsAddr, dsPort, id, version, msgFrag);
+					continue;
+				}
+				
+				byte[] data = Arrays.copyOf(packetIn.getData(), packetIn.getLength());
+				
+				int index;
+				int offset;
+				if(BINARY) {
+					// [header][flag][long versione][dati]
+					ByteBuffer frame = ByteBuffer.wrap(data);
+					if(!Frame.is(frame)) {
+						System.err.println("[CLIENT_DS] : Errore -> Il Discovery Server non supporta il formato binario, usare -Dsns.protocol=legacy.");
+						System.exit(5);
+					}
+					if(Frame.id(frame) != id) continue;
+					if(Frame.status(frame) != RESPONSE_OK || data.length < Frame.HEADER_LENGTH + 9) throw new IOException("lista file non disponibile.");
+					
+					// le versioni crescono: un frammento di un'istantanea precedente arriva in ritardo e viene scartato
+					long frameVersion = frame.getLong(Frame.HEADER_LENGTH + 1);
+					if(msgFrag != null && frameVersion < version) continue;
+					if(msgFrag == null || frameVersion > version) {
+						version = frameVersion;
+						msgFrag = new byte[Frame.fragments(frame)][];
+						received = 0;
+						retries = 0;
+					}
+					
+					index = Frame.fragment(frame);
+					offset = Frame.HEADER_LENGTH + 9;
+					if(Frame.fragments(frame) != msgFrag.length || (index >= msgFrag.length && msgFrag.length > 0)) {
+						System.err.println("[CLIENT_DS] : Errore -> Frammento malformato");
+						System.exit(5);
+					}
+					if(msgFrag.length == 0) break;
+				} else if(!isFragment(data)) {
+					// header [int frammenti][long versione], la versione manca con un Discovery Server precedente
+					if(data.length < 4) continue;
+					
+					ByteBuffer header = ByteBuffer.wrap(data);
+					long headerVersion = (data.length >= 12) ? header.getLong(4) : -1;
+					if(msgFrag != null) {
+						// la versione ricevuta non è più disponibile: il Discovery Server invia l'header di quella attuale
+						if(headerVersion != version) return null;
+						continue;
+					}
+					
+					version = headerVersion;
+					msgFrag = new byte[header.getInt(0)][];
+					received = 0;
+					retries = 0;
+					
+					for(byte[] fragment : early)
+						received += store(msgFrag, fragment);
+					early.clear();
+					continue;
+				} else if(msgFrag == null) {
+					early.add(data);
+					continue;
+				} else {
+					// frammento "i:" + dati
+					if(store(msgFrag, data) == 1) {
+						received++;
+						retries = 0;
+					}
+					continue;
+				}
+				
+				if(msgFrag[index] == null) {
+					msgFrag[index] = Arrays.copyOfRange(data, offset, data.length);
+					received++;
+					retries = 0;
+				}
+			}
+			
+			return msgFrag;
+		}
+	}
+	
+	// frammento legacy "i:" + dati nella posizione i, se non è già presente: 1 se è nuovo, 0 se è un duplicato
+	private static int store(byte[][] msgFrag, byte[] data) throws IOException {
+		int colon = 0;
+		while(colon < data.length && data[colon] != ':') colon++;
+		
+		int index;
+		try {
+			index = Integer.parseInt(new String(data, 0, colon));
+		} catch(NumberFormatException e) {
+			throw new IOException("frammento malformato.");
+		}
+		if(colon == data.length || index >= msgFrag.length) throw new IOException("frammento malformato.");
+		
+		if(msgFrag[index] != null) return 0;
+		msgFrag[index] = Arrays.copyOfRange(data, colon + 1, data.length);
+		return 1;
+	}
+	
+	// richiesta della lista completa: [byte REQ_VISUALIZATION_FILE] oppure [header OP_LIST]
+	private static void sendListRequest(DatagramSocket socket, InetAddress dsAddr, int dsPort, long id) throws IOException {
+		if(BINARY) socket.send(framePacket(Frame.allocate(Frame.OP_LIST, id, 0, 1, 0), dsAddr, dsPort));
+		else socket.send(new DatagramPacket(new byte[]{REQ_VISUALIZATION_FILE}, 1, dsAddr, dsPort));
+	}
+	
+	// richiesta dei frammenti mancanti della versione indicata, in più datagrammi se gli indici non entrano in MAX_PAYLOAD:
+	// [byte REQ_LIST_FRAGMENTS][long versione][short n][n x short indice] oppure [header OP_LIST_FRAGMENTS] + lo stesso corpo
+	private static void sendFragmentsRequest(DatagramSocket socket, InetAddress dsAddr, int dsPort, long id, long version, byte[][] msgFrag) throws IOException {
+		int perRequest = (DiscoveryServer.MAX_PAYLOAD - Frame.HEADER_LENGTH - 10) / 2;
+		
+		int i = 0;
+		while(i < msgFrag.length) {
+			ArrayList<Integer> missing = new ArrayList<>();
+			for(; i<msgFrag.length && missing.size()<perRequest; i++)
+				if(msgFrag[i] == null) missing.add(i);
+			if(missing.isEmpty()) break;
+			
+			ByteBuffer req = BINARY ? Frame.allocate(Frame.OP_LIST_FRAGMENTS, id, 0, 1, 10 + 2 * missing.size())
+					: ByteBuffer.allocate(11 + 2 * missing.size()).put((byte) REQ_LIST_FRAGMENTS);
+			req.putLong(version).putShort((short) missing.size());
+			for(int index : missing) req.putShort((short) index);
+			
+			socket.send(framePacket(req, dsAddr, dsPort));
+		}
+	}
 }
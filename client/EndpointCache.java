@@ -0,0 +1,74 @@
+package client;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+// Cache nome del file -> endpoint del Row Swap Server usata da AsyncClient: un file già risolto di recente non richiede
+// la richiesta al Discovery Server. Le voci scadono dopo ttlMillis, perché il Row Swap Server può terminare o essere
+// sostituito senza che il Client lo sappia, e oltre maxEntries vengono scartate quelle usate meno di recente (LRU).
+// Una voce viene invalidata anche quando il Row Swap Server risponde con un errore, è offline o non risponde.
+final class EndpointCache {
+
+	private static final class Entry {
+		final InetSocketAddress endpoint;
+		final long expiresAt;
+
+		Entry(InetSocketAddress endpoint, long expiresAt) {
+			this.endpoint = endpoint;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+
+	private final int maxEntries;
+	private final long ttlNanos;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+
+	// maxEntries = 0 -> nessuna voce, ogni richiesta passa dal Discovery Server
+	public EndpointCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+	}
+
+
+	// null se il file non è in cache o la voce è scaduta
+	public synchronized InetSocketAddress get(String fileName) {
+		Entry entry = entries.get(fileName);
+		if(entry == null) return null;
+
+		if(System.nanoTime() - entry.expiresAt >= 0) {
+			entries.remove(fileName);
+			return null;
+		}
+
+		return entry.endpoint;
+	}
+
+	public synchronized void put(String fileName, InetSocketAddress endpoint) {
+		if(maxEntries <= 0) return;
+
+		entries.put(fileName, new Entry(endpoint, System.nanoTime() + ttlNanos));
+
+		Iterator<Entry> eldest = entries.values().iterator();
+		while(entries.size() > maxEntries) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	// la voce viene rimossa solo se indica ancora endpoint: una risoluzione più recente resta valida
+	public synchronized void invalidate(String fileName, InetSocketAddress endpoint) {
+		Entry entry = entries.get(fileName);
+		if(entry != null && entry.endpoint.equals(endpoint))
+			entries.remove(fileName);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+}
@@ -0,0 +1,95 @@
+package client;
+
+
+// Istogramma delle latenze in microsecondi usato da LoadGenerator, a bucket log-lineari come HdrHistogram: fino a
+// 2 * SUB_BUCKETS µs un bucket per microsecondo, poi SUB_BUCKETS bucket per ogni potenza di 2, quindi l'errore relativo
+// di un percentile resta sotto 1/SUB_BUCKETS (circa 1,6%) su tutta la scala con una memoria fissa.
+// Non sincronizzato: ogni client simulato registra nel proprio istogramma e alla fine vengono sommati (add).
+final class LatencyHistogram {
+
+	private final static int SUB_BITS = 6;
+	private final static int SUB_BUCKETS = 1 << SUB_BITS;
+	// valori oltre 2^(MAX_SHIFT + SUB_BITS + 1) µs (più di un'ora) finiscono nell'ultimo bucket
+	private final static int MAX_SHIFT = 26;
+	private final static int BUCKETS = SUB_BUCKETS * (MAX_SHIFT + 2);
+
+
+	// bucket non vuoto: valori da lowest a highest compresi (µs)
+	interface BucketConsumer {
+		void accept(long lowest, long highest, long count);
+	}
+
+
+	private final long[] counts = new long[BUCKETS];
+	private long total = 0;
+	private long sum = 0;
+	private long max = 0;
+
+
+	public void record(long micros) {
+		if(micros < 0) micros = 0;
+
+		counts[index(micros)]++;
+		total++;
+		sum += micros;
+		max = Math.max(max, micros);
+	}
+
+	public void add(LatencyHistogram other) {
+		for(int i=0; i<BUCKETS; i++) counts[i] += other.counts[i];
+		total += other.total;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	public long count() {
+		return total;
+	}
+
+	public long max() {
+		return max;
+	}
+
+	public double mean() {
+		return (total == 0) ? 0 : (double) sum / total;
+	}
+
+	// valore entro cui cade la frazione percentile/100 delle latenze (limite superiore del bucket, al più il massimo)
+	public long percentile(double percentile) {
+		if(total == 0) return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) return Math.min(highest(i), max);
+		}
+
+		return max;
+	}
+
+	public void forEach(BucketConsumer consumer) {
+		for(int i=0; i<BUCKETS; i++) {
+			if(counts[i] > 0) consumer.accept(lowest(i), highest(i), counts[i]);
+		}
+	}
+
+
+	private static int index(long micros) {
+		if(micros < 2 * SUB_BUCKETS) return (int) micros;
+
+		int shift = Math.min(63 - Long.numberOfLeadingZeros(micros) - SUB_BITS, MAX_SHIFT);
+		return (int) Math.min(BUCKETS - 1, SUB_BUCKETS * shift + (micros >> shift));
+	}
+
+	private static long lowest(int index) {
+		if(index < 2 * SUB_BUCKETS) return index;
+
+		int shift = index / SUB_BUCKETS - 1;
+		return (long) (index - SUB_BUCKETS * shift) << shift;
+	}
+
+	private static long highest(int index) {
+		return (index == BUCKETS - 1) ? Long.MAX_VALUE : lowest(index + 1) - 1;
+	}
+}
@@ -0,0 +1,630 @@
+package client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import server.DiscoveryServer;
+import server.Frame;
+
+
+// Generatore di carico per un Discovery Server e i suoi Row Swap Server: N client simulati, ognuno con un proprio thread
+// e le proprie socket, inviano un mix di richieste list/lookup/swap con gli stessi formati di Client e misurano la latenza
+// di ogni richiesta. Al termine stampa throughput e percentili per operazione con la distribuzione delle latenze e, con
+// -Dsns.load.out, scrive gli stessi risultati in JSON per confrontare esecuzioni diverse. Il formato dei datagrammi è
+// quello di Client (-Dsns.protocol), così i due formati si possono confrontare sotto lo stesso carico.
+// Ciclo chiuso (default): ogni client invia la richiesta successiva appena riceve la risposta. Ciclo aperto: le richieste
+// partono a intervalli fissi (sns.load.rate richieste al secondo in totale) e la latenza è misurata dall'istante previsto
+// di invio, così un server lento non riduce il carico né nasconde l'attesa (coordinated omission).
+public class LoadGenerator {
+
+	// richieste al Discovery Server: lista completa (frammentata) oppure writeUTF del nome del file
+	private final static int REQ_VISUALIZATION_FILE = 1;
+	// richieste al Row Swap Server, con identificativo per scartare le risposte in ritardo
+	private final static int REQ_SWAP_FILE = 2;
+	private final static int REQ_SWAP_LONG = 8;
+	private final static int REQ_LINE_COUNT = 7;
+	private final static int REQ_TAGGED = 9;
+
+	private final static byte RESPONSE_OK = 0;
+
+	private final static int MAX_REPLY_LENGTH = 2048;
+
+	private final static int OP_LIST = 0;
+	private final static int OP_LOOKUP = 1;
+	private final static int OP_SWAP = 2;
+	private final static String[] OP_NAMES = { "list", "lookup", "swap" };
+
+	private final static double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	// larghezza massima delle barre della distribuzione
+	private final static int BAR_WIDTH = 40;
+
+
+	private static InetAddress dsAddr = null;
+	private static int dsPort = -1;
+
+	// file usati da lookup e swap, con il Row Swap Server e il numero di righe letti all'avvio
+	private static String[] fileNames = null;
+	private static byte[][] lookupRequests = null;
+	private static InetSocketAddress[] endpoints = null;
+	private static long[] lineCounts = null;
+
+	// pesi del mix, nell'ordine di OP_NAMES
+	private static int[] mix = null;
+	private static int mixTotal = 0;
+
+	private static int timeoutMillis = 1000;
+
+
+	public static void main(String[] args) {
+		// args: IP Discovery Server, porta Discovery Server, uno o più nomi di file registrati
+
+		if(args.length < 3) {
+			System.err.println("[LOAD] : Errore -> Numero di argomenti errati.");
+			System.exit(1);
+		}
+
+		try {
+			dsAddr = InetAddress.getByName(args[0]);
+		} catch(UnknownHostException e) {
+			System.err.println("[LOAD] : Errore -> Indirizzo IP del Discovery Server sconosciuto: " + e);
+			System.exit(1);
+		}
+
+		try {
+			dsPort = Integer.parseInt(args[1]);
+			if(dsPort > 65535 || dsPort < 0)
+				throw new NumberFormatException();
+		} catch(NumberFormatException e) {
+			System.err.println("[LOAD] : Errore -> Porta del Discovery Server non valida: " + e);
+			System.exit(1);
+		}
+
+		int clients = Integer.getInteger("sns.load.clients", 8);
+		String mode = System.getProperty("sns.load.mode", "closed");
+		int rate = Integer.getInteger("sns.load.rate", 1000);
+		int duration = Integer.getInteger("sns.load.duration", 10);
+		int warmup = Integer.getInteger("sns.load.warmup", 2);
+		timeoutMillis = Integer.getInteger("sns.load.timeout", 1000);
+		String mixSpec = System.getProperty("sns.load.mix", "list=1,lookup=8,swap=1");
+		String out = System.getProperty("sns.load.out");
+		String protocol = System.getProperty("sns.protocol", "binary");
+
+		if(clients < 1 || duration < 1 || warmup < 0 || timeoutMillis < 1 || rate < 1 || (!mode.equals("closed") && !mode.equals("open"))
+				|| (!protocol.equals("binary") && !protocol.equals("legacy"))) {
+			System.err.println("[LOAD] : Errore -> Opzioni non valide: " + clients + " client, ciclo " + mode + ", " + rate + " richieste/s, "
+					+ duration + " s, " + warmup + " s di riscaldamento, timeout " + timeoutMillis + " ms, formato " + protocol + ".");
+			System.exit(1);
+		}
+
+		try {
+			parseMix(mixSpec);
+		} catch(IllegalArgumentException e) {
+			System.err.println("[LOAD] : Errore -> Mix di richieste non valido: " + e.getMessage());
+			System.exit(1);
+		}
+
+
+		// risoluzione dei file e numero di righe, una sola volta prima del carico
+		fileNames = Arrays.copyOfRange(args, 2, args.length);
+		lookupRequests = new byte[fileNames.length][];
+		endpoints = new InetSocketAddress[fileNames.length];
+		lineCounts = new long[fileNames.length];
+		try(DatagramSocket socket = new DatagramSocket()) {
+			socket.setSoTimeout(timeoutMillis);
+
+			for(int i=0; i<fileNames.length; i++) {
+				lookupRequests[i] = lookupRequest(fileNames[i]);
+				endpoints[i] = lookup(socket, lookupRequests[i]);
+				if(endpoints[i] == null) {
+					System.err.println("[LOAD] : Errore -> Il file " + fileNames[i] + " non è registrato nel Discovery Server.");
+					System.exit(2);
+				}
+
+				if(mix[OP_SWAP] > 0) {
+					lineCounts[i] = lineCount(socket, endpoints[i], fileNames[i]);
+					if(lineCounts[i] < 2) {
+						System.err.println("[LOAD] : Errore -> Il file " + fileNames[i] + " ha meno di due righe da scambiare.");
+						System.exit(2);
+					}
+				}
+			}
+		} catch(IOException e) {
+			System.err.println("[LOAD] : Errore -> Non è stato possibile preparare il carico: " + e);
+			System.exit(3);
+		}
+
+
+		System.out.println("[LOAD] : " + clients + " client, ciclo " + (mode.equals("open") ? "aperto a " + rate + " richieste/s" : "chiuso")
+				+ ", " + duration + " s + " + warmup + " s di riscaldamento, mix " + mixSpec + ", " + fileNames.length + " file, formato " + protocol + ".");
+
+		// le richieste inviate prima di measureFrom (riscaldamento) non vengono contate
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(duration);
+		long interval = mode.equals("open") ? TimeUnit.SECONDS.toNanos(clients) / rate : 0;
+
+		LG_ThreadClient[] threads = new LG_ThreadClient[clients];
+		try {
+			for(int i=0; i<clients; i++) {
+				threads[i] = new LG_ThreadClient(i, start + i * interval / clients, interval, measureFrom, end);
+				threads[i].start();
+			}
+
+			for(LG_ThreadClient thread : threads) thread.join();
+		} catch(SocketException e) {
+			System.err.println("[LOAD] : Errore -> Creazione della socket non riuscita: " + e);
+			System.exit(3);
+		} catch(InterruptedException e) {
+			System.err.println("[LOAD] : Errore -> Thread terminato improvvisamente: " + e);
+			System.exit(3);
+		}
+
+
+		// risultati di tutti i client
+		LatencyHistogram[] histograms = new LatencyHistogram[OP_NAMES.length];
+		long[] errors = new long[OP_NAMES.length];
+		long[] timeouts = new long[OP_NAMES.length];
+		for(int op=0; op<OP_NAMES.length; op++) {
+			histograms[op] = new LatencyHistogram();
+			for(LG_ThreadClient thread : threads) {
+				histograms[op].add(thread.histograms[op]);
+				errors[op] += thread.errors[op];
+				timeouts[op] += thread.timeouts[op];
+			}
+		}
+
+		LatencyHistogram all = new LatencyHistogram();
+		for(LatencyHistogram histogram : histograms) all.add(histogram);
+
+		printReport(histograms, all, errors, timeouts, duration);
+
+		if(out != null) {
+			try {
+				Files.write(Paths.get(out), json(histograms, all, errors, timeouts, clients, mode, rate, duration, warmup, mixSpec, protocol).getBytes(StandardCharsets.UTF_8));
+				System.out.println("[LOAD] : Risultati scritti in " + out + ".");
+			} catch(IOException e) {
+				System.err.println("[LOAD] : Errore -> Impossibile scrivere i risultati: " + e);
+				System.exit(4);
+			}
+		}
+	}
+
+
+	// "list=1,lookup=8,swap=1": pesi relativi, le operazioni assenti hanno peso 0
+	private static void parseMix(String spec) {
+		mix = new int[OP_NAMES.length];
+		for(String item : spec.split(",")) {
+			String[] pair = item.trim().split("=");
+			int op = Arrays.asList(OP_NAMES).indexOf(pair[0].trim());
+			if(pair.length != 2 || op < 0) throw new IllegalArgumentException(item);
+
+			try {
+				mix[op] = Integer.parseInt(pair[1].trim());
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException(item);
+			}
+			if(mix[op] < 0) throw new IllegalArgumentException(item);
+		}
+
+		mixTotal = 0;
+		for(int weight : mix) mixTotal += weight;
+		if(mixTotal == 0) throw new IllegalArgumentException(spec);
+	}
+
+
+	// Client simulato: socket proprie verso il Discovery Server e i Row Swap Server e statistiche proprie, sommate alla fine
+	private static class LG_ThreadClient extends Thread {
+
+		private final Random random;
+		private final long firstSend;
+		private final long interval;
+		private final long measureFrom;
+		private final long end;
+
+		// le risposte del Discovery Server non hanno identificativo: dopo un timeout la socket viene sostituita, così una
+		// risposta in ritardo non viene presa per quella della richiesta successiva
+		private DatagramSocket dsSocket;
+		private final DatagramSocket rsSocket;
+		private long requestId;
+
+		private final DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+		private final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		private final DataOutputStream dout = new DataOutputStream(bout);
+
+		final LatencyHistogram[] histograms = new LatencyHistogram[OP_NAMES.length];
+		final long[] errors = new long[OP_NAMES.length];
+		final long[] timeouts = new long[OP_NAMES.length];
+
+		public LG_ThreadClient(int n, long firstSend, long interval, long measureFrom, long end) throws SocketException {
+			super("LG_CLIENT-" + n);
+			setDaemon(true);
+
+			this.random = new Random(n);
+			this.firstSend = firstSend;
+			this.interval = interval;
+			this.measureFrom = measureFrom;
+			this.end = end;
+
+			dsSocket = new DatagramSocket();
+			dsSocket.setSoTimeout(timeoutMillis);
+			rsSocket = new DatagramSocket();
+			rsSocket.setSoTimeout(timeoutMillis);
+			requestId = ((long) n << 48) | (System.nanoTime() & 0xFFFFFFFFFFFFL);
+
+			for(int op=0; op<OP_NAMES.length; op++) histograms[op] = new LatencyHistogram();
+		}
+
+
+		public void run() {
+			long next = firstSend;
+
+			while(true) {
+				// istante previsto di invio: in ciclo aperto segue il calendario anche se il client è in ritardo
+				long intended;
+				if(interval > 0) {
+					intended = next;
+					next += interval;
+
+					long wait = intended - System.nanoTime();
+					if(wait > 0) LockSupport.parkNanos(wait);
+				} else {
+					if(System.nanoTime() - firstSend < 0) LockSupport.parkNanos(firstSend - System.nanoTime());
+					intended = System.nanoTime();
+				}
+				if(intended - end >= 0) break;
+
+				int op = nextOp();
+				int file = random.nextInt(fileNames.length);
+
+				boolean ok = false;
+				boolean timedOut = false;
+				try {
+					if(op == OP_LIST) ok = list();
+					else if(op == OP_LOOKUP) ok = lookup(dsSocket, lookupRequests[file]) != null;
+					else ok = swap(file);
+				} catch(SocketTimeoutException e) {
+					timedOut = true;
+				} catch(IOException e) {
+					// risposta non valida: contata come errore
+				}
+
+				if(timedOut && op != OP_SWAP) {
+					try {
+						dsSocket.close();
+						dsSocket = new DatagramSocket();
+						dsSocket.setSoTimeout(timeoutMillis);
+					} catch(SocketException e) {
+						System.err.println("[LOAD] : Errore -> Creazione della socket non riuscita: " + e);
+						System.exit(3);
+					}
+				}
+
+				if(intended - measureFrom < 0) continue;
+
+				if(timedOut) timeouts[op]++;
+				else {
+					histograms[op].record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+					if(!ok) errors[op]++;
+				}
+			}
+
+			dsSocket.close();
+			rsSocket.close();
+		}
+
+		private int nextOp() {
+			int pick = random.nextInt(mixTotal);
+			for(int op=0; op<mix.length; op++) {
+				pick -= mix[op];
+				if(pick < 0) return op;
+			}
+
+			return OP_LOOKUP;
+		}
+
+		// lista completa come Client: header [int frammenti] seguito dai frammenti "i:" + nomi, oppure nel formato binario
+		// un datagramma per frammento con il numero di frammenti nell'header (un solo datagramma se la lista è vuota)
+		private boolean list() throws IOException {
+			if(Client.BINARY) {
+				long id = ++requestId;
+				byte[] req = Frame.allocate(Frame.OP_LIST, id, 0, 1, 0).array();
+				dsSocket.send(new DatagramPacket(req, req.length, dsAddr, dsPort));
+
+				ByteBuffer frame;
+				do {
+					dsSocket.receive(packetIn);
+					frame = ByteBuffer.wrap(packetIn.getData(), 0, packetIn.getLength());
+					if(!Frame.is(frame)) return false;
+				} while(Frame.id(frame) != id);
+				if(Frame.status(frame) != RESPONSE_OK) return false;
+
+				for(int i=1; i<Frame.fragments(frame); i++) dsSocket.receive(packetIn);
+				return true;
+			}
+
+			dsSocket.send(new DatagramPacket(new byte[] { REQ_VISUALIZATION_FILE }, 1, dsAddr, dsPort));
+
+			dsSocket.receive(packetIn);
+			if(packetIn.getLength() < 4) return false;
+			int totalFrag = ByteBuffer.wrap(packetIn.getData(), 0, 4).getInt();
+
+			for(int i=0; i<totalFrag; i++) dsSocket.receive(packetIn);
+			return true;
+		}
+
+		// [byte REQ_TAGGED][long id][byte REQ_SWAP_FILE][UTF nome del file][int linea1][int linea2] (REQ_SWAP_LONG con indici
+		// long se uno dei due non entra in un int) oppure [header OP_SWAP][UTF nome del file][long linea1][long linea2],
+		// righe distinte a caso.
+		// Le risposte con un altro identificativo (in ritardo) vengono scartate
+		private boolean swap(int file) throws IOException {
+			long lines = lineCounts[file];
+			long index1 = 1 + random.nextLong(lines);
+			long index2 = 1 + random.nextLong(lines - 1);
+			if(index2 >= index1) index2++;
+
+			long id = ++requestId;
+			if(Client.BINARY) {
+				byte[] req = Frame.putName(Frame.allocate(Frame.OP_SWAP, id, 0, 1, Frame.nameLength(fileNames[file]) + 16), fileNames[file]).putLong(index1).putLong(index2).array();
+				rsSocket.send(new DatagramPacket(req, req.length, endpoints[file]));
+
+				while(true) {
+					rsSocket.receive(packetIn);
+					ByteBuffer frame = ByteBuffer.wrap(packetIn.getData(), 0, packetIn.getLength());
+					if(Frame.is(frame) && Frame.id(frame) == id) return Frame.status(frame) == RESPONSE_OK;
+					if(packetIn.getLength() == 1) return false;
+				}
+			}
+
+			bout.reset();
+			dout.writeByte(REQ_TAGGED);
+			dout.writeLong(id);
+			if(index1 == (int) index1 && index2 == (int) index2) {
+				dout.writeByte(REQ_SWAP_FILE);
+				dout.writeUTF(fileNames[file]);
+				dout.writeInt((int) index1);
+				dout.writeInt((int) index2);
+			} else {
+				dout.writeByte(REQ_SWAP_LONG);
+				dout.writeUTF(fileNames[file]);
+				dout.writeLong(index1);
+				dout.writeLong(index2);
+			}
+			dout.flush();
+
+			byte[] req = bout.toByteArray();
+			rsSocket.send(new DatagramPacket(req, req.length, endpoints[file]));
+
+			while(true) {
+				rsSocket.receive(packetIn);
+				if(packetIn.getLength() >= 9 && ByteBuffer.wrap(packetIn.getData(), 0, 8).getLong() == id)
+					return packetIn.getData()[8] == RESPONSE_OK;
+				// Row Swap Server non ancora registrato (risposta senza identificativo)
+				if(packetIn.getLength() == 1) return false;
+			}
+		}
+	}
+
+
+	// richiesta di ricerca writeUTF(nome del file) oppure [header OP_LOOKUP][UTF nome del file], la stessa di Client
+	private static byte[] lookupRequest(String fileName) throws IOException {
+		if(Client.BINARY) return Frame.putName(Frame.allocate(Frame.OP_LOOKUP, 0, 0, 1, Frame.nameLength(fileName)), fileName).array();
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		dout.writeUTF(fileName);
+		dout.flush();
+
+		return bout.toByteArray();
+	}
+
+	// risposta writeUTF("IP:porta") oppure "0:0" se il file non è registrato (null); nel formato binario [header][flag][indirizzo]
+	// oppure [header][RESPONSE_ERR]
+	private static InetSocketAddress lookup(DatagramSocket socket, byte[] request) throws IOException {
+		socket.send(new DatagramPacket(request, request.length, dsAddr, dsPort));
+
+		DatagramPacket packetIn = new DatagramPacket(new byte[DiscoveryServer.MAX_PAYLOAD], DiscoveryServer.MAX_PAYLOAD);
+		socket.receive(packetIn);
+
+		if(Client.BINARY) {
+			ByteBuffer frame = ByteBuffer.wrap(packetIn.getData(), 0, packetIn.getLength());
+			if(!Frame.is(frame)) throw new IOException("il Discovery Server non supporta il formato binario, usare -Dsns.protocol=legacy.");
+			if(Frame.status(frame) != RESPONSE_OK) return null;
+
+			try {
+				return Frame.getAddress(frame.position(Frame.HEADER_LENGTH + 1));
+			} catch(IllegalArgumentException | BufferUnderflowException e) {
+				throw new IOException("risposta del Discovery Server non valida: " + e.getMessage());
+			}
+		}
+
+		String[] endpoint = new DataInputStream(new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength())).readUTF().split(":");
+		if(endpoint.length != 2 || (endpoint[0].equals("0") && endpoint[1].equals("0"))) return null;
+
+		try {
+			return new InetSocketAddress(InetAddress.getByName(endpoint[0]), Integer.parseInt(endpoint[1]));
+		} catch(NumberFormatException e) {
+			throw new IOException("risposta del Discovery Server non valida: " + endpoint[1]);
+		}
+	}
+
+	// [byte REQ_TAGGED][long id][byte REQ_LINE_COUNT][UTF nome del file] -> [long id][byte flag][long righe]
+	// oppure [header OP_LINE_COUNT][UTF nome del file] -> [header][byte flag][long righe]
+	private static long lineCount(DatagramSocket socket, InetSocketAddress endpoint, String fileName) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		long id = System.nanoTime();
+		if(Client.BINARY) {
+			byte[] req = Frame.putName(Frame.allocate(Frame.OP_LINE_COUNT, id, 0, 1, Frame.nameLength(fileName)), fileName).array();
+			socket.send(new DatagramPacket(req, req.length, endpoint));
+
+			DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+			socket.receive(packetIn);
+
+			ByteBuffer frame = ByteBuffer.wrap(packetIn.getData(), 0, packetIn.getLength());
+			if(packetIn.getLength() < Frame.HEADER_LENGTH + 9 || !Frame.is(frame) || Frame.id(frame) != id || Frame.status(frame) != RESPONSE_OK)
+				throw new IOException("numero di righe di " + fileName + " non disponibile.");
+
+			return frame.getLong(Frame.HEADER_LENGTH + 1);
+		}
+
+		dout.writeByte(REQ_TAGGED);
+		dout.writeLong(id);
+		dout.writeByte(REQ_LINE_COUNT);
+		dout.writeUTF(fileName);
+		dout.flush();
+
+		byte[] req = bout.toByteArray();
+		socket.send(new DatagramPacket(req, req.length, endpoint));
+
+		DatagramPacket packetIn = new DatagramPacket(new byte[MAX_REPLY_LENGTH], MAX_REPLY_LENGTH);
+		socket.receive(packetIn);
+
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength()));
+		if(packetIn.getLength() < 17 || din.readLong() != id || din.readByte() != RESPONSE_OK)
+			throw new IOException("numero di righe di " + fileName + " non disponibile.");
+
+		return din.readLong();
+	}
+
+
+	private static void printReport(LatencyHistogram[] histograms, LatencyHistogram all, long[] errors, long[] timeouts, int duration) {
+		System.out.println("\n========== RISULTATI (latenze in µs) ==========");
+
+		StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-8s %10s %8s %8s %10s %9s", "op", "richieste", "errori", "timeout", "req/s", "media"));
+		for(double percentile : PERCENTILES) header.append(String.format(Locale.ROOT, " %9s", "p" + label(percentile)));
+		header.append(String.format(Locale.ROOT, " %9s", "max"));
+		System.out.println(header);
+
+		long allErrors = 0;
+		long allTimeouts = 0;
+		for(int op=0; op<OP_NAMES.length; op++) {
+			if(mix[op] == 0) continue;
+
+			System.out.println(row(OP_NAMES[op], histograms[op], errors[op], timeouts[op], duration));
+			allErrors += errors[op];
+			allTimeouts += timeouts[op];
+		}
+		System.out.println(row("totale", all, allErrors, allTimeouts, duration));
+
+		for(int op=0; op<OP_NAMES.length; op++) {
+			if(histograms[op].count() == 0) continue;
+
+			System.out.println("\n---------- " + OP_NAMES[op] + ": distribuzione delle latenze ----------");
+			printDistribution(histograms[op]);
+		}
+	}
+
+	private static String row(String name, LatencyHistogram histogram, long errors, long timeouts, int duration) {
+		StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%-8s %10d %8d %8d %10.1f %9.1f",
+				name, histogram.count() + timeouts, errors, timeouts, (double) histogram.count() / duration, histogram.mean()));
+		for(double percentile : PERCENTILES) row.append(String.format(Locale.ROOT, " %9d", histogram.percentile(percentile)));
+		row.append(String.format(Locale.ROOT, " %9d", histogram.max()));
+
+		return row.toString();
+	}
+
+	// richieste per potenza di 2 di latenza, con una barra proporzionale alla più numerosa
+	private static void printDistribution(LatencyHistogram histogram) {
+		long[] octaves = new long[64];
+		histogram.forEach((lowest, highest, count) -> octaves[63 - Long.numberOfLeadingZeros(Math.max(1, lowest))] += count);
+
+		long largest = 0;
+		int first = 64;
+		int last = -1;
+		for(int i=0; i<64; i++) {
+			if(octaves[i] == 0) continue;
+
+			largest = Math.max(largest, octaves[i]);
+			first = Math.min(first, i);
+			last = i;
+		}
+
+		for(int i=first; i<=last; i++) {
+			int width = (int) (octaves[i] * BAR_WIDTH / largest);
+			System.out.println(String.format(Locale.ROOT, "%9d - %9d |%-" + BAR_WIDTH + "s %d",
+					(i == 0) ? 0 : 1L << i, (1L << (i + 1)) - 1, "#".repeat(width), octaves[i]));
+		}
+	}
+
+	// 99.9 -> "99.9", 50 -> "50"
+	private static String label(double percentile) {
+		return (percentile == Math.rint(percentile)) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+	}
+
+
+	// risultati in JSON: configurazione, totali e per operazione richieste, errori, timeout, throughput, percentili e
+	// bucket non vuoti dell'istogramma [da, a, richieste] in µs
+	private static String json(LatencyHistogram[] histograms, LatencyHistogram all, long[] errors, long[] timeouts,
+			int clients, String mode, int rate, int duration, int warmup, String mixSpec, String protocol) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"config\": {");
+		json.append("\"clients\": ").append(clients);
+		json.append(", \"mode\": \"").append(mode).append('"');
+		json.append(", \"rate\": ").append(mode.equals("open") ? String.valueOf(rate) : "null");
+		json.append(", \"duration_s\": ").append(duration);
+		json.append(", \"warmup_s\": ").append(warmup);
+		json.append(", \"timeout_ms\": ").append(timeoutMillis);
+		json.append(", \"mix\": \"").append(mixSpec.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		json.append(", \"files\": ").append(fileNames.length);
+		json.append(", \"protocol\": \"").append(protocol).append('"');
+		json.append("},\n  \"ops\": {");
+
+		long allErrors = 0;
+		long allTimeouts = 0;
+		boolean firstOp = true;
+		for(int op=0; op<OP_NAMES.length; op++) {
+			if(mix[op] == 0) continue;
+
+			json.append(firstOp ? "\n" : ",\n").append("    \"").append(OP_NAMES[op]).append("\": ");
+			jsonStats(json, histograms[op], errors[op], timeouts[op], duration);
+			allErrors += errors[op];
+			allTimeouts += timeouts[op];
+			firstOp = false;
+		}
+
+		json.append("\n  },\n  \"total\": ");
+		jsonStats(json, all, allErrors, allTimeouts, duration);
+		json.append("\n}\n");
+
+		return json.toString();
+	}
+
+	private static void jsonStats(StringBuilder json, LatencyHistogram histogram, long errors, long timeouts, int duration) {
+		json.append("{\"requests\": ").append(histogram.count() + timeouts);
+		json.append(", \"errors\": ").append(errors);
+		json.append(", \"timeouts\": ").append(timeouts);
+		json.append(", \"throughput\": ").append(String.format(Locale.ROOT, "%.1f", (double) histogram.count() / duration));
+		json.append(", \"mean_us\": ").append(String.format(Locale.ROOT, "%.1f", histogram.mean()));
+		for(double percentile : PERCENTILES)
+			json.append(", \"p").append(label(percentile).replace('.', '_')).append("_us\": ").append(histogram.percentile(percentile));
+		json.append(", \"max_us\": ").append(histogram.max());
+
+		json.append(", \"histogram\": [");
+		StringBuilder buckets = new StringBuilder();
+		histogram.forEach((lowest, highest, count) ->
+				buckets.append((buckets.length() == 0) ? "" : ", ").append('[').append(lowest).append(", ").append(highest).append(", ").append(count).append(']'));
+		json.append(buckets).append("]}");
+	}
+}
@@ -0,0 +1,233 @@
+package client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import server.Frame;
+
+
+// AsyncClient contro un Discovery Server e dei Row Swap Server simulati su loopback (formato binario): ripetizione di uno
+// scambio senza risposta con lo stesso identificativo, endpoint riusati dalla cache, nuova risoluzione quando il server
+// in cache non serve più il file.
+class AsyncClientTest {
+
+	private final static byte RESPONSE_OK = 0;
+	private final static byte RESPONSE_ERR = 1;
+	private final static byte RESPONSE_SERVER_OFFLINE = 5;
+
+
+	// server UDP che risponde con handler (null -> nessuna risposta, come un datagramma perso)
+	private static final class FakeServer implements AutoCloseable {
+		final DatagramSocket socket;
+		final List<ByteBuffer> received = new CopyOnWriteArrayList<>();
+
+		FakeServer(Function<ByteBuffer, byte[]> handler) throws IOException {
+			socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+
+			Thread thread = new Thread(() -> {
+				DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+				while(!socket.isClosed()) {
+					try {
+						socket.receive(packet);
+						ByteBuffer req = ByteBuffer.wrap(Arrays.copyOf(packet.getData(), packet.getLength()));
+						received.add(req);
+
+						byte[] res = handler.apply(req.duplicate());
+						if(res != null) socket.send(new DatagramPacket(res, res.length, packet.getSocketAddress()));
+					} catch(IOException e) {
+						return;
+					}
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		InetSocketAddress address() {
+			return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+		}
+
+		@Override
+		public void close() {
+			socket.close();
+		}
+	}
+
+
+	// Discovery Server: nome -> endpoint, risposta a OP_BATCH_LOOKUP
+	private final ConcurrentHashMap<String, InetSocketAddress> registered = new ConcurrentHashMap<>();
+	private final AtomicInteger lookups = new AtomicInteger();
+	private FakeServer ds;
+	private AsyncClient client;
+
+
+	private void start(int cacheEntries) throws IOException {
+		ds = new FakeServer(req -> {
+			byte op = Frame.op(req);
+			long id = Frame.id(req);
+			Frame.body(req);
+
+			int n = req.getShort() & 0xFFFF;
+			lookups.addAndGet(n);
+
+			ByteBuffer res = Frame.allocate(op, id, 0, 1, 3 + 8 * n).put(RESPONSE_OK).putShort((short) n);
+			for(int i=0; i<n; i++) {
+				InetSocketAddress endpoint = registered.get(Frame.getName(req));
+				if(endpoint == null) res.put((byte) 0);
+				else res.put((byte) 1).put((byte) 4).put(endpoint.getAddress().getAddress()).putShort((short) endpoint.getPort());
+			}
+
+			return Arrays.copyOf(res.array(), res.position());
+		});
+
+		client = new AsyncClient(InetAddress.getLoopbackAddress(), ds.socket.getLocalPort(), cacheEntries, 60_000);
+	}
+
+	// Row Swap Server che risponde flag agli scambi, dopo aver ignorato i primi drop tentativi
+	private static FakeServer rowSwapServer(int drop, byte flag) throws IOException {
+		AtomicInteger seen = new AtomicInteger();
+		return new FakeServer(req -> {
+			if(Frame.op(req) != Frame.OP_SWAP || seen.incrementAndGet() <= drop) return null;
+			return Frame.reply(Frame.OP_SWAP, Frame.id(req), flag);
+		});
+	}
+
+	private static boolean get(CompletableFuture<Boolean> f) throws Exception {
+		return f.get(10, TimeUnit.SECONDS);
+	}
+
+	@AfterEach
+	void close() {
+		if(client != null) client.close();
+		if(ds != null) ds.close();
+	}
+
+
+	@Test
+	void lostReplyIsRetriedWithTheSameId() throws Exception {
+		start(16);
+		try(FakeServer rs = rowSwapServer(2, RESPONSE_OK)) {
+			registered.put("f1.txt", rs.address());
+
+			assertTrue(get(client.swap("f1.txt", 1, 2)));
+
+			// due tentativi senza risposta e il terzo con risposta, tutti con lo stesso identificativo: il Row Swap Server
+			// può riconoscere i duplicati (vedi ReplyCache)
+			assertEquals(3, rs.received.size());
+			long id = Frame.id(rs.received.get(0));
+			for(ByteBuffer req : rs.received)
+				assertEquals(id, Frame.id(req));
+		}
+	}
+
+	@Test
+	void cachedEndpointSkipsTheDiscoveryServer() throws Exception {
+		start(16);
+		try(FakeServer rs = rowSwapServer(0, RESPONSE_OK)) {
+			registered.put("f1.txt", rs.address());
+
+			assertTrue(get(client.swap("f1.txt", 1, 2)));
+			assertTrue(get(client.swap("f1.txt", 3, 4)));
+			assertEquals(rs.address(), client.resolve("f1.txt").get(5, TimeUnit.SECONDS));
+
+			assertEquals(1, lookups.get());
+			assertEquals(2, rs.received.size());
+			// ogni scambio ha un proprio identificativo
+			assertFalse(Frame.id(rs.received.get(0)) == Frame.id(rs.received.get(1)));
+		}
+	}
+
+	@Test
+	void withoutCacheEverySwapIsResolved() throws Exception {
+		start(0);
+		try(FakeServer rs = rowSwapServer(0, RESPONSE_OK)) {
+			registered.put("f1.txt", rs.address());
+
+			assertTrue(get(client.swap("f1.txt", 1, 2)));
+			assertTrue(get(client.swap("f1.txt", 3, 4)));
+			assertEquals(2, lookups.get());
+		}
+	}
+
+	@Test
+	void staleEndpointIsResolvedAgain() throws Exception {
+		start(16);
+		AtomicInteger flag = new AtomicInteger(RESPONSE_OK);
+		try(FakeServer old = new FakeServer(req -> Frame.reply(Frame.OP_SWAP, Frame.id(req), (byte) flag.get()));
+				FakeServer moved = rowSwapServer(0, RESPONSE_OK)) {
+			registered.put("f1.txt", old.address());
+			assertTrue(get(client.swap("f1.txt", 1, 2)));
+
+			// il file ora è servito da un altro Row Swap Server, quello in cache risponde che è offline
+			registered.put("f1.txt", moved.address());
+			flag.set(RESPONSE_SERVER_OFFLINE);
+			assertTrue(get(client.swap("f1.txt", 3, 4)));
+
+			assertEquals(2, lookups.get());
+			assertEquals(2, old.received.size());
+			// lo scambio ripetuto sul nuovo server mantiene l'identificativo del primo tentativo
+			assertEquals(1, moved.received.size());
+			assertEquals(Frame.id(old.received.get(1)), Frame.id(moved.received.get(0)));
+			assertEquals(moved.address(), client.resolve("f1.txt").get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	void silentEndpointIsResolvedAgain() throws Exception {
+		start(16);
+		try(FakeServer old = rowSwapServer(0, RESPONSE_OK); FakeServer moved = rowSwapServer(0, RESPONSE_OK)) {
+			registered.put("f1.txt", old.address());
+			assertTrue(get(client.swap("f1.txt", 1, 2)));
+
+			// il server in cache non risponde più: dopo MAX_RETRIES il file viene risolto di nuovo
+			registered.put("f1.txt", moved.address());
+			old.close();
+			assertTrue(client.swap("f1.txt", 3, 4).get(15, TimeUnit.SECONDS));
+			assertEquals(2, lookups.get());
+		}
+	}
+
+	@Test
+	void rejectedSwapInvalidatesTheCache() throws Exception {
+		start(16);
+		try(FakeServer rs = rowSwapServer(0, RESPONSE_ERR)) {
+			registered.put("f1.txt", rs.address());
+
+			assertFalse(get(client.swap("f1.txt", 1, 2)));
+			assertFalse(get(client.swap("f1.txt", 1, 2)));
+			// il rifiuto può indicare che il file non è più servito: il secondo scambio risolve di nuovo il file
+			assertEquals(2, lookups.get());
+		}
+	}
+
+	@Test
+	void unknownFileFails() throws Exception {
+		start(16);
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> get(client.swap("nope.txt", 1, 2)));
+		assertInstanceOf(FileNotFoundException.class, e.getCause());
+	}
+}
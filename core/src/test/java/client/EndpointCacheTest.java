@@ -0,0 +1,63 @@
+package client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.net.InetSocketAddress;
+
+import org.junit.jupiter.api.Test;
+
+
+// Cache degli endpoint di AsyncClient: scadenza delle voci, scarto di quelle usate meno di recente oltre maxEntries, e
+// invalidazione che non rimuove una risoluzione più recente verso un altro Row Swap Server.
+class EndpointCacheTest {
+
+	private final static InetSocketAddress RS1 = new InetSocketAddress("127.0.0.1", 5001);
+	private final static InetSocketAddress RS2 = new InetSocketAddress("127.0.0.1", 5002);
+
+
+	@Test
+	void entriesExpire() throws InterruptedException {
+		EndpointCache cache = new EndpointCache(16, 50);
+		cache.put("f1.txt", RS1);
+		assertEquals(RS1, cache.get("f1.txt"));
+
+		Thread.sleep(80);
+		assertNull(cache.get("f1.txt"));
+	}
+
+	@Test
+	void leastRecentlyUsedIsEvicted() {
+		EndpointCache cache = new EndpointCache(2, 60_000);
+		cache.put("f1.txt", RS1);
+		cache.put("f2.txt", RS1);
+
+		// f1.txt usato di recente: oltre maxEntries viene scartato f2.txt
+		cache.get("f1.txt");
+		cache.put("f3.txt", RS2);
+
+		assertEquals(RS1, cache.get("f1.txt"));
+		assertNull(cache.get("f2.txt"));
+		assertEquals(RS2, cache.get("f3.txt"));
+	}
+
+	@Test
+	void invalidateKeepsANewerEndpoint() {
+		EndpointCache cache = new EndpointCache(16, 60_000);
+		cache.put("f1.txt", RS2);
+
+		// errore di uno scambio partito quando il file era ancora servito da RS1
+		cache.invalidate("f1.txt", RS1);
+		assertEquals(RS2, cache.get("f1.txt"));
+
+		cache.invalidate("f1.txt", RS2);
+		assertNull(cache.get("f1.txt"));
+	}
+
+	@Test
+	void disabledCacheKeepsNothing() {
+		EndpointCache cache = new EndpointCache(0, 60_000);
+		cache.put("f1.txt", RS1);
+		assertNull(cache.get("f1.txt"));
+	}
+}
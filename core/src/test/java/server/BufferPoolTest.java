@@ -0,0 +1,52 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+
+// Il pool alloca oltre la propria dimensione durante un picco ma conserva solo count buffer.
+class BufferPoolTest {
+
+	@Test
+	void extraBuffersAreNotKept() {
+		BufferPool pool = new BufferPool(2, 64);
+
+		ByteBuffer a = pool.acquire();
+		ByteBuffer b = pool.acquire();
+		// pool esaurito: nuova allocazione
+		ByteBuffer c = pool.acquire();
+		assertTrue(c.isDirect());
+		assertEquals(64, c.capacity());
+
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+
+		// tornano i due buffer conservati, c è stato lasciato al garbage collector
+		ByteBuffer x = pool.acquire();
+		ByteBuffer y = pool.acquire();
+		ByteBuffer z = pool.acquire();
+		assertSame(b, x);
+		assertSame(a, y);
+		assertNotSame(c, z);
+	}
+
+	@Test
+	void acquiredBuffersAreCleared() {
+		BufferPool pool = new BufferPool(1, 16);
+
+		ByteBuffer buf = pool.acquire();
+		buf.put((byte) 1).flip();
+		pool.release(buf);
+
+		buf = pool.acquire();
+		assertEquals(0, buf.position());
+		assertEquals(16, buf.limit());
+	}
+}
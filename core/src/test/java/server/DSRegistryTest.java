@@ -0,0 +1,185 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+// Registro del Discovery Server: chiavi sul nome registrato (anche con la sonda senza allocazioni), pagine per prefisso,
+// lista file inviata ai Client aggiornata a ogni registrazione, rimozione o scadenza del lease, senza attendere una richiesta.
+class DSRegistryTest {
+
+	private final static String ADDR = "127.0.0.1";
+
+
+	// righe della lista file, ricomposte dai frammenti
+	private static List<String> lines(DSFileList list) {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for(int i=1; i<=list.totalFrag(); i++) {
+			byte[] packet = list.packet(i);
+			int offset = list.dataOffset(i);
+			assertTrue(packet.length - offset <= DiscoveryServer.MAX_PAYLOAD);
+			data.write(packet, offset, packet.length - offset);
+		}
+
+		ArrayList<String> res = new ArrayList<>();
+		for(String line : data.toString().split("\n"))
+			if(!line.isEmpty()) res.add(line.substring(1));
+
+		return res;
+	}
+
+	private static List<String> names(Iterable<DSRegistry.Entry> entries) {
+		ArrayList<String> res = new ArrayList<>();
+		for(DSRegistry.Entry entry : entries)
+			res.add(entry.name);
+
+		return res;
+	}
+
+	// nome cercato dal Client come arriva nel pacchetto: [short lunghezza][byte writeUTF]
+	private static DSRegistry.Entry probe(DSRegistry registry, String name) {
+		ByteBuffer req = ByteBuffer.wrap(NameKey.utf(name));
+		return registry.lookup(new NameKey().wrap(DSRegistry.RESOURCES_PREFIX, req, 2, req.limit() - 2));
+	}
+
+	private static String file(int i) {
+		// registrati già in ordine di nome, che è l'ordine della ricostruzione
+		return DSRegistry.RESOURCES_DIR + "file_" + "x".repeat(40) + String.format("_%03d.txt", i);
+	}
+
+
+	@Test
+	void namesAreKeyedAsRegistered() {
+		DSRegistry registry = new DSRegistry(16);
+		DSRegistry.Entry prefixed = registry.register(ADDR, 5001, DSRegistry.RESOURCES_DIR + "f1.txt", 0);
+		// stesso nome visto dal Client ma registrato senza prefisso: non è un duplicato
+		DSRegistry.Entry bare = registry.register(ADDR, 5002, "f1.txt", 0);
+		assertEquals(2, registry.size());
+
+		assertSame(prefixed, registry.lookup("f1.txt"));
+		assertSame(prefixed, probe(registry, "f1.txt"));
+		assertSame(prefixed, registry.registered(DSRegistry.RESOURCES_DIR + "f1.txt"));
+		assertSame(bare, registry.registered("f1.txt"));
+
+		// la de-registrazione di una voce non tocca l'altra
+		registry.unregister(ADDR, 5002);
+		assertNull(registry.registered("f1.txt"));
+		assertSame(prefixed, registry.lookup("f1.txt"));
+	}
+
+	@Test
+	void probeMatchesStringLookupInEveryShard() {
+		DSRegistry registry = new DSRegistry(256);
+		for(int i=0; i<200; i++)
+			registry.register(ADDR, 6000 + i, DSRegistry.RESOURCES_DIR + "f" + i + ".txt", 0);
+		registry.register(ADDR, 7000, DSRegistry.RESOURCES_DIR + "città/è.txt", 0);
+
+		for(int i=0; i<200; i++) {
+			String name = "f" + i + ".txt";
+			assertNotNull(registry.lookup(name), name);
+			assertSame(registry.lookup(name), probe(registry, name));
+		}
+		assertNotNull(probe(registry, "città/è.txt"));
+
+		assertNull(probe(registry, "f200.txt"));
+		// il prefisso non fa parte del nome cercato dal Client
+		assertNull(probe(registry, DSRegistry.RESOURCES_DIR + "f1.txt"));
+	}
+
+	@Test
+	void pagesFollowPrefixAndCursor() {
+		DSRegistry registry = new DSRegistry(16);
+		registry.register(ADDR, 5001, DSRegistry.RESOURCES_DIR + "a2.txt", 0);
+		registry.register(ADDR, 5002, DSRegistry.RESOURCES_DIR + "b1.txt", 0);
+		registry.register(ADDR, 5003, DSRegistry.RESOURCES_DIR + "a1.txt", 0);
+		registry.register(ADDR, 5004, DSRegistry.RESOURCES_DIR + "a3.txt", 0);
+		// fuori dalla cartella delle risorse: non raggiungibile dal Client
+		registry.register(ADDR, 5005, "a0.txt", 0);
+
+		assertEquals(List.of("a1.txt", "a2.txt", "a3.txt", "b1.txt"), names(registry.page("", "")));
+		assertEquals(List.of("a1.txt", "a2.txt", "a3.txt"), names(registry.page("a", "")));
+		assertEquals(List.of("a2.txt", "a3.txt"), names(registry.page("a", "a1.txt")));
+		assertEquals(List.of("b1.txt"), names(registry.page("", "a3.txt")));
+		assertTrue(names(registry.page("c", "")).isEmpty());
+	}
+
+	@Test
+	void listFollowsRegistrations() {
+		DSRegistry registry = new DSRegistry(16);
+		registry.register(ADDR, 5001, DSRegistry.RESOURCES_DIR + "a.txt", 0);
+		registry.register(ADDR, 5002, DSRegistry.RESOURCES_DIR + "b.txt", 0);
+		registry.register(ADDR, 5003, DSRegistry.RESOURCES_DIR + "c.txt", 0);
+
+		DSFileList before = registry.fileList();
+		assertEquals(List.of("server/resources/a.txt", "server/resources/b.txt", "server/resources/c.txt"), lines(before));
+
+		registry.unregister(ADDR, 5002);
+		DSFileList after = registry.fileList();
+		assertEquals(List.of("server/resources/a.txt", "server/resources/c.txt"), lines(after));
+		assertTrue(after.version > before.version);
+
+		// l'istantanea precedente resta disponibile per le ritrasmissioni
+		assertSame(before, registry.fileList(before.version));
+		// nessuna modifica: la richiesta successiva riceve la stessa istantanea
+		assertSame(after, registry.fileList());
+	}
+
+	@Test
+	void rebuildMatchesIncrementalAppends() {
+		DSRegistry registry = new DSRegistry(128);
+		for(int i=0; i<100; i++)
+			registry.register(ADDR, 6000 + i, file(i), 0);
+
+		DSFileList appended = registry.fileList();
+		assertTrue(appended.totalFrag() > 1);
+
+		// voce aggiunta e poi rimossa: la ricostruzione deve produrre gli stessi frammenti delle aggiunte in coda
+		registry.register(ADDR, 7000, DSRegistry.RESOURCES_DIR + "zz.txt", 0);
+		registry.unregister(ADDR, 7000);
+		DSFileList rebuilt = registry.fileList();
+
+		assertEquals(appended.totalFrag(), rebuilt.totalFrag());
+		for(int i=1; i<=rebuilt.totalFrag(); i++)
+			assertArrayEquals(appended.packet(i), rebuilt.packet(i), "frammento " + i);
+	}
+
+	@Test
+	void restoredEntryIsListedAfterTheFirstHeartbeat() {
+		DSRegistry registry = new DSRegistry(16);
+		registry.restore(ADDR, 5001, DSRegistry.RESOURCES_DIR + "a.txt", 60_000, 1, 1, true);
+
+		assertTrue(lines(registry.fileList()).isEmpty());
+		assertNull(registry.lookup("a.txt"));
+
+		assertTrue(registry.renew(ADDR, 5001));
+		assertEquals(List.of("server/resources/a.txt"), lines(registry.fileList()));
+		assertNotNull(registry.lookup("a.txt"));
+	}
+
+	@Test
+	void expiredLeaseLeavesTheList() throws InterruptedException {
+		DSRegistry registry = new DSRegistry(16);
+		registry.register(ADDR, 5001, DSRegistry.RESOURCES_DIR + "breve.txt", 100);
+		registry.register(ADDR, 5002, DSRegistry.RESOURCES_DIR + "fisso.txt", 0);
+		assertEquals(2, lines(registry.fileList()).size());
+
+		// la voce scade con il lease, la timing wheel la rimuove e la lista viene ricostruita senza alcuna richiesta
+		long deadline = System.currentTimeMillis() + 5000;
+		while(registry.size() > 1 && System.currentTimeMillis() < deadline)
+			Thread.sleep(20);
+
+		assertNull(registry.lookup("breve.txt"));
+		assertEquals(List.of("server/resources/fisso.txt"), lines(registry.fileList()));
+	}
+}
@@ -0,0 +1,116 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+
+// Replica del registro: risoluzione dei conflitti per versione (last-writer-wins) e lapidi, e riallineamento di due nodi
+// attraverso il digest quando le modifiche inviate subito sono andate perse (qui: il nodo non era ancora avviato).
+class DSReplicatorTest {
+
+	private final static String ADDR = "127.0.0.1";
+	private final static String FILE = DSRegistry.RESOURCES_DIR + "f1.txt";
+	private final static long SYNC_MILLIS = 50;
+
+
+	private static int freePort() throws SocketException {
+		try(DatagramSocket socket = new DatagramSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static InetSocketAddress local(int port) {
+		return new InetSocketAddress(ADDR, port);
+	}
+
+	private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!condition.getAsBoolean()) {
+			if(System.currentTimeMillis() > deadline) return false;
+			Thread.sleep(10);
+		}
+
+		return true;
+	}
+
+
+	@Test
+	void newerVersionWins() {
+		DSRegistry registry = new DSRegistry(16);
+
+		assertTrue(registry.applyRegister(ADDR, 5001, FILE, 0, 0, 10, 1));
+		// versione più vecchia, oppure stessa versione da un nodo con identificativo minore: scartata
+		assertFalse(registry.applyRegister(ADDR, 5002, FILE, 0, 0, 9, 1));
+		assertFalse(registry.applyRegister(ADDR, 5002, FILE, 0, 0, 10, 0));
+		assertEquals(5001, registry.lookup("f1.txt").port);
+
+		assertTrue(registry.applyRegister(ADDR, 5003, FILE, 0, 0, 10, 2));
+		assertEquals(5003, registry.lookup("f1.txt").port);
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	void tombstoneRejectsOlderRegistrations() {
+		DSRegistry registry = new DSRegistry(16);
+		registry.applyRegister(ADDR, 5001, FILE, 0, 0, 10, 1);
+
+		// de-registrazione più vecchia della voce: la voce resta
+		assertFalse(registry.applyUnregister(FILE, 5, 1));
+		assertNotNull(registry.lookup("f1.txt"));
+
+		assertTrue(registry.applyUnregister(FILE, 20, 1));
+		assertNull(registry.lookup("f1.txt"));
+
+		// una registrazione precedente alla lapide ancora in circolazione non viene riaccettata, una successiva sì
+		assertFalse(registry.applyRegister(ADDR, 5001, FILE, 0, 0, 10, 1));
+		assertNull(registry.lookup("f1.txt"));
+		assertTrue(registry.applyRegister(ADDR, 5002, FILE, 0, 0, 21, 1));
+		assertEquals(5002, registry.lookup("f1.txt").port);
+	}
+
+	@Test
+	void digestAlignsNodesAfterLostUpdates() throws Exception {
+		int portA = freePort();
+		int portB = freePort();
+
+		DSRegistry a = new DSRegistry(16);
+		DSRegistry b = new DSRegistry(16);
+		new DSReplicator(a, portA, List.of(local(portB)), SYNC_MILLIS).start();
+
+		// B non è ancora avviato: le modifiche inviate subito vanno perse, comprese le de-registrazioni
+		a.register(ADDR, 5001, FILE, 0);
+		a.register(ADDR, 5002, DSRegistry.RESOURCES_DIR + "f2.txt", 0);
+		a.register(ADDR, 5003, DSRegistry.RESOURCES_DIR + "f3.txt", 0);
+		a.unregister(ADDR, 5003);
+		// registrazione concorrente dello stesso nome su B, più vecchia di quella di A
+		b.applyRegister(ADDR, 6001, FILE, 0, 0, a.lookup("f1.txt").version - 1, b.nodeId);
+		// voce di B che A non ha mai visto
+		b.register(ADDR, 6002, DSRegistry.RESOURCES_DIR + "f4.txt", 0);
+
+		new DSReplicator(b, portB, List.of(local(portA)), SYNC_MILLIS).start();
+
+		assertTrue(eventually(() -> b.lookup("f1.txt") != null && b.lookup("f1.txt").port == 5001 && b.lookup("f2.txt") != null));
+		assertTrue(eventually(() -> a.lookup("f4.txt") != null));
+		assertNull(b.lookup("f3.txt"));
+		assertEquals(5001, a.lookup("f1.txt").port);
+		assertEquals(3, a.size());
+		assertEquals(3, b.size());
+
+		// a regime le modifiche arrivano subito, anche le de-registrazioni
+		a.unregister(ADDR, 5002);
+		assertTrue(eventually(() -> b.lookup("f2.txt") == null));
+		b.register(ADDR, 6003, DSRegistry.RESOURCES_DIR + "f5.txt", 0);
+		assertTrue(eventually(() -> a.lookup("f5.txt") != null));
+	}
+}
@@ -0,0 +1,118 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+// Persistenza del registro: il journal scritto durante l'esecuzione viene riapplicato al riavvio, un record troncato in
+// coda viene scartato, e all'avvio lo stato ripristinato finisce nello snapshot con il journal che riparte vuoto.
+class DSStoreTest {
+
+	private final static String ADDR = "127.0.0.1";
+
+	@TempDir
+	Path dir;
+
+
+	private Path journal() {
+		return dir.resolve("registry.journal");
+	}
+
+	// nuovo processo: registro vuoto ripristinato dallo snapshot e dal journal
+	private DSRegistry restart() throws IOException {
+		DSRegistry registry = new DSRegistry(16);
+		new DSStore(registry, dir, false).restore();
+		return registry;
+	}
+
+	// il journal viene scritto da un thread dedicato: attende che il ripristino veda l'ultima modifica
+	private DSRegistry restartWhen(Predicate<DSRegistry> written) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		DSRegistry registry = restart();
+		while(!written.test(registry) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+			registry = restart();
+		}
+
+		return registry;
+	}
+
+
+	@Test
+	void journalIsReplayedOnRestart() throws IOException, InterruptedException {
+		DSRegistry registry = new DSRegistry(16);
+		new DSStore(registry, dir, false).start();
+
+		registry.register(ADDR, 5001, DSRegistry.RESOURCES_DIR + "a.txt", 0);
+		registry.register(ADDR, 5002, DSRegistry.RESOURCES_DIR + "b.txt", 60_000);
+		registry.register(ADDR, 5003, DSRegistry.RESOURCES_DIR + "c.txt", 0);
+		registry.unregister(ADDR, 5003);
+
+		DSRegistry restored = restartWhen(r -> r.size() == 2 && r.lookup("c.txt") == null);
+		assertEquals(2, restored.size());
+
+		DSRegistry.Entry a = restored.lookup("a.txt");
+		assertNotNull(a);
+		assertEquals(5001, a.port);
+		assertEquals(registry.lookup("a.txt").version, a.version);
+		assertTrue(restored.lookup("b.txt").leaseNanos > 0);
+		assertNull(restored.lookup("c.txt"));
+	}
+
+	@Test
+	void truncatedJournalTailIsDiscarded() throws IOException, InterruptedException {
+		DSRegistry registry = new DSRegistry(16);
+		new DSStore(registry, dir, false).start();
+
+		registry.register(ADDR, 5001, DSRegistry.RESOURCES_DIR + "a.txt", 0);
+		registry.register(ADDR, 5002, DSRegistry.RESOURCES_DIR + "b.txt", 0);
+		assertEquals(2, restartWhen(r -> r.size() == 2).size());
+
+		// arresto durante la scrittura dell'ultimo record
+		byte[] data = Files.readAllBytes(journal());
+		Files.write(journal(), Arrays.copyOf(data, data.length - 3));
+
+		DSRegistry restored = restart();
+		assertEquals(1, restored.size());
+		assertNotNull(restored.lookup("a.txt"));
+	}
+
+	@Test
+	void startCompactsTheRestoredState() throws IOException, InterruptedException {
+		DSRegistry registry = new DSRegistry(16);
+		new DSStore(registry, dir, false).start();
+
+		registry.register(ADDR, 5002, DSRegistry.RESOURCES_DIR + "b.txt", 0);
+		registry.register(ADDR, 5001, DSRegistry.RESOURCES_DIR + "a.txt", 0);
+		registry.unregister(ADDR, 5002);
+		assertEquals(1, restartWhen(r -> r.lookup("a.txt") != null && r.lookup("b.txt") == null).size());
+		assertTrue(Files.size(journal()) > 0);
+
+		// secondo avvio: lo stato ripristinato viene scritto nello snapshot e il journal riparte vuoto
+		DSRegistry second = new DSRegistry(16);
+		DSStore store = new DSStore(second, dir, false);
+		assertEquals(1, store.restore());
+		store.start();
+		assertEquals(0, Files.size(journal()));
+
+		// le modifiche successive vengono accodate al nuovo journal e riapplicate sopra lo snapshot
+		second.register(ADDR, 5003, DSRegistry.RESOURCES_DIR + "c.txt", 0);
+		second.unregister(ADDR, 5001);
+
+		DSRegistry restored = restartWhen(r -> r.lookup("a.txt") == null);
+		assertEquals(1, restored.size());
+		assertNull(restored.lookup("a.txt"));
+		assertNotNull(restored.lookup("c.txt"));
+	}
+}
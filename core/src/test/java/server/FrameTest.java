@@ -0,0 +1,157 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+
+// Codifica del formato binario: header, nomi con gli stessi byte di writeUTF, indirizzi e riconoscimento rispetto ai
+// pacchetti legacy.
+class FrameTest {
+
+	private static byte[] writeUTF(String name) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		new DataOutputStream(bout).writeUTF(name);
+		return bout.toByteArray();
+	}
+
+
+	@Test
+	void headerRoundTrip() {
+		long id = 0x1234_5678_9ABC_DEF0L;
+		ByteBuffer buf = Frame.allocate(Frame.OP_SWAP_BATCH, id, 65535, 65535, 1).put((byte) 3);
+		buf.flip();
+
+		assertTrue(Frame.is(buf));
+		assertTrue(Frame.is(buf.array(), 0, buf.limit()));
+		assertEquals(Frame.VERSION, Frame.version(buf));
+		assertEquals(Frame.OP_SWAP_BATCH, Frame.op(buf));
+		assertEquals(id, Frame.id(buf));
+		assertEquals(65535, Frame.fragment(buf));
+		assertEquals(65535, Frame.fragments(buf));
+		assertEquals(3, Frame.status(buf));
+
+		Frame.body(buf);
+		assertEquals(Frame.HEADER_LENGTH, buf.position());
+		assertEquals(3, buf.get());
+	}
+
+	@Test
+	void headerIsReadFromThePosition() {
+		// datagramma ricevuto in un buffer più grande, a partire da un offset
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		buf.position(7);
+		Frame.putHeader(buf, Frame.OP_LOOKUP, 42, 1, 2).put((byte) 1);
+		buf.flip().position(7);
+
+		assertTrue(Frame.is(buf));
+		assertTrue(Frame.is(buf.array(), 7, buf.remaining()));
+		assertEquals(42, Frame.id(buf));
+		assertEquals(1, Frame.fragment(buf));
+		assertEquals(2, Frame.fragments(buf));
+		assertEquals(1, Frame.status(buf));
+	}
+
+	@Test
+	void replyAndWithId() {
+		byte[] reply = Frame.reply(Frame.OP_SYNC, 7, (byte) 1);
+		assertEquals(Frame.HEADER_LENGTH + 1, reply.length);
+
+		byte[] other = Frame.withId(reply, Long.MIN_VALUE);
+		assertEquals(7, Frame.id(ByteBuffer.wrap(reply)));
+		assertEquals(Long.MIN_VALUE, Frame.id(ByteBuffer.wrap(other)));
+		assertEquals(Frame.OP_SYNC, Frame.op(ByteBuffer.wrap(other)));
+		assertEquals(1, Frame.status(ByteBuffer.wrap(other)));
+	}
+
+	@Test
+	void statusWithoutBody() {
+		ByteBuffer buf = Frame.allocate(Frame.OP_LIST, 1, 0, 1, 0);
+		buf.flip();
+		assertEquals(-1, Frame.status(buf));
+	}
+
+	@Test
+	void legacyPacketsAreNotFrames() throws IOException {
+		// codici operativi legacy e writeUTF di un nome
+		for(byte code=0; code<=10; code++) {
+			byte[] packet = new byte[Frame.HEADER_LENGTH];
+			packet[0] = code;
+			assertFalse(Frame.is(packet, 0, packet.length));
+		}
+
+		byte[] name = writeUTF("server/resources/" + "a".repeat(300) + ".txt");
+		assertFalse(Frame.is(name, 0, name.length));
+		assertFalse(Frame.is(ByteBuffer.wrap(name)));
+
+		// troppo corto per un header
+		byte[] shortFrame = Frame.reply(Frame.OP_LOOKUP, 1, (byte) 1);
+		assertFalse(Frame.is(shortFrame, 0, Frame.HEADER_LENGTH - 1));
+	}
+
+	@Test
+	void namesMatchWriteUTF() throws IOException {
+		String[] names = { "", "file.txt", "cartella/file con spazi.txt", "perché_città.txt", "\u0000nul", "日本語.txt", "😀.txt" };
+
+		for(String name : names) {
+			byte[] expected = writeUTF(name);
+			assertEquals(expected.length, Frame.nameLength(name), name);
+
+			ByteBuffer buf = ByteBuffer.allocate(expected.length + 1);
+			Frame.putName(buf, name).put((byte) 9);
+			assertArrayEquals(expected, Arrays.copyOf(buf.array(), expected.length), name);
+
+			buf.flip();
+			assertEquals(name, Frame.getName(buf));
+			assertEquals(9, buf.get());
+		}
+	}
+
+	@Test
+	void invalidNamesAreRejected() {
+		// lunghezza oltre la fine del datagramma
+		ByteBuffer buf = ByteBuffer.allocate(6).putShort((short) 10).put(new byte[] { 'a', 'b', 'c', 'd' });
+		buf.flip();
+		assertThrows(IllegalArgumentException.class, () -> Frame.getName(buf));
+
+		// sequenza UTF-8 modificata interrotta
+		ByteBuffer broken = ByteBuffer.allocate(3).putShort((short) 1).put((byte) 0xC3);
+		broken.flip();
+		assertThrows(IllegalArgumentException.class, () -> Frame.getName(broken));
+
+		assertThrows(IllegalArgumentException.class, () -> Frame.nameLength("a".repeat(0x10000)));
+	}
+
+	@Test
+	void addresses() throws IOException {
+		InetSocketAddress[] addresses = {
+			new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 65535),
+			new InetSocketAddress(InetAddress.getByName("::1"), 4000)
+		};
+
+		for(InetSocketAddress address : addresses) {
+			byte[] ip = address.getAddress().getAddress();
+			ByteBuffer buf = ByteBuffer.allocate(1 + ip.length + 2).put((byte) ip.length).put(ip).putShort((short) address.getPort());
+			buf.flip();
+
+			assertEquals(address, Frame.getAddress(buf));
+			assertFalse(buf.hasRemaining());
+		}
+
+		ByteBuffer invalid = ByteBuffer.allocate(1 + 5 + 2).put((byte) 5).put(new byte[5]).putShort((short) 1);
+		invalid.flip();
+		assertThrows(IllegalArgumentException.class, () -> Frame.getAddress(invalid));
+	}
+}
@@ -0,0 +1,158 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+
+// Pool con ordinamento per chiave: i compiti di uno stesso file vengono eseguiti uno alla volta e nell'ordine di arrivo
+// (anche oltre un gruppo di MAX_BATCH, quando il drain si rimette in coda), quelli di file diversi in parallelo; le letture
+// procedono insieme tra loro ma mai durante uno scambio dello stesso file.
+class KeyedExecutorTest {
+
+	private final static String[] KEYS = { "a.txt", "b.txt", "c.txt" };
+	private final static int TASKS = 200;
+
+
+	@Test
+	void tasksOfAKeyRunInOrderOneAtATime() throws InterruptedException {
+		KeyedExecutor executor = new KeyedExecutor(4, Integer.MAX_VALUE, "TEST_WORKER");
+
+		Map<String, List<Integer>> done = new HashMap<>();
+		Map<String, AtomicInteger> running = new HashMap<>();
+		for(String key : KEYS) {
+			done.put(key, new ArrayList<>());
+			running.put(key, new AtomicInteger());
+		}
+
+		AtomicBoolean overlap = new AtomicBoolean();
+		CountDownLatch finished = new CountDownLatch(KEYS.length * TASKS);
+
+		for(int i=0; i<TASKS; i++) {
+			for(String key : KEYS) {
+				int seq = i;
+				assertTrue(executor.execute(key, () -> {
+					if(running.get(key).incrementAndGet() > 1) overlap.set(true);
+					// la lista non è sincronizzata: è il lock della chiave a rendere visibile l'aggiunta al compito successivo
+					done.get(key).add(seq);
+					Thread.yield();
+					running.get(key).decrementAndGet();
+					finished.countDown();
+				}));
+			}
+		}
+
+		assertTrue(finished.await(10, TimeUnit.SECONDS));
+		assertFalse(overlap.get());
+
+		List<Integer> expected = new ArrayList<>();
+		for(int i=0; i<TASKS; i++)
+			expected.add(i);
+		for(String key : KEYS)
+			assertEquals(expected, done.get(key), key);
+	}
+
+	@Test
+	void differentKeysRunInParallel() throws InterruptedException {
+		KeyedExecutor executor = new KeyedExecutor(2, 16, "TEST_WORKER");
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch other = new CountDownLatch(1);
+
+		executor.execute("a.txt", () -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {}
+		});
+		executor.execute("b.txt", other::countDown);
+
+		// b.txt non attende lo scambio in corso su a.txt
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		release.countDown();
+	}
+
+	@Test
+	void readsRunTogetherButNeverDuringAWrite() throws InterruptedException {
+		KeyedExecutor executor = new KeyedExecutor(4, 16, "TEST_WORKER");
+		AtomicBoolean writing = new AtomicBoolean();
+		AtomicBoolean overlap = new AtomicBoolean();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch reads = new CountDownLatch(2);
+
+		executor.execute("a.txt", () -> {
+			writing.set(true);
+			started.countDown();
+			try {
+				Thread.sleep(100);
+			} catch(InterruptedException e) {}
+			writing.set(false);
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		// le due letture si attendono a vicenda: se fossero serializzate la barriera non si aprirebbe
+		CyclicBarrier together = new CyclicBarrier(2);
+		for(int i=0; i<2; i++) {
+			executor.executeShared("a.txt", () -> {
+				if(writing.get()) overlap.set(true);
+				try {
+					together.await(5, TimeUnit.SECONDS);
+					reads.countDown();
+				} catch(Exception e) {}
+			});
+		}
+
+		assertTrue(reads.await(5, TimeUnit.SECONDS));
+		assertFalse(overlap.get());
+	}
+
+	@Test
+	void tasksBeyondMaxPendingAreRejected() throws InterruptedException {
+		KeyedExecutor executor = new KeyedExecutor(1, 2, "TEST_WORKER");
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2);
+
+		assertTrue(executor.execute("a.txt", () -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {}
+			done.countDown();
+		}));
+		assertTrue(executor.execute("a.txt", done::countDown));
+		assertFalse(executor.execute("b.txt", () -> {}));
+		assertFalse(executor.executeShared("a.txt", () -> {}));
+
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		// terminati i compiti in attesa, le richieste vengono di nuovo accettate
+		CountDownLatch again = new CountDownLatch(1);
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!executor.execute("b.txt", again::countDown) && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertTrue(again.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void failedTaskDoesNotStopTheKey() throws InterruptedException {
+		KeyedExecutor executor = new KeyedExecutor(1, 16, "TEST_WORKER");
+		CountDownLatch next = new CountDownLatch(1);
+
+		executor.execute("a.txt", () -> {
+			throw new IllegalStateException("scambio non riuscito");
+		});
+		executor.execute("a.txt", next::countDown);
+
+		assertTrue(next.await(5, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,169 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+
+// Indice sparso delle righe dopo scambi di righe di lunghezza diversa: il file deve corrispondere a un modello in memoria
+// e l'indice (in memoria e salvato accanto al file) deve continuare a trovare ogni riga, anche oltre i punti spostati.
+// I file hanno alcune migliaia di righe, quindi più punti dell'indice (uno ogni 1024 righe), terminatori misti e
+// l'ultima riga senza terminatore.
+class LineIndexTest {
+
+	private final static int LINES = 5000;
+
+	@TempDir
+	Path dir;
+
+
+	private static List<String> lines(Random random) {
+		ArrayList<String> res = new ArrayList<>();
+		for(int i=1; i<=LINES; i++)
+			res.add(i + ":" + "x".repeat(random.nextInt(40)));
+
+		return res;
+	}
+
+	// terminatore "\r\n" per le righe multiple di 3, nessun terminatore per l'ultima
+	private static byte[] text(List<String> lines, List<String> terminators) {
+		StringBuilder res = new StringBuilder();
+		for(int i=0; i<lines.size(); i++)
+			res.append(lines.get(i)).append(terminators.get(i));
+
+		return res.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> terminators() {
+		ArrayList<String> res = new ArrayList<>();
+		for(int i=1; i<=LINES; i++)
+			res.add((i == LINES) ? "" : (i % 3 == 0) ? "\r\n" : "\n");
+
+		return res;
+	}
+
+	private Path file(List<String> lines) throws IOException {
+		Path path = dir.resolve("file.txt");
+		Files.write(path, text(lines, terminators()));
+		return path;
+	}
+
+	private static void swap(List<String> lines, long a, long b) {
+		String tmp = lines.get((int) a - 1);
+		lines.set((int) a - 1, lines.get((int) b - 1));
+		lines.set((int) b - 1, tmp);
+	}
+
+	// ogni riga letta tramite l'indice, a blocchi che attraversano i punti dell'indice
+	private static void check(LineIndex index, Path path, List<String> expected) throws IOException {
+		assertArrayEquals(text(expected, terminators()), Files.readAllBytes(path));
+		assertEquals(LINES, index.lines());
+
+		for(int from=1; from<=LINES; from+=97) {
+			byte[][] read = index.read(from, 97, 64 * 1024);
+			assertEquals(Math.min(97, LINES - from + 1), read.length, "righe da " + from);
+			for(int i=0; i<read.length; i++)
+				assertEquals(expected.get(from - 1 + i), new String(read[i], StandardCharsets.UTF_8), "riga " + (from + i));
+		}
+	}
+
+	// l'indice salvato, aggiornato dopo ogni scambio, deve coincidere con quello ricostruito da zero
+	private static void checkSaved(Path path, boolean mapped) throws IOException {
+		Path indexPath = path.resolveSibling(path.getFileName() + LineIndex.SUFFIX);
+		byte[] saved = Files.readAllBytes(indexPath);
+
+		Files.delete(indexPath);
+		new LineIndex(path, mapped);
+		assertArrayEquals(Files.readAllBytes(indexPath), saved);
+	}
+
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void swapsOfDifferentLengthsKeepTheIndexAligned(boolean mapped) throws IOException {
+		Random random = new Random(17);
+		List<String> expected = lines(random);
+		Path path = file(expected);
+
+		LineIndex index = new LineIndex(path, mapped);
+		long[][] pairs = {
+			{ 1, 2 }, { 1, LINES }, { 1023, 1026 }, { 1024, 1025 }, { 10, 4000 }, { 2048, 2049 }, { 3000, 3001 }
+		};
+		for(long[] p : pairs) {
+			index.swap(p[0], p[1]);
+			swap(expected, p[0], p[1]);
+		}
+		for(int i=0; i<200; i++) {
+			long a = 1 + random.nextInt(LINES);
+			long b = 1 + random.nextInt(LINES);
+			if(a == b) continue;
+
+			index.swap(Math.min(a, b), Math.max(a, b));
+			swap(expected, a, b);
+		}
+		check(index, path, expected);
+		checkSaved(path, mapped);
+		check(new LineIndex(path, mapped), path, expected);
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void batchOfDifferentLengthsKeepsTheIndexAligned(boolean mapped) throws IOException {
+		Random random = new Random(23);
+		List<String> expected = lines(random);
+		Path path = file(expected);
+		LineIndex index = new LineIndex(path, mapped);
+
+		int n = 300;
+		long[] first = new long[n];
+		long[] second = new long[n];
+		for(int i=0; i<n; i++) {
+			first[i] = 1 + random.nextInt(LINES);
+			second[i] = 1 + random.nextInt(LINES);
+			if(first[i] != second[i]) swap(expected, first[i], second[i]);
+		}
+
+		index.apply(new SwapBatch(first, second));
+		check(index, path, expected);
+		checkSaved(path, mapped);
+		check(new LineIndex(path, mapped), path, expected);
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void externalChangeRebuildsTheIndex(boolean mapped) throws IOException {
+		List<String> expected = lines(new Random(5));
+		Path path = file(expected);
+		LineIndex index = new LineIndex(path, mapped);
+
+		// riga allungata da fuori: la dimensione non corrisponde più all'indice
+		expected.set(0, expected.get(0) + "esterno");
+		Files.write(path, text(expected, terminators()));
+
+		check(index, path, expected);
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void indexesBeyondTheFileAreRejected(boolean mapped) throws IOException {
+		List<String> expected = lines(new Random(9));
+		Path path = file(expected);
+		LineIndex index = new LineIndex(path, mapped);
+
+		assertThrows(IOException.class, () -> index.swap(1, LINES + 1));
+		assertThrows(IOException.class, () -> index.read(LINES + 1, 1, 1024));
+		check(index, path, expected);
+	}
+}
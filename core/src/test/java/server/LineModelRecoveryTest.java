@@ -0,0 +1,209 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+// Ripristino del motore "wal" dopo un arresto anomalo. L'arresto viene simulato abbandonando il LineModel senza
+// scrivere il file (la politica "periodic" non scrive nulla finché il suo thread non parte) e caricando lo stesso file
+// con un nuovo WriteBehind, come al riavvio del server.
+class LineModelRecoveryTest {
+
+	private final static int LINES = 8;
+
+	@TempDir
+	Path dir;
+
+
+	private Path file() throws IOException {
+		Path path = dir.resolve("file.txt");
+		if(!Files.exists(path)) Files.write(path, text(initial()));
+		return path;
+	}
+
+	private Path logPath() {
+		return dir.resolve("file.txt" + SwapLog.SUFFIX);
+	}
+
+	private static List<String> initial() {
+		ArrayList<String> res = new ArrayList<>();
+		for(int i=1; i<=LINES; i++)
+			res.add("riga " + i + "-".repeat(i));
+
+		return res;
+	}
+
+	private static byte[] text(List<String> lines) {
+		return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return (int) crc.getValue();
+	}
+
+	private static void swap(List<String> lines, int a, int b) {
+		String tmp = lines.get(a - 1);
+		lines.set(a - 1, lines.get(b - 1));
+		lines.set(b - 1, tmp);
+	}
+
+	// nuovo processo: nessuna copia in memoria, il file viene letto e il log rieseguito
+	private LineModel restart() throws IOException {
+		return (LineModel) new WriteBehind(WriteBehind.POLICY_PERIODIC, 1000, 60_000, true).load(file());
+	}
+
+	private static List<String> lines(LineModel model) throws IOException {
+		ArrayList<String> res = new ArrayList<>();
+		for(byte[] line : model.read(1, LINES, Integer.MAX_VALUE))
+			res.add(new String(line, StandardCharsets.UTF_8));
+
+		return res;
+	}
+
+
+	@Test
+	void confirmedSwapsSurviveACrash() throws IOException {
+		LineModel model = restart();
+		model.swap(1, 8);
+		model.swap(2, 3);
+		model.apply(new SwapBatch(new long[] { 4, 5, 1 }, new long[] { 5, 6, 1 }));
+
+		List<String> expected = initial();
+		swap(expected, 1, 8);
+		swap(expected, 2, 3);
+		swap(expected, 4, 5);
+		swap(expected, 5, 6);
+		assertEquals(expected, lines(model));
+
+		// il file su disco non è stato toccato
+		assertEquals(initial(), Files.readAllLines(file()));
+		assertEquals(expected, lines(restart()));
+	}
+
+	@Test
+	void truncatedLogReplaysOnlyCompleteRecords() throws IOException {
+		LineModel model = restart();
+		model.swap(1, 2);
+		model.swap(3, 4);
+
+		// l'ultimo record è stato scritto a metà
+		byte[] log = Files.readAllBytes(logPath());
+		Files.write(logPath(), Arrays.copyOf(log, log.length - 5));
+
+		List<String> expected = initial();
+		swap(expected, 1, 2);
+		assertEquals(expected, lines(restart()));
+
+		// il log riscritto non contiene più il record interrotto e accoda dopo l'ultimo valido
+		List<SwapLog.Record> records = new SwapLog(file()).read();
+		assertEquals(1, records.size());
+		assertEquals(1, records.get(0).seq);
+	}
+
+	@Test
+	void corruptedRecordStopsTheReplay() throws IOException {
+		LineModel model = restart();
+		model.swap(1, 2);
+		model.swap(3, 4);
+		model.swap(5, 6);
+
+		// CRC errato nel secondo record: né il secondo né il terzo vengono rieseguiti
+		byte[] log = Files.readAllBytes(logPath());
+		log[log.length / 3 + 12] ^= 0x01;
+		Files.write(logPath(), log);
+
+		List<String> expected = initial();
+		swap(expected, 1, 2);
+		assertEquals(expected, lines(restart()));
+	}
+
+	@Test
+	void crashBetweenCheckpointMarkerAndRename() throws IOException {
+		List<String> expected = initial();
+		swap(expected, 1, 3);
+		swap(expected, 2, 4);
+
+		// il marcatore indica il CRC del nuovo contenuto, ma il rename non è avvenuto: il file è quello iniziale
+		SwapLog log = new SwapLog(file());
+		log.append(1, new int[] { 1, 3 });
+		log.append(2, new int[] { 2, 4 });
+		log.checkpoint(2, crc(text(expected)));
+		log.close();
+
+		LineModel model = restart();
+		assertEquals(expected, lines(model));
+
+		// rieseguiti entrambi: il file va ancora scritto
+		assertTrue(model.dirtyFor(System.nanoTime(), 0));
+		assertEquals(2, new SwapLog(file()).read().size());
+	}
+
+	@Test
+	void crashBetweenRenameAndLogTruncation() throws IOException {
+		List<String> checkpointed = initial();
+		swap(checkpointed, 1, 3);
+		swap(checkpointed, 2, 4);
+		Files.write(file(), text(checkpointed));
+
+		// il rename è avvenuto (il file ha il CRC del marcatore) ma il log non è stato riscritto
+		SwapLog log = new SwapLog(file());
+		log.append(1, new int[] { 1, 3 });
+		log.append(2, new int[] { 2, 4 });
+		log.checkpoint(2, crc(text(checkpointed)));
+		log.append(3, new int[] { 7, 8 });
+		log.close();
+
+		List<String> expected = new ArrayList<>(checkpointed);
+		swap(expected, 7, 8);
+		assertEquals(expected, lines(restart()));
+
+		List<SwapLog.Record> records = new SwapLog(file()).read();
+		assertEquals(1, records.size());
+		assertEquals(3, records.get(0).seq);
+	}
+
+	@Test
+	void checkpointRemovesTheLog() throws IOException {
+		LineModel model = restart();
+		model.swap(1, 2);
+		model.swap(7, 8);
+		model.sync();
+
+		List<String> expected = initial();
+		swap(expected, 1, 2);
+		swap(expected, 7, 8);
+		assertEquals(expected, Files.readAllLines(file()));
+		assertFalse(Files.exists(logPath()));
+
+		// i numeri di sequenza proseguono dopo il checkpoint
+		model.swap(3, 4);
+		swap(expected, 3, 4);
+		assertEquals(3, new SwapLog(file()).read().get(0).seq);
+		assertEquals(expected, lines(restart()));
+	}
+
+	@Test
+	void logNotMatchingTheFileIsRejected() throws IOException {
+		SwapLog log = new SwapLog(file());
+		log.append(1, new int[] { 1, LINES + 1 });
+		log.close();
+
+		assertThrows(IOException.class, this::restart);
+	}
+}
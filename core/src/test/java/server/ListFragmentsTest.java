@@ -0,0 +1,135 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+
+// Ritrasmissione selettiva della lista file: il Client perde alcuni frammenti e li richiede per indice e versione; il
+// Discovery Server li riprende dalla stessa istantanea anche se nel frattempo il registro è cambiato, e invia la lista
+// attuale quando l'istantanea non è più conservata. Le richieste passano dalla stessa decodifica dei datagrammi ricevuti.
+class ListFragmentsTest {
+
+	private final static String ADDR = "127.0.0.1";
+	// offset dei dati in un frammento binario: header, flag, versione
+	private final static int DATA_OFFSET = Frame.HEADER_LENGTH + 1 + 8;
+
+	// il registro del Discovery Server è unico per processo: nomi e porte diversi per ogni test
+	private static int nextPort = 40000;
+
+
+	// RESPONSE_SERVER_OPENING -> registrazione riuscita
+	private static void register(String prefix, int n) {
+		for(int i=0; i<n; i++)
+			assertEquals(3, DiscoveryServer.registerRs(ADDR, DSRegistry.RESOURCES_DIR + prefix + "_" + "x".repeat(50) + "_" + i + ".txt", nextPort++, 0));
+	}
+
+	private static byte[][] send(ByteBuffer req) {
+		return DiscoveryServer.handleFrame(ByteBuffer.wrap(req.array()), ADDR, new NameKey());
+	}
+
+	private static byte[][] list() {
+		return send(Frame.allocate(Frame.OP_LIST, 1, 0, 1, 0));
+	}
+
+	private static byte[][] fragments(long version, int... indexes) {
+		ByteBuffer req = Frame.allocate(Frame.OP_LIST_FRAGMENTS, 2, 0, 1, 10 + 2 * indexes.length).putLong(version).putShort((short) indexes.length);
+		for(int i : indexes)
+			req.putShort((short) i);
+
+		return send(req);
+	}
+
+	private static long version(byte[] frame) {
+		return ByteBuffer.wrap(frame).getLong(Frame.HEADER_LENGTH + 1);
+	}
+
+	private static int index(byte[] frame) {
+		return Frame.fragment(ByteBuffer.wrap(frame));
+	}
+
+	private static byte[] data(byte[] frame) {
+		return Arrays.copyOfRange(frame, DATA_OFFSET, frame.length);
+	}
+
+	// ricomposizione dei frammenti nell'ordine degli indici
+	private static byte[] join(byte[][] frames) {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		for(byte[] frame : frames)
+			res.write(frame, DATA_OFFSET, frame.length - DATA_OFFSET);
+
+		return res.toByteArray();
+	}
+
+
+	@Test
+	void lostFragmentsAreRepairedFromTheSameSnapshot() {
+		register("nack", 100);
+
+		byte[][] all = list();
+		assertTrue(all.length > 3);
+		long version = version(all[0]);
+
+		// il registro cambia prima che il Client chieda i frammenti persi
+		register("nack_dopo", 1);
+		assertNotEquals(version, version(list()[0]));
+
+		byte[][] repaired = fragments(version, 1, 3);
+		assertEquals(2, repaired.length);
+		assertEquals(1, index(repaired[0]));
+		assertEquals(3, index(repaired[1]));
+		// l'header è quello della richiesta di ritrasmissione, versione e dati quelli della prima risposta
+		for(byte[] frame : repaired) {
+			assertEquals(Frame.OP_LIST_FRAGMENTS, Frame.op(ByteBuffer.wrap(frame)));
+			assertEquals(version, version(frame));
+			assertArrayEquals(data(all[index(frame)]), data(frame));
+		}
+
+		// frammenti ricevuti e recuperati ricompongono la lista della prima risposta
+		byte[][] received = all.clone();
+		received[1] = repaired[0];
+		received[3] = repaired[1];
+		assertArrayEquals(join(all), join(received));
+
+		// indici oltre la fine della lista vengono ignorati
+		assertEquals(0, fragments(version, all.length).length);
+	}
+
+	@Test
+	void expiredSnapshotIsReplacedByTheCurrentList() {
+		register("scaduta", 20);
+		long version = version(list()[0]);
+
+		// più modifiche delle istantanee conservate
+		register("scaduta_dopo", 10);
+
+		byte[][] res = fragments(version, 0);
+		byte[][] current = list();
+		assertEquals(current.length, res.length);
+		assertEquals(version(current[0]), version(res[0]));
+		assertNotEquals(version, version(res[0]));
+	}
+
+	@Test
+	void legacyRequestReturnsNumberedFragments() {
+		register("legacy", 40);
+		byte[][] all = list();
+		long version = version(all[0]);
+
+		// [byte REQ_LIST_FRAGMENTS][long versione][short n][n x short indice]
+		byte[] req = ByteBuffer.allocate(1 + 8 + 2 + 2).put((byte) 4).putLong(version).putShort((short) 1).putShort((short) 1).array();
+		byte[][] res = DiscoveryServer.handleOp(req, req.length, ADDR);
+
+		// frammento "1:" con gli stessi dati del frammento binario
+		assertEquals(1, res.length);
+		assertEquals("1:", new String(res[0], 0, 2));
+		assertArrayEquals(data(all[1]), Arrays.copyOfRange(res[0], 2, res[0].length));
+	}
+}
@@ -0,0 +1,84 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+
+// Caricamento dello stato dei file serviti: una sola volta per nome anche con più richieste simultanee, ritentato se fallisce.
+class RSFilesTest {
+
+	// stato vuoto: il test verifica solo quale istanza viene restituita
+	private static final class Store implements LineStore {
+		public void swap(long a, long b) {}
+		public void apply(SwapBatch batch) {}
+		public void sync() {}
+		public long lines() { return 0; }
+		public byte[][] read(long from, int count, int maxBytes) { return new byte[0][]; }
+	}
+
+
+	@Test
+	void concurrentRequestsShareOneLoad() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch waiting = new CountDownLatch(1);
+		RSFiles files = RSFiles.scan(List.of("a.txt"), (Path path) -> {
+			loads.incrementAndGet();
+			// caricamento lento: le altre richieste arrivano mentre è in corso
+			try {
+				waiting.await(5, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				throw new IOException(e);
+			}
+			return new Store();
+		}, 100);
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<LineStore>> res = new ArrayList<>();
+			for(int i=0; i<8; i++)
+				res.add(pool.submit(() -> files.store("a.txt")));
+
+			Thread.sleep(100);
+			waiting.countDown();
+
+			LineStore first = res.get(0).get(5, TimeUnit.SECONDS);
+			assertNotNull(first);
+			for(Future<LineStore> f : res)
+				assertSame(first, f.get(5, TimeUnit.SECONDS));
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertEquals(1, loads.get());
+		assertSame(files.store("a.txt"), files.store("a.txt"));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void failedLoadIsRetried() throws IOException {
+		AtomicInteger loads = new AtomicInteger();
+		RSFiles files = RSFiles.scan(List.of("a.txt"), (Path path) -> {
+			if(loads.incrementAndGet() == 1) throw new IOException("disco non disponibile");
+			return new Store();
+		}, 100);
+
+		assertThrows(IOException.class, () -> files.store("a.txt"));
+		assertNotNull(files.store("a.txt"));
+		assertEquals(2, loads.get());
+	}
+}
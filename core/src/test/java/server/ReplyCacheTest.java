@@ -0,0 +1,107 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+// Esecuzione al più una volta delle richieste con identificativo: un duplicato riceve la risposta registrata invece di
+// rieseguire la richiesta (uno scambio ripetuto annullerebbe il primo), finché la voce non scade o viene scartata.
+class ReplyCacheTest {
+
+	private final static InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 5001);
+	private final static InetSocketAddress OTHER = new InetSocketAddress("127.0.0.1", 5002);
+
+
+	// scambio delle righe a e b con la stessa sequenza del Row Swap Server: begin, esecuzione, complete
+	private static byte[][] swap(ReplyCache cache, InetSocketAddress sender, long id, List<String> lines, int a, int b) {
+		byte[][] cached = cache.begin(sender, id);
+		if(cached != null) return cached;
+
+		String tmp = lines.get(a);
+		lines.set(a, lines.get(b));
+		lines.set(b, tmp);
+
+		byte[][] reply = { { 1 } };
+		cache.complete(sender, id, reply);
+		return reply;
+	}
+
+	private static List<String> lines() {
+		return new ArrayList<>(List.of("a", "b", "c"));
+	}
+
+
+	@Test
+	void duplicateIsNotExecutedAgain() {
+		ReplyCache cache = new ReplyCache(16, 60_000);
+		List<String> lines = lines();
+
+		byte[][] first = swap(cache, CLIENT, 7, lines, 0, 1);
+		// la risposta è andata persa, il Client ripete con lo stesso identificativo
+		byte[][] retry = swap(cache, CLIENT, 7, lines, 0, 1);
+
+		assertSame(first, retry);
+		assertEquals(List.of("b", "a", "c"), lines);
+
+		// un nuovo identificativo, o lo stesso da un altro Client, è una nuova richiesta
+		swap(cache, CLIENT, 8, lines, 0, 1);
+		swap(cache, OTHER, 7, lines, 1, 2);
+		assertEquals(List.of("a", "c", "b"), lines);
+	}
+
+	@Test
+	void duplicateOfARunningRequestIsIgnored() {
+		ReplyCache cache = new ReplyCache(16, 60_000);
+
+		assertNull(cache.begin(CLIENT, 1));
+		assertSame(ReplyCache.PENDING, cache.begin(CLIENT, 1));
+
+		byte[][] reply = { { 1 } };
+		cache.complete(CLIENT, 1, reply);
+		assertSame(reply, cache.begin(CLIENT, 1));
+	}
+
+	@Test
+	void abandonedRequestIsExecutedAgain() {
+		ReplyCache cache = new ReplyCache(16, 60_000);
+
+		assertNull(cache.begin(CLIENT, 1));
+		cache.abandon(CLIENT, 1);
+		assertNull(cache.begin(CLIENT, 1));
+	}
+
+	@Test
+	void entriesExpireAndAreEvicted() throws InterruptedException {
+		ReplyCache cache = new ReplyCache(2, 50);
+		cache.begin(CLIENT, 1);
+		cache.complete(CLIENT, 1, new byte[][] { { 1 } });
+
+		Thread.sleep(80);
+		assertNull(cache.begin(CLIENT, 1));
+
+		// oltre maxEntries viene scartata la voce più vecchia
+		cache = new ReplyCache(2, 60_000);
+		cache.begin(CLIENT, 1);
+		cache.begin(CLIENT, 2);
+		cache.begin(CLIENT, 3);
+		assertSame(ReplyCache.PENDING, cache.begin(CLIENT, 3));
+		assertNull(cache.begin(CLIENT, 1));
+	}
+
+	@Test
+	void disabledCacheExecutesEveryRequest() {
+		ReplyCache cache = new ReplyCache(0, 60_000);
+		List<String> lines = lines();
+
+		swap(cache, CLIENT, 7, lines, 0, 1);
+		swap(cache, CLIENT, 7, lines, 0, 1);
+		assertEquals(List.of("a", "b", "c"), lines);
+	}
+}
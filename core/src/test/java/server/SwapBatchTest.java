@@ -0,0 +1,122 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+
+// Composizione di una sequenza di scambi in un'unica permutazione.
+class SwapBatchTest {
+
+	// permutazione applicata a righe numerate: posizione -> riga originale
+	private static List<Long> apply(long lines, Map<Long, Long> moves) {
+		ArrayList<Long> res = new ArrayList<>();
+		for(long i=1; i<=lines; i++)
+			res.add(moves.getOrDefault(i, i));
+
+		return res;
+	}
+
+	private static List<Long> sequential(long lines, long[] first, long[] second) {
+		ArrayList<Long> res = new ArrayList<>();
+		for(long i=1; i<=lines; i++)
+			res.add(i);
+
+		for(int i=0; i<first.length; i++) {
+			long a = first[i];
+			long b = second[i];
+			if(a == b || a <= 0 || b <= 0 || a > lines || b > lines) continue;
+
+			Long tmp = res.get((int) a - 1);
+			res.set((int) a - 1, res.get((int) b - 1));
+			res.set((int) b - 1, tmp);
+		}
+
+		return res;
+	}
+
+
+	@Test
+	void pairsAreComposedInOrder() {
+		// 1<->2 poi 2<->3: la riga 1 finisce in 3, la 3 in 2, la 2 in 1
+		SwapBatch batch = new SwapBatch(new long[] { 1, 2 }, new long[] { 2, 3 });
+		TreeMap<Long, Long> moves = batch.resolve(10);
+
+		assertEquals(Map.of(1L, 2L, 2L, 3L, 3L, 1L), moves);
+		assertEquals(2, batch.appliedCount());
+	}
+
+	@Test
+	void matchesSequentialSwaps() {
+		Random random = new Random(3);
+		for(int round=0; round<50; round++) {
+			int n = 1 + random.nextInt(200);
+			long lines = 1 + random.nextInt(60);
+			long[] first = new long[n];
+			long[] second = new long[n];
+			for(int i=0; i<n; i++) {
+				// anche indici non validi (0 e oltre la fine)
+				first[i] = random.nextInt((int) lines + 2);
+				second[i] = random.nextInt((int) lines + 2);
+			}
+
+			SwapBatch batch = new SwapBatch(first, second);
+			TreeMap<Long, Long> moves = batch.resolve(lines);
+			assertEquals(sequential(lines, first, second), apply(lines, moves));
+
+			// solo le posizioni che cambiano
+			for(Map.Entry<Long, Long> e : moves.entrySet())
+				assertTrue(!e.getKey().equals(e.getValue()));
+		}
+	}
+
+	@Test
+	void invalidPairsAreSkipped() {
+		SwapBatch batch = new SwapBatch(new long[] { 1, 0, 4, 2, 5 }, new long[] { 2, 3, 4, 6, -1 });
+		TreeMap<Long, Long> moves = batch.resolve(5);
+
+		assertEquals(Map.of(1L, 2L, 2L, 1L), moves);
+		assertEquals(1, batch.appliedCount());
+		assertTrue(batch.applied().get(0));
+		assertEquals(6, batch.maxIndex());
+
+		// resolve con un altro numero di righe ricalcola le coppie eseguite
+		batch.resolve(6);
+		assertEquals(2, batch.appliedCount());
+		assertTrue(batch.applied().get(3));
+	}
+
+	@Test
+	void cancellingPairsProduceNoMoves() {
+		SwapBatch batch = new SwapBatch(new long[] { 3, 4, 3 }, new long[] { 4, 3, 4 });
+		// tre scambi della stessa coppia equivalgono a uno
+		assertEquals(Map.of(3L, 4L, 4L, 3L), batch.resolve(4));
+
+		batch = new SwapBatch(new long[] { 3, 4 }, new long[] { 4, 3 });
+		assertTrue(batch.resolve(4).isEmpty());
+		assertEquals(2, batch.appliedCount());
+	}
+
+	@Test
+	void indexesBeyondTheIntRange() {
+		long big = 3_000_000_000L;
+		SwapBatch batch = new SwapBatch(new long[] { 1, big }, new long[] { big, big + 1 });
+		TreeMap<Long, Long> moves = batch.resolve(big + 1);
+
+		assertEquals(Map.of(1L, big, big, big + 1, big + 1, 1L), moves);
+		assertEquals(big + 1, batch.maxIndex());
+	}
+
+	@Test
+	void mismatchedArraysAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new SwapBatch(new long[2], new long[1]));
+	}
+}
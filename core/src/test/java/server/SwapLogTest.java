@@ -0,0 +1,135 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+// Formato del log degli scambi: record letti nell'ordine di scrittura, coda interrotta o con CRC errato, riscrittura
+// dopo un checkpoint.
+class SwapLogTest {
+
+	@TempDir
+	Path dir;
+
+
+	private SwapLog log() throws IOException {
+		Path data = dir.resolve("file.txt");
+		Files.write(data, new byte[0]);
+		return new SwapLog(data);
+	}
+
+	private Path logPath() {
+		return dir.resolve("file.txt" + SwapLog.SUFFIX);
+	}
+
+
+	@Test
+	void recordsAreReadInOrder() throws IOException {
+		SwapLog log = log();
+		log.append(1, new int[] { 1, 2 });
+		log.append(2, new int[] { 3, 4, 5, 6 });
+		log.checkpoint(2, 0xCAFEBABE);
+		log.close();
+
+		List<SwapLog.Record> records = log.read();
+		assertEquals(3, records.size());
+
+		assertFalse(records.get(0).checkpoint);
+		assertEquals(1, records.get(0).seq);
+		assertArrayEquals(new int[] { 1, 2 }, records.get(0).pairs);
+		assertArrayEquals(new int[] { 3, 4, 5, 6 }, records.get(1).pairs);
+
+		assertTrue(records.get(2).checkpoint);
+		assertEquals(2, records.get(2).seq);
+		assertEquals(0xCAFEBABE, records.get(2).fileCrc);
+	}
+
+	@Test
+	void truncatedTailIsIgnored() throws IOException {
+		SwapLog log = log();
+		log.append(1, new int[] { 1, 2 });
+		log.append(2, new int[] { 3, 4 });
+		log.close();
+
+		// scrittura interrotta a metà di ogni possibile byte dell'ultimo record
+		byte[] full = Files.readAllBytes(logPath());
+		int record = full.length / 2;
+		for(int cut=1; cut<record; cut++) {
+			Files.write(logPath(), Arrays.copyOf(full, full.length - cut));
+
+			List<SwapLog.Record> records = log.read();
+			assertEquals(1, records.size(), "troncato di " + cut + " byte");
+			assertEquals(1, records.get(0).seq);
+		}
+	}
+
+	@Test
+	void corruptedRecordClosesTheLog() throws IOException {
+		SwapLog log = log();
+		log.append(1, new int[] { 1, 2 });
+		log.append(2, new int[] { 3, 4 });
+		log.append(3, new int[] { 5, 6 });
+		log.close();
+
+		// un byte della coppia del secondo record: CRC errato, il terzo record (valido) non viene più letto
+		byte[] data = Files.readAllBytes(logPath());
+		int record = data.length / 3;
+		data[record + 12] ^= 0x40;
+		Files.write(logPath(), data);
+
+		List<SwapLog.Record> records = log.read();
+		assertEquals(1, records.size());
+		assertEquals(1, records.get(0).seq);
+	}
+
+	@Test
+	void unknownRecordTypeClosesTheLog() throws IOException {
+		SwapLog log = log();
+		log.append(1, new int[] { 1, 2 });
+		log.close();
+
+		byte[] data = Files.readAllBytes(logPath());
+		byte[] garbage = new byte[32];
+		Arrays.fill(garbage, (byte) 0x7F);
+		byte[] res = Arrays.copyOf(data, data.length + garbage.length);
+		System.arraycopy(garbage, 0, res, data.length, garbage.length);
+		Files.write(logPath(), res);
+
+		assertEquals(1, log.read().size());
+	}
+
+	@Test
+	void truncateKeepsOnlyLaterEntries() throws IOException {
+		SwapLog log = log();
+		log.append(1, new int[] { 1, 2 });
+		log.append(2, new int[] { 3, 4 });
+		log.checkpoint(1, 42);
+		log.append(3, new int[] { 5, 6 });
+
+		log.truncate(1);
+		List<SwapLog.Record> records = log.read();
+		assertEquals(2, records.size());
+		assertEquals(2, records.get(0).seq);
+		assertEquals(3, records.get(1).seq);
+		assertFalse(records.get(1).checkpoint);
+
+		// dopo la riscrittura il log riprende ad accodare
+		log.append(4, new int[] { 7, 8 });
+		assertEquals(3, log.read().size());
+
+		log.truncate(4);
+		assertFalse(log.exists());
+		assertTrue(log.read().isEmpty());
+	}
+}
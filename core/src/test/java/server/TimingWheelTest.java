@@ -0,0 +1,87 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+
+// Scadenza dei lease con la timing wheel: un elemento scade solo dopo la propria scadenza, anche se questa supera un giro
+// della ruota, e un rinnovo fatto nel frattempo lo ricolloca invece di farlo scadere.
+class TimingWheelTest {
+
+	private final static long TICK_MILLIS = 10;
+	// un giro della ruota: 8 tick
+	private final static int WHEEL_SIZE = 8;
+
+
+	// scadenze modificabili dal test e istante della scadenza effettiva
+	private static final class Leases implements TimingWheel.Handler<String> {
+		final ConcurrentHashMap<String, Long> deadlines = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<String, Long> expired = new ConcurrentHashMap<>();
+		final CountDownLatch done;
+
+		Leases(int expected) {
+			done = new CountDownLatch(expected);
+		}
+
+		void lease(TimingWheel<String> wheel, String item, long millis) {
+			deadlines.put(item, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+			wheel.schedule(item);
+		}
+
+		public long deadline(String item) {
+			return deadlines.get(item);
+		}
+
+		public void expire(String item) {
+			if(expired.putIfAbsent(item, System.nanoTime()) == null) done.countDown();
+		}
+	}
+
+
+	@Test
+	void itemsExpireAfterTheirDeadline() throws InterruptedException {
+		Leases leases = new Leases(3);
+		TimingWheel<String> wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, leases);
+		wheel.start("TEST_WHEEL");
+
+		leases.lease(wheel, "breve", 30);
+		// più di un giro della ruota: deve attendere i giri invece di scadere al primo passaggio sullo slot
+		leases.lease(wheel, "lungo", 250);
+		leases.lease(wheel, "scaduto", 0);
+
+		assertTrue(leases.done.await(5, TimeUnit.SECONDS));
+		for(String item : leases.expired.keySet())
+			assertTrue(leases.expired.get(item) >= leases.deadlines.get(item), item + " scaduto prima della scadenza");
+	}
+
+	@Test
+	void renewedItemsAreRescheduled() throws InterruptedException {
+		Leases leases = new Leases(2);
+		TimingWheel<String> wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, leases);
+		wheel.start("TEST_WHEEL");
+
+		leases.lease(wheel, "rinnovato", 40);
+		leases.lease(wheel, "riferimento", 40);
+
+		// rinnovo senza toccare la ruota, come un heartbeat
+		Thread.sleep(20);
+		leases.deadlines.put("rinnovato", System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200));
+
+		assertTrue(leases.done.await(5, TimeUnit.SECONDS));
+		assertTrue(leases.expired.get("rinnovato") >= leases.deadlines.get("rinnovato"));
+		assertTrue(leases.expired.get("riferimento") < leases.expired.get("rinnovato"));
+		assertEquals(2, leases.expired.size());
+	}
+
+	@Test
+	void wheelSizeMustBeAPowerOfTwo() {
+		assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(TICK_MILLIS, 6, new Leases(0)));
+	}
+}
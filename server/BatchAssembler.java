@@ -0,0 +1,118 @@
+package server;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+
+// Ricomposizione delle sequenze di scambi (REQ_SWAP_BATCH) inviate in più datagrammi.
+// Ogni frammento porta l'identificativo della sequenza scelto dal Client, il proprio numero e il numero totale di frammenti:
+// i frammenti possono arrivare in qualsiasi ordine, quelli duplicati vengono ignorati. Una sequenza incompleta viene scartata
+// dopo MAX_AGE_MILLIS (il Client non riceve risposta e può ripetere l'invio), e oltre MAX_PARTIAL sequenze incomplete
+// i nuovi frammenti vengono rifiutati.
+// Usata solo dal thread che riceve le richieste dei Client, quindi senza sincronizzazione.
+final class BatchAssembler {
+
+	private final static int MAX_PARTIAL = 256;
+	private final static long MAX_AGE_MILLIS = 5000;
+
+
+	private static final class Partial {
+		final String fileName;
+		final long[][] pairs;
+		final long created;
+		int received = 0;
+		int size = 0;
+
+		Partial(String fileName, int fragments, long created) {
+			this.fileName = fileName;
+			this.pairs = new long[fragments][];
+			this.created = created;
+		}
+	}
+
+
+	private final int maxPairs;
+	private final HashMap<String, Partial> partials = new HashMap<>();
+	private long nextSweep = 0;
+
+
+	public BatchAssembler(int maxPairs) {
+		this.maxPairs = maxPairs;
+	}
+
+
+	// pairs -> coppie del frammento (a0, b0, a1, b1, ...). Restituisce la sequenza completa all'arrivo dell'ultimo frammento,
+	// altrimenti null. IllegalArgumentException se il frammento non è coerente con la sequenza
+	public SwapBatch add(SocketAddress sender, long batchId, String fileName, int fragment, int fragments, long[] pairs) {
+		long now = System.nanoTime();
+		sweep(now);
+
+		if(fragments < 1 || fragment < 0 || fragment >= fragments)
+			throw new IllegalArgumentException("frammento " + fragment + " di " + fragments + " non valido.");
+
+		// sequenza in un solo datagramma
+		if(fragments == 1) {
+			if(pairs.length / 2 > maxPairs)
+				throw new IllegalArgumentException("la sequenza supera " + maxPairs + " scambi.");
+
+			return batch(new long[][] { pairs }, pairs.length / 2);
+		}
+
+		String key = sender + "#" + batchId;
+		Partial partial = partials.get(key);
+		if(partial == null) {
+			if(partials.size() >= MAX_PARTIAL)
+				throw new IllegalArgumentException("troppe sequenze incomplete in attesa.");
+
+			partial = new Partial(fileName, fragments, now);
+			partials.put(key, partial);
+		} else if(partial.pairs.length != fragments || !partial.fileName.equals(fileName)) {
+			partials.remove(key);
+			throw new IllegalArgumentException("frammento non coerente con la sequenza " + batchId + ".");
+		}
+
+		// frammento duplicato
+		if(partial.pairs[fragment] != null) return null;
+
+		if(partial.size + pairs.length / 2 > maxPairs) {
+			partials.remove(key);
+			throw new IllegalArgumentException("la sequenza supera " + maxPairs + " scambi.");
+		}
+
+		partial.pairs[fragment] = pairs;
+		partial.size += pairs.length / 2;
+		if(++partial.received < fragments) return null;
+
+		partials.remove(key);
+		return batch(partial.pairs, partial.size);
+	}
+
+
+	private static SwapBatch batch(long[][] fragments, int size) {
+		long[] first = new long[size];
+		long[] second = new long[size];
+
+		int n = 0;
+		for(long[] pairs : fragments) {
+			for(int i=0; i<pairs.length; i+=2) {
+				first[n] = pairs[i];
+				second[n++] = pairs[i + 1];
+			}
+		}
+
+		return new SwapBatch(first, second);
+	}
+
+	// le sequenze incomplete scadute vengono cercate al più una volta al secondo
+	private void sweep(long now) {
+		if(partials.isEmpty() || now - nextSweep < 0) return;
+		nextSweep = now + TimeUnit.SECONDS.toNanos(1);
+
+		long maxAge = TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MILLIS);
+		Iterator<Partial> it = partials.values().iterator();
+		while(it.hasNext())
+			if(now - it.next().created >= maxAge) it.remove();
+	}
+}
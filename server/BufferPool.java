@@ -0,0 +1,42 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+
+// Pool di ByteBuffer diretti di dimensione fissa usato dai motori NIO.
+// I buffer vengono allocati una sola volta all'avvio e riutilizzati: sul percorso a regime non vengono create nuove istanze
+// (un nuovo buffer viene allocato solo se il pool è esaurito, ad esempio con molti invii in coda). Il pool conserva al più
+// count buffer: quelli allocati in più durante un picco vengono lasciati al garbage collector quando tornano, così la
+// memoria diretta torna alla dimensione iniziale invece di restare al massimo raggiunto.
+// Non è thread-safe: ogni pool appartiene a un singolo event loop.
+final class BufferPool {
+
+	private final ArrayDeque<ByteBuffer> free;
+	private final int count;
+	private final int bufferSize;
+
+
+	public BufferPool(int count, int bufferSize) {
+		this.count = count;
+		this.bufferSize = bufferSize;
+
+		free = new ArrayDeque<>(count);
+		for(int i=0; i<count; i++)
+			free.push(ByteBuffer.allocateDirect(bufferSize));
+	}
+
+
+	public ByteBuffer acquire() {
+		ByteBuffer buf = free.poll();
+		if(buf == null)
+			buf = ByteBuffer.allocateDirect(bufferSize);
+
+		buf.clear();
+		return buf;
+	}
+
+	public void release(ByteBuffer buf) {
+		if(free.size() < count) free.push(buf);
+	}
+}
@@ -0,0 +1,135 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+// Istantanea immutabile e versionata della lista file inviata ai Client (REQ_VISUALIZATION_FILE).
+// La lista è già codificata e suddivisa nei datagrammi da inviare:
+// - packets[0]     -> numero totale di frammenti (int) e versione (long), con cui il Client chiede di nuovo i frammenti persi
+// - packets[1..n]  -> frammento "i:" + dati, con al più MAX_PAYLOAD byte di dati
+// Rispondere a una richiesta di visualizzazione consiste quindi nel solo invio dei datagrammi in cache; nel formato binario
+// (Frame.OP_LIST) gli stessi dati vengono inviati dopo l'header, che porta la numerazione al posto di "i:".
+// L'istantanea viene aggiornata dal registro a ogni modifica: in coda con append per una nuova voce, ricostruita con build
+// solo quando una voce viene rimossa.
+final class DSFileList {
+
+	public static final DSFileList EMPTY = new DSFileList(0, new byte[][] { header(0, 0) }, 0);
+
+
+	public final long version;
+	private final byte[][] packets;
+
+	// byte di dati (header escluso) presenti nell'ultimo frammento
+	private final int tailLength;
+
+
+	private DSFileList(long version, byte[][] packets, int tailLength) {
+		this.version = version;
+		this.packets = packets;
+		this.tailLength = tailLength;
+	}
+
+
+	// ricostruzione completa a partire dalle voci del registro: le righe vengono scritte in un unico buffer, poi suddiviso
+	// nei frammenti
+	public static DSFileList build(long version, Iterable<DSRegistry.Entry> entries) {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for(DSRegistry.Entry entry : entries) {
+			byte[] line = line(entry.fileName);
+			data.write(line, 0, line.length);
+		}
+
+		byte[] lines = data.toByteArray();
+		int frags = (lines.length + DiscoveryServer.MAX_PAYLOAD - 1) / DiscoveryServer.MAX_PAYLOAD;
+
+		byte[][] packets = new byte[frags + 1][];
+		packets[0] = header(frags, version);
+
+		int tail = 0;
+		for(int i=0; i<frags; i++) {
+			int offset = i * DiscoveryServer.MAX_PAYLOAD;
+			tail = Math.min(DiscoveryServer.MAX_PAYLOAD, lines.length - offset);
+			packets[i + 1] = fill(fragmentHeader(i), lines, offset, tail);
+		}
+
+		return new DSFileList(version, packets, tail);
+	}
+
+
+	// aggiunta incrementale di un file in coda: i frammenti già pieni vengono condivisi con l'istantanea
+	// precedente, viene ricopiato solo l'ultimo frammento (oltre all'header con il nuovo totale)
+	public DSFileList append(long newVersion, String fileName) {
+		byte[] line = line(fileName);
+
+		int frags = packets.length - 1;
+		int free = (frags == 0) ? 0 : DiscoveryServer.MAX_PAYLOAD - tailLength;
+		int newFrags = frags + (int) Math.ceil((double) Math.max(0, line.length - free) / DiscoveryServer.MAX_PAYLOAD);
+
+		byte[][] res = Arrays.copyOf(packets, newFrags + 1);
+		res[0] = header(newFrags, newVersion);
+
+		int written = 0;
+		int tail = tailLength;
+
+		// completamento dell'ultimo frammento esistente
+		if(free > 0) {
+			int n = Math.min(free, line.length);
+			res[frags] = fill(packets[frags], line, 0, n);
+
+			written = n;
+			tail += n;
+		}
+
+		// nuovi frammenti
+		for(int i=frags; i<newFrags; i++) {
+			int n = Math.min(DiscoveryServer.MAX_PAYLOAD, line.length - written);
+			res[i + 1] = fill(fragmentHeader(i), line, written, n);
+
+			written += n;
+			tail = n;
+		}
+
+		return new DSFileList(newVersion, res, tail);
+	}
+
+
+	public int totalFrag() {
+		return packets.length - 1;
+	}
+
+	// 0 -> header, 1..totalFrag -> frammenti
+	public byte[] packet(int i) {
+		return packets[i];
+	}
+
+	public int packetCount() {
+		return packets.length;
+	}
+
+	// inizio dei dati del frammento i (1..totalFrag) dopo la numerazione "i:", che nel formato binario è nell'header
+	public int dataOffset(int i) {
+		return Integer.toString(i - 1).length() + 1;
+	}
+
+
+	private static byte[] line(String fileName) {
+		return ("\t" + fileName + "\n").getBytes();
+	}
+
+	private static byte[] header(int totalFrag, long version) {
+		return ByteBuffer.allocate(12).putInt(totalFrag).putLong(version).array();
+	}
+
+	// numerazione del frammento esplicita
+	private static byte[] fragmentHeader(int i) {
+		return (i + ":").getBytes();
+	}
+
+	private static byte[] fill(byte[] prefix, byte[] data, int offset, int length) {
+		byte[] res = Arrays.copyOf(prefix, prefix.length + length);
+		System.arraycopy(data, offset, res, prefix.length, length);
+		return res;
+	}
+}
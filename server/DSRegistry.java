@@ -0,0 +1,682 @@
+package server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Registro dei Row Swap Server usato dal Discovery Server.
+// Sostituisce la vecchia tabella String[MAX_RS_SERVER][3] con due indici hash:
+// - nome del file esattamente come è stato registrato (NameKey) -> voce (ricerca del Client, che cerca f1.txt come
+//   server/resources/f1.txt, e controllo duplicati sul nome)
+// - endpoint "IP:porta" -> voci (heartbeat e de-registrazione): un Row Swap Server può servire più file dallo stesso endpoint
+// a cui si affianca un indice ordinato per nome, usato dalla visualizzazione paginata e filtrata per prefisso.
+// Le registrazioni possono avere un lease: il Row Swap Server lo rinnova con gli heartbeat e, se smette di farlo,
+// la voce non viene più restituita e viene rimossa dalla timing wheel alla prima occasione.
+// Il registro è diviso in SHARDS partizioni in base all'hash del nome: ogni partizione ha il proprio lock, che serializza
+// solo le scritture sui nomi che le appartengono (registrazione, de-registrazione, scadenza, replica). Le letture avvengono
+// senza lock, l'insieme delle voci di un endpoint (che possono stare in partizioni diverse) viene aggiornato con compute
+// sull'indice degli endpoint e la lista file viene aggiornata da chi modifica il registro (accodando le nuove voci e
+// ricostruendola solo dopo una rimozione), così che le richieste dei Client inviino sempre un'istantanea già pronta.
+// Per la replica tra più Discovery Server (vedi DSReplicator) ogni registrazione porta una versione (clock di Lamport
+// basato sull'orologio di sistema) e il nodo che l'ha creata: tra due registrazioni dello stesso nome vince quella con
+// versione maggiore (last-writer-wins) e le de-registrazioni lasciano una "lapide" che impedisce di riaccettare
+// versioni più vecchie ancora in circolazione.
+class DSRegistry {
+
+	// prefisso con cui i Row Swap Server registrano i propri file
+	public final static String RESOURCES_DIR = "server/resources/";
+	// lo stesso prefisso già codificato, anteposto dalla sonda (vedi NameKey.wrap) al nome cercato dal Client
+	public final static byte[] RESOURCES_PREFIX = NameKey.bytes(RESOURCES_DIR);
+
+	// risposta al Client per un file non registrato, già codificata con writeUTF
+	public final static byte[] NOT_FOUND = NameKey.utf("0:0");
+	// record di un file non registrato nella risposta a una risoluzione multipla
+	public final static byte[] NOT_FOUND_RECORD = { 0 };
+
+	// granularità e dimensione della timing wheel dei lease (512 slot da 250 ms -> un giro ogni 128 s)
+	private final static long LEASE_TICK_MILLIS = 250;
+	private final static int LEASE_WHEEL_SIZE = 512;
+
+	// numero di partizioni (potenza di 2)
+	private final static int SHARDS = 16;
+
+	// istantanee della lista file conservate per le ritrasmissioni dei frammenti
+	private final static int RETAINED_LISTS = 8;
+
+
+	public static final class Entry {
+
+		public final String addr;
+		public final int port;
+
+		// nome del file così come è stato registrato (es. server/resources/f1.txt)
+		public final String fileName;
+		// nome mostrato al Client nelle pagine della lista (es. f1.txt)
+		public final String name;
+		// chiave del registro: il nome registrato, quindi f1.txt e server/resources/f1.txt sono due voci distinte
+		public final NameKey key;
+
+		// "IP:porta", usato sia come chiave dell'indice degli endpoint sia come risposta al Client
+		public final String endpoint;
+		// endpoint già codificato con writeUTF, pronto per essere inviato al Client
+		public final byte[] reply;
+		// endpoint in forma binaria per la risoluzione multipla: [byte 1][byte lunghezza indirizzo][indirizzo (4 o 16 byte)][short porta]
+		public final byte[] record;
+
+		// durata del lease (0 -> registrazione senza lease, non scade mai) e scadenza attuale in System.nanoTime
+		public final long leaseNanos;
+		private volatile long expiresAt;
+		// ultimo rinnovo con un heartbeat ricevuto da questo nodo e ultimo invio della scadenza agli altri nodi (vedi DSReplicator)
+		volatile long renewedAt;
+		volatile long advertisedAt;
+
+		// versione della registrazione e nodo del cluster che l'ha creata
+		public final long version;
+		public final long origin;
+
+		// false per una voce ripristinata dal disco in attesa del primo heartbeat (vedi restore): non viene mostrata ai Client
+		private volatile boolean validated = true;
+
+		Entry(String addr, int port, String fileName, long leaseMillis, long version, long origin) {
+			this.addr = addr;
+			this.port = port;
+			this.fileName = fileName;
+			this.name = lookupName(fileName);
+			this.key = NameKey.of(fileName);
+			this.endpoint = endpointKey(addr, port);
+			this.reply = NameKey.utf(endpoint);
+			this.record = record(addr, port);
+			this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+			this.version = version;
+			this.origin = origin;
+
+			long now = System.nanoTime();
+			renew(now);
+			advertisedAt = now;
+		}
+
+		void renew(long now) {
+			expiresAt = now + leaseNanos;
+			renewedAt = now;
+		}
+
+		// proroga ricevuta da un altro nodo: la scadenza non viene mai anticipata
+		void extend(long deadline) {
+			if(deadline - expiresAt > 0)
+				expiresAt = deadline;
+		}
+
+		// tempo residuo del lease (0 se scaduto), da trasmettere agli altri nodi
+		public long remainingMillis(long now) {
+			return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - now));
+		}
+
+		public boolean expired(long now) {
+			return leaseNanos > 0 && now - expiresAt >= 0;
+		}
+
+		public boolean visible(long now) {
+			return validated && !expired(now);
+		}
+	}
+
+
+	// partizione del registro: voci e lapidi dei nomi con lo stesso hash, modificate solo con il lock della partizione
+	private static final class Shard {
+		final ReentrantLock lock = new ReentrantLock();
+		final ConcurrentHashMap<NameKey, Entry> byName = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<NameKey, Tombstone> tombstones = new ConcurrentHashMap<>();
+	}
+
+
+	private final int capacity;
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final Shard[] shards = new Shard[SHARDS];
+	private final ConcurrentHashMap<String, Set<Entry>> byEndpoint;
+	private final ConcurrentSkipListMap<String, Entry> sorted = new ConcurrentSkipListMap<>();
+
+	// lista file inviata ai Client, aggiornata da chi modifica il registro e non dalle richieste: con fileListLock vengono
+	// modificati la versione e l'insieme delle voci presenti nell'istantanea attuale
+	private final Object fileListLock = new Object();
+	private volatile DSFileList fileList = DSFileList.EMPTY;
+	private long listVersion = 0;
+	private final Set<Entry> listed = new HashSet<>();
+	// ultime istantanee della lista file (la più recente per ultima), da cui vengono ritrasmessi i frammenti persi da un
+	// Client anche se nel frattempo il registro è cambiato
+	private volatile DSFileList[] retainedLists = { DSFileList.EMPTY };
+
+	private final TimingWheel<Entry> leases;
+
+
+	// de-registrazione già propagata (o da propagare) agli altri nodi del cluster
+	public static final class Tombstone {
+		public final String fileName;
+		public final long version;
+		public final long origin;
+		final long createdAt;
+
+		Tombstone(String fileName, long version, long origin) {
+			this.fileName = fileName;
+			this.version = version;
+			this.origin = origin;
+			this.createdAt = System.nanoTime();
+		}
+	}
+
+	// notifica delle modifiche originate da questo nodo (non di quelle ricevute dagli altri nodi né delle scadenze dei lease)
+	public interface Listener {
+		void registered(Entry entry);
+
+		void unregistered(Tombstone tombstone);
+	}
+
+	// registro di tutte le modifiche (locali, replicate e scadenze), usato per la persistenza (vedi DSStore).
+	// Viene chiamato con il lock della partizione: le modifiche di uno stesso nome arrivano nell'ordine in cui sono avvenute
+	public interface ChangeLog {
+		void added(Entry entry);
+
+		void removed(Entry entry);
+	}
+
+
+	// identificativo del nodo, usato per risolvere i conflitti tra registrazioni con la stessa versione
+	public final long nodeId = ThreadLocalRandom.current().nextLong();
+	private final AtomicLong clock = new AtomicLong();
+
+	private volatile Listener listener;
+	private volatile ChangeLog changeLog;
+
+
+	public DSRegistry(int capacity) {
+		this.capacity = capacity;
+
+		byEndpoint = new ConcurrentHashMap<>(capacity);
+		for(int i=0; i<SHARDS; i++)
+			shards[i] = new Shard();
+
+		leases = new TimingWheel<>(LEASE_TICK_MILLIS, LEASE_WHEEL_SIZE, new TimingWheel.Handler<Entry>() {
+			public long deadline(Entry entry) {
+				return entry.expiresAt;
+			}
+
+			public void expire(Entry entry) {
+				if(remove(entry))
+					System.out.println("[SERVER DS_LEASE] : Lease scaduto, rimossa la registrazione del file " + entry.fileName + " (" + entry.endpoint + ").");
+			}
+		});
+		leases.start("DS_LEASE");
+	}
+
+
+	private static byte[] record(String addr, int port) {
+		byte[] ip;
+		try {
+			// addr è sempre un indirizzo numerico (getHostAddress), quindi non viene fatta alcuna risoluzione DNS
+			ip = InetAddress.getByName(addr).getAddress();
+		} catch(UnknownHostException e) {
+			throw new IllegalArgumentException(addr);
+		}
+
+		return ByteBuffer.allocate(4 + ip.length).put((byte) 1).put((byte) ip.length).put(ip).putShort((short) port).array();
+	}
+
+	public static String endpointKey(String addr, int port) {
+		return addr + ":" + port;
+	}
+
+	// il Client vede e cerca i file senza il prefisso della cartella delle risorse
+	public static String lookupName(String fileName) {
+		return fileName.startsWith(RESOURCES_DIR) ? fileName.substring(RESOURCES_DIR.length()) : fileName;
+	}
+
+
+	private Shard shard(NameKey key) {
+		int h = key.hashCode();
+		return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+	}
+
+
+	// IllegalStateException -> registro pieno, IllegalArgumentException -> nome del file già registrato
+	// leaseMillis -> durata del lease, 0 per una registrazione senza scadenza
+	public Entry register(String addr, int port, String fileName, long leaseMillis) {
+		Entry entry = new Entry(addr, port, fileName, leaseMillis, nextVersion(), nodeId);
+		Shard shard = shard(entry.key);
+
+		// una voce scaduta ma non ancora raccolta dalla timing wheel non deve bloccare la nuova registrazione
+		long now = System.nanoTime();
+		for(Entry e : endpointEntries(entry.endpoint))
+			removeIfExpired(e, now);
+
+		shard.lock.lock();
+		try {
+			removeIfExpired(shard.byName.get(entry.key), now);
+
+			if(shard.byName.containsKey(entry.key))
+				throw new IllegalArgumentException(entry.endpoint);
+
+			claim(entry);
+			insert(shard, entry);
+			shard.tombstones.remove(entry.key);
+		} finally {
+			shard.lock.unlock();
+		}
+
+		listAdded(entry);
+
+		Listener l = listener;
+		if(l != null) l.registered(entry);
+
+		return entry;
+	}
+
+	// riserva un posto nel registro
+	private void claim(Entry entry) {
+		if(size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			throw new IllegalStateException("registro pieno");
+		}
+	}
+
+	// con il lock della partizione, dopo claim()
+	private void insert(Shard shard, Entry entry) {
+		shard.byName.put(entry.key, entry);
+		byEndpoint.compute(entry.endpoint, (endpoint, set) -> {
+			if(set == null) set = ConcurrentHashMap.newKeySet();
+			set.add(entry);
+			return set;
+		});
+		sorted.put(entry.fileName, entry);
+
+		if(entry.leaseNanos > 0)
+			leases.schedule(entry);
+
+		ChangeLog log = changeLog;
+		if(log != null) log.added(entry);
+	}
+
+	// voci registrate dall'endpoint (vuoto se non ne ha)
+	private Collection<Entry> endpointEntries(String endpoint) {
+		Set<Entry> set = byEndpoint.get(endpoint);
+		return (set == null) ? List.of() : set;
+	}
+
+	// rinnovo del lease di tutti i file dell'endpoint con un solo heartbeat: false se l'endpoint non ha (più) file registrati
+	public boolean renew(String addr, int port) {
+		long now = System.nanoTime();
+		boolean renewed = false;
+
+		for(Entry entry : endpointEntries(endpointKey(addr, port))) {
+			if(entry.expired(now))
+				continue;
+
+			entry.renew(now);
+			renewed = true;
+
+			// primo heartbeat di una voce ripristinata: da ora compare nella lista file
+			if(!entry.validated) {
+				entry.validated = true;
+				listAdded(entry);
+			}
+		}
+
+		return renewed;
+	}
+
+	// de-registrazione di tutti i file dell'endpoint, restituisce le voci rimosse (vuoto se l'endpoint non era registrato)
+	public List<Entry> unregister(String addr, int port) {
+		List<Entry> removed = new ArrayList<>();
+
+		for(Entry entry : endpointEntries(endpointKey(addr, port))) {
+			Shard shard = shard(entry.key);
+			Tombstone tombstone;
+
+			shard.lock.lock();
+			try {
+				if(!remove(entry))
+					continue;
+
+				tombstone = new Tombstone(entry.fileName, nextVersion(), nodeId);
+				shard.tombstones.put(entry.key, tombstone);
+			} finally {
+				shard.lock.unlock();
+			}
+
+			removed.add(entry);
+
+			Listener l = listener;
+			if(l != null) l.unregistered(tombstone);
+		}
+
+		return removed;
+	}
+
+	// rimozione della voce, solo se è ancora quella registrata (una nuova registrazione dello stesso nome non viene toccata)
+	private boolean remove(Entry entry) {
+		Shard shard = shard(entry.key);
+
+		shard.lock.lock();
+		try {
+			if(!shard.byName.remove(entry.key, entry))
+				return false;
+
+			byEndpoint.computeIfPresent(entry.endpoint, (endpoint, set) -> {
+				set.remove(entry);
+				return set.isEmpty() ? null : set;
+			});
+			sorted.remove(entry.fileName, entry);
+			size.decrementAndGet();
+
+			ChangeLog log = changeLog;
+			if(log != null) log.removed(entry);
+		} finally {
+			shard.lock.unlock();
+		}
+
+		listRemoved(entry);
+		return true;
+	}
+
+	private void removeIfExpired(Entry entry, long now) {
+		if(entry != null && entry.expired(now))
+			remove(entry);
+	}
+
+
+	// voce letta dal disco all'avvio, prima che i server inizino a ricevere richieste. Il lease riparte da zero; con revalidate
+	// una voce con lease resta nascosta finché il Row Swap Server non manda un heartbeat e, se non lo fa, scade normalmente
+	public void restore(String addr, int port, String fileName, long leaseMillis, long version, long origin, boolean revalidate) {
+		Entry entry = new Entry(addr, port, fileName, leaseMillis, version, origin);
+		if(revalidate && entry.leaseNanos > 0)
+			entry.validated = false;
+
+		Shard shard = shard(entry.key);
+
+		observe(version);
+
+		shard.lock.lock();
+		try {
+			Entry current = shard.byName.get(entry.key);
+			if(current != null) remove(current);
+
+			claim(entry);
+			insert(shard, entry);
+		} finally {
+			shard.lock.unlock();
+		}
+
+		listAdded(entry);
+	}
+
+	public void setChangeLog(ChangeLog changeLog) {
+		this.changeLog = changeLog;
+	}
+
+
+	// --- replica ---
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	private long nextVersion() {
+		return clock.updateAndGet(c -> Math.max(c + 1, System.currentTimeMillis()));
+	}
+
+	// le versioni ricevute dagli altri nodi fanno avanzare il clock locale, così una modifica successiva le supera sempre
+	private void observe(long version) {
+		clock.accumulateAndGet(version, Math::max);
+	}
+
+	// > 0 se (v1, o1) è più recente di (v2, o2)
+	private static int compare(long v1, long o1, long v2, long o2) {
+		return (v1 != v2) ? Long.compare(v1, v2) : Long.compare(o1, o2);
+	}
+
+	// registrazione ricevuta da un altro nodo (remainingMillis -> lease residuo, ignorato per le registrazioni senza lease)
+	// restituisce true se il registro è cambiato; una registrazione già nota con la stessa versione proroga solo il lease
+	public boolean applyRegister(String addr, int port, String fileName, long leaseMillis, long remainingMillis, long version, long origin) {
+		NameKey key = NameKey.of(fileName);
+		Shard shard = shard(key);
+		long now = System.nanoTime();
+
+		observe(version);
+
+		Entry entry;
+
+		shard.lock.lock();
+		try {
+			Tombstone tombstone = shard.tombstones.get(key);
+			if(tombstone != null && compare(tombstone.version, tombstone.origin, version, origin) >= 0)
+				return false;
+
+			Entry current = shard.byName.get(key);
+			if(current != null) {
+				int c = compare(current.version, current.origin, version, origin);
+				if(c > 0) return false;
+
+				if(c == 0) {
+					if(current.leaseNanos > 0 && remainingMillis > 0)
+						current.extend(now + TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+					return false;
+				}
+			}
+
+			if(leaseMillis > 0 && remainingMillis <= 0)
+				return false;
+
+			entry = new Entry(addr, port, fileName, leaseMillis, version, origin);
+			if(leaseMillis > 0)
+				entry.expiresAt = now + TimeUnit.MILLISECONDS.toNanos(remainingMillis);
+
+			// la nuova voce prende il posto di quella che sostituisce
+			if(current != null) remove(current);
+
+			claim(entry);
+			insert(shard, entry);
+			shard.tombstones.remove(key);
+		} finally {
+			shard.lock.unlock();
+		}
+
+		listAdded(entry);
+		return true;
+	}
+
+	// rinnovo del lease ricevuto da un altro nodo: proroga la scadenza solo se la voce è la stessa registrazione (una voce
+	// mancante o diversa viene allineata dalla sincronizzazione). Restituisce true se la voce è stata prorogata
+	public boolean applyRenew(String fileName, long version, long origin, long remainingMillis) {
+		NameKey key = NameKey.of(fileName);
+		Shard shard = shard(key);
+
+		shard.lock.lock();
+		try {
+			Entry current = shard.byName.get(key);
+			if(current == null || current.version != version || current.origin != origin || current.leaseNanos == 0 || remainingMillis <= 0)
+				return false;
+
+			current.extend(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+			return true;
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	// de-registrazione ricevuta da un altro nodo: restituisce true se è stata rimossa una voce
+	public boolean applyUnregister(String fileName, long version, long origin) {
+		NameKey key = NameKey.of(fileName);
+		Shard shard = shard(key);
+
+		observe(version);
+
+		shard.lock.lock();
+		try {
+			Tombstone tombstone = shard.tombstones.get(key);
+			if(tombstone != null && compare(tombstone.version, tombstone.origin, version, origin) >= 0)
+				return false;
+
+			shard.tombstones.put(key, new Tombstone(fileName, version, origin));
+
+			Entry current = shard.byName.get(key);
+			if(current == null || compare(current.version, current.origin, version, origin) > 0)
+				return false;
+
+			return remove(current);
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	public Collection<Tombstone> tombstones() {
+		ArrayList<Tombstone> res = new ArrayList<>();
+		for(Shard shard : shards)
+			res.addAll(shard.tombstones.values());
+
+		return res;
+	}
+
+	// le lapidi servono solo finché le versioni più vecchie possono ancora circolare tra i nodi
+	public void purgeTombstones(long ttlMillis) {
+		long now = System.nanoTime();
+		long ttl = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+
+		for(Shard shard : shards)
+			shard.tombstones.values().removeIf(t -> now - t.createdAt > ttl);
+	}
+
+	// ricerca del Client: name è il nome senza il prefisso RESOURCES_DIR
+	public Entry lookup(String name) {
+		return registered(RESOURCES_DIR + name);
+	}
+
+	// ricerca per nome registrato
+	public Entry registered(String fileName) {
+		NameKey key = NameKey.of(fileName);
+		return live(shard(key).byName.get(key));
+	}
+
+	// ricerca senza allocazioni: key può essere una sonda che punta al pacchetto ricevuto (con il prefisso RESOURCES_PREFIX)
+	public Entry lookup(NameKey key) {
+		return live(shard(key).byName.get(key));
+	}
+
+	// una voce con il lease scaduto non viene mai restituita, anche se la timing wheel non l'ha ancora rimossa
+	private static Entry live(Entry entry) {
+		return (entry == null || !entry.visible(System.nanoTime())) ? null : entry;
+	}
+
+	// voci in ordine di nome
+	public Collection<Entry> entries() {
+		return sorted.values();
+	}
+
+	// voci in ordine di nome che iniziano con prefix, a partire dalla prima successiva al cursore after ("" -> dall'inizio).
+	// Prefisso e cursore sono nomi del Client: vengono restituite solo le voci registrate sotto RESOURCES_DIR
+	public Iterable<Entry> page(String prefix, String after) {
+		String from = RESOURCES_DIR + prefix;
+		NavigableMap<String, Entry> tail = (after.compareTo(prefix) >= 0 && !after.isEmpty()) ? sorted.tailMap(RESOURCES_DIR + after, false) : sorted.tailMap(from, true);
+
+		return () -> new Iterator<Entry>() {
+			private final Iterator<Entry> it = tail.values().iterator();
+			private Entry next = advance();
+
+			private Entry advance() {
+				long now = System.nanoTime();
+				while(it.hasNext()) {
+					Entry e = it.next();
+					if(!e.fileName.startsWith(from)) return null;
+					if(e.visible(now)) return e;
+				}
+
+				return null;
+			}
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public Entry next() {
+				if(next == null) throw new NoSuchElementException();
+
+				Entry e = next;
+				next = advance();
+				return e;
+			}
+		};
+	}
+
+	// istantanea attuale della lista file, già pronta: la richiesta di un Client non la costruisce mai
+	public DSFileList fileList() {
+		return fileList;
+	}
+
+	// nuova voce (o voce ripristinata al primo heartbeat): accodata all'istantanea senza ricostruirla. Non viene aggiunta
+	// se nel frattempo è stata rimossa o se una ricostruzione concorrente l'ha già inclusa
+	private void listAdded(Entry entry) {
+		synchronized(fileListLock) {
+			if(!entry.visible(System.nanoTime()) || shard(entry.key).byName.get(entry.key) != entry || !listed.add(entry))
+				return;
+
+			publish(fileList.append(++listVersion, entry.fileName));
+		}
+	}
+
+	// voce rimossa (de-registrazione, scadenza del lease o replica): l'istantanea viene ricostruita in un solo passaggio
+	// sull'indice ordinato, solo se conteneva la voce. Il lock della partizione può essere ancora tenuto dal chiamante:
+	// qui non ne viene preso nessuno, quindi l'ordine partizione -> fileListLock non può creare attese circolari
+	private void listRemoved(Entry entry) {
+		synchronized(fileListLock) {
+			if(!listed.remove(entry))
+				return;
+
+			long now = System.nanoTime();
+			ArrayList<Entry> visible = new ArrayList<>(size.get());
+			for(Entry e : sorted.values())
+				if(e.visible(now) && shard(e.key).byName.get(e.key) == e)
+					visible.add(e);
+
+			listed.clear();
+			listed.addAll(visible);
+			publish(DSFileList.build(++listVersion, visible));
+		}
+	}
+
+	// con fileListLock
+	private void publish(DSFileList list) {
+		fileList = list;
+
+		DSFileList[] retained = Arrays.copyOfRange(retainedLists, Math.max(0, retainedLists.length - RETAINED_LISTS + 1), retainedLists.length + 1);
+		retained[retained.length - 1] = list;
+		retainedLists = retained;
+	}
+
+	// istantanea della lista file con la versione indicata, null se non è più conservata
+	public DSFileList fileList(long version) {
+		for(DSFileList list : retainedLists)
+			if(list.version == version)
+				return list;
+
+		return null;
+	}
+
+	public int size() {
+		return size.get();
+	}
+}
@@ -0,0 +1,398 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+// Replica del registro tra più Discovery Server.
+// Il cluster non ha un primario: ogni nodo accetta registrazioni, de-registrazioni e heartbeat dei Row Swap Server
+// e risponde alle ricerche dei Client usando la propria copia del registro.
+// - ogni modifica originata da un nodo viene inviata subito a tutti gli altri (push)
+// - periodicamente ogni nodo invia agli altri un riassunto del proprio stato (digest): i nomi sono divisi in DIGEST_BUCKETS
+//   gruppi e per ognuno viene inviata la somma delle impronte (nome, versione, nodo) delle voci visibili e delle lapidi.
+//   Chi riceve il digest risponde al mittente con le sole voci e lapidi dei gruppi la cui somma è diversa dalla propria,
+//   e il mittente applica quelle più recenti; il verso opposto è coperto dal digest dell'altro nodo. Così vengono
+//   recuperati i pacchetti persi e allineato un nodo appena avviato, ma a regime un giro costa un datagramma per nodo
+//   invece dell'intero registro
+// - i rinnovi dei lease non cambiano la versione, quindi non compaiono nel digest: a ogni giro il nodo che ha ricevuto
+//   gli heartbeat invia la nuova scadenza delle voci rinnovate, al più una volta ogni quarto di lease per voce (un rinnovo
+//   perso viene ripetuto prima che gli altri nodi facciano scadere la voce)
+// I conflitti vengono risolti dal registro confrontando le versioni (last-writer-wins, vedi DSRegistry).
+// Messaggi, al più MAX_PAYLOAD byte per datagramma:
+// - [byte MSG_OPS][short n][n operazioni]
+//   - OP_REGISTER   -> [long versione][long nodo][UTF fileName][UTF indirizzo][int porta][int lease ms][int lease residuo ms]
+//   - OP_UNREGISTER -> [long versione][long nodo][UTF fileName]
+//   - OP_RENEW      -> [long versione][long nodo][UTF fileName][int lease residuo ms]
+// - [byte MSG_DIGEST][short DIGEST_BUCKETS][DIGEST_BUCKETS x long somma delle impronte]
+final class DSReplicator implements DSRegistry.Listener {
+
+	private final static byte MSG_OPS = 'R';
+	private final static byte MSG_DIGEST = 'D';
+	private final static byte OP_REGISTER = 1;
+	private final static byte OP_UNREGISTER = 2;
+	private final static byte OP_RENEW = 3;
+
+	// gruppi del digest (potenza di 2): 64 x 8 byte stanno in un datagramma, e con la capacità di default del registro un
+	// gruppo diverso fa inviare solo qualche voce
+	private final static int DIGEST_BUCKETS = 64;
+
+	// le lapidi vengono mantenute per un numero di sincronizzazioni sufficiente a raggiungere tutti i nodi
+	private final static int TOMBSTONE_SYNCS = 30;
+
+
+	private final DSRegistry registry;
+	private final DatagramSocket socket;
+	private final List<InetSocketAddress> peers;
+	private final Set<SocketAddress> knownPeers;
+	private final long syncMillis;
+
+
+	public DSReplicator(DSRegistry registry, int port, List<InetSocketAddress> peers, long syncMillis) throws SocketException {
+		this.registry = registry;
+		this.socket = new DatagramSocket(port);
+		this.peers = peers;
+		this.knownPeers = new HashSet<>(peers);
+		this.syncMillis = syncMillis;
+	}
+
+
+	// "host:porta,host:porta,..."
+	public static List<InetSocketAddress> parsePeers(String peers) {
+		List<InetSocketAddress> res = new ArrayList<>();
+		for(String peer : peers.split(",")) {
+			peer = peer.trim();
+			if(peer.isEmpty()) continue;
+
+			int sep = peer.lastIndexOf(':');
+			if(sep < 0)
+				throw new IllegalArgumentException(peer);
+
+			InetSocketAddress addr = new InetSocketAddress(peer.substring(0, sep), Integer.parseInt(peer.substring(sep + 1)));
+			if(addr.isUnresolved())
+				throw new IllegalArgumentException(peer);
+
+			res.add(addr);
+		}
+
+		return res;
+	}
+
+
+	public void start() {
+		registry.setListener(this);
+
+		Thread receiver = new Thread(this::receive, "DS_REPLICA");
+		receiver.setDaemon(true);
+		receiver.start();
+
+		Thread sync = new Thread(this::sync, "DS_SYNC");
+		sync.setDaemon(true);
+		sync.start();
+	}
+
+
+	// --- modifiche locali, inviate subito ---
+
+	public void registered(DSRegistry.Entry entry) {
+		Batch batch = new Batch(peers);
+		batch.add(encodeRegister(entry, System.nanoTime()));
+		batch.flush();
+	}
+
+	public void unregistered(DSRegistry.Tombstone tombstone) {
+		Batch batch = new Batch(peers);
+		batch.add(encodeUnregister(tombstone));
+		batch.flush();
+	}
+
+
+	// --- sincronizzazione periodica: digest e rinnovi dei lease ---
+
+	private void sync() {
+		while(true) {
+			registry.purgeTombstones(syncMillis * TOMBSTONE_SYNCS);
+
+			long now = System.nanoTime();
+			Batch batch = new Batch(peers);
+
+			for(DSRegistry.Entry entry : registry.entries()) {
+				if(entry.leaseNanos > 0 && entry.visible(now) && entry.renewedAt - entry.advertisedAt > 0 && now - entry.advertisedAt >= entry.leaseNanos / 4) {
+					batch.add(encodeRenew(entry, now));
+					entry.advertisedAt = now;
+				}
+			}
+
+			batch.flush();
+
+			byte[] digest = encodeDigest(digest(now));
+			for(InetSocketAddress peer : peers)
+				send(digest, peer);
+
+			try {
+				Thread.sleep(syncMillis);
+			} catch(InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+
+	private void receive() {
+		byte[] buf = new byte[DiscoveryServer.MAX_PAYLOAD];
+		DatagramPacket packet = new DatagramPacket(buf, buf.length);
+
+		while(true) {
+			try {
+				packet.setData(buf);
+				socket.receive(packet);
+			} catch(IOException e) {
+				System.err.println("[SERVER DS_REPLICA] : Errore -> Ricezione non riuscita: " + e);
+				return;
+			}
+
+			if(!knownPeers.contains(packet.getSocketAddress())) {
+				System.err.println("[SERVER DS_REPLICA] : Errore -> Pacchetto da un nodo sconosciuto: " + packet.getSocketAddress());
+				continue;
+			}
+
+			try {
+				DataInputStream din = new DataInputStream(new ByteArrayInputStream(buf, 0, packet.getLength()));
+				byte type = din.readByte();
+				if(type == MSG_OPS) apply(din, packet.getSocketAddress());
+				else if(type == MSG_DIGEST) reconcile(din, (InetSocketAddress) packet.getSocketAddress());
+				else throw new IOException("tipo di messaggio sconosciuto");
+			} catch(IOException | IllegalArgumentException e) {
+				System.err.println("[SERVER DS_REPLICA] : Errore -> Messaggio non valido da " + packet.getSocketAddress() + ": " + e);
+			}
+		}
+	}
+
+	private void apply(DataInputStream din, SocketAddress peer) throws IOException {
+		int n = din.readUnsignedShort();
+		for(int i=0; i<n; i++) {
+			byte op = din.readByte();
+			long version = din.readLong();
+			long origin = din.readLong();
+			String fileName = din.readUTF();
+
+			if(op == OP_REGISTER) {
+				String addr = din.readUTF();
+				int port = din.readInt();
+				int leaseMillis = din.readInt();
+				int remainingMillis = din.readInt();
+
+				try {
+					if(registry.applyRegister(addr, port, fileName, leaseMillis, remainingMillis, version, origin))
+						System.out.println("[SERVER DS_REPLICA] : Registrazione del file " + fileName + " (" + addr + ":" + port + ") ricevuta da " + peer);
+				} catch(IllegalStateException e) {
+					System.err.println("[SERVER DS_REPLICA] : Errore -> Registro pieno, registrazione del file " + fileName + " ignorata.");
+				}
+			} else if(op == OP_UNREGISTER) {
+				if(registry.applyUnregister(fileName, version, origin))
+					System.out.println("[SERVER DS_REPLICA] : De-registrazione del file " + fileName + " ricevuta da " + peer);
+			} else if(op == OP_RENEW) {
+				registry.applyRenew(fileName, version, origin, din.readInt());
+			} else throw new IOException("operazione sconosciuta: " + op);
+		}
+	}
+
+	// digest di un altro nodo: gli vengono inviate le voci e le lapidi dei gruppi diversi dai propri
+	private void reconcile(DataInputStream din, InetSocketAddress peer) throws IOException {
+		if(din.readUnsignedShort() != DIGEST_BUCKETS)
+			throw new IOException("digest con un numero di gruppi diverso");
+
+		long now = System.nanoTime();
+		long[] local = digest(now);
+		boolean[] differs = new boolean[DIGEST_BUCKETS];
+		boolean any = false;
+		for(int i=0; i<DIGEST_BUCKETS; i++) {
+			differs[i] = din.readLong() != local[i];
+			any |= differs[i];
+		}
+		if(!any) return;
+
+		Batch batch = new Batch(List.of(peer));
+
+		for(DSRegistry.Entry entry : registry.entries())
+			if(entry.visible(now) && differs[bucket(entry.key.hashCode())])
+				batch.add(encodeRegister(entry, now));
+
+		for(DSRegistry.Tombstone tombstone : registry.tombstones())
+			if(differs[bucket(nameHash(tombstone))] && counted(tombstone))
+				batch.add(encodeUnregister(tombstone));
+
+		batch.flush();
+	}
+
+
+	// --- digest ---
+
+	// somma delle impronte di ogni gruppo: non dipende dall'ordine in cui voci e lapidi vengono visitate
+	private long[] digest(long now) {
+		long[] res = new long[DIGEST_BUCKETS];
+
+		for(DSRegistry.Entry entry : registry.entries()) {
+			if(entry.visible(now)) {
+				int hash = entry.key.hashCode();
+				res[bucket(hash)] += fingerprint(hash, entry.version, entry.origin, false);
+			}
+		}
+
+		for(DSRegistry.Tombstone tombstone : registry.tombstones()) {
+			if(counted(tombstone)) {
+				int hash = nameHash(tombstone);
+				res[bucket(hash)] += fingerprint(hash, tombstone.version, tombstone.origin, true);
+			}
+		}
+
+		return res;
+	}
+
+	// una lapide accanto a una voce più recente dello stesso nome non cambia lo stato (e un altro nodo può non averla):
+	// conta solo se il nome non è registrato
+	private boolean counted(DSRegistry.Tombstone tombstone) {
+		return registry.registered(tombstone.fileName) == null;
+	}
+
+	private static int nameHash(DSRegistry.Tombstone tombstone) {
+		return NameKey.of(tombstone.fileName).hashCode();
+	}
+
+	private static int bucket(int hash) {
+		return (hash ^ (hash >>> 16)) & (DIGEST_BUCKETS - 1);
+	}
+
+	// impronta a 64 bit (finalizzatore di splitmix64)
+	private static long fingerprint(int hash, long version, long origin, boolean tombstone) {
+		long h = hash;
+		h = h * 0x9E3779B97F4A7C15L + version;
+		h = h * 0x9E3779B97F4A7C15L + origin;
+		h = h * 0x9E3779B97F4A7C15L + (tombstone ? 1 : 0);
+
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+
+	private static byte[] encodeRegister(DSRegistry.Entry entry, long now) {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		try {
+			dout.writeByte(OP_REGISTER);
+			dout.writeLong(entry.version);
+			dout.writeLong(entry.origin);
+			dout.writeUTF(entry.fileName);
+			dout.writeUTF(entry.addr);
+			dout.writeInt(entry.port);
+			dout.writeInt((int) TimeUnit.NANOSECONDS.toMillis(entry.leaseNanos));
+			dout.writeInt((entry.leaseNanos > 0) ? (int) entry.remainingMillis(now) : 0);
+		} catch(IOException e) {
+			// ByteArrayOutputStream non genera IOException
+		}
+
+		return bout.toByteArray();
+	}
+
+	private static byte[] encodeRenew(DSRegistry.Entry entry, long now) {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		try {
+			dout.writeByte(OP_RENEW);
+			dout.writeLong(entry.version);
+			dout.writeLong(entry.origin);
+			dout.writeUTF(entry.fileName);
+			dout.writeInt((int) entry.remainingMillis(now));
+		} catch(IOException e) {
+			// ByteArrayOutputStream non genera IOException
+		}
+
+		return bout.toByteArray();
+	}
+
+	private static byte[] encodeDigest(long[] digest) {
+		ByteBuffer buf = ByteBuffer.allocate(3 + 8 * digest.length);
+		buf.put(MSG_DIGEST).putShort((short) digest.length);
+		for(long sum : digest)
+			buf.putLong(sum);
+
+		return buf.array();
+	}
+
+	private static byte[] encodeUnregister(DSRegistry.Tombstone tombstone) {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		try {
+			dout.writeByte(OP_UNREGISTER);
+			dout.writeLong(tombstone.version);
+			dout.writeLong(tombstone.origin);
+			dout.writeUTF(tombstone.fileName);
+		} catch(IOException e) {
+			// ByteArrayOutputStream non genera IOException
+		}
+
+		return bout.toByteArray();
+	}
+
+
+	private void send(byte[] data, InetSocketAddress peer) {
+		try {
+			socket.send(new DatagramPacket(data, data.length, peer));
+		} catch(IOException e) {
+			System.err.println("[SERVER DS_REPLICA] : Errore -> Invio a " + peer + " non riuscito: " + e);
+		}
+	}
+
+
+	// raggruppa le operazioni in datagrammi da al più MAX_PAYLOAD byte e li invia ai nodi indicati
+	private final class Batch {
+		private final List<InetSocketAddress> targets;
+		private final ByteArrayOutputStream ops = new ByteArrayOutputStream();
+		private int count = 0;
+
+		Batch(List<InetSocketAddress> targets) {
+			this.targets = targets;
+		}
+
+		void add(byte[] op) {
+			if(count > 0 && 3 + ops.size() + op.length > DiscoveryServer.MAX_PAYLOAD)
+				flush();
+
+			ops.write(op, 0, op.length);
+			count++;
+		}
+
+		void flush() {
+			if(count == 0) return;
+
+			byte[] data = new byte[3 + ops.size()];
+			data[0] = MSG_OPS;
+			data[1] = (byte) (count >>> 8);
+			data[2] = (byte) count;
+			System.arraycopy(ops.toByteArray(), 0, data, 3, ops.size());
+
+			for(InetSocketAddress peer : targets)
+				send(data, peer);
+
+			ops.reset();
+			count = 0;
+		}
+	}
+}
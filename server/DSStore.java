@@ -0,0 +1,276 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+// Persistenza del registro del Discovery Server, per ripartire con le registrazioni già note invece che da un registro vuoto.
+// - journal (registry.journal): ogni modifica del registro (DSRegistry.ChangeLog) viene accodata e scritta in append
+//   da un thread dedicato, quindi il percorso delle richieste non tocca mai il disco
+// - snapshot (registry.snap): stato completo del registro, riscritto (file temporaneo + rename atomico) quando il journal
+//   supera COMPACT_RECORDS record; dopo lo snapshot il journal riparte vuoto
+// All'avvio si legge lo snapshot e si riapplica il journal. Un record troncato o corrotto (CRC) in coda al journal,
+// dovuto a un arresto durante la scrittura, viene scartato insieme a quelli successivi.
+// Record: [int lunghezza][dati][int CRC32 dei dati], dati: [byte tipo][long versione][long nodo][UTF fileName]
+// seguito, per REC_ADD, da [UTF indirizzo][int porta][long lease ms]
+// Le rimozioni indicano la versione della voce rimossa: riapplicate sopra uno snapshot più recente non hanno effetto.
+final class DSStore implements DSRegistry.ChangeLog {
+
+	private final static byte REC_ADD = 1;
+	private final static byte REC_REMOVE = 2;
+
+	private final static String SNAPSHOT_FILE = "registry.snap";
+	private final static String JOURNAL_FILE = "registry.journal";
+
+	// record nel journal oltre i quali viene scritto un nuovo snapshot
+	private final static int COMPACT_RECORDS = 4096;
+
+
+	private static final class Record {
+		final byte type;
+		final long version;
+		final long origin;
+		final String fileName;
+		final String addr;
+		final int port;
+		final long leaseMillis;
+
+		Record(byte type, long version, long origin, String fileName, String addr, int port, long leaseMillis) {
+			this.type = type;
+			this.version = version;
+			this.origin = origin;
+			this.fileName = fileName;
+			this.addr = addr;
+			this.port = port;
+			this.leaseMillis = leaseMillis;
+		}
+
+		static Record add(DSRegistry.Entry entry) {
+			return new Record(REC_ADD, entry.version, entry.origin, entry.fileName, entry.addr, entry.port, TimeUnit.NANOSECONDS.toMillis(entry.leaseNanos));
+		}
+
+		static Record remove(DSRegistry.Entry entry) {
+			return new Record(REC_REMOVE, entry.version, entry.origin, entry.fileName, null, 0, 0);
+		}
+	}
+
+
+	private final DSRegistry registry;
+	private final Path snapshotPath;
+	private final Path journalPath;
+	private final boolean revalidate;
+
+	private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+
+	private FileOutputStream journalFile;
+	private DataOutputStream journal;
+	private int journalRecords = 0;
+
+
+	public DSStore(DSRegistry registry, Path dir, boolean revalidate) throws IOException {
+		this.registry = registry;
+		this.snapshotPath = dir.resolve(SNAPSHOT_FILE);
+		this.journalPath = dir.resolve(JOURNAL_FILE);
+		this.revalidate = revalidate;
+
+		Files.createDirectories(dir);
+	}
+
+
+	// snapshot + journal -> registro, restituisce il numero di voci ripristinate
+	public int restore() throws IOException {
+		// ultimo stato noto per nome del file, nell'ordine di registrazione
+		LinkedHashMap<String, Record> state = new LinkedHashMap<>();
+
+		read(snapshotPath, state);
+		read(journalPath, state);
+
+		int restored = 0;
+		for(Record rec : state.values()) {
+			try {
+				registry.restore(rec.addr, rec.port, rec.fileName, rec.leaseMillis, rec.version, rec.origin, revalidate);
+				restored++;
+			} catch(IllegalArgumentException | IllegalStateException e) {
+				System.err.println("[SERVER DS_STORE] : Errore -> Registrazione del file " + rec.fileName + " non ripristinata: " + e);
+			}
+		}
+
+		return restored;
+	}
+
+	private static void read(Path path, LinkedHashMap<String, Record> state) throws IOException {
+		if(!Files.exists(path)) return;
+
+		try(DataInputStream din = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			Record rec;
+			while((rec = readRecord(din)) != null) {
+				if(rec.type == REC_ADD) {
+					state.remove(rec.fileName);
+					state.put(rec.fileName, rec);
+				} else {
+					Record current = state.get(rec.fileName);
+					if(current != null && current.version == rec.version && current.origin == rec.origin)
+						state.remove(rec.fileName);
+				}
+			}
+		}
+	}
+
+	// null a fine file oppure su un record incompleto o corrotto
+	private static Record readRecord(DataInputStream din) throws IOException {
+		try {
+			int length = din.readInt();
+			if(length <= 0 || length > DiscoveryServer.MAX_PAYLOAD)
+				return null;
+
+			byte[] data = new byte[length];
+			din.readFully(data);
+
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			if((int) crc.getValue() != din.readInt())
+				return null;
+
+			DataInputStream rin = new DataInputStream(new ByteArrayInputStream(data));
+			byte type = rin.readByte();
+			long version = rin.readLong();
+			long origin = rin.readLong();
+			String fileName = rin.readUTF();
+
+			if(type == REC_ADD)
+				return new Record(type, version, origin, fileName, rin.readUTF(), rin.readInt(), rin.readLong());
+			if(type == REC_REMOVE)
+				return new Record(type, version, origin, fileName, null, 0, 0);
+
+			return null;
+		} catch(EOFException e) {
+			return null;
+		}
+	}
+
+
+	// scrive uno snapshot dello stato ripristinato (il journal riparte vuoto) e avvia il thread di scrittura
+	public void start() throws IOException {
+		registry.setChangeLog(this);
+
+		compact();
+
+		Thread writer = new Thread(this::write, "DS_JOURNAL");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public void added(DSRegistry.Entry entry) {
+		queue.add(Record.add(entry));
+	}
+
+	public void removed(DSRegistry.Entry entry) {
+		queue.add(Record.remove(entry));
+	}
+
+
+	private void write() {
+		ArrayList<Record> batch = new ArrayList<>();
+
+		while(true) {
+			try {
+				batch.add(queue.take());
+			} catch(InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch);
+
+			try {
+				for(Record rec : batch)
+					writeRecord(journal, rec);
+
+				// un solo flush per gruppo di modifiche
+				journal.flush();
+				journalRecords += batch.size();
+
+				if(journalRecords >= COMPACT_RECORDS)
+					compact();
+			} catch(IOException e) {
+				System.err.println("[SERVER DS_STORE] : Errore -> Scrittura del journal non riuscita: " + e);
+			}
+
+			batch.clear();
+		}
+	}
+
+	// Lo snapshot legge il registro mentre può essere modificato: le modifiche ancora in coda verranno scritte nel nuovo
+	// journal e riapplicate sopra lo snapshot, dove l'aggiunta di una voce già presente o la rimozione di una versione
+	// non più registrata non hanno effetto.
+	// Il nuovo journal viene aperto prima di chiudere il vecchio: se l'apertura non riesce si continua ad accodare al journal
+	// attuale, che riapplicato sopra il nuovo snapshot porta allo stesso stato, e la compattazione viene ritentata al
+	// gruppo di modifiche successivo (journalRecords non viene azzerato).
+	private void compact() throws IOException {
+		Path tmp = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+
+		try(FileOutputStream fout = new FileOutputStream(tmp.toFile())) {
+			DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(fout));
+			for(DSRegistry.Entry entry : registry.entries())
+				writeRecord(dout, Record.add(entry));
+
+			dout.flush();
+			fout.getFD().sync();
+		}
+
+		Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		FileOutputStream file = new FileOutputStream(journalPath.toFile(), false);
+		FileOutputStream old = journalFile;
+
+		journalFile = file;
+		journal = new DataOutputStream(new BufferedOutputStream(file));
+		journalRecords = 0;
+
+		// viene chiuso solo il file: i byte rimasti nel buffer del vecchio journal dopo un errore di scrittura sono già
+		// nello snapshot e non devono finire nel nuovo journal
+		if(old != null) {
+			try {
+				old.close();
+			} catch(IOException e) {
+				System.err.println("[SERVER DS_STORE] : Errore -> Chiusura del vecchio journal non riuscita: " + e);
+			}
+		}
+	}
+
+	private static void writeRecord(DataOutputStream out, Record rec) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+
+		dout.writeByte(rec.type);
+		dout.writeLong(rec.version);
+		dout.writeLong(rec.origin);
+		dout.writeUTF(rec.fileName);
+		if(rec.type == REC_ADD) {
+			dout.writeUTF(rec.addr);
+			dout.writeInt(rec.port);
+			dout.writeLong(rec.leaseMillis);
+		}
+
+		byte[] data = bout.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		out.writeInt(data.length);
+		out.write(data);
+		out.writeInt((int) crc.getValue());
+	}
+}
@@ -0,0 +1,97 @@
+package server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+
+
+// Coda di invio di un DatagramChannel non bloccante.
+// Un datagramma viene inviato subito se possibile; se il buffer di invio del sistema è pieno resta in coda
+// (nel buffer del pool che lo contiene) e il canale si registra per OP_WRITE finché la coda non si svuota.
+// L'ordine di invio verso lo stesso destinatario viene preservato (importante per i frammenti della lista file).
+// La coda contiene al più MAX_PENDING datagrammi: oltre, un nuovo datagramma viene scartato e contato, come farebbe la rete
+// con un buffer di invio pieno (il Client ripete la richiesta o chiede i frammenti mancanti). Lo scarto viene segnalato
+// all'inizio e alla fine di ogni periodo di coda piena, non per ogni datagramma.
+final class DatagramOutbox {
+
+	private final static int MAX_PENDING = 1024;
+
+
+	private final String name;
+	private final DatagramChannel channel;
+	private final SelectionKey key;
+	private final BufferPool pool;
+
+	private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+	private final ArrayDeque<SocketAddress> targets = new ArrayDeque<>();
+
+	// datagrammi scartati in totale e nel periodo di coda piena in corso
+	private long dropped = 0;
+	private long droppedNow = 0;
+
+
+	// name -> prefisso dei messaggi (es. "SERVER DS_NIO")
+	public DatagramOutbox(String name, DatagramChannel channel, SelectionKey key, BufferPool pool) {
+		this.name = name;
+		this.channel = channel;
+		this.key = key;
+		this.pool = pool;
+	}
+
+
+	// buf deve provenire dal pool ed essere già pronto per la lettura (flip): la proprietà passa all'outbox
+	public void send(ByteBuffer buf, SocketAddress target) throws IOException {
+		if(pending.isEmpty() && channel.send(buf, target) > 0) {
+			pool.release(buf);
+			return;
+		}
+
+		if(pending.size() >= MAX_PENDING) {
+			pool.release(buf);
+			dropped++;
+			if(droppedNow++ == 0)
+				System.err.println("[" + name + "] : Errore -> Coda di invio piena (" + MAX_PENDING + " datagrammi), i nuovi invii vengono scartati.");
+			return;
+		}
+
+		pending.add(buf);
+		targets.add(target);
+		key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+	}
+
+	public void send(byte[] data, SocketAddress target) throws IOException {
+		ByteBuffer buf = pool.acquire();
+		buf.put(data).flip();
+
+		send(buf, target);
+	}
+
+	public void send(byte flag, SocketAddress target) throws IOException {
+		ByteBuffer buf = pool.acquire();
+		buf.put(flag).flip();
+
+		send(buf, target);
+	}
+
+
+	// chiamato dall'event loop quando il canale torna scrivibile
+	public void flush() throws IOException {
+		while(!pending.isEmpty()) {
+			if(channel.send(pending.peek(), targets.peek()) == 0)
+				return;
+
+			pool.release(pending.poll());
+			targets.poll();
+		}
+
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+		if(droppedNow > 0) {
+			System.err.println("[" + name + "] : Coda di invio svuotata, " + droppedNow + " datagrammi scartati (" + dropped + " in totale).");
+			droppedNow = 0;
+		}
+	}
+}
@@ -7,22 +7,61 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 public class DiscoveryServer {
 	
 	private final static int REQ_VISUALIZATION_FILE = 1;
+	// richieste con codice operativo: il primo byte è il codice, mentre una ricerca legacy (writeUTF del nome,
+	// al più MAX_FILE_LENGTH byte) inizia sempre con il byte alto della lunghezza, cioè 0
+	private final static int REQ_LIST_PAGE = 2;
+	private final static int REQ_BATCH_LOOKUP = 3;
+	// frammenti persi della lista file: [long versione][short n][n x short indice], vedi listFragments
+	private final static int REQ_LIST_FRAGMENTS = 4;
+	// i datagrammi nel formato binario (Frame) vengono riconosciuti dal magic su entrambe le porte e ricevono risposta
+	// nello stesso formato
 	
+	private final static byte RESPONSE_OK = 0;
 	private final static byte RESPONSE_ERR = 1;
 	private final static byte RESPONSE_SERVER_OPENING = 3;
 	private final static byte RESPONSE_SERVER_CLOSING = 4;
+	// heartbeat di rinnovo del lease: [byte RESPONSE_SERVER_HEARTBEAT][int porta] in un solo pacchetto
+	private final static byte RESPONSE_SERVER_HEARTBEAT = 6;
+	// risposta a un heartbeat di un endpoint non registrato (lease scaduto): il Row Swap Server deve registrarsi di nuovo
+	private final static byte RESPONSE_LEASE_EXPIRED = 7;
 	
 	
+	// file registrabili (un Row Swap Server può registrarne più di uno), modificabile con -Dsns.ds.capacity
 	private final static int MAX_RS_SERVER = 256;
+	// richieste dei Client in attesa di un worker, oltre le quali i pacchetti vengono scartati
+	private final static int MAX_PENDING_REQUESTS = 1024;
+	
+	// buffer diretti del motore NIO: un datagramma di lista file (header "i:" + MAX_PAYLOAD) deve entrarci per intero
+	private final static int NIO_BUFFERS = 64;
+	private final static int NIO_BUFFER_SIZE = 2048;
 	private final static int MAX_FILE_LENGTH = 256;
 	public final static int MAX_PAYLOAD = 1400;
+	// datagramma di lista file nel formato binario: header, flag, versione e al più MAX_PAYLOAD byte di dati
+	private final static int LIST_FRAME_LENGTH = Frame.HEADER_LENGTH + 9 + MAX_PAYLOAD;
+	// elementi restituiti al massimo da una pagina della lista file
+	private final static int MAX_PAGE_SIZE = 256;
 	// Non conoscendo la lunghezza totale in byte dell'intera lista file e dato che UDP può essere frammentato
 	// dovremmo limitare la dimensione del buffer a 1472 byte ->
 	// Essendo: l'MTU del frame Ethernet 1500 byte, l'header IP 20 byte e l'header UDP 8 byte
@@ -35,13 +74,18 @@ public class DiscoveryServer {
 	private static int clientPort = -1;
 	private static int rsPort = -1;
 	
-	private static int counter = 0;
+	// numero di worker che gestiscono le richieste dei Client (-Dsns.ds.workers, default 1)
+	private static int clientWorkers = 1;
+	
+	// motore di I/O: "blocking" (thread dedicati con DatagramSocket) oppure "nio" (event loop con DatagramChannel)
+	private static String ioEngine = "blocking";
 	
-	// 0 -> IP, 1 -> porta, 2 -> file name
-	private static String[][] tableRs = new String[MAX_RS_SERVER][3];
+	// replica del registro tra più Discovery Server: porta UDP dedicata (-Dsns.ds.replicaPort, assente -> nodo singolo),
+	// porte di replica degli altri nodi (-Dsns.ds.peers=host:porta,...) e intervallo della sincronizzazione (digest)
+	private final static long DEFAULT_SYNC_MILLIS = 2000;
 	
-	// dato che la tabella è condivisa tra i due thread, è necessario usare il lock per evitare sezioni critiche
-	private static final ReentrantLock tableLock = new ReentrantLock();
+	// registro dei Row Swap Server: condiviso tra i due thread, gestisce internamente la concorrenza
+	private static final DSRegistry registry = new DSRegistry(Integer.getInteger("sns.ds.capacity", MAX_RS_SERVER));
 	
 	
 	public static void main(String[] args) {
@@ -72,12 +116,75 @@ public class DiscoveryServer {
 			System.exit(1);
 		}
 		
+		clientWorkers = Integer.getInteger("sns.ds.workers", 1);
+		if(clientWorkers < 1) {
+			System.err.println("[SERVER] : Errore -> Numero di worker non valido: " + clientWorkers);
+			System.exit(1);
+		}
+		
+		ioEngine = System.getProperty("sns.io", "blocking");
+		if(!ioEngine.equals("blocking") && !ioEngine.equals("nio")) {
+			System.err.println("[SERVER] : Errore -> Motore di I/O non valido: " + ioEngine);
+			System.exit(1);
+		}
 		
-		// inizializzo tableRs con degli IP "N" per indicare che quelle celle non sono utilizzate
-		for(int i=0; i<MAX_RS_SERVER; i++) tableRs[i][0] = "N";
 		
 		System.out.println("[SERVER] : Il Discovery Server si sta avviando...");
 		
+		// ripristino del registro dal disco (-Dsns.ds.data=<cartella>), prima di accettare qualsiasi richiesta
+		String dataDir = System.getProperty("sns.ds.data");
+		if(dataDir != null) {
+			try {
+				long start = System.nanoTime();
+				
+				DSStore store = new DSStore(registry, Paths.get(dataDir), Boolean.getBoolean("sns.ds.revalidate"));
+				int restored = store.restore();
+				store.start();
+				
+				System.out.println("[SERVER] : Ripristinate " + restored + " registrazioni in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+			} catch(IOException | InvalidPathException e) {
+				System.err.println("[SERVER] : Errore -> Impossibile ripristinare il registro da " + dataDir + ": " + e);
+				System.exit(2);
+			}
+		}
+		
+		Integer replicaPort = Integer.getInteger("sns.ds.replicaPort");
+		if(replicaPort != null) {
+			try {
+				long syncMillis = Long.getLong("sns.ds.syncInterval", DEFAULT_SYNC_MILLIS);
+				if(syncMillis < 1)
+					throw new IllegalArgumentException("intervallo di sincronizzazione " + syncMillis);
+				
+				List<InetSocketAddress> peers = DSReplicator.parsePeers(System.getProperty("sns.ds.peers", ""));
+				new DSReplicator(registry, replicaPort, peers, syncMillis).start();
+				
+				System.out.println("[SERVER] : Replica attiva sulla porta " + replicaPort + " verso " + peers.size() + " nodi.");
+			} catch(IllegalArgumentException e) {
+				System.err.println("[SERVER] : Errore -> Configurazione della replica non valida: " + e);
+				System.exit(1);
+			} catch(SocketException e) {
+				System.err.println("[SERVER] : Errore -> Socket di replica non valida: " + e);
+				System.exit(2);
+			}
+		}
+		
+		if(ioEngine.equals("nio")) {
+			try {
+				DSServer_Nio threadNio = new DSServer_Nio(clientPort, rsPort);
+				threadNio.start();
+				
+				threadNio.join();
+			} catch (IOException e) {
+				System.err.println("[SERVER] : Errore -> Canale non valido: " + e);
+				System.exit(2);
+			} catch (InterruptedException e) {
+				System.err.println("[SERVER] : Errore -> Thread terminato improvvisamente: " + e);
+				System.exit(3);
+			}
+			
+			return;
+		}
+		
 		
 		DatagramSocket socketClient = null;
 		DatagramSocket socketRS = null;
@@ -92,7 +199,7 @@ public class DiscoveryServer {
 			threadDs.start();
 					
 			// Thread che comunica con il Client
-			DSServer_ThreadClient threadClient = new DSServer_ThreadClient(socketClient);	
+			DSServer_ThreadClient threadClient = new DSServer_ThreadClient(socketClient, clientWorkers);	
 			threadClient.start();		
 			
 			
@@ -112,6 +219,322 @@ public class DiscoveryServer {
 	
 	
 	
+	// registrazione di un Row Swap Server, condivisa dai due motori di I/O
+	// info -> "fileName:porta[:lease in secondi]", restituisce il flag da inviare come risposta
+	static byte registerRs(String addr, String info) {
+		// [0] -> fileName - [1] -> porta - [2] -> lease (facoltativo, senza lease la registrazione non scade)
+		String[] infoRs = info.split(":");
+		
+		int port = -1;
+		long leaseMillis = 0;
+		try {
+			port = Integer.parseInt(infoRs[1]);
+			if(infoRs.length > 2)
+				leaseMillis = Math.max(1, Integer.parseInt(infoRs[2])) * 1000L;
+		} catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.err.println("[SERVER DS_RS] : Errore -> Richiesta di registrazione non valida: " + addr + " - " + info);
+			return RESPONSE_ERR;
+		}
+		
+		return registerRs(addr, infoRs[0], port, leaseMillis);
+	}
+	
+	static byte registerRs(String addr, String fileName, int port, long leaseMillis) {
+		try {
+			registry.register(addr, port, fileName, leaseMillis);
+			
+			System.out.println("[SERVER DS_RS] : Registrazione del file " + fileName + " avvenuta con successo.");
+			return RESPONSE_SERVER_OPENING;
+		} catch(IllegalArgumentException e) {
+			System.err.println("[SERVER DS_RS] : Errore -> Nome del file già registrato: " + fileName + " (" + addr + " - " + port + ")");
+		} catch(IllegalStateException e) {
+			System.err.println("[SERVER DS_RS] : Errore -> Non è possibile registrare nuovi Row Server attualmente.");
+		}
+		
+		return RESPONSE_ERR;
+	}
+	
+	// de-registrazione dell'endpoint addr:port (tutti i suoi file), srcPort è la porta da cui è arrivata la richiesta
+	static byte unregisterRs(String addr, int srcPort, int port) {
+		List<DSRegistry.Entry> removed = registry.unregister(addr, port);
+		if(removed.isEmpty()) {
+			System.err.println("[SERVER DS_RS] : Errore -> Non è stato possibile effetturare la de-registrazione del Row Swap Server " + addr + " - " + srcPort);
+			return RESPONSE_ERR;
+		}
+		
+		System.out.println("[SERVER DS_RS] : De-registrazione del Row Swap Server " + addr + " - " + srcPort + " (" + removed.size() + " file) avvenuta con successo.");
+		return RESPONSE_SERVER_CLOSING;
+	}
+	
+	// rinnovo del lease dell'endpoint addr:port (nessun log: gli heartbeat sono frequenti)
+	static byte heartbeatRs(String addr, int port) {
+		return registry.renew(addr, port) ? RESPONSE_SERVER_HEARTBEAT : RESPONSE_LEASE_EXPIRED;
+	}
+	
+	// pacchetto troncato o non decodificabile: viene rifiutato, il thread continua a servire gli altri Row Swap Server
+	static byte malformedRs(DatagramPacket packet, IOException e) {
+		System.err.println("[SERVER DS_RS] : Errore -> Pacchetto malformato del Row Swap Server " + packet.getAddress().getHostAddress() + " - " + packet.getPort() + ": " + e);
+		return RESPONSE_ERR;
+	}
+	
+	// comando di un Row Swap Server nel formato binario, condiviso dai due motori di I/O: registrazione, de-registrazione e
+	// heartbeat stanno in un solo datagramma, con la porta in binario. Restituisce la risposta [header][flag]
+	static byte[] handleFrameRS(ByteBuffer req, String addr, int srcPort) {
+		byte op = Frame.op(req);
+		long id = Frame.id(req);
+		if(Frame.version(req) != Frame.VERSION) {
+			System.err.println("[SERVER DS_RS] : Errore -> Versione " + Frame.version(req) + " del protocollo non supportata: " + addr + " - " + srcPort);
+			return Frame.reply(op, id, Frame.RESPONSE_VERSION);
+		}
+		
+		byte flag = RESPONSE_ERR;
+		try {
+			int port = Frame.body(req).getShort() & 0xFFFF;
+			
+			if(op == Frame.OP_HEARTBEAT) flag = heartbeatRs(addr, port);
+			else if(op == Frame.OP_UNREGISTER) flag = unregisterRs(addr, srcPort, port);
+			else if(op == Frame.OP_REGISTER) {
+				long leaseMillis = Math.max(0, req.getInt()) * 1000L;
+				flag = registerRs(addr, DSRegistry.RESOURCES_DIR + Frame.getName(req), port, leaseMillis);
+			}
+			else System.err.println("[SERVER DS_RS] : Errore -> Comando errato del Row Swap Server " + addr + " - " + srcPort);
+		} catch(BufferUnderflowException | IllegalArgumentException e) {
+			System.err.println("[SERVER DS_RS] : Errore -> Pacchetto del Row Swap Server " + addr + " - " + srcPort + " non valido: " + e);
+		}
+		
+		return Frame.reply(op, id, flag);
+	}
+	
+	
+	// richiesta di un Client con codice operativo, condivisa dai due motori di I/O
+	// restituisce i datagrammi della risposta oppure null se la richiesta non è valida
+	static byte[][] handleOp(byte[] data, int length, String client) {
+		try {
+			DataInputStream din = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+			
+			byte op = din.readByte();
+			if(op == REQ_LIST_PAGE) {
+				// [short limite][UTF prefisso][UTF cursore, "" per la prima pagina]
+				int limit = din.readUnsignedShort();
+				String prefix = din.readUTF();
+				String after = din.readUTF();
+				
+				return new byte[][] { listPage(prefix, after, limit) };
+			} else if(op == REQ_BATCH_LOOKUP) {
+				// [short n][n x UTF nome]
+				int n = din.readUnsignedShort();
+				
+				System.out.println("[SERVER DS_CLIENT] : Il client " + client + " ha richiesto la risoluzione di " + n + " file.");
+				return new byte[][] { batchLookup(din, n) };
+			} else if(op == REQ_LIST_FRAGMENTS) {
+				return listFragments(ByteBuffer.wrap(data, 1, length - 1), client, (byte) 0, 0);
+			}
+			
+			System.err.println("[SERVER DS_CLIENT] : Errore -> Codice operativo " + op + " non valido dal client " + client);
+		} catch(IOException | BufferUnderflowException e) {
+			System.err.println("[SERVER DS_CLIENT] : Errore -> Richiesta non valida dal client " + client + ": " + e);
+		}
+		
+		return null;
+	}
+	
+	// richiesta di un Client nel formato binario, condivisa dai due motori di I/O (il motore NIO risponde da sé a ricerche e
+	// lista file). Le ricerche avvengono sui byte del nome nel datagramma (probe), senza decodificarlo.
+	// Restituisce i datagrammi della risposta, ognuno con l'header della richiesta seguito dal flag di esito
+	static byte[][] handleFrame(ByteBuffer req, String client, NameKey probe) {
+		byte op = Frame.op(req);
+		long id = Frame.id(req);
+		if(Frame.version(req) != Frame.VERSION) {
+			System.err.println("[SERVER DS_CLIENT] : Errore -> Versione " + Frame.version(req) + " del protocollo non supportata dal client " + client);
+			return new byte[][] { Frame.reply(op, id, Frame.RESPONSE_VERSION) };
+		}
+		
+		try {
+			Frame.body(req);
+			
+			if(op == Frame.OP_LOOKUP) {
+				DSRegistry.Entry entry = lookup(req, probe);
+				if(entry == null) return new byte[][] { Frame.reply(op, id, RESPONSE_ERR) };
+				
+				return new byte[][] { Frame.allocate(op, id, 0, 1, entry.record.length).put(RESPONSE_OK).put(entry.record, 1, entry.record.length - 1).array() };
+			} else if(op == Frame.OP_LIST) {
+				return listFrames(registry.fileList(), op, id);
+			} else if(op == Frame.OP_LIST_FRAGMENTS) {
+				return listFragments(req, client, op, id);
+			} else if(op == Frame.OP_LIST_PAGE) {
+				int limit = req.getShort() & 0xFFFF;
+				byte[] page = listPage(Frame.getName(req), Frame.getName(req), limit);
+				
+				return new byte[][] { Frame.allocate(op, id, 0, 1, 1 + page.length).put(RESPONSE_OK).put(page).array() };
+			} else if(op == Frame.OP_BATCH_LOOKUP) {
+				int n = req.getShort() & 0xFFFF;
+				
+				System.out.println("[SERVER DS_CLIENT] : Il client " + client + " ha richiesto la risoluzione di " + n + " file.");
+				return new byte[][] { batchLookup(req, n, op, id, probe) };
+			}
+			
+			System.err.println("[SERVER DS_CLIENT] : Errore -> Operazione " + op + " non valida dal client " + client);
+		} catch(BufferUnderflowException | IllegalArgumentException | IOException e) {
+			System.err.println("[SERVER DS_CLIENT] : Errore -> Richiesta non valida dal client " + client + ": " + e);
+		}
+		
+		return new byte[][] { Frame.reply(op, id, RESPONSE_ERR) };
+	}
+	
+	// frammento i (da 0) della lista file nel formato binario: [header][flag][long versione][dati], un solo datagramma senza
+	// dati (frammenti 0) se la lista è vuota. Il buffer resta posizionato alla fine del datagramma
+	static ByteBuffer listFrame(ByteBuffer buf, byte op, long id, DSFileList list, int i) {
+		Frame.putHeader(buf, op, id, i, list.totalFrag()).put(RESPONSE_OK).putLong(list.version);
+		if(list.totalFrag() == 0) return buf;
+		
+		byte[] packet = list.packet(i + 1);
+		int offset = list.dataOffset(i + 1);
+		return buf.put(packet, offset, packet.length - offset);
+	}
+	
+	// Ritrasmissione selettiva dei frammenti della lista file: [long versione][short n][n x short indice] (indici da 0).
+	// I frammenti vengono presi dall'istantanea con cui è stata data la prima risposta, quindi si ricompongono con quelli già
+	// ricevuti anche se nel frattempo il registro è cambiato; se l'istantanea non è più conservata viene inviata la lista
+	// attuale completa, la cui nuova versione indica al Client di ricominciare. op = 0 per il formato legacy (frammenti "i:"):
+	// i frammenti legacy non portano la versione, quindi al posto della lista attuale viene inviato solo il suo header e il
+	// Client la richiede da capo su un nuovo socket, così sul socket precedente arrivano solo frammenti di un'istantanea
+	static byte[][] listFragments(ByteBuffer req, String client, byte op, long id) {
+		long version = req.getLong();
+		int n = req.getShort() & 0xFFFF;
+		if(req.remaining() < 2 * n) throw new BufferUnderflowException();
+		
+		DSFileList list = registry.fileList(version);
+		if(list == null) {
+			System.out.println("[SERVER DS_CLIENT] : La versione " + version + " della lista file richiesta dal client " + client + " non è più disponibile, inviata la lista attuale.");
+			
+			list = registry.fileList();
+			return (op != 0) ? listFrames(list, op, id) : new byte[][] { list.packet(0) };
+		}
+		
+		ArrayList<byte[]> res = new ArrayList<>(n);
+		for(int k=0; k<n; k++) {
+			int i = req.getShort() & 0xFFFF;
+			if(i >= list.totalFrag()) continue;
+			
+			res.add((op == 0) ? list.packet(i + 1) : listFrame(list, op, id, i));
+		}
+		
+		return res.toArray(new byte[0][]);
+	}
+	
+	// tutti i datagrammi della lista file nel formato binario
+	static byte[][] listFrames(DSFileList list, byte op, long id) {
+		byte[][] res = new byte[Math.max(1, list.totalFrag())][];
+		for(int i=0; i<res.length; i++)
+			res[i] = listFrame(list, op, id, i);
+		
+		return res;
+	}
+	
+	private static byte[] listFrame(DSFileList list, byte op, long id, int i) {
+		ByteBuffer frame = listFrame(ByteBuffer.allocate(LIST_FRAME_LENGTH), op, id, list, i);
+		return Arrays.copyOf(frame.array(), frame.position());
+	}
+	
+	// ricerca del nome [short lunghezza][byte] a partire da position, che viene spostata dopo il nome
+	static DSRegistry.Entry lookup(ByteBuffer req, NameKey probe) {
+		int length = req.getShort() & 0xFFFF;
+		if(length > req.remaining()) throw new BufferUnderflowException();
+		
+		DSRegistry.Entry entry = registry.lookup(probe.wrap(DSRegistry.RESOURCES_PREFIX, req, req.position(), length));
+		req.position(req.position() + length);
+		return entry;
+	}
+	
+	// risoluzione multipla nel formato binario: [header][flag][short m][m record], come batchLookup
+	static byte[] batchLookup(ByteBuffer req, int n, byte op, long id, NameKey probe) {
+		ByteBuffer res = Frame.allocate(op, id, 0, 1, MAX_PAYLOAD);
+		res.put(RESPONSE_OK).putShort((short) 0);
+		
+		int resolved = 0;
+		for(; resolved<n; resolved++) {
+			DSRegistry.Entry entry = lookup(req, probe);
+			byte[] record = (entry != null) ? entry.record : DSRegistry.NOT_FOUND_RECORD;
+			
+			if(res.position() + record.length > Frame.HEADER_LENGTH + MAX_PAYLOAD) break;
+			res.put(record);
+		}
+		
+		res.putShort(Frame.HEADER_LENGTH + 1, (short) resolved);
+		return Arrays.copyOf(res.array(), res.position());
+	}
+	
+	// risoluzione multipla: [short m][m record], un record per nome nello stesso ordine della richiesta
+	// (vedi DSRegistry.Entry.record, 0 -> file non trovato). Se i record non entrano in MAX_PAYLOAD la risposta
+	// si ferma ai primi m nomi e il Client richiede i restanti con una nuova richiesta
+	static byte[] batchLookup(DataInputStream din, int n) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		
+		dout.writeShort(0);
+		
+		int resolved = 0;
+		int size = 2;
+		for(; resolved<n; resolved++) {
+			DSRegistry.Entry entry = registry.lookup(din.readUTF());
+			byte[] record = (entry != null) ? entry.record : DSRegistry.NOT_FOUND_RECORD;
+			
+			if(size + record.length > MAX_PAYLOAD) break;
+			
+			dout.write(record);
+			size += record.length;
+		}
+		dout.flush();
+		
+		byte[] res = bout.toByteArray();
+		res[0] = (byte) (resolved >> 8);
+		res[1] = (byte) resolved;
+		return res;
+	}
+	
+	// pagina della lista file in un solo datagramma: [int n][n x UTF nome][UTF cursore della pagina successiva, "" se la lista è terminata]
+	// la pagina si chiude al raggiungimento del limite richiesto oppure di MAX_PAYLOAD byte
+	static byte[] listPage(String prefix, String after, int limit) throws IOException {
+		if(limit <= 0 || limit > MAX_PAGE_SIZE) limit = MAX_PAGE_SIZE;
+		
+		ByteArrayOutputStream names = new ByteArrayOutputStream();
+		DataOutputStream dnames = new DataOutputStream(names);
+		
+		int count = 0;
+		String last = "";
+		boolean more = false;
+		
+		// 4 byte per il numero di nomi + 2 per la lunghezza del cursore
+		int size = 4 + 2;
+		for(DSRegistry.Entry entry : registry.page(prefix, after)) {
+			// il nome deve entrarci due volte: nella pagina e, se fosse l'ultimo, come cursore. La chiave è il nome registrato,
+			// che per le voci di una pagina inizia sempre con il prefisso
+			int length = 2 + entry.key.length() - DSRegistry.RESOURCES_PREFIX.length;
+			if(count == limit || size + 2 * length > MAX_PAYLOAD) {
+				more = true;
+				break;
+			}
+			
+			dnames.writeUTF(entry.name);
+			size += length;
+			last = entry.name;
+			count++;
+		}
+		dnames.flush();
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(size + last.length());
+		DataOutputStream dout = new DataOutputStream(bout);
+		
+		dout.writeInt(count);
+		names.writeTo(dout);
+		dout.writeUTF(more ? last : "");
+		dout.flush();
+		
+		return bout.toByteArray();
+	}
+	
+	
+	
 	private static class DSServer_ThreadRS extends Thread {
 		
 		private DatagramSocket socket;
@@ -134,6 +557,10 @@ public class DiscoveryServer {
 			DatagramPacket packetIn = new DatagramPacket(req, req.length);
 			DatagramPacket packetOut = null;
 			
+			// comando in attesa del secondo pacchetto, per mittente: tra il comando e i dati di un Row Swap Server
+			// possono arrivare pacchetti di altri Row Swap Server (ad esempio i loro heartbeat)
+			PendingCommands pendingCmd = new PendingCommands();
+			
 			
 			while(true) {
 				try {
@@ -141,118 +568,53 @@ public class DiscoveryServer {
 					
 					packetOut = new DatagramPacket(res, res.length, packetIn.getAddress(), packetIn.getPort());
 					
-					System.out.println("[SERVER DS_RS] : Pacchetto ricevuto dal Row Swap Server " + packetIn.getAddress().getHostAddress() + " - " + packetIn.getPort());
-					
 					bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
 					din = new DataInputStream(bin);
 										
-					byte flag = -1;
-					byte cmd = din.readByte();
-					if(cmd == RESPONSE_SERVER_OPENING) { // il Row Swap Server chiede di registrarsi
-						socket.receive(packetIn);
-						
-						bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-						din = new DataInputStream(bin);
-						
-						// [0] -> fileName - [1] -> porta
-						String[] infoRs = din.readUTF().split(":");
-						
-						bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-						din = new DataInputStream(bin);
-						
+					// comando nel formato binario: completo in un solo datagramma
+					if(Frame.is(packetIn.getData(), 0, packetIn.getLength())) {
+						ByteBuffer frame = ByteBuffer.wrap(packetIn.getData(), 0, packetIn.getLength());
+						if(Frame.op(frame) != Frame.OP_HEARTBEAT)
+							System.out.println("[SERVER DS_RS] : Pacchetto ricevuto dal Row Swap Server " + packetIn.getAddress().getHostAddress() + " - " + packetIn.getPort());
 						
-						flag = RESPONSE_SERVER_OPENING;
-						
-						if(counter < MAX_RS_SERVER) {
-							String addr = packetIn.getAddress().getHostAddress();
-							int port = Integer.parseInt(infoRs[1]);
+						packetOut.setData(handleFrameRS(frame, packetIn.getAddress().getHostAddress(), packetIn.getPort()));
+						socket.send(packetOut);
+						continue;
+					}
+					
+					byte flag = -1;
+					Byte pending = pendingCmd.take(packetIn.getSocketAddress());
+					
+					// i dati vengono letti dal pacchetto già ricevuto: un'eccezione qui indica un pacchetto troncato o non valido
+					// (comando vuoto, nome o porta incompleti), non un errore della socket
+					try {
+						if(pending == null) { // primo pacchetto: comando
+							byte cmd = din.readByte();
 							
-							// controllo sull'endpoint
-							tableLock.lock();
-							try {
-								for(int i=0; i<MAX_RS_SERVER; i++) {
-									if(!tableRs[i][0].equals("N")) { // skip se la posizione è vuota		
-										if(tableRs[i][0].equals(addr) && tableRs[i][1].equals(port + ""))
-											throw new IllegalArgumentException();
-									}
-								}
-								
-								for(int i=0; i<MAX_RS_SERVER; i++) {
-									if(!tableRs[i][0].equals("N")) { // skip se la posizione è vuota	
-										if(tableRs[i][2].equals(infoRs[0]))
-											throw new IllegalArgumentException();
-									}
-								}	
-								
-								int index = -1;
-								for (int i = 0; i < MAX_RS_SERVER; i++) {
-								    if (tableRs[i][0].equals("N")) {
-								        index = i;
-								        break;
-								    }
-								}
-								if (index != -1) {
-								    tableRs[index][0] = addr;
-								    tableRs[index][1] = port + "";
-								    tableRs[index][2] = infoRs[0];
-								    
-								    counter++;
-									
-									System.out.println("[SERVER DS_RS] : Registrazione del file " + infoRs[0] + " avvenuta con successo.");
-								}
+							if(cmd != RESPONSE_SERVER_HEARTBEAT)
+								System.out.println("[SERVER DS_RS] : Pacchetto ricevuto dal Row Swap Server " + packetIn.getAddress().getHostAddress() + " - " + packetIn.getPort());
+							
+							if(cmd == RESPONSE_SERVER_HEARTBEAT) { // rinnovo del lease, comando e porta nello stesso pacchetto
+								flag = heartbeatRs(packetIn.getAddress().getHostAddress(), din.readInt());
+							} else if(cmd == RESPONSE_SERVER_OPENING || cmd == RESPONSE_SERVER_CLOSING) {
+								if(pendingCmd.put(packetIn.getSocketAddress(), cmd))
+									continue;
 								
-							} catch(IllegalArgumentException e) {
-								System.err.println("[SERVER DS_RS] : Errore -> Endpoint/Nome del file già registrato: " + addr + " - " + port);
 								flag = RESPONSE_ERR;
-							} finally {
-								tableLock.unlock();
+								System.err.println("[SERVER DS_RS] : Errore -> Troppi comandi in attesa, comando del Row Swap Server " + packetIn.getAddress().getHostAddress() + " - " + packetIn.getPort() + " rifiutato");
+							} else {
+								flag = RESPONSE_ERR;						
+								System.err.println("[SERVER DS_RS] : Errore -> Comando errato del Row Swap Server " + packetIn.getAddress().getHostAddress() + " - " + packetIn.getPort());			
 							}
-							
+						} else if(pending == RESPONSE_SERVER_OPENING) { // il Row Swap Server chiede di registrarsi
+							flag = registerRs(packetIn.getAddress().getHostAddress(), din.readUTF());
 						} else {
-							System.err.println("[SERVER DS_RS] : Errore -> Non è possibile registrare nuovi Row Server attualmente.");
-							flag = RESPONSE_ERR;
-						}	
-					} else if(cmd == RESPONSE_SERVER_CLOSING) {
-						flag = RESPONSE_SERVER_CLOSING;
-						
-						socket.receive(packetIn);
-						
-						bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-						din = new DataInputStream(bin);
-											
-						int port = din.readInt();
-						
-						boolean found = false;
-						
-						tableLock.lock();
-						try {
+							int port = din.readInt();
 							
-							for(int i=0; i<MAX_RS_SERVER && !found; i++) {
-								if(!tableRs[i][0].equals("N")) { // skip se la posizione è vuota	
-									if(tableRs[i][0].equals(packetIn.getAddress().getHostAddress()) && tableRs[i][1].equals(port + "")) {
-										tableRs[i][0] = "N";
-										tableRs[i][1] = null;
-										tableRs[i][2] = null;
-										
-										counter--;
-										found = true;
-									}
-								}
-							}
-						} finally {
-							tableLock.unlock();
+							flag = unregisterRs(packetIn.getAddress().getHostAddress(), packetIn.getPort(), port);
 						}
-						
-						if(!found) {
-							flag = RESPONSE_ERR;
-							System.err.println("[SERVER DS_RS] : Errore -> Non è stato possibile effetturare la de-registrazione del Row Swap Server " + packetIn.getAddress().getHostAddress() + " - " + packetIn.getPort());
-						} else {
-							System.out.println("[SERVER DS_RS] : De-registrazione del Row Swap Server " + packetIn.getAddress().getHostAddress() + " - " + packetIn.getPort() + " avvenuta con successo.");
-						}
-						
-					} else {
-						flag = RESPONSE_ERR;						
-						System.err.println("[SERVER DS_RS] : Errore -> Comando errato del Row Swap Server " + packetIn.getAddress().getHostAddress() + " - " + packetIn.getPort());			
+					} catch(IOException e) {
+						flag = malformedRs(packetIn, e);
 					}
 					
 					dout.writeByte(flag);
@@ -276,118 +638,290 @@ public class DiscoveryServer {
 		
 		private DatagramSocket socket;
 		
-		public DSServer_ThreadClient(DatagramSocket socket) {
+		// null -> le richieste vengono gestite direttamente da questo thread
+		private ThreadPoolExecutor workers = null;
+		
+		public DSServer_ThreadClient(DatagramSocket socket, int nWorkers) {
 			this.socket = socket;
+			
+			// con più worker questo thread si limita a ricevere i pacchetti e ad accodarli:
+			// una trasmissione lenta della lista file non blocca più le ricerche degli altri Client.
+			// Se la coda è piena il pacchetto viene scartato, come farebbe la rete con un buffer di ricezione pieno
+			if(nWorkers > 1)
+				workers = new ThreadPoolExecutor(nWorkers, nWorkers, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING_REQUESTS), new ThreadPoolExecutor.DiscardPolicy());
 		}
 		
 		
 		public void run() {
-
-			byte[] req = new byte[MAX_FILE_LENGTH];
-			byte[] res = new byte[MAX_PAYLOAD];
+			
+			// le richieste con codice operativo possono superare la lunghezza massima di un nome
+			byte[] req = new byte[MAX_PAYLOAD];
+			DatagramPacket packetIn = new DatagramPacket(req, req.length);
+			
+			while(true) {
+				try {
+					if(workers != null) {
+						// ogni richiesta accodata deve avere un proprio buffer
+						req = new byte[MAX_PAYLOAD];
+						packetIn = new DatagramPacket(req, req.length);
+					}
+					
+					socket.receive(packetIn);
+				} catch (IOException e) {
+					System.err.println("[SERVER DS_CLIENT] : Errore -> Socket non valida: " + e);
+					System.exit(4);
+				}
+				
+				if(workers == null) handle(packetIn);
+				else {
+					DatagramPacket packet = packetIn;
+					workers.execute(() -> handle(packet));
+				}
+			}
+		}
+		
+		
+		// gestione di una singola richiesta: tutto lo stato (stream e pacchetto di risposta) è locale alla richiesta,
+		// così più worker possono rispondere contemporaneamente sulla stessa socket
+		private void handle(DatagramPacket packetIn) {
 			
 			ByteArrayInputStream bin = null;
 			DataInputStream din = null;
-			ByteArrayOutputStream bout = new ByteArrayOutputStream();
-			DataOutputStream dout = new DataOutputStream(bout);
 			
-			DatagramPacket packetIn = new DatagramPacket(req, req.length);
-			DatagramPacket packetOut = null;
+			DatagramPacket packetOut = new DatagramPacket(new byte[0], 0, packetIn.getAddress(), packetIn.getPort());
+			
+			try {
+				if(Frame.is(packetIn.getData(), 0, packetIn.getLength())) { // richiesta nel formato binario
+					ByteBuffer req = ByteBuffer.wrap(packetIn.getData(), 0, packetIn.getLength());
+					for(byte[] reply : handleFrame(req, packetIn.getAddress().getHostAddress(), new NameKey())) {
+						packetOut.setData(reply);
+						socket.send(packetOut);
+					}
+				} else if(packetIn.getLength() == 1) { // caso il cui il Client richieda la visualizzazione della lista file
+					if(packetIn.getData()[0] == REQ_VISUALIZATION_FILE) {
+						
+						// la lista è mantenuta dal registro già frammentata e numerata:
+						// header con il totale dei frammenti seguito dai frammenti
+						DSFileList list = registry.fileList();
+						for(int i=0; i<list.packetCount(); i++) {
+							packetOut.setData(list.packet(i));
+							socket.send(packetOut);
+						}
+						
+					} else System.err.println("[SERVER DS_CLIENT] : Errore -> Ricevuto pacchetto di lunghezza 1 non valido.");
+				} else if(packetIn.getData()[0] != 0) { // richiesta con codice operativo
+					byte[][] replies = handleOp(packetIn.getData(), packetIn.getLength(), packetIn.getAddress().getHostAddress());
+					for(byte[] reply : (replies != null) ? replies : new byte[0][]) {
+						packetOut.setData(reply);
+						socket.send(packetOut);
+					}
+				} else { // caso il cui il Client abbia inviato il nome del file
+					bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
+					din = new DataInputStream(bin);
+					
+					String fileName = din.readUTF();
+					System.out.println("[SERVER DS_CLIENT] : Il client " + packetIn.getAddress().getHostAddress() + " ha richiesto il file: " + fileName);
+					
+					// risposta "IP:porta" oppure "0:0", già codificata con writeUTF dal registro
+					DSRegistry.Entry entry = registry.lookup(fileName);
+					packetOut.setData((entry != null) ? entry.reply : DSRegistry.NOT_FOUND);
+					socket.send(packetOut);
+				}
+				
+			} catch (IOException e) {
+				System.err.println("[SERVER DS_CLIENT] : Errore -> Socket non valida: " + e);
+				System.exit(4);
+			}
+		}
+	}
+	
+	
+	// Motore di I/O alternativo (-Dsns.io=nio): un unico event loop basato su Selector serve sia la porta dei Client
+	// sia quella di registrazione dei Row Swap Server. I pacchetti vengono letti in ByteBuffer diretti riutilizzati e
+	// decodificati sul posto: sul percorso a regime (ricerche e lista file) non viene allocato nulla per pacchetto.
+	private static class DSServer_Nio extends Thread {
+		
+		private final DatagramChannel channelClient;
+		private final DatagramChannel channelRS;
+		private final Selector selector;
+		
+		private final BufferPool pool = new BufferPool(NIO_BUFFERS, NIO_BUFFER_SIZE);
+		
+		private final DatagramOutbox outClient;
+		private final DatagramOutbox outRS;
+		
+		// la registrazione è composta da due pacchetti: comando e dati, il comando resta in attesa per mittente
+		private final PendingCommands pendingCmd = new PendingCommands();
+		
+		public DSServer_Nio(int clientPort, int rsPort) throws IOException {
+			selector = Selector.open();
+			
+			channelClient = DatagramChannel.open().bind(new InetSocketAddress(clientPort));
+			channelClient.configureBlocking(false);
+			
+			channelRS = DatagramChannel.open().bind(new InetSocketAddress(rsPort));
+			channelRS.configureBlocking(false);
+			
+			outClient = new DatagramOutbox("SERVER DS_NIO", channelClient, channelClient.register(selector, SelectionKey.OP_READ), pool);
+			outRS = new DatagramOutbox("SERVER DS_NIO", channelRS, channelRS.register(selector, SelectionKey.OP_READ), pool);
+		}
+		
+		
+		public void run() {
 			
+			ByteBuffer req = pool.acquire();
+			NameKey probe = new NameKey();
 			
 			while(true) {
 				try {
-					socket.receive(packetIn);
+					selector.select();
 					
-					packetOut = new DatagramPacket(res, res.length, packetIn.getAddress(), packetIn.getPort());
-					
-					if(packetIn.getLength() == 1) { // caso il cui il Client richieda la visualizzazione della lista file
-						if(packetIn.getData()[0] == REQ_VISUALIZATION_FILE) {
-							
-							String listFile = "";
-							
-							tableLock.lock();
-							try {
-								for(int i=0; i<MAX_RS_SERVER; i++) {
-									if(!tableRs[i][0].equals("N")) { // skip se la posizione è vuota	
-										listFile += "\t" + tableRs[i][2] + "\n";
-									}
-								}
-							} finally {
-								tableLock.unlock();
-							}
-							
-							
-							byte[] data = listFile.getBytes();
-							int totalFrag = (int) Math.ceil((double) data.length / MAX_PAYLOAD);
-							
-							// invio al Client dei frammenti totali che saranno inviati
-							dout.writeInt(totalFrag);
-							dout.flush();
-							
-							res = bout.toByteArray();
-							packetOut.setData(res);
-							socket.send(packetOut);
-							
-							bout.reset();
-							
-							// frammentazione e numerazione						
-							for(int i=0; i<totalFrag; i++) {
-								int start = i * MAX_PAYLOAD;
-								int end = Math.min(start + MAX_PAYLOAD, data.length);
-								
-								res = new byte[MAX_PAYLOAD];
-								
-								// numerazione del frammento esplicita
-								byte[] header = (i + ":").getBytes();
-								System.arraycopy(header, 0, res, 0, header.length);
-								System.arraycopy(data, start, res, header.length, end - start);
-								
-								packetOut.setData(res, 0, header.length + (end - start));
-								socket.send(packetOut);
-							}
-							
-						} else System.err.println("[SERVER DS_CLIENT] : Errore -> Ricevuto pacchetto di lunghezza 1 non valido.");
-					} else { // caso il cui il Client abbia inviato il nome del file
-						bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-						din = new DataInputStream(bin);
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						
+						boolean isClient = key.channel() == channelClient;
 						
-						String fileName = din.readUTF();
-						System.out.println("[SERVER DS_CLIENT] : Il client " + packetIn.getAddress().getHostAddress() + " ha richiesto il file: " + fileName);
+						if(key.isValid() && key.isWritable())
+							(isClient ? outClient : outRS).flush();
 						
-						boolean found = false;
-						tableLock.lock();
-						try {
-							for(int i=0; i<MAX_RS_SERVER && !found; i++) {
-								if(!tableRs[i][0].equals("N")) { // skip se la posizione è vuota	
-									if(tableRs[i][2].equals("server/resources/" + fileName)) {
-										dout.writeUTF(tableRs[i][0] + ":" + tableRs[i][1]);
-										found = true;
-									}
-								}
+						if(key.isValid() && key.isReadable()) {
+							SocketAddress sender;
+							// si svuota la coda di ricezione del canale prima di tornare alla select
+							while((sender = ((DatagramChannel) key.channel()).receive(req)) != null) {
+								req.flip();
+								
+								if(isClient) handleClient(req, sender, probe);
+								else handleRS(req, sender);
+								
+								req.clear();
 							}
-						} finally {
-							tableLock.unlock();
 						}
-
-						if(!found) dout.writeUTF("0:0");
-						
-						
-						dout.flush();
-						
-						res = bout.toByteArray();
-						packetOut.setData(res);
-						socket.send(packetOut);
-						
-						bout.reset();
 					}
-					
 				} catch (IOException e) {
-					System.err.println("[SERVER DS_CLIENT] : Errore -> Socket non valida: " + e);
+					System.err.println("[SERVER DS_NIO] : Errore -> Canale non valido: " + e);
 					System.exit(4);
 				}
 			}
 		}
+		
+		
+		private void handleClient(ByteBuffer req, SocketAddress sender, NameKey probe) throws IOException {
+			int length = req.remaining();
+			
+			if(Frame.is(req)) {
+				handleFrame(req, sender, probe);
+			} else if(length == 1) { // caso il cui il Client richieda la visualizzazione della lista file
+				if(req.get(0) == REQ_VISUALIZATION_FILE) {
+					DSFileList list = registry.fileList();
+					for(int i=0; i<list.packetCount(); i++)
+						outClient.send(list.packet(i), sender);
+					
+				} else System.err.println("[SERVER DS_NIO] : Errore -> Ricevuto pacchetto di lunghezza 1 non valido.");
+			} else if(req.get(0) != 0) { // richiesta con codice operativo: fuori dal percorso caldo, si passa per un array
+				byte[] data = new byte[length];
+				req.get(data);
+				
+				byte[][] replies = handleOp(data, length, ((InetSocketAddress) sender).getAddress().getHostAddress());
+				for(byte[] reply : (replies != null) ? replies : new byte[0][])
+					outClient.send(reply, sender);
+			} else { // caso il cui il Client abbia inviato il nome del file (writeUTF: 2 byte di lunghezza + nome)
+				int nameLength = (length < 2) ? -1 : req.getShort(0) & 0xFFFF;
+				if(nameLength < 0 || nameLength > length - 2) {
+					System.err.println("[SERVER DS_NIO] : Errore -> Ricevuto pacchetto malformato da " + sender);
+					return;
+				}
+				
+				// ricerca direttamente sui byte ricevuti, senza decodificare il nome
+				DSRegistry.Entry entry = registry.lookup(probe.wrap(DSRegistry.RESOURCES_PREFIX, req, 2, nameLength));
+				outClient.send((entry != null) ? entry.reply : DSRegistry.NOT_FOUND, sender);
+			}
+		}
+		
+		
+		// richiesta nel formato binario: ricerche e lista file vengono scritte direttamente nei buffer del pool, come per il
+		// formato legacy; le altre operazioni passano per il gestore condiviso
+		private void handleFrame(ByteBuffer req, SocketAddress sender, NameKey probe) throws IOException {
+			byte op = Frame.op(req);
+			long id = Frame.id(req);
+			
+			if(Frame.version(req) == Frame.VERSION && op == Frame.OP_LOOKUP) {
+				DSRegistry.Entry entry;
+				try {
+					entry = lookup(Frame.body(req), probe);
+				} catch(BufferUnderflowException e) {
+					System.err.println("[SERVER DS_NIO] : Errore -> Ricevuto pacchetto malformato da " + sender);
+					outClient.send(Frame.reply(op, id, RESPONSE_ERR), sender);
+					return;
+				}
+				
+				ByteBuffer res = Frame.putHeader(pool.acquire(), op, id, 0, 1);
+				if(entry == null) res.put(RESPONSE_ERR);
+				else res.put(RESPONSE_OK).put(entry.record, 1, entry.record.length - 1);
+				
+				outClient.send(res.flip(), sender);
+			} else if(Frame.version(req) == Frame.VERSION && op == Frame.OP_LIST) {
+				DSFileList list = registry.fileList();
+				for(int i=0; i<Math.max(1, list.totalFrag()); i++)
+					outClient.send(listFrame(pool.acquire(), op, id, list, i).flip(), sender);
+			} else {
+				for(byte[] reply : DiscoveryServer.handleFrame(req, ((InetSocketAddress) sender).getAddress().getHostAddress(), probe))
+					outClient.send(reply, sender);
+			}
+		}
+		
+		
+		private void handleRS(ByteBuffer req, SocketAddress sender) throws IOException {
+			InetSocketAddress rs = (InetSocketAddress) sender;
+			String addr = rs.getAddress().getHostAddress();
+			
+			if(Frame.is(req)) {
+				if(Frame.op(req) != Frame.OP_HEARTBEAT)
+					System.out.println("[SERVER DS_NIO] : Pacchetto ricevuto dal Row Swap Server " + addr + " - " + rs.getPort());
+				
+				outRS.send(handleFrameRS(req, addr, rs.getPort()), sender);
+				return;
+			}
+			
+			Byte cmd = pendingCmd.take(sender);
+			if(cmd == null) { // primo pacchetto: comando
+				byte c = req.hasRemaining() ? req.get(0) : -1;
+				if(c == RESPONSE_SERVER_HEARTBEAT && req.remaining() >= 5) {
+					outRS.send(heartbeatRs(addr, req.getInt(1)), sender);
+					return;
+				}
+				
+				System.out.println("[SERVER DS_NIO] : Pacchetto ricevuto dal Row Swap Server " + addr + " - " + rs.getPort());
+				
+				if(c == RESPONSE_SERVER_OPENING || c == RESPONSE_SERVER_CLOSING) {
+					if(!pendingCmd.put(sender, c)) {
+						System.err.println("[SERVER DS_NIO] : Errore -> Troppi comandi in attesa, comando del Row Swap Server " + addr + " - " + rs.getPort() + " rifiutato");
+						outRS.send(RESPONSE_ERR, sender);
+					}
+				} else {
+					System.err.println("[SERVER DS_NIO] : Errore -> Comando errato del Row Swap Server " + addr + " - " + rs.getPort());
+					outRS.send(RESPONSE_ERR, sender);
+				}
+				return;
+			}
+			
+			byte flag = RESPONSE_ERR;
+			try {
+				if(cmd == RESPONSE_SERVER_OPENING) {
+					byte[] data = new byte[req.remaining()];
+					req.get(data);
+					
+					flag = registerRs(addr, new DataInputStream(new ByteArrayInputStream(data)).readUTF());
+				} else {
+					flag = unregisterRs(addr, rs.getPort(), req.getInt(0));
+				}
+			} catch(IOException | IndexOutOfBoundsException e) {
+				System.err.println("[SERVER DS_NIO] : Errore -> Pacchetto del Row Swap Server " + addr + " - " + rs.getPort() + " non valido: " + e);
+			}
+			
+			outRS.send(flag, sender);
+		}
 	}
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,195 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+// Formato binario dei datagrammi (versione VERSION), accettato dal Discovery Server e dal Row Swap Server accanto a quello
+// legacy. Ogni datagramma inizia con un header fisso di HEADER_LENGTH byte seguito dal corpo dell'operazione:
+//   [short MAGIC][byte versione][byte operazione][long identificativo][short frammento][short frammenti]
+// Il primo byte del magic (0x53) non è il primo byte di nessun pacchetto legacy (codici operativi fino a 9, writeUTF di un
+// nome con il byte alto della lunghezza a 0 o 1), quindi il formato si riconosce datagramma per datagramma senza stato.
+// Il server risponde nel formato della richiesta, con lo stesso header (operazione e identificativo) e il corpo che inizia
+// con il flag di esito; a una versione diversa risponde RESPONSE_VERSION con la propria versione nell'header.
+// Indirizzi in forma binaria [byte lunghezza][indirizzo (4 o 16 byte)][short porta], indici di riga a 64 bit e nomi come
+// writeUTF (2 byte di lunghezza + UTF-8 modificato, gli stessi byte delle chiavi del registro: ricerca senza decodifica).
+// Le letture dell'header sono assolute e quelle del corpo relative sul ByteBuffer ricevuto, anche diretto: nessuna copia
+// del datagramma e nessun parsing di testo.
+public final class Frame {
+
+	public final static short MAGIC = 0x534E;
+	public final static byte VERSION = 1;
+	public final static int HEADER_LENGTH = 16;
+
+	// Discovery Server, porta dei Client
+	// [UTF nome] -> [flag][indirizzo], RESPONSE_ERR se il file non è registrato
+	public final static byte OP_LOOKUP = 1;
+	// lista completa: [] -> un datagramma per frammento [flag][long versione][dati], frammenti 0 se la lista è vuota (un solo
+	// datagramma)
+	public final static byte OP_LIST = 2;
+	// [short limite][UTF prefisso][UTF cursore] -> [flag][int n][n x UTF nome][UTF cursore della pagina successiva]
+	public final static byte OP_LIST_PAGE = 3;
+	// [short n][n x UTF nome] -> [flag][short m][m record: [byte 1][indirizzo] oppure [byte 0]]
+	public final static byte OP_BATCH_LOOKUP = 4;
+	// frammenti persi di OP_LIST: [long versione][short n][n x short indice] -> gli stessi datagrammi di OP_LIST per i soli
+	// frammenti indicati, oppure l'intera lista attuale (con un'altra versione) se quella richiesta non è più disponibile
+	public final static byte OP_LIST_FRAGMENTS = 5;
+
+	// Discovery Server, porta dei Row Swap Server: un solo datagramma per comando -> [flag]
+	// [short porta][int lease in secondi, 0 senza lease][UTF nome del file relativo a server/resources/]
+	public final static byte OP_REGISTER = 16;
+	// [short porta]
+	public final static byte OP_UNREGISTER = 17;
+	// [short porta]
+	public final static byte OP_HEARTBEAT = 18;
+
+	// Row Swap Server, eseguite al più una volta per identificativo (vedi ReplyCache)
+	// [UTF nome][long index1][long index2] -> [flag]
+	public final static byte OP_SWAP = 32;
+	// [UTF nome] -> [flag]
+	public final static byte OP_SYNC = 33;
+	// [UTF nome][long da][int righe] -> un datagramma per frammento [flag][righe, ognuna seguita da "\n"]
+	public final static byte OP_READ = 34;
+	// [UTF nome] -> [flag][long righe]
+	public final static byte OP_LINE_COUNT = 35;
+	// frammenti (numerati nell'header) [UTF nome][short n][n x (long a, long b)] -> [flag][int coppie][bitmap]
+	public final static byte OP_SWAP_BATCH = 36;
+
+	// esito di una richiesta con versione non supportata
+	public final static byte RESPONSE_VERSION = 8;
+
+
+	private Frame() {}
+
+
+	// datagramma nel formato binario (da position a limit)
+	public static boolean is(ByteBuffer buf) {
+		return buf.remaining() >= HEADER_LENGTH && buf.getShort(buf.position()) == MAGIC;
+	}
+
+	public static boolean is(byte[] data, int offset, int length) {
+		return length >= HEADER_LENGTH && data[offset] == (byte) (MAGIC >> 8) && data[offset + 1] == (byte) MAGIC;
+	}
+
+
+	public static byte version(ByteBuffer buf) {
+		return buf.get(buf.position() + 2);
+	}
+
+	public static byte op(ByteBuffer buf) {
+		return buf.get(buf.position() + 3);
+	}
+
+	public static long id(ByteBuffer buf) {
+		return buf.getLong(buf.position() + 4);
+	}
+
+	public static int fragment(ByteBuffer buf) {
+		return buf.getShort(buf.position() + 12) & 0xFFFF;
+	}
+
+	public static int fragments(ByteBuffer buf) {
+		return buf.getShort(buf.position() + 14) & 0xFFFF;
+	}
+
+	// flag di una risposta (primo byte del corpo), -1 se manca
+	public static byte status(ByteBuffer buf) {
+		return (buf.remaining() > HEADER_LENGTH) ? buf.get(buf.position() + HEADER_LENGTH) : -1;
+	}
+
+	// posiziona il buffer all'inizio del corpo, per le letture relative
+	public static ByteBuffer body(ByteBuffer buf) {
+		return buf.position(buf.position() + HEADER_LENGTH);
+	}
+
+
+	public static ByteBuffer putHeader(ByteBuffer buf, byte op, long id, int fragment, int fragments) {
+		return buf.putShort(MAGIC).put(VERSION).put(op).putLong(id).putShort((short) fragment).putShort((short) fragments);
+	}
+
+	// buffer di HEADER_LENGTH + bodyLength byte con l'header già scritto: array() è il datagramma una volta scritto il corpo
+	public static ByteBuffer allocate(byte op, long id, int fragment, int fragments, int bodyLength) {
+		return putHeader(ByteBuffer.allocate(HEADER_LENGTH + bodyLength), op, id, fragment, fragments);
+	}
+
+	// risposta di un solo datagramma con il solo flag
+	public static byte[] reply(byte op, long id, byte flag) {
+		return allocate(op, id, 0, 1, 1).put(flag).array();
+	}
+
+	// sostituisce l'identificativo di un datagramma già codificato (ripetizione di una richiesta con un nuovo identificativo)
+	public static byte[] withId(byte[] frame, long id) {
+		byte[] res = frame.clone();
+		ByteBuffer.wrap(res).putLong(4, id);
+		return res;
+	}
+
+
+	// byte occupati da writeUTF(name), lunghezza inclusa
+	public static int nameLength(String name) {
+		int length = 2;
+		for(int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF) ? 2 : 3;
+		}
+
+		if(length > 0xFFFF + 2) throw new IllegalArgumentException("nome troppo lungo: " + (length - 2) + " byte.");
+		return length;
+	}
+
+	// stessa codifica di DataOutputStream.writeUTF
+	public static ByteBuffer putName(ByteBuffer buf, String name) {
+		buf.putShort((short) (nameLength(name) - 2));
+
+		for(int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if(c >= 0x0001 && c <= 0x007F) buf.put((byte) c);
+			else if(c <= 0x07FF) buf.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+			else buf.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+		}
+
+		return buf;
+	}
+
+	// nome scritto con writeUTF/putName a partire da position. Un nome ASCII viene costruito direttamente dai byte,
+	// gli altri passano per DataInputStream.readUTF. IllegalArgumentException se la codifica non è valida
+	public static String getName(ByteBuffer buf) {
+		int length = buf.getShort() & 0xFFFF;
+		if(length > buf.remaining()) throw new IllegalArgumentException("nome di " + length + " byte oltre la fine del datagramma.");
+
+		byte[] bytes = new byte[length + 2];
+		bytes[0] = (byte) (length >> 8);
+		bytes[1] = (byte) length;
+		buf.get(bytes, 2, length);
+
+		boolean ascii = true;
+		for(int i=2; i<bytes.length && ascii; i++)
+			ascii = bytes[i] > 0;
+		if(ascii) return new String(bytes, 2, length, StandardCharsets.US_ASCII);
+
+		try {
+			return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+		} catch(IOException e) {
+			throw new IllegalArgumentException("nome non valido: " + e.getMessage());
+		}
+	}
+
+	// indirizzo [byte lunghezza][indirizzo][short porta] a partire da position
+	public static InetSocketAddress getAddress(ByteBuffer buf) {
+		byte[] ip = new byte[buf.get() & 0xFF];
+		buf.get(ip);
+		int port = buf.getShort() & 0xFFFF;
+
+		try {
+			return new InetSocketAddress(InetAddress.getByAddress(ip), port);
+		} catch(UnknownHostException e) {
+			throw new IllegalArgumentException("indirizzo di " + ip.length + " byte non valido.");
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+// Pool di worker in cui i compiti con la stessa chiave (es. il nome del file) vengono eseguiti uno alla volta e nell'ordine
+// di arrivo, mentre compiti con chiavi diverse procedono in parallelo.
+// Ogni chiave attiva ha una coda: il primo compito avvia sul pool un "drain" che esegue anche quelli accodati nel frattempo.
+// Dopo MAX_BATCH compiti il drain si rimette in coda nel pool, così una chiave molto richiesta non occupa un worker a
+// tempo indeterminato mentre altre chiavi aspettano.
+// I compiti in sola lettura (executeShared) non entrano nella coda: vengono eseguiti subito sul pool, in parallelo tra loro,
+// con il lock in lettura della chiave, mentre il drain esegue ogni compito con il lock in scrittura. Una lettura quindi non
+// attende gli scambi accodati sullo stesso file ma non ne osserva mai uno a metà, e il lock rende lo stato lasciato da un
+// compito visibile al successivo anche se eseguito da un altro worker.
+// Oltre maxPending compiti in attesa le nuove richieste vengono scartate, come farebbe la rete con un buffer pieno.
+final class KeyedExecutor {
+
+	private final static int MAX_BATCH = 32;
+
+
+	private static final class Key {
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		// compiti esclusivi in attesa, null se nessun drain della chiave è in corso o in coda nel pool
+		ArrayDeque<Runnable> queue = null;
+		// drain e letture in corso o in coda: la chiave viene rimossa quando non è più usata
+		int users = 0;
+	}
+
+
+	private final ThreadPoolExecutor pool;
+	private final int maxPending;
+
+	private final HashMap<String, Key> keys = new HashMap<>();
+	private int pending = 0;
+
+
+	public KeyedExecutor(int nWorkers, int maxPending, String name) {
+		this.maxPending = maxPending;
+
+		// la coda del pool contiene al più un drain per chiave attiva e le letture: il limite sui compiti è applicato da
+		// execute() ed executeShared()
+		pool = new ThreadPoolExecutor(nWorkers, nWorkers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+
+	// false se il compito è stato scartato perché ci sono già maxPending compiti in attesa
+	public boolean execute(String key, Runnable task) {
+		Key k;
+		synchronized(keys) {
+			if(pending >= maxPending)
+				return false;
+			pending++;
+
+			k = keys.computeIfAbsent(key, x -> new Key());
+			if(k.queue != null) {
+				k.queue.add(task);
+				return true;
+			}
+
+			k.queue = new ArrayDeque<>();
+			k.queue.add(task);
+			k.users++;
+		}
+
+		pool.execute(() -> drain(key, k));
+		return true;
+	}
+
+	// compito in sola lettura: procede in parallelo con le altre letture della chiave, senza attendere la coda
+	public boolean executeShared(String key, Runnable task) {
+		Key k;
+		synchronized(keys) {
+			if(pending >= maxPending)
+				return false;
+			pending++;
+
+			k = keys.computeIfAbsent(key, x -> new Key());
+			k.users++;
+		}
+
+		pool.execute(() -> {
+			k.lock.readLock().lock();
+			try {
+				run(task);
+			} finally {
+				k.lock.readLock().unlock();
+				synchronized(keys) {
+					pending--;
+					release(key, k);
+				}
+			}
+		});
+		return true;
+	}
+
+	private void drain(String key, Key k) {
+		for(int i=0; i<MAX_BATCH; i++) {
+			Runnable task;
+			synchronized(keys) {
+				task = k.queue.poll();
+				if(task == null) {
+					k.queue = null;
+					release(key, k);
+					return;
+				}
+			}
+
+			k.lock.writeLock().lock();
+			try {
+				run(task);
+			} finally {
+				k.lock.writeLock().unlock();
+				synchronized(keys) {
+					pending--;
+				}
+			}
+		}
+
+		// altri compiti della chiave restano in coda: il drain riprende dopo quelli delle altre chiavi
+		pool.execute(() -> drain(key, k));
+	}
+
+	private static void run(Runnable task) {
+		try {
+			task.run();
+		} catch(RuntimeException e) {
+			System.err.println("[SERVER] : Errore -> Operazione terminata improvvisamente: " + e);
+		}
+	}
+
+	// chiamato con il lock di keys
+	private void release(String key, Key k) {
+		if(--k.users == 0)
+			keys.remove(key);
+	}
+}
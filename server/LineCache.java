@@ -0,0 +1,90 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+// Cache delle righe lette dai Client per i motori che leggono dal disco ("index", "mmap" e "tmp"): una riga letta spesso
+// viene servita dalla memoria senza accedere al file. La dimensione è limitata in byte (contenuto più un costo fisso per
+// voce) e oltre il limite vengono scartate le righe usate meno di recente (LRU).
+// Uno scambio invalida le righe coinvolte, dopo essere stato eseguito e prima della risposta al Client; letture e scambi
+// di uno stesso file non avvengono mai insieme (KeyedExecutor), quindi una lettura non può inserire una riga già superata.
+// Le modifiche al file fatte dall'esterno del Row Swap Server non vengono viste dalle righe già in cache.
+final class LineCache {
+
+	// costo stimato di una voce oltre al contenuto (chiave, nodo della mappa, intestazione dell'array)
+	private final static int ENTRY_OVERHEAD = 64;
+
+
+	private static final class Key {
+		final String fileName;
+		final long line;
+
+		Key(String fileName, long line) {
+			this.fileName = fileName;
+			this.line = line;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+
+			Key other = (Key) o;
+			return line == other.line && fileName.equals(other.fileName);
+		}
+
+		@Override
+		public int hashCode() {
+			return fileName.hashCode() * 31 + Long.hashCode(line);
+		}
+	}
+
+
+	private final long maxBytes;
+	private long bytes = 0;
+
+	private final LinkedHashMap<Key, byte[]> lines = new LinkedHashMap<>(16, 0.75f, true);
+	// numero di righe dei file del motore "tmp" (gli altri motori lo hanno già nell'indice o in memoria)
+	private final HashMap<String, Long> counts = new HashMap<>();
+
+
+	public LineCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+
+	// null se la riga non è in cache
+	public synchronized byte[] get(String fileName, long line) {
+		return lines.get(new Key(fileName, line));
+	}
+
+	public synchronized void put(String fileName, long line, byte[] content) {
+		long cost = content.length + ENTRY_OVERHEAD;
+		if(cost > maxBytes) return;
+
+		byte[] old = lines.put(new Key(fileName, line), content);
+		if(old != null) bytes -= old.length + ENTRY_OVERHEAD;
+		bytes += cost;
+
+		Iterator<byte[]> eldest = lines.values().iterator();
+		while(bytes > maxBytes) {
+			bytes -= eldest.next().length + ENTRY_OVERHEAD;
+			eldest.remove();
+		}
+	}
+
+	public synchronized void invalidate(String fileName, long line) {
+		byte[] old = lines.remove(new Key(fileName, line));
+		if(old != null) bytes -= old.length + ENTRY_OVERHEAD;
+	}
+
+	// -1 se non è noto
+	public synchronized long count(String fileName) {
+		return counts.getOrDefault(fileName, -1L);
+	}
+
+	public synchronized void putCount(String fileName, long count) {
+		counts.put(fileName, count);
+	}
+}
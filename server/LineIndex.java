@@ -0,0 +1,469 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+
+// Indice sparso riga -> offset in byte di un file del Row Swap Server (vedi RSFiles).
+// Viene memorizzato solo l'offset di una riga ogni CHECKPOINT_LINES: una riga qualsiasi si trova partendo dal punto
+// precedente e contando al più CHECKPOINT_LINES terminatori con un buffer di dimensione fissa, quindi la memoria usata
+// dipende dal numero di righe diviso CHECKPOINT_LINES e non dalla dimensione del file. I numeri di riga sono a 64 bit.
+// L'indice viene costruito con una sola lettura al primo utilizzo e salvato accanto al file (nome + SUFFIX) con la
+// dimensione e la data di modifica del file: al caricamento successivo (riavvio o file scartato dall'LRU di RSFiles)
+// viene riletto invece di ricostruito, se il file nel frattempo non è cambiato.
+// Lo scambio delle righe a < b tiene in memoria solo le due righe:
+// - stessa lunghezza -> riscrittura in place delle due righe (in modalità mapped tramite due MappedByteBuffer)
+// - lunghezze diverse -> il tratto tra le due righe (terminatore di a e righe intermedie) si sposta della differenza di
+//   lunghezza: in place viene spostato a blocchi di MOVE_BUFFER_SIZE byte, nel verso che non sovrascrive i dati ancora da
+//   copiare; in modalità mapped il file viene ricomposto in un file temporaneo con FileChannel.transferTo e sostituito con
+//   un rename atomico. Vengono aggiornati solo i punti dell'indice tra a e b.
+// I terminatori di riga ("\n" o "\r\n") restano al loro posto: un'ultima riga senza terminatore resta tale.
+// Se la dimensione del file non corrisponde all'indice (file modificato dall'esterno) l'indice viene ricostruito.
+// Gli scambi di uno stesso file vengono eseguiti uno alla volta e mai durante una lettura (vedi KeyedExecutor), mentre più
+// letture possono procedere insieme: usano letture posizionali e buffer per thread, solo la ricostruzione dell'indice è
+// sincronizzata.
+final class LineIndex implements LineStore {
+
+	public final static String SUFFIX = ".idx";
+
+	private final static int SCAN_BUFFER_SIZE = 64 * 1024;
+	private final static int MOVE_BUFFER_SIZE = 1024 * 1024;
+	private final static int CHECKPOINT_LINES = 1024;
+
+	// indice salvato: [int INDEX_MAGIC][int CHECKPOINT_LINES][long dimensione][long modifica][long righe][int punti][punti x long]
+	private final static int INDEX_MAGIC = 0x534E5349;
+	private final static int INDEX_HEADER = 4 + 4 + 8 + 8 + 8 + 4;
+	// punti dell'indice salvato controllati al caricamento (ognuno deve seguire un terminatore)
+	private final static int INDEX_SAMPLES = 64;
+
+	// buffer dei worker, riusati tra un'operazione e l'altra
+	private final static ThreadLocal<ByteBuffer> SCAN = ThreadLocal.withInitial(() -> ByteBuffer.allocate(SCAN_BUFFER_SIZE));
+	private final static ThreadLocal<ByteBuffer> MOVE = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MOVE_BUFFER_SIZE));
+
+
+	private final Path path;
+	private final Path indexPath;
+	private final boolean mapped;
+
+	// checkpoints[j] -> offset della riga j * CHECKPOINT_LINES + 1 (numerazione del Client da 1)
+	private long[] checkpoints;
+	private long lines;
+	private long size;
+
+
+	public LineIndex(Path path, boolean mapped) throws IOException {
+		this.path = path;
+		this.indexPath = path.resolveSibling(path.getFileName() + SUFFIX);
+		this.mapped = mapped;
+
+		if(!load()) {
+			build();
+			save();
+		}
+	}
+
+
+	// dall'indice in memoria, senza accedere al file
+	public long lines() {
+		return lines;
+	}
+
+	private void build() throws IOException {
+		long[] res = new long[16];
+		int n = 0;
+		long count = 0;
+
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buf = SCAN.get();
+			long pos = 0;
+			boolean lineStart = true;
+
+			buf.clear();
+			int r;
+			while((r = channel.read(buf)) > 0) {
+				byte[] data = buf.array();
+				for(int i=0; i<r; i++) {
+					if(lineStart) {
+						if(count++ % CHECKPOINT_LINES == 0) {
+							if(n == res.length) res = Arrays.copyOf(res, n * 2);
+							res[n++] = pos + i;
+						}
+						lineStart = false;
+					}
+					if(data[i] == '\n') lineStart = true;
+				}
+
+				pos += r;
+				buf.clear();
+			}
+
+			size = pos;
+		}
+
+		checkpoints = Arrays.copyOf(res, n);
+		lines = count;
+	}
+
+	// indice salvato, false se manca o non corrisponde al file
+	private boolean load() {
+		try(FileChannel in = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+			long fileSize = Files.size(path);
+
+			ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+			readFully(in, header, 0);
+			header.flip();
+			if(header.getInt() != INDEX_MAGIC || header.getInt() != CHECKPOINT_LINES || header.getLong() != fileSize || header.getLong() != modified())
+				return false;
+
+			long count = header.getLong();
+			int n = header.getInt();
+			if(n != (count + CHECKPOINT_LINES - 1) / CHECKPOINT_LINES || in.size() != INDEX_HEADER + 8L * n)
+				return false;
+
+			ByteBuffer data = ByteBuffer.allocate(8 * n);
+			readFully(in, data, INDEX_HEADER);
+			data.flip();
+			long[] res = new long[n];
+			data.asLongBuffer().get(res);
+
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				ByteBuffer b = ByteBuffer.allocate(1);
+				for(int i=1; i<n; i+=Math.max(1, n / INDEX_SAMPLES)) {
+					b.clear();
+					if(res[i] <= 0 || res[i] >= fileSize || channel.read(b, res[i] - 1) != 1 || b.get(0) != '\n')
+						return false;
+				}
+			}
+
+			checkpoints = res;
+			lines = count;
+			size = fileSize;
+			return true;
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+	// l'indice salvato è solo una copia: se non può essere scritto viene ricostruito al prossimo caricamento
+	private void save() {
+		Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp.txt");
+		try {
+			try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer buf = ByteBuffer.allocate(INDEX_HEADER + 8 * checkpoints.length);
+				buf.putInt(INDEX_MAGIC).putInt(CHECKPOINT_LINES).putLong(size).putLong(modified()).putLong(lines).putInt(checkpoints.length);
+				buf.asLongBuffer().put(checkpoints);
+				buf.clear();
+				writeFully(out, buf, 0);
+			}
+
+			Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Salvataggio dell'indice di " + path + " non riuscito: " + e);
+		}
+	}
+
+	// dopo uno scambio: punti from..to-1 modificati e nuova data di modifica del file
+	private void save(int from, int to) {
+		try(FileChannel out = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+			if(to > from) {
+				ByteBuffer buf = ByteBuffer.allocate(8 * (to - from));
+				buf.asLongBuffer().put(checkpoints, from, to - from);
+				writeFully(out, buf, INDEX_HEADER + 8L * from);
+			}
+
+			// per ultima: finché non viene scritta, l'indice salvato non corrisponde al file
+			ByteBuffer header = ByteBuffer.allocate(16).putLong(size).putLong(modified());
+			header.flip();
+			writeFully(out, header, 8);
+		} catch(IOException e) {
+			try {
+				Files.deleteIfExists(indexPath);
+			} catch(IOException x) {
+				System.err.println("[SERVER RS_CLIENT] : Errore -> Indice di " + path + " non aggiornato: " + x);
+			}
+		}
+	}
+
+	private long modified() throws IOException {
+		return Files.getLastModifiedTime(path).to(TimeUnit.NANOSECONDS);
+	}
+
+	private synchronized void checkSize(FileChannel channel) throws IOException {
+		if(channel.size() != size) {
+			System.out.println("[SERVER RS_CLIENT] : Il file è stato modificato, ricostruzione dell'indice delle righe...");
+			build();
+			save();
+		}
+	}
+
+
+	public void swap(long a, long b) throws IOException {
+		long delta;
+
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			checkSize(channel);
+
+			if(a > lines) throw new IOException("l'indice " + a + " non è presente nel file.");
+			if(b > lines) throw new IOException("l'indice " + b + " non è presente nel file.");
+
+			long startA = start(channel, a);
+			long endA = skip(channel, startA, 1);
+			// se b è nel blocco della riga a+1 si prosegue da endA invece di ripartire dal punto dell'indice
+			long startB = ((b - 1) / CHECKPOINT_LINES == a / CHECKPOINT_LINES) ? skip(channel, endA, b - a - 1) : start(channel, b);
+			long endB = skip(channel, startB, 1);
+			if(endA - startA > Integer.MAX_VALUE || endB - startB > Integer.MAX_VALUE)
+				throw new IOException("le righe " + a + " e " + b + " sono troppo lunghe.");
+
+			byte[] line1 = read(channel, startA, endA);
+			byte[] line2 = read(channel, startB, endB);
+			int content1 = line1.length - terminator(line1, 0, line1.length);
+			int content2 = line2.length - terminator(line2, 0, line2.length);
+			delta = content2 - content1;
+
+			if(delta == 0) {
+				if(mapped && content1 > 0) {
+					channel.map(FileChannel.MapMode.READ_WRITE, startA, content1).put(line2, 0, content2);
+					channel.map(FileChannel.MapMode.READ_WRITE, startB, content2).put(line1, 0, content1);
+				} else {
+					writeFully(channel, ByteBuffer.wrap(line2, 0, content2), startA);
+					writeFully(channel, ByteBuffer.wrap(line1, 0, content1), startB);
+				}
+			} else if(mapped) {
+				Path tmp = path.resolveSibling(path.getFileName() + ".tmp.txt");
+				try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					transfer(channel, 0, startA, out);
+					write(out, line2, content2);
+					// terminatore di a e righe intermedie
+					transfer(channel, startA + content1, startB, out);
+					write(out, line1, content1);
+					// terminatore di b e resto del file
+					transfer(channel, startB + content2, size, out);
+				}
+
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} else {
+				// terminatore di a e righe intermedie, poi le due righe nelle nuove posizioni
+				move(channel, startA + content1, startA + content2, startB - startA - content1);
+				writeFully(channel, ByteBuffer.wrap(line2, 0, content2), startA);
+				writeFully(channel, ByteBuffer.wrap(line1, 0, content1), startB + delta);
+			}
+		}
+
+		// punti dell'indice delle righe a+1..b
+		int from = (int) ((a + CHECKPOINT_LINES - 1) / CHECKPOINT_LINES);
+		int to = (int) ((b - 1) / CHECKPOINT_LINES) + 1;
+		if(delta != 0) {
+			for(int j=from; j<to; j++)
+				checkpoints[j] += delta;
+		}
+		save(from, (delta != 0) ? to : from);
+	}
+
+	// Sequenza di scambi in un solo passaggio: il file viene ricomposto in un file temporaneo copiando con transferTo sia i
+	// tratti che non cambiano sia il contenuto delle righe spostate (nessuna riga passa dallo heap), poi sostituito con un
+	// rename atomico (in entrambe le modalità). I terminatori restano al loro posto, quindi la dimensione del file non cambia
+	// e vengono aggiornati solo i punti dell'indice tra la prima e l'ultima posizione modificata.
+	public void apply(SwapBatch batch) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			checkSize(channel);
+
+			TreeMap<Long, Long> moves = batch.resolve(lines);
+			if(moves.isEmpty()) return;
+
+			// inizio, fine e lunghezza del contenuto delle righe coinvolte, cercate in ordine di posizione
+			int n = moves.size();
+			long[] positions = new long[n];
+			long[] starts = new long[n];
+			long[] ends = new long[n];
+			long[] contents = new long[n];
+			int[] sources = new int[n];
+
+			int i = 0;
+			long cursorLine = 0;
+			long cursorPos = 0;
+			for(long p : moves.keySet()) {
+				long start = (cursorLine > 0 && (p - 1) / CHECKPOINT_LINES == (cursorLine - 1) / CHECKPOINT_LINES)
+						? skip(channel, cursorPos, p - cursorLine) : start(channel, p);
+				long end = skip(channel, start, 1);
+
+				positions[i] = p;
+				starts[i] = start;
+				ends[i] = end;
+				contents[i] = end - start - terminator(channel, start, end);
+				cursorLine = p + 1;
+				cursorPos = end;
+				i++;
+			}
+
+			i = 0;
+			for(long src : moves.values())
+				sources[i++] = Arrays.binarySearch(positions, src);
+
+			Path tmp = path.resolveSibling(path.getFileName() + ".tmp.txt");
+			try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				long pos = 0;
+				for(i=0; i<n; i++) {
+					int src = sources[i];
+
+					// righe invariate, contenuto della riga di origine e terminatore della posizione
+					transfer(channel, pos, starts[i], out);
+					transfer(channel, starts[src], starts[src] + contents[src], out);
+					transfer(channel, starts[i] + contents[i], ends[i], out);
+					pos = ends[i];
+				}
+
+				transfer(channel, pos, size, out);
+			}
+
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			// un punto dell'indice si sposta della differenza di lunghezza accumulata dalle posizioni che lo precedono
+			int from = (int) ((positions[0] + CHECKPOINT_LINES - 1) / CHECKPOINT_LINES);
+			int to = (int) ((positions[n - 1] - 1) / CHECKPOINT_LINES) + 1;
+			long delta = 0;
+			i = 0;
+			for(int j=from; j<to; j++) {
+				long line = (long) j * CHECKPOINT_LINES + 1;
+				for(; i<n && positions[i] < line; i++)
+					delta += contents[sources[i]] - contents[i];
+
+				checkpoints[j] += delta;
+			}
+
+			save(from, to);
+		}
+	}
+
+	// gli scambi vengono scritti nel file prima della risposta
+	public void sync() {
+	}
+
+	// le righe richieste sono contigue nel file: vengono lette con una sola lettura di al più maxBytes byte
+	public byte[][] read(long from, int count, int maxBytes) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			checkSize(channel);
+
+			if(from < 1 || from > lines) throw new IOException("l'indice " + from + " non è presente nel file.");
+
+			long start = start(channel, from);
+			byte[] region = read(channel, start, start + Math.min(maxBytes, size - start));
+
+			ArrayList<byte[]> res = new ArrayList<>();
+			int p = 0;
+			while(res.size() < count && p < region.length) {
+				int end = p;
+				while(end < region.length && region[end] != '\n')
+					end++;
+
+				// riga che supera i byte letti, a meno che non sia l'ultima del file (senza terminatore)
+				if(end == region.length && start + region.length != size) break;
+
+				int content = (end < region.length && end > p && region[end - 1] == '\r') ? end - 1 : end;
+				res.add(Arrays.copyOfRange(region, p, content));
+				p = end + 1;
+			}
+
+			return res.toArray(new byte[0][]);
+		}
+	}
+
+
+	// offset di inizio della riga line (1 <= line <= lines)
+	private long start(FileChannel channel, long line) throws IOException {
+		return skip(channel, checkpoints[(int) ((line - 1) / CHECKPOINT_LINES)], (line - 1) % CHECKPOINT_LINES);
+	}
+
+	// offset dopo n terminatori a partire da pos, oppure la fine del file (ultima riga senza terminatore)
+	private long skip(FileChannel channel, long pos, long n) throws IOException {
+		ByteBuffer buf = SCAN.get();
+
+		while(n > 0 && pos < size) {
+			buf.clear();
+			int r = channel.read(buf, pos);
+			if(r <= 0) throw new IOException("fine del file inattesa.");
+
+			byte[] data = buf.array();
+			for(int i=0; i<r; i++)
+				if(data[i] == '\n' && --n == 0) return pos + i + 1;
+
+			pos += r;
+		}
+
+		return Math.min(pos, size);
+	}
+
+	// spostamento in place di length byte da from a to: se la destinazione segue l'origine si copia dalla fine, altrimenti
+	// dall'inizio, così nessun byte viene sovrascritto prima di essere stato copiato
+	private static void move(FileChannel channel, long from, long to, long length) throws IOException {
+		ByteBuffer buf = MOVE.get();
+
+		for(long done=0; done<length; ) {
+			int n = (int) Math.min(buf.capacity(), length - done);
+			long offset = (to > from) ? length - done - n : done;
+
+			buf.clear().limit(n);
+			readFully(channel, buf, from + offset);
+			buf.flip();
+			writeFully(channel, buf, to + offset);
+
+			done += n;
+		}
+	}
+
+
+	private static byte[] read(FileChannel channel, long from, long to) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int) (to - from));
+		readFully(channel, buf, from);
+
+		return buf.array();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		while(buf.hasRemaining())
+			if(channel.read(buf, pos + buf.position()) < 0)
+				throw new IOException("fine del file inattesa.");
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+		long start = pos - buf.position();
+		while(buf.hasRemaining())
+			channel.write(buf, start + buf.position());
+	}
+
+	private static void write(FileChannel out, byte[] data, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+		while(buf.hasRemaining())
+			out.write(buf);
+	}
+
+	// copia [from, to) di src in coda a out, senza passare dallo heap
+	private static void transfer(FileChannel src, long from, long to, FileChannel out) throws IOException {
+		while(from < to)
+			from += src.transferTo(from, to - from, out);
+	}
+
+	// lunghezza del terminatore della riga [from, to) di buf: 2 per "\r\n", 1 per "\n", 0 per l'ultima riga senza terminatore
+	private static int terminator(byte[] buf, int from, int to) {
+		if(to == from || buf[to - 1] != '\n') return 0;
+		return (to - from >= 2 && buf[to - 2] == '\r') ? 2 : 1;
+	}
+
+	// come sopra per la riga [from, to) del file, leggendo solo gli ultimi due byte
+	private static int terminator(FileChannel channel, long from, long to) throws IOException {
+		int length = (int) Math.min(2, to - from);
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		readFully(channel, buf, to - length);
+
+		return terminator(buf.array(), 0, length);
+	}
+}
@@ -0,0 +1,293 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+
+// Copia in memoria di un file del Row Swap Server per il motore "memory" (write-behind).
+// Il file viene letto una volta e diviso in righe: uno scambio scambia due riferimenti e viene confermato subito al Client,
+// mentre la scrittura su disco avviene in seguito secondo la politica di WriteBehind, che può raccogliere molti scambi
+// in un'unica riscrittura. La scrittura riusa la sostituzione del motore "tmp": file temporaneo, fsync e rename atomico,
+// quindi sul disco c'è sempre o lo stato precedente o quello nuovo, mai un file a metà.
+// La scrittura lavora su una copia dei riferimenti alle righe presa sotto lock: gli scambi successivi non attendono la fine
+// della scrittura e restano da scrivere al giro successivo.
+// I terminatori di riga ("\n" o "\r\n") restano al loro posto, come negli altri motori.
+// Con il motore "wal" ogni scambio viene anche aggiunto al log del file (SwapLog) prima della risposta, la scrittura
+// diventa il checkpoint del log e al caricamento vengono rieseguiti gli scambi del log non ancora riportati nel file.
+final class LineModel implements LineStore {
+
+	private final static byte[][] TERMINATORS = { {}, { '\n' }, { '\r', '\n' } };
+
+
+	private final Path path;
+	private final WriteBehind owner;
+	// null -> motore "memory", nessun log
+	private final SwapLog log;
+	// numero progressivo dell'ultimo scambio (o sequenza) registrato nel log
+	private long seq = 0;
+
+	// lines[i] -> contenuto della riga i+1 senza terminatore, terminators[i] -> indice in TERMINATORS
+	private final byte[][] lines;
+	private final byte[] terminators;
+
+	// scambi confermati ma non ancora scritti su disco, e istante (System.nanoTime) del più vecchio
+	private int dirty = 0;
+	private long dirtySince;
+
+	// serializza le scritture del file (quella di WriteBehind e una sync richiesta dal Client)
+	private final Object flushLock = new Object();
+
+
+	LineModel(Path path, WriteBehind owner, boolean logged) throws IOException {
+		this.path = path;
+		this.owner = owner;
+		this.log = logged ? new SwapLog(path) : null;
+
+		byte[] data = Files.readAllBytes(path);
+
+		byte[][] res = new byte[1024][];
+		byte[] terms = new byte[1024];
+		int n = 0;
+
+		int start = 0;
+		for(int i=0; i<=data.length; i++) {
+			// ultima riga senza terminatore
+			if(i == data.length && start == data.length) break;
+			if(i < data.length && data[i] != '\n') continue;
+
+			int end = i;
+			byte term = 0;
+			if(i < data.length) {
+				term = 1;
+				if(end > start && data[end - 1] == '\r') {
+					end--;
+					term = 2;
+				}
+			}
+
+			if(n == res.length) {
+				res = Arrays.copyOf(res, n * 2);
+				terms = Arrays.copyOf(terms, n * 2);
+			}
+			res[n] = Arrays.copyOfRange(data, start, end);
+			terms[n++] = term;
+
+			start = i + 1;
+		}
+
+		lines = Arrays.copyOf(res, n);
+		terminators = Arrays.copyOf(terms, n);
+		
+		if(log != null && log.exists()) recover(data);
+	}
+
+
+	public Path path() {
+		return path;
+	}
+
+	// in memoria le righe sono al più Integer.MAX_VALUE: gli indici validi stanno in un int
+	public void swap(long a, long b) throws IOException {
+		int pending;
+
+		synchronized(this) {
+			if(a > lines.length) throw new IOException("l'indice " + a + " non è presente nel file.");
+			if(b > lines.length) throw new IOException("l'indice " + b + " non è presente nel file.");
+
+			if(log != null) log.append(++seq, new int[] { (int) a, (int) b });
+
+			byte[] tmp = lines[(int) a - 1];
+			lines[(int) a - 1] = lines[(int) b - 1];
+			lines[(int) b - 1] = tmp;
+
+			pending = ++dirty;
+			if(pending == 1) {
+				dirtySince = System.nanoTime();
+				owner.markDirty(this);
+			}
+		}
+
+		owner.swapped(this, pending - 1, pending);
+	}
+
+	public void apply(SwapBatch batch) throws IOException {
+		int before, after;
+
+		synchronized(this) {
+			TreeMap<Long, Long> moves = batch.resolve(lines.length);
+			if(log != null && batch.appliedCount() > 0) log.append(++seq, appliedPairs(batch));
+
+			// le righe di origine vanno lette prima di sovrascrivere le posizioni
+			byte[][] moved = new byte[moves.size()][];
+			int i = 0;
+			for(long src : moves.values())
+				moved[i++] = lines[(int) src - 1];
+
+			i = 0;
+			for(long pos : moves.keySet())
+				lines[(int) pos - 1] = moved[i++];
+
+			before = dirty;
+			dirty += batch.appliedCount();
+			after = dirty;
+			if(before == 0 && after > 0) {
+				dirtySince = System.nanoTime();
+				owner.markDirty(this);
+			}
+		}
+
+		owner.swapped(this, before, after);
+	}
+
+	public void sync() throws IOException {
+		flush();
+	}
+
+	public synchronized long lines() {
+		return lines.length;
+	}
+
+	// le righe vengono condivise con la copia in memoria: non sono mai modificate, uno scambio sposta solo i riferimenti
+	public synchronized byte[][] read(long start, int count, int maxBytes) throws IOException {
+		if(start < 1 || start > lines.length) throw new IOException("l'indice " + start + " non è presente nel file.");
+
+		int from = (int) start;
+		int to = (int) Math.min(lines.length, start + count - 1);
+		int size = 0;
+		for(int i=from; i<=to; i++) {
+			size += lines[i - 1].length + TERMINATORS[terminators[i - 1]].length;
+			if(size > maxBytes) {
+				to = i - 1;
+				break;
+			}
+		}
+
+		return Arrays.copyOfRange(lines, from - 1, to);
+	}
+
+	// true se il più vecchio scambio non ancora scritto ha almeno nanos nanosecondi
+	synchronized boolean dirtyFor(long now, long nanos) {
+		return dirty > 0 && now - dirtySince >= nanos;
+	}
+
+
+	// scrive lo stato attuale delle righe (nessun effetto se non ci sono scambi da scrivere)
+	void flush() throws IOException {
+		synchronized(flushLock) {
+			byte[][] snapshot;
+			int flushed;
+			long snapshotTime;
+			long snapshotSeq;
+
+			synchronized(this) {
+				if(dirty == 0) return;
+
+				snapshot = lines.clone();
+				flushed = dirty;
+				snapshotTime = System.nanoTime();
+				snapshotSeq = seq;
+			}
+
+			Path tmp = path.resolveSibling(path.getFileName() + ".tmp.txt");
+			CRC32 crc = new CRC32();
+			try(FileOutputStream fout = new FileOutputStream(tmp.toFile())) {
+				OutputStream out = new CheckedOutputStream(new BufferedOutputStream(fout, 64 * 1024), crc);
+				for(int i=0; i<snapshot.length; i++) {
+					out.write(snapshot[i]);
+					out.write(TERMINATORS[terminators[i]]);
+				}
+
+				out.flush();
+				fout.getFD().sync();
+			}
+
+			// il marcatore precede la sostituzione: al ripristino il CRC dice se è avvenuta
+			if(log != null) {
+				synchronized(this) {
+					log.checkpoint(snapshotSeq, (int) crc.getValue());
+				}
+			}
+
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			if(log != null) SwapLog.syncDirectory(path);
+
+			synchronized(this) {
+				dirty -= flushed;
+				if(dirty == 0) owner.markClean(this);
+				else dirtySince = snapshotTime; // scambi arrivati durante la scrittura
+
+				if(log != null) log.truncate(snapshotSeq);
+			}
+		}
+	}
+
+
+	// coppie eseguite di una sequenza, nel formato del log: gli indici eseguiti non superano le righe in memoria
+	private static int[] appliedPairs(SwapBatch batch) {
+		int[] pairs = new int[2 * batch.appliedCount()];
+		int n = 0;
+		for(int i = batch.applied().nextSetBit(0); i >= 0; i = batch.applied().nextSetBit(i + 1)) {
+			pairs[n++] = (int) batch.first(i);
+			pairs[n++] = (int) batch.second(i);
+		}
+
+		return pairs;
+	}
+
+	// ripristino dopo un arresto anomalo: vengono rieseguiti gli scambi del log successivi all'ultimo checkpoint riportato
+	// nel file (data), e il file viene segnato da scrivere
+	private void recover(byte[] data) throws IOException {
+		List<SwapLog.Record> records = log.read();
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		// senza un checkpoint riportato nel file, il log contiene solo scambi successivi al suo contenuto
+		long base = Long.MIN_VALUE;
+		for(int i=records.size()-1; i>=0; i--) {
+			SwapLog.Record record = records.get(i);
+			if(record.checkpoint && record.fileCrc == (int) crc.getValue()) {
+				base = record.seq;
+				break;
+			}
+		}
+
+		int replayed = 0;
+		for(SwapLog.Record record : records) {
+			seq = Math.max(seq, record.seq);
+			if(record.checkpoint || record.seq <= base) continue;
+
+			for(int i=0; i<record.pairs.length; i+=2) {
+				int a = record.pairs[i];
+				int b = record.pairs[i + 1];
+				if(a < 1 || b < 1 || a > lines.length || b > lines.length)
+					throw new IOException("il log " + record.seq + " non corrisponde al file " + path + ".");
+
+				byte[] tmp = lines[a - 1];
+				lines[a - 1] = lines[b - 1];
+				lines[b - 1] = tmp;
+				replayed++;
+			}
+		}
+
+		// il log riscritto contiene solo gli scambi rieseguiti (senza un eventuale record interrotto in coda)
+		log.truncate(base);
+
+		if(replayed > 0) {
+			dirty = replayed;
+			dirtySince = System.nanoTime();
+			owner.markDirty(this);
+			System.out.println("[SERVER] : Il file " + path + " è stato ripristinato dal log (" + replayed + " scambi).");
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package server;
+
+import java.io.IOException;
+
+
+// File servito da un Row Swap Server su cui vengono eseguiti gli scambi (vedi LineIndex e LineModel).
+// Gli scambi di uno stesso file vengono eseguiti uno alla volta (KeyedExecutor), lines() e read() anche da più thread
+// insieme ma mai durante uno scambio.
+interface LineStore {
+
+	// scambio delle righe a e b (1 <= a < b), IOException se una delle due non è presente nel file
+	void swap(long a, long b) throws IOException;
+
+	// sequenza di scambi applicata con una sola riscrittura, le coppie eseguite sono indicate da batch.applied()
+	void apply(SwapBatch batch) throws IOException;
+
+	// rende durevoli gli scambi già confermati
+	void sync() throws IOException;
+
+	// numero di righe del file (a 64 bit: con il motore "index" un file può superare Integer.MAX_VALUE righe)
+	long lines() throws IOException;
+
+	// contenuto senza terminatore delle righe from..from+count-1, troncato alla fine del file e alle prime righe che
+	// occupano nel file (terminatori compresi) al più maxBytes, quindi vuoto se la riga from da sola li supera.
+	// IOException se from non è presente nel file
+	byte[][] read(long from, int count, int maxBytes) throws IOException;
+}
@@ -0,0 +1,108 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+// Chiave del registro costruita sui byte del nome del file codificati come in writeUTF (UTF-8 modificato, senza i 2 byte di lunghezza).
+// Oltre alle chiavi memorizzate nel registro (array proprio) esiste la "sonda": un'istanza riutilizzabile che punta direttamente
+// ai byte ricevuti in un ByteBuffer, così una ricerca non richiede né la decodifica in String né nuove allocazioni.
+// La sonda può anteporre un prefisso già codificato ai byte ricevuti (il Client cerca f1.txt, registrato come
+// server/resources/f1.txt) senza ricopiarli.
+final class NameKey {
+
+	private byte[] bytes;
+	private byte[] prefix;
+	private ByteBuffer buf;
+	private int off;
+	private int len;
+	private int hash;
+
+
+	private NameKey(byte[] bytes) {
+		this.bytes = bytes;
+		this.len = bytes.length;
+		this.hash = Arrays.hashCode(bytes);
+	}
+
+	// sonda, da inizializzare con wrap()
+	public NameKey() {}
+
+
+	public static NameKey of(String name) {
+		return new NameKey(bytes(name));
+	}
+
+	// codifica di writeUTF senza i 2 byte di lunghezza
+	public static byte[] bytes(String name) {
+		byte[] utf = utf(name);
+		return Arrays.copyOfRange(utf, 2, utf.length);
+	}
+
+	// codifica identica a DataOutputStream.writeUTF, lunghezza inclusa
+	public static byte[] utf(String s) {
+		try {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			DataOutputStream dout = new DataOutputStream(bout);
+			dout.writeUTF(s);
+			dout.flush();
+
+			return bout.toByteArray();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+
+	// la sonda rappresenta prefix seguito dai byte [off, off+len) del buffer, che non devono cambiare finché la ricerca non
+	// è conclusa. L'hash è lo stesso di Arrays.hashCode sui byte concatenati, come per le chiavi memorizzate
+	public NameKey wrap(byte[] prefix, ByteBuffer buf, int off, int len) {
+		this.bytes = null;
+		this.prefix = prefix;
+		this.buf = buf;
+		this.off = off;
+		this.len = prefix.length + len;
+
+		int h = 1;
+		for(byte b : prefix)
+			h = 31 * h + b;
+		for(int i=0; i<len; i++)
+			h = 31 * h + buf.get(off + i);
+		this.hash = h;
+
+		return this;
+	}
+
+	public int length() {
+		return len;
+	}
+
+	private byte at(int i) {
+		if(bytes != null) return bytes[i];
+		return (i < prefix.length) ? prefix[i] : buf.get(off + i - prefix.length);
+	}
+
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o) return true;
+		if(!(o instanceof NameKey)) return false;
+
+		NameKey k = (NameKey) o;
+		if(k.len != len || k.hash != hash) return false;
+
+		for(int i=0; i<len; i++)
+			if(k.at(i) != at(i)) return false;
+
+		return true;
+	}
+}
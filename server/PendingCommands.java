@@ -0,0 +1,65 @@
+package server;
+
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+// Comandi dei Row Swap Server in attesa del secondo pacchetto (dati di registrazione o porta da de-registrare), per mittente.
+// Un comando il cui secondo pacchetto non arriva entro MAX_AGE_MILLIS viene scartato: il pacchetto successivo dello stesso
+// mittente viene trattato come un nuovo comando e non come i dati di quello vecchio. Oltre MAX_PENDING comandi in attesa
+// i nuovi comandi vengono rifiutati.
+// Ogni motore di I/O ne usa un'istanza da un solo thread, quindi senza sincronizzazione.
+final class PendingCommands {
+
+	private final static int MAX_PENDING = 1024;
+	private final static long MAX_AGE_MILLIS = 2000;
+
+
+	private static final class Pending {
+		final byte cmd;
+		final long created;
+
+		Pending(byte cmd, long created) {
+			this.cmd = cmd;
+			this.created = created;
+		}
+	}
+
+
+	// in ordine di inserimento: i comandi più vecchi sono in testa
+	private final LinkedHashMap<SocketAddress, Pending> pending = new LinkedHashMap<>();
+
+
+	// false -> troppi comandi in attesa, il comando non viene memorizzato
+	public boolean put(SocketAddress sender, byte cmd) {
+		long now = System.nanoTime();
+		sweep(now);
+
+		// un nuovo comando dello stesso mittente sostituisce il precedente e torna in coda
+		pending.remove(sender);
+		if(pending.size() >= MAX_PENDING) return false;
+
+		pending.put(sender, new Pending(cmd, now));
+		return true;
+	}
+
+	// comando in attesa del mittente, null se assente o scaduto
+	public Byte take(SocketAddress sender) {
+		long now = System.nanoTime();
+		sweep(now);
+
+		Pending p = pending.remove(sender);
+		return (p == null) ? null : p.cmd;
+	}
+
+
+	private void sweep(long now) {
+		long maxAge = TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MILLIS);
+
+		Iterator<Pending> it = pending.values().iterator();
+		while(it.hasNext() && now - it.next().created >= maxAge)
+			it.remove();
+	}
+}
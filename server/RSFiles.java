@@ -0,0 +1,153 @@
+package server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+
+
+// File serviti da un Row Swap Server. Ogni argomento può essere un file o una cartella (relativi a server/resources/):
+// di una cartella vengono serviti tutti i file regolari contenuti, anche nelle sottocartelle.
+// Il nome di un file è il percorso relativo a server/resources/ (es. f1.txt, dati/f3.txt) ed è lo stesso con cui
+// viene registrato presso il Discovery Server e cercato dal Client.
+// All'avvio vengono raccolti solo i nomi: lo stato di un file (indice delle righe o copia in memoria, vedi LineStore) viene
+// caricato al primo scambio e ne restano in memoria al più MAX_OPEN_FILES (i meno usati di recente vengono scartati e
+// ricaricati se servono di nuovo), così la memoria del processo non cresce con il numero di file serviti.
+final class RSFiles {
+
+	public final static String RESOURCES_DIR = "server/resources/";
+
+	// suffisso dei file temporanei usati dagli scambi, mai serviti (come i log del motore "wal")
+	private final static String TMP_SUFFIX = ".tmp.txt";
+
+	private final static int MAX_OPEN_FILES = 1024;
+
+
+	// caricamento dello stato di un file, dipende dal motore di scambio
+	public interface Loader {
+		LineStore load(Path path) throws IOException;
+	}
+
+
+	private final List<String> names;
+	private final HashSet<String> served;
+
+	// null -> motore "tmp", nessuno stato per file
+	private final Loader loader;
+	// caricamento per nome: i thread che chiedono lo stesso file mentre viene caricato attendono lo stesso risultato
+	private final Map<String, FutureTask<LineStore>> stores;
+
+
+	private RSFiles(List<String> names, Loader loader) {
+		this.names = Collections.unmodifiableList(names);
+		this.served = new HashSet<>(names);
+		this.loader = loader;
+
+		stores = (loader == null) ? null : new LinkedHashMap<String, FutureTask<LineStore>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, FutureTask<LineStore>> eldest) {
+				return size() > MAX_OPEN_FILES;
+			}
+		};
+	}
+
+
+	// maxNameLength -> lunghezza massima del nome (il messaggio di registrazione deve entrare nel buffer del Discovery Server)
+	public static RSFiles scan(List<String> args, Loader loader, int maxNameLength) throws IOException {
+		LinkedHashMap<String, Boolean> found = new LinkedHashMap<>();
+
+		for(String arg : args) {
+			Path path = Paths.get(RESOURCES_DIR, arg);
+
+			if(Files.isDirectory(path)) {
+				Path root = Paths.get(RESOURCES_DIR);
+				try(Stream<Path> files = Files.walk(path)) {
+					files.filter(Files::isRegularFile)
+						.map(p -> root.relativize(p).toString().replace('\\', '/'))
+						.filter(name -> !name.endsWith(TMP_SUFFIX) && !name.endsWith(SwapLog.SUFFIX) && !name.endsWith(LineIndex.SUFFIX))
+						.sorted()
+						.forEach(name -> found.put(name, Boolean.TRUE));
+				}
+			} else found.put(arg, Boolean.TRUE);
+		}
+
+		List<String> names = new ArrayList<>(found.size());
+		for(String name : found.keySet()) {
+			// ':' separa nome e porta nel messaggio di registrazione
+			if(name.indexOf(':') >= 0 || name.length() > maxNameLength) {
+				System.err.println("[SERVER] : Errore -> Nome file non valido, il file non verrà servito: " + name);
+				continue;
+			}
+
+			names.add(name);
+		}
+
+		return new RSFiles(names, loader);
+	}
+
+
+	public List<String> names() {
+		return names;
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	// file delle richieste legacy, che non indicano il file
+	public String first() {
+		return names.get(0);
+	}
+
+	public boolean contains(String name) {
+		return served.contains(name);
+	}
+
+	// stato del file, caricato al primo utilizzo (null con il motore "tmp").
+	// Il caricamento avviene fuori dal lock, senza bloccare le richieste degli altri file, ma una sola volta per nome: due
+	// copie dello stato dello stesso file perderebbero gli scambi eseguiti sulla copia scartata (e con il motore "wal"
+	// rieseguirebbero insieme lo stesso log). Uno stato scartato dall'LRU mentre è in uso resta valido fino al termine
+	// dello scambio; un caricamento fallito viene ritentato alla richiesta successiva
+	public LineStore store(String name) throws IOException {
+		if(stores == null) return null;
+
+		FutureTask<LineStore> task;
+		boolean owner = false;
+		synchronized(stores) {
+			task = stores.get(name);
+			if(task == null) {
+				task = new FutureTask<>(() -> loader.load(Paths.get(RESOURCES_DIR, name)));
+				stores.put(name, task);
+				owner = true;
+			}
+		}
+		if(owner) task.run();
+
+		try {
+			return task.get();
+		} catch(ExecutionException e) {
+			synchronized(stores) {
+				stores.remove(name, task);
+			}
+
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException) cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Caricamento di " + name + " interrotto");
+		}
+	}
+}
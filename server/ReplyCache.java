@@ -0,0 +1,101 @@
+package server;
+
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+// Risposte del Row Swap Server alle richieste con identificativo (REQ_TAGGED), per eseguire ogni richiesta al più una volta:
+// un Client che non riceve risposta ripete la richiesta con lo stesso identificativo e riceve di nuovo la risposta
+// registrata, senza che la richiesta venga rieseguita (uno scambio ripetuto annullerebbe il primo).
+// Chiave: indirizzo e porta del Client più identificativo. Una richiesta in esecuzione è registrata senza risposta: i suoi
+// duplicati vengono ignorati, la risposta arriverà al termine. Le voci scadono dopo ttlMillis e oltre maxEntries vengono
+// scartate le più vecchie; un duplicato arrivato dopo viene eseguito di nuovo.
+// Usata dal thread che riceve le richieste e dai worker che le completano.
+final class ReplyCache {
+
+	// richiesta ancora in esecuzione
+	public final static byte[][] PENDING = new byte[0][];
+
+
+	private static final class Key {
+		final SocketAddress sender;
+		final long id;
+
+		Key(SocketAddress sender, long id) {
+			this.sender = sender;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+
+			Key other = (Key) o;
+			return id == other.id && sender.equals(other.sender);
+		}
+
+		@Override
+		public int hashCode() {
+			return sender.hashCode() * 31 + Long.hashCode(id);
+		}
+	}
+
+	private static final class Entry {
+		final long created;
+		// null finché la richiesta è in esecuzione
+		byte[][] packets = null;
+
+		Entry(long created) {
+			this.created = created;
+		}
+	}
+
+
+	private final int maxEntries;
+	private final long ttlNanos;
+
+	// in ordine di inserimento, quindi di scadenza
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+
+
+	// maxEntries = 0 -> nessuna risposta registrata, ogni richiesta viene eseguita
+	public ReplyCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+	}
+
+
+	// null se la richiesta è nuova (da qui in esecuzione), PENDING se è già in esecuzione, altrimenti la risposta registrata
+	public synchronized byte[][] begin(SocketAddress sender, long id) {
+		if(maxEntries <= 0) return null;
+
+		long now = System.nanoTime();
+		Iterator<Entry> eldest = entries.values().iterator();
+		while(eldest.hasNext()) {
+			Entry entry = eldest.next();
+			if(entries.size() < maxEntries && now - entry.created < ttlNanos) break;
+
+			eldest.remove();
+		}
+
+		Key key = new Key(sender, id);
+		Entry entry = entries.get(key);
+		if(entry != null) return (entry.packets != null) ? entry.packets : PENDING;
+
+		entries.put(key, new Entry(now));
+		return null;
+	}
+
+	// risposta di una richiesta eseguita, inviata ai duplicati successivi
+	public synchronized void complete(SocketAddress sender, long id, byte[][] packets) {
+		Entry entry = entries.get(new Key(sender, id));
+		if(entry != null) entry.packets = packets;
+	}
+
+	// richiesta non eseguita (incompleta, non valida o scartata) o senza effetti da proteggere: un duplicato verrà eseguito
+	public synchronized void abandon(SocketAddress sender, long id) {
+		entries.remove(new Key(sender, id));
+	}
+}
@@ -12,35 +12,152 @@ import java.io.PrintWriter;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RowSwapServer {
 	
 	private final static int MAX_FILE_LENGTH = 256;
+	// nomi dei file serviti: il messaggio di registrazione "server/resources/nome:porta:lease" deve restare entro MAX_FILE_LENGTH
+	private final static int MAX_NAME_LENGTH = MAX_FILE_LENGTH - 48;
+	
+	// richieste dei Client con codice operativo: una richiesta legacy (writeUTF("index1:index2")) inizia sempre con il byte
+	// alto della lunghezza, cioè 0
+	// [byte REQ_SWAP_FILE][UTF nome del file][int index1][int index2]
+	private final static byte REQ_SWAP_FILE = 2;
+	// come REQ_SWAP_FILE per i file con più di Integer.MAX_VALUE righe: [byte REQ_SWAP_LONG][UTF nome del file][long index1][long index2]
+	private final static byte REQ_SWAP_LONG = 8;
+	// [byte REQ_SYNC][UTF nome del file] -> risposta dopo che gli scambi già confermati sono stati scritti su disco
+	private final static byte REQ_SYNC = 3;
+	// sequenza di scambi applicata con una sola riscrittura del file, divisa in frammenti da al più MAX_PAYLOAD byte:
+	// [byte REQ_SWAP_BATCH][UTF nome del file][int id][short frammento][short frammenti][short n][n x (int a, int b)]
+	// -> risposta [byte flag][int id][int coppie][bitmap (coppie+7)/8 byte], il bit i (byte i/8, bit i%8) indica se la
+	// coppia i è stata eseguita. Il flag è RESPONSE_OK solo se lo sono state tutte
+	private final static byte REQ_SWAP_BATCH = 4;
+	// come REQ_SWAP_BATCH con indici a 64 bit, [n x (long a, long b)]: usata dal Client solo se un indice supera Integer.MAX_VALUE
+	private final static byte REQ_SWAP_BATCH_LONG = 10;
+	// la bitmap della risposta deve entrare in un solo datagramma
+	private final static int MAX_BATCH_PAIRS = 8192;
+	// letture: [byte REQ_READ_LINE][UTF nome del file][long linea] e [byte REQ_READ_RANGE][UTF nome del file][long da][int righe]
+	// -> risposta [byte flag][int righe lette][int frammenti] seguita dai frammenti "i:" + dati, come la lista file del
+	// Discovery Server. I dati sono le righe lette, ognuna seguita da "\n"; una lettura oltre la fine del file viene troncata
+	private final static byte REQ_READ_LINE = 5;
+	private final static byte REQ_READ_RANGE = 6;
+	// [byte REQ_LINE_COUNT][UTF nome del file] -> risposta [byte flag][long righe]
+	private final static byte REQ_LINE_COUNT = 7;
+	// richiesta con identificativo scelto dal Client, eseguita al più una volta (vedi ReplyCache):
+	// [byte REQ_TAGGED][long id] seguito da una delle richieste precedenti, anche legacy -> ogni datagramma della risposta
+	// è preceduto da [long id]. Un duplicato riceve la risposta già inviata senza essere rieseguito
+	private final static byte REQ_TAGGED = 9;
+	private final static int TAG_LENGTH = 9;
+	// le richieste nel formato binario (Frame) vengono riconosciute dal magic e portano sempre un identificativo: sono
+	// trattate come quelle con REQ_TAGGED e ricevono risposta nello stesso formato
+	// limiti di una lettura (righe e byte dei dati), così una richiesta non genera troppi frammenti
+	private final static int MAX_READ_LINES = 1024;
+	private final static int MAX_READ_BYTES = 32 * 1024;
+	// dati di un frammento di lettura: con l'header "i:" e l'identificativo il datagramma resta entro MAX_PAYLOAD
+	private final static int READ_FRAGMENT_SIZE = DiscoveryServer.MAX_PAYLOAD - 8 - TAG_LENGTH;
+	private final static int MAX_REQUEST_LENGTH = DiscoveryServer.MAX_PAYLOAD + TAG_LENGTH;
+	
+	// scambi in attesa di un worker, oltre i quali le richieste vengono scartate
+	private final static int MAX_PENDING_SWAPS = 1024;
+	
+	private final static int NIO_BUFFERS = 16;
+	private final static int NIO_BUFFER_SIZE = 2048;
 
 	private final static byte RESPONSE_OK = 0;
 	private final static byte RESPONSE_ERR = 1;
 	private final static byte RESPONSE_SERVER_OPENING = 3;
 	private final static byte RESPONSE_SERVER_CLOSING = 4;
 	private final static byte RESPONSE_SERVER_OFFLINE = 5;
+	private final static byte RESPONSE_SERVER_HEARTBEAT = 6;
+	private final static byte RESPONSE_LEASE_EXPIRED = 7;
 	
 	private static InetAddress dsAddr = null;
 	private static int dsPort = -1;
 	private static int rsPortClient = -1;
 	
 	private static volatile boolean isOn = false;
+	// true dall'invio di una registrazione fino alla risposta del Discovery Server: nel frattempo non si inviano heartbeat
+	private static volatile boolean registering = true;
+	
+	// durata del lease richiesto al Discovery Server in secondi (-Dsns.rs.lease, default 30, 0 -> nessun lease)
+	// gli heartbeat vengono inviati ogni terzo di lease
+	private static int leaseSeconds = 30;
+	
+	// motore di I/O: "blocking" (thread dedicati con DatagramSocket) oppure "nio" (event loop con DatagramChannel)
+	private static String ioEngine = "blocking";
+	
+	// formato dei comandi al Discovery Server (-Dsns.protocol): "binary" (Frame) oppure "legacy". Se il Discovery Server
+	// risponde a un comando binario nel formato legacy (non conosce Frame) si passa al formato legacy e la registrazione riparte
+	private static volatile boolean binary = true;
+	private final static AtomicLong dsRequestId = new AtomicLong(System.nanoTime());
+	
+	// motore di scambio (-Dsns.rs.engine): "index" (indice delle righe, riscrittura in place della sola regione tra le due righe),
+	// "mmap" (indice delle righe, scambio in un MappedByteBuffer se le righe hanno la stessa lunghezza, altrimenti copia con
+	// transferTo in un file temporaneo e sostituzione atomica) oppure "tmp" (copia riga per riga dell'intero file in un file
+	// temporaneo e sostituzione atomica) oppure "memory" (copia del file in memoria, scritta su disco secondo la politica
+	// di WriteBehind: -Dsns.rs.flush=op|group|periodic, -Dsns.rs.flushOps, -Dsns.rs.flushMillis) oppure "wal" (come "memory",
+	// ma ogni scambio viene registrato nel log del file prima della risposta e la scrittura ne è il checkpoint)
+	private static String swapEngine = "index";
+	private static WriteBehind writeBehind = null;
+	
+	private final static int DEFAULT_FLUSH_OPS = 256;
+	
+	// cache delle righe lette dai Client con i motori che leggono dal disco (-Dsns.rs.cacheBytes, 0 per disattivarla)
+	private static LineCache lineCache = null;
+	private final static long DEFAULT_CACHE_BYTES = 8L * 1024 * 1024;
+	private final static long DEFAULT_FLUSH_MILLIS = 1000;
+	
+	// file serviti: le richieste legacy, che non indicano il file, si riferiscono al primo
+	private static RSFiles files = null;
+	
+	// worker che eseguono gli scambi (-Dsns.rs.workers, default 1 -> scambi eseguiti dal thread che riceve le richieste).
+	// Gli scambi dello stesso file restano in ordine, quelli di file diversi procedono in parallelo, come le letture
+	// (anche dello stesso file), che non attendono gli scambi accodati
+	private static KeyedExecutor swaps = null;
+	
+	// frammenti delle sequenze di scambi, usato solo dal thread che riceve le richieste (RS_CLIENT o RS_NIO)
+	private final static BatchAssembler batches = new BatchAssembler(MAX_BATCH_PAIRS);
+	
+	// risposte alle richieste con identificativo (-Dsns.rs.replyCache voci, 0 per disattivarla, -Dsns.rs.replyTtl millisecondi)
+	private static ReplyCache replyCache = null;
+	private final static int DEFAULT_REPLY_ENTRIES = 4096;
+	private final static long DEFAULT_REPLY_TTL_MILLIS = 30000;
+	
+	// registrazione dei file al Discovery Server, un file alla volta: il successivo viene inviato alla risposta del precedente.
+	// Usati solo dal thread che riceve le risposte del Discovery Server
+	private static int registrationCursor = 0;
+	private static int registeredFiles = 0;
 	
 	
 	public static void main(String[] args) {
-		// args: IP Discovery Server, porta Registrazione Discovery Server, porta Row Swap Server (socket Discovery Server), nome file
+		// args: IP Discovery Server, porta Registrazione Discovery Server, porta Row Swap Server (socket Discovery Server),
+		// uno o più file o cartelle da servire (relativi a server/resources/)
 		
 		
 		// controllo argomenti
-		if(args.length != 4) {
+		if(args.length < 4) {
 			System.err.println("[SERVER] : Errore -> Numero di argomenti errati.");
 			System.exit(1);
 		}
@@ -81,8 +198,121 @@ public class RowSwapServer {
 		}
 		
 		
+		ioEngine = System.getProperty("sns.io", "blocking");
+		if(!ioEngine.equals("blocking") && !ioEngine.equals("nio")) {
+			System.err.println("[SERVER] : Errore -> Motore di I/O non valido: " + ioEngine);
+			System.exit(1);
+		}
+		
+		String protocol = System.getProperty("sns.protocol", "binary");
+		if(!protocol.equals("binary") && !protocol.equals("legacy")) {
+			System.err.println("[SERVER] : Errore -> Formato dei pacchetti non valido: " + protocol);
+			System.exit(1);
+		}
+		binary = protocol.equals("binary");
+		
+		leaseSeconds = Integer.getInteger("sns.rs.lease", 30);
+		if(leaseSeconds < 0) {
+			System.err.println("[SERVER] : Errore -> Durata del lease non valida: " + leaseSeconds);
+			System.exit(1);
+		}
+		
+		int swapWorkers = Integer.getInteger("sns.rs.workers", 1);
+		if(swapWorkers < 1) {
+			System.err.println("[SERVER] : Errore -> Numero di worker non valido: " + swapWorkers);
+			System.exit(1);
+		}
+		if(swapWorkers > 1)
+			swaps = new KeyedExecutor(swapWorkers, MAX_PENDING_SWAPS, "RS_SWAP");
+		
+		swapEngine = System.getProperty("sns.rs.engine", "index");
+		RSFiles.Loader loader = null;
+		if(swapEngine.equals("index")) loader = path -> new LineIndex(path, false);
+		else if(swapEngine.equals("mmap")) loader = path -> new LineIndex(path, true);
+		else if(swapEngine.equals("memory") || swapEngine.equals("wal")) {
+			try {
+				writeBehind = new WriteBehind(System.getProperty("sns.rs.flush", WriteBehind.POLICY_GROUP),
+						Integer.getInteger("sns.rs.flushOps", DEFAULT_FLUSH_OPS), Long.getLong("sns.rs.flushMillis", DEFAULT_FLUSH_MILLIS),
+						swapEngine.equals("wal"));
+			} catch(IllegalArgumentException e) {
+				System.err.println("[SERVER] : Errore -> Politica di scrittura non valida: " + e.getMessage());
+				System.exit(1);
+			}
+			loader = writeBehind::load;
+			writeBehind.start();
+		} else if(!swapEngine.equals("tmp")) {
+			System.err.println("[SERVER] : Errore -> Motore di scambio non valido: " + swapEngine);
+			System.exit(1);
+		}
+		
+		long cacheBytes = Long.getLong("sns.rs.cacheBytes", DEFAULT_CACHE_BYTES);
+		if(cacheBytes < 0) {
+			System.err.println("[SERVER] : Errore -> Dimensione della cache non valida: " + cacheBytes);
+			System.exit(1);
+		}
+		// i motori "memory" e "wal" leggono già dalla copia in memoria
+		if(cacheBytes > 0 && writeBehind == null)
+			lineCache = new LineCache(cacheBytes);
+		
+		int replyEntries = Integer.getInteger("sns.rs.replyCache", DEFAULT_REPLY_ENTRIES);
+		long replyTtl = Long.getLong("sns.rs.replyTtl", DEFAULT_REPLY_TTL_MILLIS);
+		if(replyEntries < 0 || replyTtl <= 0) {
+			System.err.println("[SERVER] : Errore -> Cache delle risposte non valida: " + replyEntries + " voci, " + replyTtl + " ms.");
+			System.exit(1);
+		}
+		replyCache = new ReplyCache(replyEntries, replyTtl);
+		
+		try {
+			files = RSFiles.scan(Arrays.asList(args).subList(3, args.length), loader, MAX_NAME_LENGTH);
+		} catch(IOException e) {
+			System.err.println("[SERVER] : Errore -> Impossibile leggere la cartella dei file: " + e);
+			System.exit(2);
+		}
+		
+		if(files.size() == 0) {
+			System.err.println("[SERVER] : Errore -> Nessun file da servire.");
+			System.exit(1);
+		}
+		
+		// i file con un log rimasto da un arresto anomalo vengono ripristinati prima di accettare richieste
+		if(swapEngine.equals("wal")) {
+			for(String name : files.names()) {
+				if(!new SwapLog(Paths.get(RSFiles.RESOURCES_DIR, name)).exists()) continue;
+				
+				try {
+					files.store(name);
+				} catch(IOException e) {
+					System.err.println("[SERVER] : Errore -> Impossibile ripristinare il file " + name + " dal log: " + e);
+					System.exit(2);
+				}
+			}
+		}
+		
+		
 		System.out.println("[SERVER] : Il Row Swap Server si sta avviando sulla porta " + rsPortDS + "...");
 		
+		if(ioEngine.equals("nio")) {
+			try {
+				// 2 thread: l'event loop (Discovery Server e Client) e quello che legge da input i comandi
+				RSServer_Nio threadNio = new RSServer_Nio(rsPortDS);
+				threadNio.start();
+				
+				RSServer_ThreadStdin threadStdin = new RSServer_ThreadStdin(threadNio);
+				threadStdin.start();
+				
+				threadStdin.join();
+				threadNio.join();
+			} catch (IOException e) {
+				System.err.println("[SERVER] : Errore -> Canale non valido: " + e);
+				System.exit(2);
+			} catch (InterruptedException e) {
+				System.err.println("[SERVER] : Errore -> Thread terminato improvvisamente: " + e);
+				System.exit(3);
+			}
+			
+			return;
+		}
+		
 		
 		DatagramSocket socketClient = null;
 		DatagramSocket socketDS = null;
@@ -97,16 +327,22 @@ public class RowSwapServer {
 			// 3 thread: 1 che comunica con il Discovery Server, 1 che comunica con i Client, 1 che legge da input i comandi
 			
 			// Thread che comunica con il Discovery Server
-			RSServer_ThreadDS threadDS = new RSServer_ThreadDS(socketDS, args[3]);	
+			RSServer_ThreadDS threadDS = new RSServer_ThreadDS(socketDS);	
 			threadDS.start();
 						
 			// Thread che comunica con il Client
-			RSServer_ThreadClient threadClient = new RSServer_ThreadClient(socketClient, args[3]);	
+			RSServer_ThreadClient threadClient = new RSServer_ThreadClient(socketClient);	
 			threadClient.start();
 													
 			// Thread in ascolto su stdin
 			RSServer_ThreadStdin threadStdin = new RSServer_ThreadStdin(socketDS);
 			threadStdin.start();
+			
+			// Thread che rinnova il lease (daemon: termina con il server)
+			if(leaseSeconds > 0) {
+				RSServer_ThreadHeartbeat threadHeartbeat = new RSServer_ThreadHeartbeat(socketDS);
+				threadHeartbeat.start();
+			}
 									
 			
 			threadStdin.join();
@@ -125,58 +361,719 @@ public class RowSwapServer {
 	
 	
 	
+	// pacchetti di registrazione al Discovery Server: comando e "server/resources/fileName:porta[:lease]", oppure un solo
+	// datagramma Frame.OP_REGISTER [short porta][int lease][UTF fileName]
+	private static byte[][] registrationPackets(String fileName) throws IOException {
+		if(binary) {
+			ByteBuffer frame = Frame.allocate(Frame.OP_REGISTER, dsRequestId.incrementAndGet(), 0, 1, 6 + Frame.nameLength(fileName));
+			return new byte[][] { Frame.putName(frame.putShort((short) rsPortClient).putInt(leaseSeconds), fileName).array() };
+		}
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		
+		dout.writeUTF(RSFiles.RESOURCES_DIR + fileName + ":" + rsPortClient + ((leaseSeconds > 0) ? ":" + leaseSeconds : ""));
+		dout.flush();
+		
+		return new byte[][] { { RESPONSE_SERVER_OPENING }, bout.toByteArray() };
+	}
+	
+	// inizio (o ripresa dopo la scadenza del lease) della registrazione di tutti i file
+	private static byte[][] firstRegistration() throws IOException {
+		registering = true;
+		registrationCursor = 0;
+		registeredFiles = 0;
+		
+		return registrationPackets(files.names().get(0));
+	}
+	
+	// heartbeat di rinnovo del lease: comando e porta dei Client in un solo pacchetto
+	private static byte[] heartbeatPacket() {
+		if(binary) return Frame.allocate(Frame.OP_HEARTBEAT, dsRequestId.incrementAndGet(), 0, 1, 2).putShort((short) rsPortClient).array();
+		
+		return ByteBuffer.allocate(5).put(RESPONSE_SERVER_HEARTBEAT).putInt(rsPortClient).array();
+	}
+	
+	// pacchetti di de-registrazione: comando e porta dei Client
+	private static byte[][] closingPackets() throws IOException {
+		if(binary) return new byte[][] { Frame.allocate(Frame.OP_UNREGISTER, dsRequestId.incrementAndGet(), 0, 1, 2).putShort((short) rsPortClient).array() };
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		
+		dout.writeInt(rsPortClient);
+		dout.flush();
+		
+		return new byte[][] { { RESPONSE_SERVER_CLOSING }, bout.toByteArray() };
+	}
+	
+	// datagramma di risposta del Discovery Server, nel formato binario o legacy
+	private static byte[][] handleDSResponse(ByteBuffer reply) throws IOException {
+		boolean framed = Frame.is(reply);
+		if(binary && (!framed || Frame.status(reply) == Frame.RESPONSE_VERSION)) {
+			// negoziazione: il Discovery Server non conosce il formato binario (o questa versione)
+			binary = false;
+			System.err.println("[SERVER RS_DS] : Il Discovery Server non supporta il formato binario, si usa il formato legacy.");
+			return firstRegistration();
+		}
+		
+		return handleDSResponse(framed ? Frame.status(reply) : reply.get(reply.position()));
+	}
+	
+	// risposta del Discovery Server a una registrazione/de-registrazione/heartbeat
+	// restituisce i pacchetti da inviare di seguito (file successivo o nuova registrazione dopo la scadenza del lease) oppure null
+	private static byte[][] handleDSResponse(byte flag) throws IOException {
+		if(flag == RESPONSE_SERVER_HEARTBEAT) {
+			return null;
+		} else if(flag == RESPONSE_LEASE_EXPIRED) {
+			if(registering) return null; // registrazione già in corso
+			
+			System.err.println("[SERVER RS_DS] : Il lease è scaduto, nuova registrazione al Discovery Server...");
+			return firstRegistration();
+		} else if(registering && (flag == RESPONSE_SERVER_OPENING || flag == RESPONSE_ERR)) {
+			// con più file un nome già registrato da un altro server non impedisce di servire gli altri
+			if(flag == RESPONSE_SERVER_OPENING) registeredFiles++;
+			else System.err.println("[SERVER RS_DS] : Errore -> Non è stato possibile registrare il file " + files.names().get(registrationCursor) + ".");
+			
+			if(++registrationCursor < files.size())
+				return registrationPackets(files.names().get(registrationCursor));
+			
+			if(registeredFiles == 0)
+				throw new IOException("non è stato possibile registrare il server.");
+			
+			registering = false;
+			if(!isOn) {
+				isOn = true;
+				if(files.size() == 1) System.out.println("[SERVER RS_DS] : Registrazione al Discovery Server avvenuta correttamente.");
+				else System.out.println("[SERVER RS_DS] : Registrazione di " + registeredFiles + " file su " + files.size() + " al Discovery Server avvenuta correttamente.");
+				System.out.println("[SERVER RS_DS] : Il server è online.");
+				System.out.println("[SERVER RS_DS] : Inserisci \"Termina\" per de-registrare e terminare il server...\n");
+			}
+		} else if(flag == RESPONSE_SERVER_OPENING) {
+			// risposta duplicata a una registrazione già conclusa
+			return null;
+		} else if(flag == RESPONSE_SERVER_CLOSING) {
+			isOn = false;
+			System.out.println("[SERVER RS_DS] : Chiusura del Row Server.");
+			
+			// scambi confermati e non ancora scritti (motori "memory" e "wal")
+			if(writeBehind != null && writeBehind.flushAll() > 0) {
+				System.err.println("[SERVER RS_DS] : Errore -> Non è stato possibile scrivere tutti i file su disco.");
+				System.exit(5);
+			}
+			
+			System.exit(0);
+		} 
+		else throw new IOException((flag == RESPONSE_ERR) ? "non è stato possibile registrare/de-registrare il server." : "errore imprevisto.");
+		
+		return null;
+	}
+	
+	
+	// richiesta già decodificata: viene letta dal thread che riceve i pacchetti ed eseguita da un worker
+	private static final class ClientRequest {
+		final byte op;
+		final String fileName;
+		final long index1;
+		final long index2;
+		// REQ_SWAP_BATCH: index1 -> identificativo della sequenza
+		final SwapBatch batch;
+		
+		// REQ_TAGGED: identificativo e mittente (null per le richieste senza identificativo), impostati dopo la decodifica
+		long tag = 0;
+		SocketAddress sender = null;
+		// REPLAY: risposta già pronta, senza esecuzione
+		byte[][] replay = null;
+		// operazione Frame di una richiesta nel formato binario (0 -> formato legacy), ripetuta nell'header della risposta
+		byte frame = 0;
+		
+		ClientRequest(byte op, String fileName, long index1, long index2) {
+			this(op, fileName, index1, index2, null);
+		}
+		
+		ClientRequest(byte op, String fileName, long index1, long index2, SwapBatch batch) {
+			this.op = op;
+			this.fileName = fileName;
+			this.index1 = index1;
+			this.index2 = index2;
+			this.batch = batch;
+		}
+	}
+	
+	// frammento di una sequenza di scambi non ancora completa o duplicato di una richiesta in esecuzione: nessuna risposta
+	private final static ClientRequest INCOMPLETE = new ClientRequest((byte) -1, null, 0, 0);
+	// risposta già pronta per una richiesta con identificativo (duplicato o richiesta non valida)
+	private final static byte REPLAY = -2;
+	
+	// richiesta di un Client (blocking e richieste con codice operativo del motore NIO)
+	// null se la richiesta non è valida o riguarda un file non servito, INCOMPLETE se manca parte della sequenza di scambi
+	private static ClientRequest parseRequest(byte[] data, int length, SocketAddress sender) {
+		return parseRequest(data, 0, length, sender);
+	}
+	
+	private static ClientRequest parseRequest(byte[] data, int offset, int length, SocketAddress sender) {
+		if(Frame.is(data, offset, length)) return parseFrame(ByteBuffer.wrap(data, offset, length), sender);
+		
+		// richiesta con identificativo: un duplicato non arriva mai alla decodifica della richiesta (anche i frammenti di
+		// una sequenza già eseguita, che altrimenti ne inizierebbero una nuova)
+		if(length >= TAG_LENGTH && data[offset] == REQ_TAGGED) {
+			long tag = ByteBuffer.wrap(data, offset + 1, 8).getLong();
+			
+			byte[][] cached = replyCache.begin(sender, tag);
+			if(cached == ReplyCache.PENDING) return INCOMPLETE;
+			if(cached != null) {
+				System.out.println("[SERVER RS_CLIENT] : richiesta " + tag + " ripetuta da " + sender + ", inviata la risposta già eseguita.");
+				return replay(cached);
+			}
+			
+			ClientRequest request = (length > TAG_LENGTH && data[offset + TAG_LENGTH] != REQ_TAGGED)
+					? parseRequest(data, offset + TAG_LENGTH, length - TAG_LENGTH, sender) : null;
+			if(request == null || request == INCOMPLETE) {
+				replyCache.abandon(sender, tag);
+				return (request == null) ? replay(tagged(new byte[][] { { RESPONSE_ERR } }, tag)) : INCOMPLETE;
+			}
+			
+			request.tag = tag;
+			request.sender = sender;
+			return request;
+		}
+		
+		try {
+			DataInputStream din = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+			
+			if(length > 0 && (data[offset] == REQ_SWAP_BATCH || data[offset] == REQ_SWAP_BATCH_LONG)) {
+				boolean wide = din.readByte() == REQ_SWAP_BATCH_LONG;
+				String fileName = din.readUTF();
+				int batchId = din.readInt();
+				int fragment = din.readUnsignedShort();
+				int fragments = din.readUnsignedShort();
+				int n = din.readUnsignedShort();
+				if(din.available() != (wide ? 16 : 8) * n)
+					throw new IOException("frammento di " + n + " coppie con lunghezza " + length + " non valido.");
+				
+				long[] pairs = new long[2 * n];
+				for(int i=0; i<pairs.length; i++)
+					pairs[i] = wide ? din.readLong() : din.readInt();
+				
+				if(!files.contains(fileName)) {
+					System.err.println("[SERVER RS_CLIENT] : Errore -> Il file " + fileName + " non è servito da questo server.");
+					return null;
+				}
+				
+				SwapBatch batch = batches.add(sender, batchId, fileName, fragment, fragments, pairs);
+				return (batch == null) ? INCOMPLETE : new ClientRequest(REQ_SWAP_BATCH, fileName, batchId, 0, batch);
+			}
+			
+			// REQ_SWAP_FILE, REQ_SWAP_LONG, REQ_SYNC e le letture (REQ_SWAP_BATCH è già stata gestita)
+			if(length > 0 && data[offset] >= REQ_SWAP_FILE && data[offset] <= REQ_SWAP_LONG) {
+				byte op = din.readByte();
+				String fileName = din.readUTF();
+				long index1 = (op == REQ_SWAP_FILE) ? din.readInt() : (op == REQ_SWAP_LONG || op == REQ_READ_LINE || op == REQ_READ_RANGE) ? din.readLong() : 0;
+				long index2 = (op == REQ_SWAP_FILE || op == REQ_READ_RANGE) ? din.readInt() : (op == REQ_SWAP_LONG) ? din.readLong() : ((op == REQ_READ_LINE) ? 1 : 0);
+				if(op == REQ_SWAP_LONG) op = REQ_SWAP_FILE;
+				
+				if(!files.contains(fileName)) {
+					System.err.println("[SERVER RS_CLIENT] : Errore -> Il file " + fileName + " non è servito da questo server.");
+					return null;
+				}
+				
+				return new ClientRequest(op, fileName, index1, index2);
+			}
+			
+			String[] indexes = din.readUTF().split(":");
+			if(indexes.length == 2)
+				return new ClientRequest(REQ_SWAP_FILE, files.first(), Long.parseLong(indexes[0]), Long.parseLong(indexes[1]));
+		} catch(IOException | IllegalArgumentException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Sono state inserite delle linee non valide: " + e);
+		}
+		
+		return null;
+	}
+	
+	
+	// richiesta nel formato binario, letta direttamente dal buffer ricevuto (anche diretto, con il motore NIO).
+	// Come una richiesta REQ_TAGGED: un duplicato riceve la risposta registrata, una richiesta non valida [header][RESPONSE_ERR]
+	private static ClientRequest parseFrame(ByteBuffer req, SocketAddress sender) {
+		byte op = Frame.op(req);
+		long id = Frame.id(req);
+		if(Frame.version(req) != Frame.VERSION) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Versione " + Frame.version(req) + " del protocollo non supportata da " + sender);
+			return replay(new byte[][] { Frame.reply(op, id, Frame.RESPONSE_VERSION) });
+		}
+		
+		byte[][] cached = replyCache.begin(sender, id);
+		if(cached == ReplyCache.PENDING) return INCOMPLETE;
+		if(cached != null) {
+			System.out.println("[SERVER RS_CLIENT] : richiesta " + id + " ripetuta da " + sender + ", inviata la risposta già eseguita.");
+			return replay(cached);
+		}
+		
+		ClientRequest request = null;
+		try {
+			request = decodeFrame(req, op, id, sender);
+		} catch(BufferUnderflowException | IllegalArgumentException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Richiesta non valida da " + sender + ": " + e);
+		}
+		
+		if(request == null || request == INCOMPLETE) {
+			replyCache.abandon(sender, id);
+			return (request == null) ? replay(new byte[][] { Frame.reply(op, id, RESPONSE_ERR) }) : INCOMPLETE;
+		}
+		
+		request.frame = op;
+		request.tag = id;
+		request.sender = sender;
+		return request;
+	}
+	
+	private static ClientRequest decodeFrame(ByteBuffer req, byte op, long id, SocketAddress sender) {
+		int fragment = Frame.fragment(req);
+		int fragments = Frame.fragments(req);
+		
+		String fileName = Frame.getName(Frame.body(req));
+		if(!files.contains(fileName)) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Il file " + fileName + " non è servito da questo server.");
+			return null;
+		}
+		
+		if(op == Frame.OP_SWAP) return new ClientRequest(REQ_SWAP_FILE, fileName, req.getLong(), req.getLong());
+		if(op == Frame.OP_SYNC) return new ClientRequest(REQ_SYNC, fileName, 0, 0);
+		if(op == Frame.OP_READ) return new ClientRequest(REQ_READ_RANGE, fileName, req.getLong(), req.getInt());
+		if(op == Frame.OP_LINE_COUNT) return new ClientRequest(REQ_LINE_COUNT, fileName, 0, 0);
+		if(op == Frame.OP_SWAP_BATCH) {
+			// l'identificativo della richiesta è anche quello della sequenza, i frammenti sono numerati nell'header
+			int n = req.getShort() & 0xFFFF;
+			if(req.remaining() != 16 * n)
+				throw new IllegalArgumentException("frammento di " + n + " coppie con lunghezza " + req.limit() + " non valido.");
+			
+			long[] pairs = new long[2 * n];
+			for(int i=0; i<pairs.length; i++)
+				pairs[i] = req.getLong();
+			
+			SwapBatch batch = batches.add(sender, id, fileName, fragment, fragments, pairs);
+			return (batch == null) ? INCOMPLETE : new ClientRequest(REQ_SWAP_BATCH, fileName, id, 0, batch);
+		}
+		
+		System.err.println("[SERVER RS_CLIENT] : Errore -> Operazione " + op + " non valida da " + sender);
+		return null;
+	}
+	
+	// risposta RESPONSE_SERVER_OFFLINE nel formato della richiesta
+	private static byte[] offline(ByteBuffer req) {
+		return Frame.is(req) ? Frame.reply(Frame.op(req), Frame.id(req), RESPONSE_SERVER_OFFLINE) : new byte[] { RESPONSE_SERVER_OFFLINE };
+	}
+	
+	private static ClientRequest replay(byte[][] packets) {
+		ClientRequest request = new ClientRequest(REPLAY, null, 0, 0);
+		request.replay = packets;
+		return request;
+	}
+	
+	// datagrammi della risposta preceduti dall'identificativo della richiesta
+	private static byte[][] tagged(byte[][] packets, long tag) {
+		byte[][] res = new byte[packets.length][];
+		for(int i=0; i<packets.length; i++)
+			res[i] = ByteBuffer.allocate(8 + packets[i].length).putLong(tag).put(packets[i]).array();
+		
+		return res;
+	}
+	
+	// esecuzione di una richiesta, condivisa dai due motori di I/O: restituisce i datagrammi da inviare al Client.
+	// Uno scambio non viene mai eseguito insieme a un'altra richiesta dello stesso file, le letture sì (KeyedExecutor).
+	// La risposta di una richiesta con identificativo viene registrata per i duplicati, tranne quella di letture e sync
+	// che possono essere rieseguite senza effetti
+	private static byte[][] execute(ClientRequest request, InetAddress client) {
+		if(request.op == REPLAY) return request.replay;
+		
+		byte[][] packets = run(request, client);
+		if(request.sender == null) return packets;
+		
+		if(request.frame == 0) packets = tagged(packets, request.tag);
+		if(request.op == REQ_SWAP_FILE || request.op == REQ_SWAP_BATCH) replyCache.complete(request.sender, request.tag, packets);
+		else replyCache.abandon(request.sender, request.tag);
+		
+		return packets;
+	}
+	
+	// letture e numero di righe vengono eseguite in parallelo, gli scambi (e sync) nell'ordine di arrivo per file.
+	// false se la richiesta è stata scartata (troppe richieste in attesa)
+	private static boolean submit(ClientRequest request, Runnable task) {
+		if(request.op == REQ_READ_LINE || request.op == REQ_READ_RANGE || request.op == REQ_LINE_COUNT)
+			return swaps.executeShared(request.fileName, task);
+		
+		return swaps.execute(request.fileName, task);
+	}
+	
+	// richiesta scartata prima dell'esecuzione (troppe richieste in attesa): un duplicato potrà essere eseguito
+	private static void discard(ClientRequest request) {
+		if(request.sender != null) replyCache.abandon(request.sender, request.tag);
+	}
+	
+	private static byte[][] run(ClientRequest request, InetAddress client) {
+		if(request.op == REQ_SWAP_BATCH) return frame(request, swapBatch(request, client));
+		if(request.op == REQ_READ_LINE || request.op == REQ_READ_RANGE) return read(request, client);
+		if(request.op == REQ_LINE_COUNT) return frame(request, lineCount(request.fileName, client));
+		
+		return frame(request, new byte[] { (request.op == REQ_SYNC) ? sync(request.fileName, client) : swap(request, client) });
+	}
+	
+	// risposta di un solo datagramma: nel formato binario il corpo segue l'header della richiesta
+	private static byte[][] frame(ClientRequest request, byte[] body) {
+		if(request.frame == 0) return new byte[][] { body };
+		
+		return new byte[][] { Frame.allocate(request.frame, request.tag, 0, 1, body.length).put(body).array() };
+	}
+	
+	// scambio delle righe index1 e index2 del file
+	private static byte swap(ClientRequest request, InetAddress client) {
+		String fileName = request.fileName;
+		long index1 = request.index1;
+		long index2 = request.index2;
+		
+		if(index1 == index2 || index1 <= 0 || index2 <= 0) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Sono state inserite delle linee non valide: gli indici inseriti devono essere positivi e differenti.");
+			return RESPONSE_ERR;
+		}
+		
+		// eventuale switch degli indici
+		if(index1 > index2) {
+			long indexTmp = index1;
+			index1 = index2;
+			index2 = indexTmp;
+		}
+		
+		try {
+			LineStore store = files.store(fileName);
+			if(store == null) {
+				byte flag = swapTmpFile(fileName, index1, index2, client);
+				invalidate(fileName, index1, index2);
+				return flag;
+			}
+			
+			store.swap(index1, index2);
+			invalidate(fileName, index1, index2);
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Sono state inserite delle linee non valide: " + e);
+			return RESPONSE_ERR;
+		}
+		
+		System.out.println("[SERVER RS_CLIENT] : scambio per il client " + client.getHostAddress() + " è stato effettuato correttamente.");
+		return RESPONSE_OK;
+	}
+	
+	// sequenza di scambi del file con una sola riscrittura, le coppie non valide vengono saltate
+	private static byte[] swapBatch(ClientRequest request, InetAddress client) {
+		SwapBatch batch = request.batch;
+		
+		try {
+			LineStore store = files.store(request.fileName);
+			if(store == null) swapTmpFileBatch(request.fileName, batch);
+			else store.apply(batch);
+			
+			System.out.println("[SERVER RS_CLIENT] : sequenza di " + batch.size() + " scambi per il client " + client.getHostAddress() + " effettuata (" + batch.appliedCount() + " eseguiti).");
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Non è stato possibile compiere la sequenza di scambi: " + e);
+			batch.applied().clear();
+		}
+		
+		// anche in caso di errore: il file può essere stato riscritto in parte
+		for(int i=0; i<batch.size(); i++)
+			invalidate(request.fileName, batch.first(i), batch.second(i));
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bout);
+		try {
+			out.writeByte((batch.appliedCount() == batch.size()) ? RESPONSE_OK : RESPONSE_ERR);
+			// nel formato binario l'identificativo è nell'header
+			if(request.frame == 0) out.writeInt((int) request.index1);
+			out.writeInt(batch.size());
+			out.write(Arrays.copyOf(batch.applied().toByteArray(), (batch.size() + 7) / 8));
+		} catch(IOException e) {
+			// non avviene con ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		
+		return bout.toByteArray();
+	}
+	
+	// righe index1..index1+index2-1 del file: quelle in cache vengono servite dalla memoria, ogni tratto mancante viene
+	// letto con una sola lettura e aggiunto alla cache
+	private static byte[][] read(ClientRequest request, InetAddress client) {
+		String fileName = request.fileName;
+		long from = request.index1;
+		int count = (int) Math.min(request.index2, MAX_READ_LINES);
+		
+		if(from <= 0 || count <= 0) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Sono state inserite delle linee non valide: gli indici inseriti devono essere positivi.");
+			return frame(request, new byte[] { RESPONSE_ERR });
+		}
+		
+		ArrayList<byte[]> res = new ArrayList<>();
+		int size = 0;
+		try {
+			LineStore store = files.store(fileName);
+			long lines = (store != null) ? store.lines() : tmpLineCount(fileName);
+			if(from > lines) throw new IOException("l'indice " + from + " non è presente nel file.");
+			
+			long to = Math.min(lines, from + count - 1);
+			long i = from;
+			while(i <= to) {
+				byte[] line = (lineCache != null) ? lineCache.get(fileName, i) : null;
+				byte[][] read = (line != null) ? new byte[][] { line }
+						: (store != null) ? store.read(i, (int) (to - i + 1), MAX_READ_BYTES - size) : readTmpFile(fileName, i, (int) (to - i + 1), MAX_READ_BYTES - size);
+				
+				long before = i;
+				for(byte[] l : read) {
+					if(size + l.length + 1 > MAX_READ_BYTES) break;
+					if(line == null && lineCache != null) lineCache.put(fileName, i, l);
+					
+					res.add(l);
+					size += l.length + 1;
+					i++;
+				}
+				
+				// limite di byte raggiunto
+				if(i == before || i - before < read.length) break;
+			}
+			
+			if(res.isEmpty()) throw new IOException("la riga " + from + " supera " + MAX_READ_BYTES + " byte.");
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Lettura del file " + fileName + " non riuscita: " + e);
+			return frame(request, new byte[] { RESPONSE_ERR });
+		}
+		
+		System.out.println("[SERVER RS_CLIENT] : lettura di " + res.size() + " righe di " + fileName + " per il client " + client.getHostAddress() + ".");
+		return readReply(request, res, size);
+	}
+	
+	// header [flag][righe][frammenti] e frammenti "i:" + dati, oppure nel formato binario un datagramma per frammento
+	// [header][flag][dati] con la numerazione nell'header (il numero di righe è quello dei "\n")
+	private static byte[][] readReply(ClientRequest request, List<byte[]> lines, int size) {
+		byte[] data = new byte[size];
+		int p = 0;
+		for(byte[] line : lines) {
+			System.arraycopy(line, 0, data, p, line.length);
+			p += line.length;
+			data[p++] = '\n';
+		}
+		
+		int frags = (data.length + READ_FRAGMENT_SIZE - 1) / READ_FRAGMENT_SIZE;
+		if(request.frame != 0) {
+			byte[][] packets = new byte[frags][];
+			for(int i=0; i<frags; i++) {
+				int from = i * READ_FRAGMENT_SIZE;
+				int length = Math.min(READ_FRAGMENT_SIZE, data.length - from);
+				
+				packets[i] = Frame.allocate(request.frame, request.tag, i, frags, 1 + length).put(RESPONSE_OK).put(data, from, length).array();
+			}
+			return packets;
+		}
+		
+		byte[][] packets = new byte[frags + 1][];
+		packets[0] = ByteBuffer.allocate(9).put(RESPONSE_OK).putInt(lines.size()).putInt(frags).array();
+		
+		for(int i=0; i<frags; i++) {
+			byte[] prefix = (i + ":").getBytes();
+			int from = i * READ_FRAGMENT_SIZE;
+			int length = Math.min(READ_FRAGMENT_SIZE, data.length - from);
+			
+			byte[] packet = Arrays.copyOf(prefix, prefix.length + length);
+			System.arraycopy(data, from, packet, prefix.length, length);
+			packets[i + 1] = packet;
+		}
+		
+		return packets;
+	}
+	
+	private static byte[] lineCount(String fileName, InetAddress client) {
+		try {
+			LineStore store = files.store(fileName);
+			long lines = (store != null) ? store.lines() : tmpLineCount(fileName);
+			
+			System.out.println("[SERVER RS_CLIENT] : numero di righe di " + fileName + " per il client " + client.getHostAddress() + ".");
+			return ByteBuffer.allocate(9).put(RESPONSE_OK).putLong(lines).array();
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Lettura del file " + fileName + " non riuscita: " + e);
+			return new byte[] { RESPONSE_ERR };
+		}
+	}
+	
+	// righe scambiate: il loro contenuto in cache non è più valido
+	private static void invalidate(String fileName, long index1, long index2) {
+		if(lineCache == null) return;
+		
+		lineCache.invalidate(fileName, index1);
+		lineCache.invalidate(fileName, index2);
+	}
+	
+	// scrittura su disco degli scambi già confermati del file (con i motori diversi da "memory" lo sono già, con "wal" il
+	// log viene riportato nel file)
+	private static byte sync(String fileName, InetAddress client) {
+		try {
+			LineStore store = files.store(fileName);
+			if(store != null) store.sync();
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Scrittura del file " + fileName + " non riuscita: " + e);
+			return RESPONSE_ERR;
+		}
+		
+		System.out.println("[SERVER RS_CLIENT] : Il file " + fileName + " è stato scritto su disco per il client " + client.getHostAddress() + ".");
+		return RESPONSE_OK;
+	}
+	
+	// scambio tramite file temporaneo (index1 < index2): una lettura per trovare le due righe, una per copiare il file
+	// sostituendole, poi il file viene sostituito. In memoria restano solo le due righe, qualunque sia la loro distanza
+	private static byte swapTmpFile(String fileName, long index1, long index2, InetAddress client) {
+		String path = "server/resources/" + fileName;
+		
+		try {
+			String line1 = null, line2 = null;
+			try(BufferedReader in = new BufferedReader(new FileReader(path))) {
+				String l;
+				long i = 0;
+				while(line2 == null && (l = in.readLine()) != null) {
+					if(++i == index1) line1 = l;
+					else if(i == index2) line2 = l;
+				}
+			}
+			
+			// se una delle due righe manca è stato raggiunto l'EOF prima degli indici passati
+			if(line1 == null) throw new IOException("l'indice " + index1 + " non è presente nel file.");
+			if(line2 == null) throw new IOException("l'indice " + index2 + " non è presente nel file.");
+			
+			try(BufferedReader in = new BufferedReader(new FileReader(path)); PrintWriter out = new PrintWriter(path + ".tmp.txt")) {
+				String l;
+				long i = 0;
+				while((l = in.readLine()) != null) {
+					i++;
+					out.println((i == index1) ? line2 : (i == index2) ? line1 : l);
+				}
+				
+				if(out.checkError()) throw new IOException("scrittura del file temporaneo non riuscita.");
+			}
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Sono state inserite delle linee non valide: " + e);
+			return RESPONSE_ERR;
+		}
+		
+		try {
+			Files.move(Paths.get(path + ".tmp.txt"), Paths.get(path), StandardCopyOption.REPLACE_EXISTING);
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_CLIENT] : Errore -> Non è stato possibile compiere l'operazione col file il file:\n\t" + e);
+			return RESPONSE_ERR;
+		}
+		
+		System.out.println("[SERVER RS_CLIENT] : scambio per il client " + client.getHostAddress() + " è stato effettuato correttamente.");
+		return RESPONSE_OK;
+	}
+	
+	// numero di righe con il motore "tmp", contate alla prima richiesta (gli scambi non lo cambiano)
+	private static long tmpLineCount(String fileName) throws IOException {
+		long count = (lineCache != null) ? lineCache.count(fileName) : -1;
+		if(count >= 0) return count;
+		
+		count = 0;
+		try(BufferedReader in = new BufferedReader(new FileReader("server/resources/" + fileName))) {
+			while(in.readLine() != null)
+				count++;
+		}
+		
+		if(lineCache != null) lineCache.putCount(fileName, count);
+		return count;
+	}
+	
+	// lettura riga per riga con il motore "tmp" (maxBytes -> byte dei dati, ogni riga conta anche il proprio "\n")
+	private static byte[][] readTmpFile(String fileName, long from, int count, int maxBytes) throws IOException {
+		ArrayList<byte[]> res = new ArrayList<>();
+		
+		try(BufferedReader in = new BufferedReader(new FileReader("server/resources/" + fileName))) {
+			for(long i=1; i<from; i++) {
+				if(in.readLine() == null) throw new IOException("l'indice " + from + " non è presente nel file.");
+			}
+			
+			String l;
+			int size = 0;
+			while(res.size() < count && (l = in.readLine()) != null) {
+				byte[] line = l.getBytes();
+				if(size + line.length + 1 > maxBytes) break;
+				
+				res.add(line);
+				size += line.length + 1;
+			}
+		}
+		
+		return res.toArray(new byte[0][]);
+	}
+	
+	// sequenza di scambi tramite file temporaneo: una lettura per contare le righe e tenere quelle citate dalle coppie,
+	// una per scrivere il file con le righe già al loro posto finale
+	private static void swapTmpFileBatch(String fileName, SwapBatch batch) throws IOException {
+		String path = "server/resources/" + fileName;
+		
+		HashSet<Long> used = new HashSet<>();
+		for(int i=0; i<batch.size(); i++) {
+			used.add(batch.first(i));
+			used.add(batch.second(i));
+		}
+		
+		HashMap<Long, String> sources = new HashMap<>();
+		long lines = 0;
+		try(BufferedReader in = new BufferedReader(new FileReader(path))) {
+			String l;
+			while((l = in.readLine()) != null) {
+				if(used.contains(++lines)) sources.put(lines, l);
+			}
+		}
+		
+		TreeMap<Long, Long> moves = batch.resolve(lines);
+		if(moves.isEmpty()) return;
+		
+		try(BufferedReader in = new BufferedReader(new FileReader(path)); PrintWriter out = new PrintWriter(path + ".tmp.txt")) {
+			String l;
+			long i = 0;
+			while((l = in.readLine()) != null) {
+				Long src = moves.get(++i);
+				out.println((src != null) ? sources.get(src) : l);
+			}
+			
+			if(out.checkError()) throw new IOException("scrittura del file temporaneo non riuscita.");
+		}
+		
+		Files.move(Paths.get(path + ".tmp.txt"), Paths.get(path), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	
+	
 	private static class RSServer_ThreadDS extends Thread {
 		
 		private DatagramSocket socket;
-		private String fileName;
 		
-		public RSServer_ThreadDS(DatagramSocket socket, String fileName) {
+		public RSServer_ThreadDS(DatagramSocket socket) {
 			this.socket = socket;			
-			this.fileName = fileName;
 		}
 		
 		
 		public void run() {			
 			
-			byte[] req = new byte[1];
+			// flag legacy oppure risposta nel formato binario [header][flag]
+			byte[] req = new byte[Frame.HEADER_LENGTH + 1];
 			byte[] res = new byte[MAX_FILE_LENGTH];
 			
-			ByteArrayInputStream bin = null;
-			DataInputStream din = null;
-			ByteArrayOutputStream bout = null;
-			DataOutputStream dout = null;
-			
 			DatagramPacket packetIn = new DatagramPacket(req, req.length);
 			DatagramPacket packetOut = new DatagramPacket(res, res.length, dsAddr, dsPort);
 			
-			// registrazione al Discovery Server comunicando il file
-			bout = new ByteArrayOutputStream();
-            dout = new DataOutputStream(bout);
+			// registrazione al Discovery Server comunicando il file (il primo, i successivi alla risposta del precedente)
             try {
-            	dout.writeByte(RESPONSE_SERVER_OPENING);
-    			dout.flush();
-    			res = bout.toByteArray();
-    				
-    			packetOut.setData(res);
-    			socket.send(packetOut);
-    			
-    			bout.reset();
-    			
-
-				dout.writeUTF("server/resources/" + fileName + ":" + rsPortClient);
-				dout.flush();
-				res = bout.toByteArray();
-				
-				packetOut.setData(res);
-				socket.send(packetOut);
-				
-				bout.reset();
+            	for(byte[] packet : firstRegistration()) {
+            		packetOut.setData(packet);
+            		socket.send(packetOut);
+            	}
 			} catch (IOException e) {
 				System.err.println("[SERVER RS_DS] : Errore -> Non è stato possibile comunicare il nome del file: " + e);
 				System.exit(4);
 			}
 			
-			System.out.println("[SERVER RS_DS] : Comunico al Discovery Server il file...");
+			System.out.println("[SERVER RS_DS] : Comunico al Discovery Server " + ((files.size() == 1) ? "il file..." : "i " + files.size() + " file..."));
 			
 			while(true) {
 				try {
@@ -188,26 +1085,14 @@ public class RowSwapServer {
 					}
 					
 					// se il pacchetto proviene dal Discovery Server allora viene elaborato, altimenti verrà gestito dall'altro thread
-					if(packetIn.getAddress().equals(dsAddr) && packetIn.getPort() == dsPort) {
-						System.out.println("[SERVER RS_DS] : Pacchetto ricevuto dal Discovery Server.");
-						
-						bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-						din = new DataInputStream(bin);
-						
-						byte flag = din.readByte();
-						if(flag == RESPONSE_SERVER_OPENING) {
-							isOn = true;
-							System.out.println("[SERVER RS_DS] : Registrazione al Discovery Server avvenuta correttamente.");
-							System.out.println("[SERVER RS_DS] : Il server è online.");
-							System.out.println("[SERVER RS_DS] : Inserisci \"Termina\" per de-registrare e terminare il server...\n");
-						} else if(flag == RESPONSE_SERVER_CLOSING) {
-							isOn = false;
-							System.out.println("[SERVER RS_DS] : Chiusura del Row Server.");
-							
-							System.exit(0);
-						} 
-						else throw new IOException((flag == RESPONSE_ERR) ? "non è stato possibile registrare/de-registrare il server." : "errore imprevisto.");						
-					
+					if(packetIn.getAddress().equals(dsAddr) && packetIn.getPort() == dsPort && packetIn.getLength() > 0) {
+						byte[][] next = handleDSResponse(ByteBuffer.wrap(packetIn.getData(), 0, packetIn.getLength()));
+						if(next != null) {
+							for(byte[] packet : next) {
+								packetOut.setData(packet);
+								socket.send(packetOut);
+							}
+						}
 					}
 					
 				} catch (IOException e) {
@@ -219,139 +1104,80 @@ public class RowSwapServer {
 	}
 
 
-	private static class RSServer_ThreadClient extends Thread {
+	private static class RSServer_ThreadHeartbeat extends Thread {
 		
 		private DatagramSocket socket;
-		private String fileName;
 		
-		public RSServer_ThreadClient(DatagramSocket socket, String fileName) {
+		public RSServer_ThreadHeartbeat(DatagramSocket socket) {
 			this.socket = socket;
-			this.fileName = fileName;
+			setDaemon(true);
 		}
 		
 		
 		public void run() {
 			
-			// dato che il formato della richiesta consiste in linea1:linea2, vi sono 18 byte suddivisi tra i due numeri
-			// 2 byte di intestazione UTF, 1 byte per ":" -> 21 - 2 - 1 = 18 byte di contenuto
-			byte[] req = new byte[21];
-			byte[] res = new byte[1];
-			
-			ByteArrayInputStream bin = null;
-			DataInputStream din = null;
-			ByteArrayOutputStream bout = null;
-			DataOutputStream dout = null;
-			
-			DatagramPacket packetIn = new DatagramPacket(req, req.length);
-			DatagramPacket packetOut = null;
+			DatagramPacket packetOut = new DatagramPacket(new byte[0], 0, dsAddr, dsPort);
 			
+			while(true) {
+				try {
+					Thread.sleep(leaseSeconds * 1000L / 3);
+					
+					// le risposte arrivano sulla stessa socket e vengono gestite da RSServer_ThreadDS
+					if(isOn && !registering) {
+						packetOut.setData(heartbeatPacket());
+						socket.send(packetOut);
+					}
+				} catch(InterruptedException e) {
+					return;
+				} catch(IOException e) {
+					System.err.println("[SERVER RS_HEARTBEAT] : Errore -> Socket non valida: " + e);
+				}
+			}
+		}
+	}
+
+
+	private static class RSServer_ThreadClient extends Thread {
+		
+		private DatagramSocket socket;
+		
+		public RSServer_ThreadClient(DatagramSocket socket) {
+			this.socket = socket;
+		}
+		
+		
+		public void run() {
 			
-			BufferedReader in = null;
-			PrintWriter out = null;
+			// richiesta legacy linea1:linea2 (21 byte), richiesta con il nome del file o frammento di una sequenza di scambi,
+			// eventualmente con identificativo
+			byte[] req = new byte[MAX_REQUEST_LENGTH];
 			
-			int index1, index2;
-			byte flag;
+			DatagramPacket packetIn = new DatagramPacket(req, req.length);
 			
 			while(true) {
 				try {
 					socket.receive(packetIn);					
 					
 					if(!(packetIn.getAddress().equals(dsAddr) && packetIn.getPort() == dsPort)) {
-						packetOut = new DatagramPacket(res, res.length, packetIn.getAddress(), packetIn.getPort());
+						InetAddress client = packetIn.getAddress();
+						SocketAddress sender = packetIn.getSocketAddress();
 						
-						bout = new ByteArrayOutputStream();
-			            dout = new DataOutputStream(bout);
-						
-						if(isOn) {
-							index1 = -1; index2 = -1;
-							flag = RESPONSE_OK;
-							
-							bin = new ByteArrayInputStream(packetIn.getData(), 0, packetIn.getLength());
-							din = new DataInputStream(bin);
-							
-							String[] indexes = din.readUTF().split(":");
-							if(indexes.length == 2) {
-								try {
-					            	index1 = Integer.parseInt(indexes[0]);
-					            	index2 = Integer.parseInt(indexes[1]);
-					            	
-					            	if(index1 == index2 || index1 <= 0 || index2 <= 0) throw new NumberFormatException("gli indici inseriti devono essere positivi e differenti.");
-					            } catch(NumberFormatException e) {
-					            	System.err.println("[SERVER RS_CLIENT] : Errore -> Sono state inserite delle linee non valide: " + e);
-					            	flag = RESPONSE_ERR;
-					            }
-					            
-					            // eventuale switch degli indici
-					            if(index1 > index2) {
-									int indexTmp = index1;
-									index1 = index2;
-									index2 = indexTmp;
-								}
-					            
-					            
-					            // scambio delle righe
-								try {
-									in = new BufferedReader(new FileReader("server/resources/" + fileName));
-									out = new PrintWriter("server/resources/" + fileName + ".tmp.txt");
-									
-									// se viene lanciata l'eccezione IOException è stato raggiunto l'EOF prima degli indici passati
-									String l = null;
-									int i = 1;
-									for(; i<index1; i++) {
-										if((l = in.readLine()) != null) out.println(l);
-										else throw new IOException("l'indice " + index1 + " non è presente nel file.");
-									}							
-									
-									String line = in.readLine();
-									StringBuilder txtBetween = new StringBuilder();
-									
-									for(i=index1; i<index2-1; i++) {
-										if((l = in.readLine()) != null) txtBetween.append(l).append("\n");
-										else throw new IOException("l'indice " + index2 + " non è presente nel file.");
-									}
-									
-									if((l = in.readLine()) != null)
-										out.println(l);
-									
-									out.print(txtBetween.toString());
-									out.println(line);
-									
-									while((line = in.readLine()) != null)
-										out.println(line);
-									
-									
-									in.close();
-									out.close();
-									
-									try {
-										Files.move(Paths.get("server/resources/" + fileName + ".tmp.txt"), Paths.get("server/resources/" + fileName), StandardCopyOption.REPLACE_EXISTING);
-									} catch(IOException e) {
-										System.err.println("[SERVER RS_CLIENT] : Errore -> Non è stato possibile compiere l'operazione col file il file:\n\t" + e);
-						            	flag = RESPONSE_ERR;
-									}									
-								
-									System.out.println("[SERVER RS_CLIENT] : scambio per il client " + packetIn.getAddress().getHostAddress() + " è stato effettuato correttamente.");
-								} catch(IOException e) {								
-									System.err.println("[SERVER RS_CLIENT] : Errore -> Sono state inserite delle linee non valide: " + e);
-					            	flag = RESPONSE_ERR;
-								} finally {
-									if(in != null) in.close();
-								}
-							} else flag = RESPONSE_ERR;
-				            	    				            
-						} else {
+						if(!isOn) {
 							System.err.println("[SERVER RS_CLIENT] : Errore -> Un pacchetto ha provato a comunicare col server non ancora registrato.");
-							flag = RESPONSE_SERVER_OFFLINE;
+							reply(new byte[][] { offline(ByteBuffer.wrap(packetIn.getData(), 0, packetIn.getLength())) }, sender);
+							continue;
 						}
 						
-						dout.writeByte(flag);
-						dout.flush();
-						
-						res = bout.toByteArray();
-						packetOut.setData(res);
-						socket.send(packetOut);
+						// la richiesta viene decodificata qui, così il buffer di ricezione può essere riutilizzato subito
+						ClientRequest request = parseRequest(packetIn.getData(), packetIn.getLength(), sender);
+						if(request == INCOMPLETE) continue;
 						
-						bout.reset();
+						if(request == null) reply(RESPONSE_ERR, sender);
+						else if(swaps == null || request.op == REPLAY) reply(execute(request, client), sender);
+						else if(!submit(request, () -> replyFromWorker(execute(request, client), sender))) {
+							System.err.println("[SERVER RS_CLIENT] : Errore -> Troppe richieste in attesa, richiesta di " + client.getHostAddress() + " scartata.");
+							discard(request);
+						}
 					}
 					
 				} catch (IOException e) {
@@ -360,12 +1186,32 @@ public class RowSwapServer {
 				}
 			}
 		}
+		
+		// DatagramSocket.send è thread-safe: i worker rispondono direttamente al termine di ogni scambio
+		private void reply(byte[][] packets, SocketAddress target) throws IOException {
+			for(byte[] data : packets)
+				socket.send(new DatagramPacket(data, data.length, target));
+		}
+		
+		private void reply(byte flag, SocketAddress target) throws IOException {
+			reply(new byte[][] { { flag } }, target);
+		}
+		
+		private void replyFromWorker(byte[][] packets, SocketAddress target) {
+			try {
+				reply(packets, target);
+			} catch (IOException e) {
+				System.err.println("[SERVER RS_CLIENT] : Errore -> Invio della risposta non riuscito: " + e);
+			}
+		}
 	}
 
 
 	private static class RSServer_ThreadStdin extends Thread {
 		
 		private DatagramSocket socket;
+		// con il motore NIO la de-registrazione viene inviata dall'event loop, che possiede il canale
+		private RSServer_Nio nio;
 		
 		private BufferedReader in = null;
 		
@@ -375,14 +1221,17 @@ public class RowSwapServer {
 			in = new BufferedReader(new InputStreamReader(System.in));
 		}
 		
+		public RSServer_ThreadStdin(RSServer_Nio nio) {
+			this.nio = nio;
+			
+			in = new BufferedReader(new InputStreamReader(System.in));
+		}
+		
 		
 		public void run() {
 			
 			byte[] res = new byte[1];
 			
-			ByteArrayOutputStream bout = null;
-			DataOutputStream dout = null;
-			
 			DatagramPacket packetOut = new DatagramPacket(res, res.length, dsAddr, dsPort);
 
 			String cmd = null;
@@ -392,28 +1241,14 @@ public class RowSwapServer {
 						throw new IOException("Non è possibile leggere da console.");
 					} else if(cmd.trim().equals("Termina")) {
 						try {
-							bout = new ByteArrayOutputStream();
-				            dout = new DataOutputStream(bout);
-
-				            // invio del comando
-							dout.writeByte(RESPONSE_SERVER_CLOSING);
-							dout.flush();
-							res = bout.toByteArray();
-								
-							packetOut.setData(res);
-							socket.send(packetOut);
-							
-							bout.reset();
-							
-							// invio del numero di porta
-							dout.writeInt(rsPortClient);
-							dout.flush();
-							res = bout.toByteArray();
-								
-							packetOut.setData(res);
-							socket.send(packetOut);
-							
-							bout.reset();
+							if(nio != null) nio.requestClosing();
+							else {
+								// invio del comando e del numero di porta
+								for(byte[] packet : closingPackets()) {
+									packetOut.setData(packet);
+									socket.send(packetOut);
+								}
+							}
 							
 							System.out.println("[SERVER RS_CONSOLE] : Comunico al Discovery Server la terminazione del server.");
 							break;
@@ -429,5 +1264,212 @@ public class RowSwapServer {
 			}			
 		}
 	}
-}
-
+	
+	
+	// Motore di I/O alternativo (-Dsns.io=nio): un unico event loop basato su Selector serve sia la socket verso il
+	// Discovery Server sia quella dei Client, leggendo in ByteBuffer diretti riutilizzati e decodificando gli indici sul posto.
+	// L'unica allocazione per richiesta rimane quella dello scambio su file.
+	private static class RSServer_Nio extends Thread {
+		
+		private final DatagramChannel channelDS;
+		private final DatagramChannel channelClient;
+		private final Selector selector;
+		
+		private final BufferPool pool = new BufferPool(NIO_BUFFERS, NIO_BUFFER_SIZE);
+		
+		private final DatagramOutbox outDS;
+		private final DatagramOutbox outClient;
+		
+		private final InetSocketAddress ds;
+		
+		// impostato dal thread della console, letto dall'event loop dopo la wakeup
+		private volatile boolean closing = false;
+		
+		// risposte degli scambi eseguiti dai worker: il canale appartiene all'event loop, che le invia dopo la wakeup
+		private final ConcurrentLinkedQueue<Reply> replies = new ConcurrentLinkedQueue<>();
+		
+		private static final class Reply {
+			final byte[][] packets;
+			final SocketAddress target;
+			
+			Reply(byte[][] packets, SocketAddress target) {
+				this.packets = packets;
+				this.target = target;
+			}
+		}
+		
+		public RSServer_Nio(int rsPortDS) throws IOException {
+			ds = new InetSocketAddress(dsAddr, dsPort);
+			
+			selector = Selector.open();
+			
+			channelDS = DatagramChannel.open().bind(new InetSocketAddress(rsPortDS));
+			channelDS.configureBlocking(false);
+			
+			channelClient = DatagramChannel.open().bind(new InetSocketAddress(0));
+			channelClient.configureBlocking(false);
+			rsPortClient = ((InetSocketAddress) channelClient.getLocalAddress()).getPort();
+			
+			outDS = new DatagramOutbox("SERVER RS_NIO", channelDS, channelDS.register(selector, SelectionKey.OP_READ), pool);
+			outClient = new DatagramOutbox("SERVER RS_NIO", channelClient, channelClient.register(selector, SelectionKey.OP_READ), pool);
+		}
+		
+		public void requestClosing() {
+			closing = true;
+			selector.wakeup();
+		}
+		
+		
+		public void run() {
+			
+			ByteBuffer req = pool.acquire();
+			
+			try {
+				// registrazione al Discovery Server comunicando il file (il primo, i successivi alla risposta del precedente)
+				for(byte[] packet : firstRegistration())
+					outDS.send(packet, ds);
+				
+				System.out.println("[SERVER RS_NIO] : Comunico al Discovery Server " + ((files.size() == 1) ? "il file..." : "i " + files.size() + " file..."));
+			} catch (IOException e) {
+				System.err.println("[SERVER RS_NIO] : Errore -> Non è stato possibile comunicare il nome del file: " + e);
+				System.exit(4);
+			}
+			
+			long heartbeatNanos = TimeUnit.SECONDS.toNanos(leaseSeconds) / 3;
+			long nextHeartbeat = System.nanoTime() + heartbeatNanos;
+			
+			while(true) {
+				try {
+					if(leaseSeconds > 0) {
+						long wait = TimeUnit.NANOSECONDS.toMillis(nextHeartbeat - System.nanoTime());
+						if(wait > 0) selector.select(wait);
+						else selector.selectNow();
+						
+						if(System.nanoTime() - nextHeartbeat >= 0) {
+							if(isOn && !registering)
+								outDS.send(heartbeatPacket(), ds);
+							nextHeartbeat += heartbeatNanos;
+						}
+					} else selector.select();
+					
+					if(closing) {
+						closing = false;
+						for(byte[] packet : closingPackets())
+							outDS.send(packet, ds);
+					}
+					
+					Reply reply;
+					while((reply = replies.poll()) != null) {
+						for(byte[] packet : reply.packets)
+							outClient.send(packet, reply.target);
+					}
+					
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						
+						boolean isDS = key.channel() == channelDS;
+						
+						if(key.isValid() && key.isWritable())
+							(isDS ? outDS : outClient).flush();
+						
+						if(key.isValid() && key.isReadable()) {
+							SocketAddress sender;
+							while((sender = ((DatagramChannel) key.channel()).receive(req)) != null) {
+								req.flip();
+								
+								if(isDS) {
+									// se il pacchetto non proviene dal Discovery Server viene ignorato, come nel motore a thread
+									byte[][] next = (sender.equals(ds) && req.hasRemaining()) ? handleDSResponse(req) : null;
+									if(next != null) {
+										for(byte[] packet : next)
+											outDS.send(packet, ds);
+									}
+								} else if(!sender.equals(ds)) {
+									handleClient(req, sender);
+								}
+								
+								req.clear();
+							}
+						}
+					}
+				} catch (IOException e) {
+					System.err.println("[SERVER RS_NIO] : Errore -> Impossibile compiere l'operazione: " + e);
+					System.exit(6);
+				}
+			}
+		}
+		
+		
+		// le risposte immediate (server offline, richiesta non valida) vengono inviate dall'event loop anche mentre i worker
+		// eseguono gli scambi
+		private void handleClient(ByteBuffer req, SocketAddress sender) throws IOException {
+			InetAddress client = ((InetSocketAddress) sender).getAddress();
+			
+			if(!isOn) {
+				System.err.println("[SERVER RS_NIO] : Errore -> Un pacchetto ha provato a comunicare col server non ancora registrato.");
+				outClient.send(offline(req), sender);
+				return;
+			}
+			
+			ClientRequest request = parseClient(req, client, sender);
+			if(request == INCOMPLETE) return;
+			
+			if(request == null) outClient.send(RESPONSE_ERR, sender);
+			else if(swaps == null || request.op == REPLAY) {
+				for(byte[] packet : execute(request, client))
+					outClient.send(packet, sender);
+			}
+			else if(!submit(request, () -> {
+				replies.add(new Reply(execute(request, client), sender));
+				selector.wakeup();
+			})) {
+				System.err.println("[SERVER RS_NIO] : Errore -> Troppe richieste in attesa, richiesta di " + client.getHostAddress() + " scartata.");
+				discard(request);
+			}
+		}
+		
+		// richiesta writeUTF("index1:index2") decodificata direttamente dal buffer (indici fino a 18 cifre), null se non valida
+		private ClientRequest parseClient(ByteBuffer req, InetAddress client, SocketAddress sender) {
+			// formato binario: decodifica direttamente dal buffer diretto, senza copia
+			if(Frame.is(req)) return parseFrame(req, sender);
+			
+			// richiesta con codice operativo: decodifica condivisa con il motore a thread
+			if(req.hasRemaining() && req.get(0) != 0) {
+				byte[] data = new byte[req.remaining()];
+				req.get(data);
+				
+				return parseRequest(data, data.length, sender);
+			}
+			
+			int end = (req.remaining() < 2) ? -1 : 2 + (req.getShort(0) & 0xFFFF);
+			if(end < 0 || end > req.remaining()) {
+				System.err.println("[SERVER RS_NIO] : Errore -> Ricevuto pacchetto malformato da " + client.getHostAddress());
+				return null;
+			}
+			
+			long index1 = 0, index2 = 0;
+			int colon = -1;
+			for(int i=2; i<end; i++) {
+				byte c = req.get(i);
+				
+				if(c == ':' && colon < 0) colon = i;
+				else if(c >= '0' && c <= '9' && (i - (colon < 0 ? 2 : colon + 1)) < 18) {
+					if(colon < 0) index1 = index1 * 10 + (c - '0');
+					else index2 = index2 * 10 + (c - '0');
+				} else {
+					colon = -1;
+					break;
+				}
+			}
+			
+			if(colon < 0 || colon == 2 || colon == end - 1) {
+				System.err.println("[SERVER RS_NIO] : Errore -> Sono state inserite delle linee non valide.");
+				return null;
+			}
+			
+			return new ClientRequest(REQ_SWAP_FILE, files.first(), index1, index2);
+		}
+	}
+}
\ No newline at end of file
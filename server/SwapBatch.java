@@ -0,0 +1,86 @@
+package server;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+// Sequenza di scambi sullo stesso file inviata con una sola richiesta (REQ_SWAP_BATCH).
+// Gli scambi vengono applicati nell'ordine in cui compaiono: invece di riscrivere il file una volta per coppia, resolve()
+// compone le coppie in un'unica permutazione (posizione -> riga originale da scriverci) e il motore riscrive il file una
+// sola volta. Una coppia non valida (indici uguali, non positivi o oltre la fine del file) viene saltata senza effetto
+// sulle altre; applied() indica quali coppie sono state eseguite. Gli indici sono a 64 bit, come quelli degli scambi singoli.
+final class SwapBatch {
+
+	private final long[] first;
+	private final long[] second;
+
+	private final BitSet applied = new BitSet();
+
+
+	public SwapBatch(long[] first, long[] second) {
+		if(first.length != second.length)
+			throw new IllegalArgumentException(first.length + "/" + second.length);
+
+		this.first = first;
+		this.second = second;
+	}
+
+
+	public int size() {
+		return first.length;
+	}
+
+	public long first(int i) {
+		return first[i];
+	}
+
+	public long second(int i) {
+		return second[i];
+	}
+
+	public BitSet applied() {
+		return applied;
+	}
+
+	public int appliedCount() {
+		return applied.cardinality();
+	}
+
+	// indice più alto usato dalle coppie, per controllare il numero di righe una sola volta
+	public long maxIndex() {
+		long max = 0;
+		for(int i=0; i<first.length; i++)
+			max = Math.max(max, Math.max(first[i], second[i]));
+
+		return max;
+	}
+
+
+	// lines -> righe del file. Restituisce, in ordine di posizione, solo le posizioni la cui riga cambia
+	public TreeMap<Long, Long> resolve(long lines) {
+		applied.clear();
+
+		HashMap<Long, Long> source = new HashMap<>();
+		for(int i=0; i<first.length; i++) {
+			long a = first[i];
+			long b = second[i];
+			if(a == b || a <= 0 || b <= 0 || a > lines || b > lines)
+				continue;
+
+			Long sa = source.getOrDefault(a, a);
+			Long sb = source.getOrDefault(b, b);
+			source.put(a, sb);
+			source.put(b, sa);
+			applied.set(i);
+		}
+
+		TreeMap<Long, Long> moves = new TreeMap<>();
+		for(Map.Entry<Long, Long> e : source.entrySet())
+			if(!e.getKey().equals(e.getValue()))
+				moves.put(e.getKey(), e.getValue());
+
+		return moves;
+	}
+}
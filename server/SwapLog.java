@@ -0,0 +1,194 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+// Log degli scambi (write-ahead log) di un file del motore "wal", accanto al file stesso (nome + SUFFIX).
+// Ogni scambio confermato viene prima aggiunto in coda al log e reso durevole (una piccola scrittura sequenziale più fsync),
+// mentre il file dei dati viene riscritto solo al checkpoint (la scrittura di LineModel). Record:
+// - scambi    -> [byte ENTRY][long seq][short n][n x (int a, int b)][int crc]  (uno scambio o una sequenza, atomica)
+// - checkpoint -> [byte CHECKPOINT][long seq][int crc del file][int crc]
+// Il marcatore di checkpoint viene scritto prima di sostituire il file dei dati e indica il CRC del nuovo contenuto:
+// dopo un arresto anomalo, se il file ha quel CRC la sostituzione è avvenuta e vanno rieseguiti solo gli scambi successivi
+// a seq, altrimenti il file è ancora quello precedente (gli scambi non sono idempotenti, quindi non si può rieseguire tutto).
+// Dopo la sostituzione il log viene riscritto con i soli scambi successivi al checkpoint (o cancellato se non ce ne sono).
+// Un record incompleto o con CRC errato in coda (scrittura interrotta) chiude il log: quelli successivi vengono ignorati.
+// Usato sempre con il lock del LineModel a cui appartiene.
+final class SwapLog {
+
+	public final static String SUFFIX = ".wal";
+
+	private final static byte ENTRY = 1;
+	private final static byte CHECKPOINT = 2;
+
+
+	// record già decodificato
+	static final class Record {
+		final boolean checkpoint;
+		final long seq;
+		// ENTRY: coppie (a0, b0, a1, b1, ...), CHECKPOINT: null
+		final int[] pairs;
+		final int fileCrc;
+
+		Record(boolean checkpoint, long seq, int[] pairs, int fileCrc) {
+			this.checkpoint = checkpoint;
+			this.seq = seq;
+			this.pairs = pairs;
+			this.fileCrc = fileCrc;
+		}
+	}
+
+
+	private final Path path;
+	// aperto alla prima scrittura e chiuso quando il log viene cancellato, così un file senza scambi da scrivere non
+	// occupa un descrittore
+	private FileChannel channel = null;
+
+
+	public SwapLog(Path data) {
+		this.path = data.resolveSibling(data.getFileName() + SUFFIX);
+	}
+
+
+	public boolean exists() {
+		return Files.exists(path);
+	}
+
+	// pairs -> coppie (a0, b0, a1, b1, ...), restituisce dopo l'fsync del log
+	public void append(long seq, int[] pairs) throws IOException {
+		write(entry(seq, pairs));
+	}
+
+	public void checkpoint(long seq, int fileCrc) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(17);
+		DataOutputStream out = new DataOutputStream(bout);
+		out.writeByte(CHECKPOINT);
+		out.writeLong(seq);
+		out.writeInt(fileCrc);
+
+		write(seal(bout));
+	}
+
+	// record validi del log, nell'ordine di scrittura
+	public List<Record> read() throws IOException {
+		ArrayList<Record> records = new ArrayList<>();
+		if(!exists()) return records;
+
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+		while(buf.remaining() >= 13) {
+			int start = buf.position();
+			byte type = buf.get();
+			long seq = buf.getLong();
+
+			Record record;
+			if(type == ENTRY) {
+				int n = buf.getShort() & 0xFFFF;
+				if(buf.remaining() < 8 * n + 4) break;
+
+				int[] pairs = new int[2 * n];
+				for(int i=0; i<pairs.length; i++)
+					pairs[i] = buf.getInt();
+				record = new Record(false, seq, pairs, 0);
+			} else if(type == CHECKPOINT) {
+				if(buf.remaining() < 8) break;
+				record = new Record(true, seq, null, buf.getInt());
+			} else break;
+
+			CRC32 crc = new CRC32();
+			crc.update(buf.array(), start, buf.position() - start);
+			if(buf.getInt() != (int) crc.getValue()) break;
+
+			records.add(record);
+		}
+
+		return records;
+	}
+
+	// dopo un checkpoint: il log viene sostituito da uno con i soli scambi successivi a seq, oppure cancellato
+	public void truncate(long seq) throws IOException {
+		ByteArrayOutputStream kept = new ByteArrayOutputStream();
+		for(Record record : read())
+			if(!record.checkpoint && record.seq > seq) kept.write(entry(record.seq, record.pairs));
+
+		close();
+
+		if(kept.size() == 0) Files.deleteIfExists(path);
+		else {
+			Path tmp = path.resolveSibling(path.getFileName() + ".tmp.txt");
+			try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				write(out, kept.toByteArray());
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		syncDirectory(path);
+	}
+
+	public void close() throws IOException {
+		if(channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+
+	private void write(byte[] record) throws IOException {
+		boolean created = false;
+		if(channel == null) {
+			created = !Files.exists(path);
+			channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+
+		write(channel, record);
+		if(created) syncDirectory(path);
+	}
+
+	private static void write(FileChannel out, byte[] data) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		while(buf.hasRemaining())
+			out.write(buf);
+		out.force(false);
+	}
+
+	private static byte[] entry(long seq, int[] pairs) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(15 + 4 * pairs.length);
+		DataOutputStream out = new DataOutputStream(bout);
+		out.writeByte(ENTRY);
+		out.writeLong(seq);
+		out.writeShort(pairs.length / 2);
+		for(int x : pairs)
+			out.writeInt(x);
+
+		return seal(bout);
+	}
+
+	// aggiunge il CRC del record
+	private static byte[] seal(ByteArrayOutputStream record) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record.toByteArray());
+		new DataOutputStream(record).writeInt((int) crc.getValue());
+
+		return record.toByteArray();
+	}
+
+	// rende durevoli creazioni, rename e cancellazioni nella cartella del file (dove il sistema lo permette)
+	static void syncDirectory(Path file) {
+		Path dir = file.toAbsolutePath().getParent();
+		try(FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch(IOException e) {
+			// non supportato (es. Windows): il rename resta affidato al file system
+		}
+	}
+}
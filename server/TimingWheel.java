@@ -0,0 +1,125 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+
+// Timing wheel "hashed" per la scadenza dei lease.
+// La ruota ha wheelSize slot da tickMillis ciascuno: un elemento con scadenza a n tick finisce nello slot n % wheelSize
+// con (n / wheelSize) giri da attendere. A ogni tick viene esaminato un solo slot, quindi il costo non dipende dal numero
+// totale di elementi ma solo da quanti scadono (o completano un giro) in quel tick.
+// I rinnovi non toccano la ruota: quando l'elemento arriva al suo slot si rilegge la scadenza tramite l'Handler e,
+// se nel frattempo è stata prorogata, l'elemento viene semplicemente ricollocato.
+final class TimingWheel<T> {
+
+	public interface Handler<T> {
+		// scadenza attuale dell'elemento (System.nanoTime)
+		long deadline(T item);
+
+		// chiamato dal thread della ruota quando la scadenza è stata superata
+		void expire(T item);
+	}
+
+
+	private static final class Timeout<T> {
+		final T item;
+		long rounds;
+
+		Timeout(T item, long rounds) {
+			this.item = item;
+			this.rounds = rounds;
+		}
+	}
+
+
+	private final long tickNanos;
+	private final int mask;
+	private final ArrayList<ArrayList<Timeout<T>>> slots;
+	private final Handler<T> handler;
+
+	// gli inserimenti arrivano da altri thread e vengono collocati nella ruota solo dal suo thread
+	private final ConcurrentLinkedQueue<T> pending = new ConcurrentLinkedQueue<>();
+
+	private final long start = System.nanoTime();
+	private long tick = 0;
+
+
+	// wheelSize deve essere una potenza di 2
+	public TimingWheel(long tickMillis, int wheelSize, Handler<T> handler) {
+		if(Integer.bitCount(wheelSize) != 1)
+			throw new IllegalArgumentException("wheelSize deve essere una potenza di 2: " + wheelSize);
+
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.mask = wheelSize - 1;
+		this.handler = handler;
+
+		slots = new ArrayList<>(wheelSize);
+		for(int i=0; i<wheelSize; i++)
+			slots.add(new ArrayList<>());
+	}
+
+
+	public void start(String name) {
+		Thread thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// thread-safe: la scadenza viene letta tramite l'Handler al momento dell'inserimento effettivo
+	public void schedule(T item) {
+		pending.add(item);
+	}
+
+
+	private void run() {
+		while(true) {
+			long sleep = start + (tick + 1) * tickNanos - System.nanoTime();
+			if(sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch(InterruptedException e) {
+					return;
+				}
+			}
+
+			expireSlot(System.nanoTime());
+			tick++;
+
+			T item;
+			while((item = pending.poll()) != null)
+				place(item, handler.deadline(item), tick);
+		}
+	}
+
+	private void expireSlot(long now) {
+		ArrayList<Timeout<T>> slot = slots.get((int) (tick & mask));
+		if(slot.isEmpty()) return;
+
+		ArrayList<Timeout<T>> due = new ArrayList<>();
+
+		int kept = 0;
+		for(Timeout<T> t : slot) {
+			if(t.rounds > 0) {
+				t.rounds--;
+				slot.set(kept++, t);
+			} else due.add(t);
+		}
+		slot.subList(kept, slot.size()).clear();
+
+		for(Timeout<T> t : due) {
+			long deadline = handler.deadline(t.item);
+
+			if(deadline - now > 0) place(t.item, deadline, tick + 1); // lease rinnovato nel frattempo
+			else handler.expire(t.item);
+		}
+	}
+
+	// next -> primo tick non ancora esaminato
+	private void place(T item, long deadline, long next) {
+		long ticks = Math.max((deadline - start + tickNanos - 1) / tickNanos, next);
+
+		long rounds = (ticks - next) / slots.size();
+		slots.get((int) (ticks & mask)).add(new Timeout<>(item, rounds));
+	}
+}
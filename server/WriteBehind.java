@@ -0,0 +1,127 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+// Politica di scrittura su disco del motore "memory" (vedi LineModel):
+// - "op"       -> ogni scambio viene scritto prima della risposta al Client (nessun thread di scrittura)
+// - "group"    -> un file viene scritto quando accumula flushOps scambi oppure quando il più vecchio scambio non scritto
+//                 ha più di flushMillis millisecondi
+// - "periodic" -> ogni flushMillis millisecondi vengono scritti tutti i file modificati
+// In ogni caso un Client può chiedere la scrittura immediata di un file (REQ_SYNC) e alla chiusura del server vengono
+// scritti tutti i file. Uno scambio confermato e non ancora scritto va perso se il processo termina in modo anomalo.
+// I file con scambi da scrivere restano qui anche se RSFiles li scarta dalla propria LRU: un nuovo caricamento dello
+// stesso file riprende la copia in memoria invece di rileggere dal disco uno stato vecchio.
+// Con il log (motore "wal") uno scambio confermato non va perso nemmeno in caso di arresto anomalo: la politica decide
+// solo quando il log viene riportato nel file (checkpoint).
+final class WriteBehind {
+
+	public final static String POLICY_OP = "op";
+	public final static String POLICY_GROUP = "group";
+	public final static String POLICY_PERIODIC = "periodic";
+
+
+	private final String policy;
+	private final int flushOps;
+	private final long flushNanos;
+	private final boolean logged;
+
+	private final ConcurrentHashMap<Path, LineModel> dirty = new ConcurrentHashMap<>();
+	// file che hanno raggiunto flushOps scambi (politica "group")
+	private final LinkedBlockingQueue<LineModel> requested = new LinkedBlockingQueue<>();
+
+
+	public WriteBehind(String policy, int flushOps, long flushMillis, boolean logged) {
+		if(!policy.equals(POLICY_OP) && !policy.equals(POLICY_GROUP) && !policy.equals(POLICY_PERIODIC))
+			throw new IllegalArgumentException(policy);
+		if(flushOps < 1 || flushMillis < 1)
+			throw new IllegalArgumentException(flushOps + "/" + flushMillis);
+
+		this.policy = policy;
+		this.flushOps = flushOps;
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+		this.logged = logged;
+	}
+
+
+	public void start() {
+		if(policy.equals(POLICY_OP)) return;
+
+		Thread flusher = new Thread(this::run, "RS_FLUSH");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	public LineStore load(Path path) throws IOException {
+		LineModel model = dirty.get(path);
+		return (model != null) ? model : new LineModel(path, this, logged);
+	}
+
+	// scrive tutti i file modificati, restituisce il numero di file non scritti a causa di un errore
+	public int flushAll() {
+		int failed = 0;
+		for(LineModel model : dirty.values())
+			if(!flush(model)) failed++;
+
+		return failed;
+	}
+
+
+	// chiamati da LineModel con il proprio lock
+	void markDirty(LineModel model) {
+		dirty.put(model.path(), model);
+	}
+
+	void markClean(LineModel model) {
+		dirty.remove(model.path(), model);
+	}
+
+	// dopo ogni scambio (o sequenza di scambi): before/after -> scambi del file non ancora scritti prima e dopo
+	void swapped(LineModel model, int before, int after) throws IOException {
+		if(policy.equals(POLICY_OP)) model.flush();
+		else if(policy.equals(POLICY_GROUP) && after / flushOps > before / flushOps) requested.add(model);
+	}
+
+
+	private void run() {
+		// i file vengono controllati più spesso di flushMillis, così uno scambio non resta da scrivere molto più a lungo
+		long tickNanos = Math.max(flushNanos / 4, TimeUnit.MILLISECONDS.toNanos(10));
+		long nextPeriodic = System.nanoTime() + flushNanos;
+
+		while(true) {
+			LineModel model;
+			try {
+				model = requested.poll(tickNanos, TimeUnit.NANOSECONDS);
+			} catch(InterruptedException e) {
+				return;
+			}
+
+			if(model != null) flush(model);
+
+			long now = System.nanoTime();
+			if(policy.equals(POLICY_PERIODIC)) {
+				if(now - nextPeriodic >= 0) {
+					flushAll();
+					nextPeriodic = now + flushNanos;
+				}
+			} else {
+				for(LineModel m : dirty.values())
+					if(m.dirtyFor(now, flushNanos)) flush(m);
+			}
+		}
+	}
+
+	private static boolean flush(LineModel model) {
+		try {
+			model.flush();
+			return true;
+		} catch(IOException e) {
+			System.err.println("[SERVER RS_FLUSH] : Errore -> Scrittura del file " + model.path() + " non riuscita: " + e);
+			return false;
+		}
+	}
+}